@@ -279,10 +279,19 @@ public class FFMediaRecordPresenter implements PreviewCallback, FFAudioRecorder.
 
     @Override
     public void onPreviewFrame(byte[] data) {
-        if (mMediaRecorder != null && mIsRecording) {
-            mHandler.post(() -> mMediaRecorder.recordVideoFrame(data, data.length,
-                    mRecordWidth, mRecordHeight,
-                    AVFormatter.PIXEL_FORMAT_NV21));
+        // 录制完成后才把缓冲交还给相机，缓冲不足时丢弃当前帧
+        if (mMediaRecorder != null && mIsRecording && mCameraController.retainPreviewBuffer(data)) {
+            mHandler.post(() -> {
+                try {
+                    if (mMediaRecorder != null) {
+                        mMediaRecorder.recordVideoFrame(data, data.length,
+                                mRecordWidth, mRecordHeight,
+                                AVFormatter.PIXEL_FORMAT_NV21);
+                    }
+                } finally {
+                    mCameraController.releasePreviewBuffer(data);
+                }
+            });
         }
     }
 
@@ -373,7 +382,7 @@ public class FFMediaRecordPresenter implements PreviewCallback, FFAudioRecorder.
                 }
             }
             String finalPath = generateOutputPath();
-            mCommandEditor.execCommand(CainCommandEditor.concatVideo(mActivity, videos, finalPath),
+            mCommandEditor.concatVideo(mActivity, videos, finalPath,
                     (result) -> {
                         mFragment.hideProgressDialog();
                         if (result == 0) {
@@ -63,11 +63,6 @@ public class RecordPresenter implements OnSurfaceTextureListener, OnFrameAvailab
     // 视频列表
     private List<MediaInfo> mVideoList = new ArrayList<>();
 
-    // 录制音频信息
-    private RecordInfo mAudioInfo;
-    // 录制视频信息
-    private RecordInfo mVideoInfo;
-
     // 命令行编辑器
     private CainCommandEditor mCommandEditor;
 
@@ -172,8 +167,9 @@ public class RecordPresenter implements OnSurfaceTextureListener, OnFrameAvailab
         if (mOperateStarted) {
             return;
         }
-        mHWMediaRecorder.startRecord(mVideoParams, mAudioParams);
+        // 启动失败时会在onRecordError中复位
         mOperateStarted = true;
+        mHWMediaRecorder.startRecord(mVideoParams, mAudioParams);
     }
 
     /**
@@ -203,54 +199,28 @@ public class RecordPresenter implements OnSurfaceTextureListener, OnFrameAvailab
 
     @Override
     public void onRecordFinish(RecordInfo info) {
-        if (info.getType() == MediaType.AUDIO) {
-            mAudioInfo = info;
-        } else if (info.getType() == MediaType.VIDEO) {
-            mVideoInfo = info;
+        // 音视频写入同一个文件，录制完成时已经是完整的片段
+        if (info.getType() == MediaType.VIDEO) {
             mCurrentProgress = info.getDuration() * 1.0f / mVideoParams.getMaxDuration();
+            final String currentFile = generateOutputPath();
+            FileUtils.moveFile(info.getFileName(), currentFile);
+            mVideoList.add(new MediaInfo(currentFile, info.getDuration()));
+            mRemainDuration -= info.getDuration();
+            mActivity.addProgressSegment(mCurrentProgress);
+            mCurrentProgress = 0;
         }
         mActivity.showViews();
-        if (mHWMediaRecorder.enableAudio() && (mAudioInfo == null || mVideoInfo == null)) {
-            return;
-        }
-        if (mHWMediaRecorder.enableAudio()) {
-            final String currentFile = generateOutputPath();
-            FileUtils.createFile(currentFile);
-            mCommandEditor.execCommand(CainCommandEditor.mergeAudioVideo(mVideoInfo.getFileName(),
-                    mAudioInfo.getFileName(), currentFile),
-                    (result) -> {
-                        if (result == 0) {
-                            mVideoList.add(new MediaInfo(currentFile, mVideoInfo.getDuration()));
-                            mRemainDuration -= mVideoInfo.getDuration();
-                            mActivity.addProgressSegment(mCurrentProgress);
-                            mActivity.showViews();
-                            mCurrentProgress = 0;
-                        }
-                        // 删除旧的文件
-                        FileUtils.deleteFile(mAudioInfo.getFileName());
-                        FileUtils.deleteFile(mVideoInfo.getFileName());
-                        mAudioInfo = null;
-                        mVideoInfo = null;
-
-                        // 如果剩余时间为0
-                        if (mRemainDuration <= 0) {
-                            mergeAndEdit();
-                        }
-                    });
-        } else {
-            if (mVideoInfo != null) {
-                final String currentFile = generateOutputPath();
-                FileUtils.moveFile(mVideoInfo.getFileName(), currentFile);
-                mVideoList.add(new MediaInfo(currentFile, mVideoInfo.getDuration()));
-                mRemainDuration -= mVideoInfo.getDuration();
-                mAudioInfo = null;
-                mVideoInfo = null;
-                mActivity.addProgressSegment(mCurrentProgress);
-                mActivity.showViews();
-                mCurrentProgress = 0;
-            }
+        mOperateStarted = false;
+        // 如果剩余时间为0
+        if (mRemainDuration <= 0) {
+            mergeAndEdit();
         }
+    }
+
+    @Override
+    public void onRecordError(String msg) {
         mOperateStarted = false;
+        mActivity.showViews();
     }
 
     /**
@@ -355,7 +325,7 @@ public class RecordPresenter implements OnSurfaceTextureListener, OnFrameAvailab
                 }
             }
             String finalPath = generateOutputPath();
-            mCommandEditor.execCommand(CainCommandEditor.concatVideo(mActivity, videos, finalPath),
+            mCommandEditor.concatVideo(mActivity, videos, finalPath,
                     (result) -> {
                         mActivity.hideProgressDialog();
                         if (result == 0) {
@@ -2,12 +2,15 @@ package com.cgfay.camera;
 
 import android.app.Activity;
 import android.content.Intent;
+import android.graphics.Bitmap;
 import android.hardware.Camera;
 import androidx.fragment.app.Fragment;
 
 import com.cgfay.cameralibrary.R;
 import com.cgfay.camera.activity.CameraActivity;
 import com.cgfay.camera.camera.CameraParam;
+import com.cgfay.camera.listener.OnFrameProfileListener;
+import com.cgfay.camera.listener.OnPhotoSaveListener;
 import com.cgfay.camera.listener.OnPreviewCaptureListener;
 import com.cgfay.camera.model.AspectRatio;
 
@@ -72,6 +75,16 @@ public final class PreviewBuilder {
         return this;
     }
 
+    /**
+     * 预览缓冲数量，使用者处理不过来时会丢帧
+     * @param depth
+     * @return
+     */
+    public PreviewBuilder previewBufferDepth(int depth) {
+        mCameraParam.previewBufferDepth = depth;
+        return this;
+    }
+
     /**
      * 是否高清拍照
      * @param highDefinition
@@ -165,6 +178,38 @@ public final class PreviewBuilder {
         return this;
     }
 
+    /**
+     * 设置帧耗时统计监听器，设置后统计各渲染阶段的CPU/GPU耗时，大约每秒回调一次
+     * @param listener
+     * @return
+     */
+    public PreviewBuilder setFrameProfileListener(OnFrameProfileListener listener) {
+        mCameraParam.frameProfileListener = listener;
+        return this;
+    }
+
+    /**
+     * 设置照片保存监听器，拍照后马上回调等待保存的照片，保存完成后回调各阶段耗时
+     * @param listener
+     * @return
+     */
+    public PreviewBuilder setPhotoSaveListener(OnPhotoSaveListener listener) {
+        mCameraParam.photoSaveListener = listener;
+        return this;
+    }
+
+    /**
+     * 设置照片编码格式和质量
+     * @param format    JPEG或者WEBP
+     * @param quality   编码质量，0~100
+     * @return
+     */
+    public PreviewBuilder setPhotoFormat(Bitmap.CompressFormat format, int quality) {
+        mCameraParam.photoFormat = format;
+        mCameraParam.photoQuality = quality;
+        return this;
+    }
+
     /**
      * 打开预览
      */
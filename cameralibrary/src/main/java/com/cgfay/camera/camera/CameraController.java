@@ -45,6 +45,8 @@ public class CameraController implements ICameraController, Camera.PreviewCallba
     private OnSurfaceTextureListener mSurfaceTextureListener;
     // 预览数据回调
     private PreviewCallback mPreviewCallback;
+    // 预览缓冲池
+    private final PreviewBufferPool mBufferPool = new PreviewBufferPool();
     // 输出纹理更新回调
     private OnFrameAvailableListener mFrameAvailableListener;
     // 相机输出的SurfaceTexture
@@ -90,7 +92,11 @@ public class CameraController implements ICameraController, Camera.PreviewCallba
         mOutputTexture = createDetachedSurfaceTexture();
         try {
             mCamera.setPreviewTexture(mOutputTexture);
-            mCamera.setPreviewCallback(this);
+            // 使用预先分配的缓冲接收预览数据，避免每帧分配内存
+            int bufferSize = mPreviewWidth * mPreviewHeight
+                    * ImageFormat.getBitsPerPixel(mCamera.getParameters().getPreviewFormat()) / 8;
+            mBufferPool.attach(mCamera, bufferSize, cameraParam.previewBufferDepth, cameraParam.previewFps);
+            mCamera.setPreviewCallbackWithBuffer(this);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -149,7 +155,7 @@ public class CameraController implements ICameraController, Camera.PreviewCallba
         if (mCamera != null) {
             mCamera.setPreviewCallback(null);
             mCamera.setPreviewCallbackWithBuffer(null);
-            mCamera.addCallbackBuffer(null);
+            mBufferPool.detach();
             mCamera.stopPreview();
             mCamera.release();
             mCamera = null;
@@ -185,11 +191,37 @@ public class CameraController implements ICameraController, Camera.PreviewCallba
 
     @Override
     public void onPreviewFrame(byte[] data, Camera camera) {
-        if (mPreviewCallback != null) {
-            mPreviewCallback.onPreviewFrame(data);
+        mBufferPool.onFrameArrived(data);
+        try {
+            if (mPreviewCallback != null) {
+                mPreviewCallback.onPreviewFrame(data);
+            }
+        } finally {
+            // 没有被异步使用者持有的缓冲直接交还给相机
+            mBufferPool.release(data);
         }
     }
 
+    @Override
+    public boolean retainPreviewBuffer(byte[] data) {
+        return mBufferPool.retain(data);
+    }
+
+    @Override
+    public void releasePreviewBuffer(byte[] data) {
+        mBufferPool.release(data);
+    }
+
+    @Override
+    public long getPreviewStarvedCount() {
+        return mBufferPool.getStarvedCount();
+    }
+
+    @Override
+    public long getPreviewDroppedCount() {
+        return mBufferPool.getDroppedCount();
+    }
+
     @Override
     public void setFront(boolean front) {
         if (front) {
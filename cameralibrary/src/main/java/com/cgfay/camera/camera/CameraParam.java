@@ -1,9 +1,12 @@
 package com.cgfay.camera.camera;
 
+import android.graphics.Bitmap;
 import android.hardware.Camera;
 
 import com.cgfay.camera.listener.OnCaptureListener;
 import com.cgfay.camera.listener.OnFpsListener;
+import com.cgfay.camera.listener.OnFrameProfileListener;
+import com.cgfay.camera.listener.OnPhotoSaveListener;
 import com.cgfay.camera.model.AspectRatio;
 import com.cgfay.camera.model.GalleryType;
 import com.cgfay.camera.listener.OnPreviewCaptureListener;
@@ -54,6 +57,8 @@ public final class CameraParam {
     public int previewWidth;
     // 实际预览高度
     public int previewHeight;
+    // 预览缓冲数量
+    public int previewBufferDepth;
     // 是否高清拍照
     public boolean highDefinition;
     // 预览角度
@@ -87,8 +92,16 @@ public final class CameraParam {
     public OnPreviewCaptureListener captureListener;
     // 截屏回调
     public OnCaptureListener captureCallback;
+    // 照片保存监听器
+    public OnPhotoSaveListener photoSaveListener;
+    // 照片编码格式，JPEG或者WEBP
+    public Bitmap.CompressFormat photoFormat;
+    // 照片编码质量
+    public int photoQuality;
     // fps回调
     public OnFpsListener fpsCallback;
+    // 帧耗时统计回调，设置后才统计各阶段耗时
+    public OnFrameProfileListener frameProfileListener;
     // 是否显示对比效果
     public boolean showCompare;
     // 是否拍照
@@ -121,6 +134,7 @@ public final class CameraParam {
         expectHeight = DEFAULT_16_9_HEIGHT;
         previewWidth = 0;
         previewHeight = 0;
+        previewBufferDepth = PreviewBufferPool.DEFAULT_DEPTH;
         highDefinition = false;
         orientation = 0;
         backCamera = true;
@@ -137,7 +151,11 @@ public final class CameraParam {
         mGalleryType = GalleryType.VIDEO_15S;
         captureListener = null;
         captureCallback = null;
+        photoSaveListener = null;
+        photoFormat = Bitmap.CompressFormat.JPEG;
+        photoQuality = 100;
         fpsCallback = null;
+        frameProfileListener = null;
         showCompare = false;
         isTakePicture = false;
         enableDepthBlur = false;
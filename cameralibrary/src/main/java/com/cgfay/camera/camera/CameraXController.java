@@ -158,6 +158,27 @@ public class CameraXController implements ICameraController {
         mPreviewCallback = callback;
     }
 
+    @Override
+    public boolean retainPreviewBuffer(byte[] data) {
+        // CameraX每帧都会转换出新的数据，不需要缓冲池
+        return true;
+    }
+
+    @Override
+    public void releasePreviewBuffer(byte[] data) {
+
+    }
+
+    @Override
+    public long getPreviewStarvedCount() {
+        return 0;
+    }
+
+    @Override
+    public long getPreviewDroppedCount() {
+        return 0;
+    }
+
     @Override
     public void setOnFrameAvailableListener(OnFrameAvailableListener listener) {
         mFrameAvailableListener = listener;
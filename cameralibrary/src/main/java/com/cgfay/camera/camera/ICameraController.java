@@ -29,6 +29,29 @@ public interface ICameraController {
      */
     void setPreviewCallback(PreviewCallback callback);
 
+    /**
+     * 持有预览数据，异步使用预览数据前调用
+     * @param data 预览数据
+     * @return 返回false表示缓冲不足，需要丢弃该帧
+     */
+    boolean retainPreviewBuffer(byte[] data);
+
+    /**
+     * 释放预览数据，与retainPreviewBuffer成对调用
+     * @param data 预览数据
+     */
+    void releasePreviewBuffer(byte[] data);
+
+    /**
+     * 预览缓冲不足的次数
+     */
+    long getPreviewStarvedCount();
+
+    /**
+     * 预览丢帧数
+     */
+    long getPreviewDroppedCount();
+
     /**
      * 设置纹理更新回调
      */
@@ -0,0 +1,181 @@
+package com.cgfay.camera.camera;
+
+import android.hardware.Camera;
+import android.os.SystemClock;
+
+/**
+ * 相机预览缓冲池
+ * 配合setPreviewCallbackWithBuffer使用，预览数据写入固定的几块缓冲中，不再每帧分配byte[]。
+ * 缓冲使用引用计数，回调分发期间持有一个引用，人脸检测、录制等异步使用者需要先retain，
+ * 用完后release，引用为0时才交还给相机。
+ * 相机手上没有空闲缓冲时不会回调预览帧，因此使用者跟不上时直接丢帧，不会无限排队。
+ */
+public final class PreviewBufferPool {
+
+    // 默认缓冲数量
+    public static final int DEFAULT_DEPTH = 3;
+
+    // 缓冲在相机队列中
+    private static final int STATE_QUEUED = -1;
+
+    private Camera mCamera;
+    private byte[][] mBuffers = new byte[0][];
+    // 引用计数，STATE_QUEUED表示在相机队列中，0表示空闲
+    private int[] mRefCounts = new int[0];
+    // 相机队列中的缓冲数量
+    private int mQueuedCount;
+    // 帧间隔(纳秒)
+    private long mFrameIntervalNs;
+    private long mLastFrameNs;
+    // 上一帧之后相机队列是否被取空
+    private boolean mStarved;
+
+    // 统计数据
+    private long mFrameCount;
+    private long mStarvedCount;
+    private long mDroppedCount;
+
+    /**
+     * 绑定相机，并将空闲缓冲交给相机
+     * 缓冲大小不变时复用之前的缓冲，仍被使用者持有的缓冲在release时交给相机
+     * @param camera        相机
+     * @param bufferSize    单帧数据大小
+     * @param depth         缓冲数量
+     * @param fps           预览帧率(千分之一帧)，用于估算相机侧的丢帧
+     */
+    public synchronized void attach(Camera camera, int bufferSize, int depth, int fps) {
+        depth = Math.max(depth, 1);
+        if (mBuffers.length != depth || mBuffers.length == 0 || mBuffers[0].length != bufferSize) {
+            mBuffers = new byte[depth][];
+            mRefCounts = new int[depth];
+            for (int i = 0; i < depth; i++) {
+                mBuffers[i] = new byte[bufferSize];
+            }
+        }
+        mCamera = camera;
+        mQueuedCount = 0;
+        for (int i = 0; i < mBuffers.length; i++) {
+            if (mRefCounts[i] <= 0) {
+                mRefCounts[i] = STATE_QUEUED;
+                mCamera.addCallbackBuffer(mBuffers[i]);
+                mQueuedCount++;
+            }
+        }
+        mFrameIntervalNs = fps > 0 ? 1000000000000L / fps : 0;
+        mLastFrameNs = 0;
+        mStarved = false;
+    }
+
+    /**
+     * 解绑相机，相机队列中的缓冲变为空闲
+     */
+    public synchronized void detach() {
+        mCamera = null;
+        for (int i = 0; i < mRefCounts.length; i++) {
+            if (mRefCounts[i] == STATE_QUEUED) {
+                mRefCounts[i] = 0;
+            }
+        }
+        mQueuedCount = 0;
+    }
+
+    /**
+     * 相机写入一帧数据，分发期间持有一个引用，分发完成后需要release
+     * @param data 预览数据
+     */
+    public synchronized void onFrameArrived(byte[] data) {
+        int index = indexOf(data);
+        if (index < 0) {
+            return;
+        }
+        mFrameCount++;
+        long now = SystemClock.elapsedRealtimeNanos();
+        // 相机队列在上一帧之后被取空，这段时间的空档就是相机丢掉的帧
+        if (mStarved && mLastFrameNs > 0 && mFrameIntervalNs > 0) {
+            long missed = ((now - mLastFrameNs) + mFrameIntervalNs / 2) / mFrameIntervalNs - 1;
+            if (missed > 0) {
+                mDroppedCount += missed;
+            }
+        }
+        mLastFrameNs = now;
+        if (mRefCounts[index] == STATE_QUEUED) {
+            mQueuedCount--;
+        }
+        mRefCounts[index] = 1;
+        mStarved = mQueuedCount == 0;
+        if (mStarved) {
+            mStarvedCount++;
+        }
+    }
+
+    /**
+     * 异步使用者持有缓冲
+     * 如果相机队列已经没有空闲缓冲，继续持有会让相机停止出帧，此时拒绝并记为丢帧
+     * @param data 预览数据
+     * @return 是否成功持有，返回false时使用者应丢弃该帧
+     */
+    public synchronized boolean retain(byte[] data) {
+        int index = indexOf(data);
+        if (index < 0) {
+            return true;
+        }
+        if (mRefCounts[index] <= 0) {
+            return false;
+        }
+        if (mCamera != null && mQueuedCount == 0) {
+            mDroppedCount++;
+            return false;
+        }
+        mRefCounts[index]++;
+        return true;
+    }
+
+    /**
+     * 释放缓冲，引用为0时交还给相机
+     * @param data 预览数据
+     */
+    public synchronized void release(byte[] data) {
+        int index = indexOf(data);
+        if (index < 0 || mRefCounts[index] <= 0) {
+            return;
+        }
+        if (--mRefCounts[index] == 0 && mCamera != null) {
+            mRefCounts[index] = STATE_QUEUED;
+            mQueuedCount++;
+            mCamera.addCallbackBuffer(data);
+        }
+    }
+
+    /**
+     * 查找缓冲，缓冲数量很少，直接按引用比较
+     */
+    private int indexOf(byte[] data) {
+        for (int i = 0; i < mBuffers.length; i++) {
+            if (mBuffers[i] == data) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 相机回调的帧数
+     */
+    public synchronized long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * 相机队列被取空的次数
+     */
+    public synchronized long getStarvedCount() {
+        return mStarvedCount;
+    }
+
+    /**
+     * 丢帧数，包括相机没有缓冲时丢掉的帧(估算)以及使用者被拒绝的帧
+     */
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+}
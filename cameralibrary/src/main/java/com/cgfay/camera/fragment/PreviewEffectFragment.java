@@ -227,10 +227,13 @@ public class PreviewEffectFragment extends Fragment implements View.OnClickListe
                 String folderPath = MakeupHelper.getMakeupDirectory(mActivity) + File.separator +
                         MakeupHelper.getMakeupList().get(1).unzipFolder;
                 DynamicMakeup makeup = null;
-                try {
-                    makeup = ResourceJsonCodec.decodeMakeupData(folderPath);
-                } catch (Exception e) {
-                    e.printStackTrace();
+                // 资源包还在后台解压时不读取不完整的数据
+                if (MakeupHelper.isDecompressed(folderPath)) {
+                    try {
+                        makeup = ResourceJsonCodec.decodeMakeupData(folderPath);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
                 }
                 if (mOnMakeupChangeListener != null) {
                     mOnMakeupChangeListener.onMakeupChange(makeup);
@@ -0,0 +1,15 @@
+package com.cgfay.camera.listener;
+
+import com.cgfay.camera.render.FrameProfiler;
+
+/**
+ * 帧耗时统计监听器
+ */
+public interface OnFrameProfileListener {
+
+    /**
+     * 统计结果回调，大约每秒一次，在渲染线程回调
+     * @param report 滑动窗口内各阶段耗时的分位数
+     */
+    void onFrameProfile(FrameProfiler.Report report);
+}
@@ -0,0 +1,21 @@
+package com.cgfay.camera.listener;
+
+import com.cgfay.camera.utils.PhotoSaveQueue;
+
+/**
+ * 照片保存监听器
+ */
+public interface OnPhotoSaveListener {
+
+    /**
+     * 拍照得到图像，照片已进入保存队列，在渲染线程回调
+     * @param photo 等待保存的照片
+     */
+    void onPhotoPending(PhotoSaveQueue.PendingPhoto photo);
+
+    /**
+     * 保存结束，包含各阶段耗时，在保存线程回调
+     * @param photo 照片，通过isSuccess判断是否保存成功
+     */
+    void onPhotoSaved(PhotoSaveQueue.PendingPhoto photo);
+}
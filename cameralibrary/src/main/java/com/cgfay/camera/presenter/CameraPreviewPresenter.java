@@ -5,6 +5,9 @@ import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.SurfaceTexture;
+import android.media.ExifInterface;
+import android.os.Build;
+import android.os.Bundle;
 import androidx.annotation.NonNull;
 
 import android.opengl.EGLContext;
@@ -24,6 +27,7 @@ import com.cgfay.camera.fragment.CameraPreviewFragment;
 import com.cgfay.camera.listener.OnPreviewCaptureListener;
 import com.cgfay.camera.render.CameraRenderer;
 import com.cgfay.camera.utils.PathConstraints;
+import com.cgfay.camera.utils.PhotoSaveQueue;
 import com.cgfay.facedetect.engine.FaceTracker;
 import com.cgfay.facedetect.listener.FaceTrackerCallback;
 import com.cgfay.filter.glfilter.color.bean.DynamicColor;
@@ -44,15 +48,17 @@ import com.cgfay.media.recorder.SpeedMode;
 import com.cgfay.media.recorder.VideoParams;
 import com.cgfay.landmark.LandmarkEngine;
 import com.cgfay.media.CainCommandEditor;
-import com.cgfay.uitls.utils.BitmapUtils;
 import com.cgfay.uitls.utils.BrightnessUtils;
 import com.cgfay.uitls.utils.FileUtils;
 import com.cgfay.video.activity.VideoEditActivity;
 
 import java.io.File;
 import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * 预览的presenter
@@ -95,14 +101,12 @@ public class CameraPreviewPresenter extends PreviewPresenter<CameraPreviewFragme
     // 视频列表
     private List<MediaInfo> mVideoList = new ArrayList<>();
 
-    // 录制音频信息
-    private RecordInfo mAudioInfo;
-    // 录制视频信息
-    private RecordInfo mVideoInfo;
-
     // 命令行编辑器
     private CainCommandEditor mCommandEditor;
 
+    // 照片保存队列
+    private final PhotoSaveQueue mPhotoSaveQueue;
+
     // 相机接口
     private ICameraController mCameraController;
 
@@ -121,6 +125,9 @@ public class CameraPreviewPresenter extends PreviewPresenter<CameraPreviewFragme
 
         // 命令行编辑器
         mCommandEditor = new CainCommandEditor();
+
+        // 照片保存队列
+        mPhotoSaveQueue = new PhotoSaveQueue();
     }
 
     public void onAttach(Activity activity) {
@@ -151,6 +158,7 @@ public class CameraPreviewPresenter extends PreviewPresenter<CameraPreviewFragme
         FaceTracker.getInstance()
                 .setFaceCallback(this)
                 .previewTrack(true)
+                .frameReleaseListener(data -> mCameraController.releasePreviewBuffer(data))
                 .initTracker();
     }
 
@@ -196,6 +204,8 @@ public class CameraPreviewPresenter extends PreviewPresenter<CameraPreviewFragme
             mCommandEditor.release();
             mCommandEditor = null;
         }
+        // 已经拍下的照片继续保存完
+        mPhotoSaveQueue.release();
     }
 
     public void onDetach() {
@@ -244,6 +254,12 @@ public class CameraPreviewPresenter extends PreviewPresenter<CameraPreviewFragme
         if (type == null) {
             return;
         }
+        // 资源包还在后台解压时不读取不完整的数据
+        if (type != ResourceType.NONE && !ResourceHelper.isDecompressed(
+                ResourceHelper.getResourceDirectory(mActivity) + File.separator + unzipFolder)) {
+            Log.w(TAG, "changeResource: " + unzipFolder + " is not ready");
+            return;
+        }
         try {
             switch (type) {
                 // 单纯的滤镜
@@ -300,10 +316,15 @@ public class CameraPreviewPresenter extends PreviewPresenter<CameraPreviewFragme
                 FilterHelper.getFilterList().get(filterIndex).unzipFolder;
         DynamicColor color = null;
         if (!FilterHelper.getFilterList().get(filterIndex).unzipFolder.equalsIgnoreCase("none")) {
-            try {
-                color = ResourceJsonCodec.decodeFilterData(folderPath);
-            } catch (Exception e) {
-                e.printStackTrace();
+            // 资源包还在后台解压时不读取不完整的数据
+            if (!FilterHelper.isDecompressed(folderPath)) {
+                Log.w(TAG, "changeDynamicFilter: " + folderPath + " is not ready");
+            } else {
+                try {
+                    color = ResourceJsonCodec.decodeFilterData(folderPath);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
             }
         }
         mCameraRenderer.changeFilter(color);
@@ -368,6 +389,12 @@ public class CameraPreviewPresenter extends PreviewPresenter<CameraPreviewFragme
      */
     private void closeCamera() {
         mCameraController.closeCamera();
+        Log.d(TAG, "closeCamera: preview buffer starved - " + mCameraController.getPreviewStarvedCount()
+                + ", dropped - " + mCameraController.getPreviewDroppedCount()
+                + ", tracker dropped - " + FaceTracker.getInstance().getDroppedFrameCount()
+                + ", tracker interval - " + FaceTracker.getInstance().getFrameInterval()
+                + ", tracker latency - " + FaceTracker.getInstance().getAverageTrackLatency() + " ms"
+                + ", time to first frame - " + mCameraRenderer.getTimeToFirstFrame() + " ms");
     }
 
     @Override
@@ -388,8 +415,9 @@ public class CameraPreviewPresenter extends PreviewPresenter<CameraPreviewFragme
         if (mHWMediaRecorder == null) {
             mHWMediaRecorder = new HWMediaRecorder(this);
         }
-        mHWMediaRecorder.startRecord(mVideoParams, mAudioParams);
+        // 启动失败时会在onRecordError中复位
         mOperateStarted = true;
+        mHWMediaRecorder.startRecord(mVideoParams, mAudioParams);
     }
 
     @Override
@@ -499,22 +527,36 @@ public class CameraPreviewPresenter extends PreviewPresenter<CameraPreviewFragme
     public void onPreviewFrame(byte[] data) {
         Log.d(TAG, "onPreviewFrame: width - " + mCameraController.getPreviewWidth()
                 + ", height - " + mCameraController.getPreviewHeight());
-        FaceTracker.getInstance()
+        // 检测线程还持有太多缓冲时丢弃当前帧，检测完成后通过frameReleaseListener释放
+        boolean tracking = mCameraController.retainPreviewBuffer(data)
+                && FaceTracker.getInstance()
                 .trackFace(data, mCameraController.getPreviewWidth(),
                         mCameraController.getPreviewHeight());
+        // 跳过检测或者被丢弃的帧不会回调onTrackingFinish，沿用上一次的关键点直接渲染，
+        // 避免检测间隔和检测耗时限制预览帧率
+        if (!tracking && !FaceTracker.getInstance().isPredictionEnabled()) {
+            mCameraRenderer.requestRender();
+        }
     }
 
     // ---------------------------------- 人脸检测完成回调 ------------------------------------------
     @Override
     public void onTrackingFinish() {
         Log.d(TAG, "onTrackingFinish: ");
-        mCameraRenderer.requestRender();
+        mCameraRenderer.recordTrackLatency(FaceTracker.getInstance().getTrackLatency());
+        // 开启关键点预测时由帧可用回调驱动渲染
+        if (!FaceTracker.getInstance().isPredictionEnabled()) {
+            mCameraRenderer.requestRender();
+        }
     }
 
     // ------------------------------ SurfaceTexture帧可用回调 --------------------------------------
     @Override
     public void onFrameAvailable(SurfaceTexture surfaceTexture) {
-//        mCameraRenderer.requestRender();
+        // 开启关键点预测时每一帧都渲染，关键点外推到渲染时间，不等待检测完成
+        if (FaceTracker.getInstance().isPredictionEnabled()) {
+            mCameraRenderer.requestRender();
+        }
     }
 
     // ---------------------------------- 录制与合成 start ------------------------------------------
@@ -534,59 +576,32 @@ public class CameraPreviewPresenter extends PreviewPresenter<CameraPreviewFragme
 
     @Override
     public void onRecordFinish(RecordInfo info) {
-        if (info.getType() == MediaType.AUDIO) {
-            mAudioInfo = info;
-        } else if (info.getType() == MediaType.VIDEO) {
-            mVideoInfo = info;
+        // 音视频写入同一个文件，录制完成时已经是完整的片段
+        if (info.getType() == MediaType.VIDEO) {
             mCurrentProgress = info.getDuration() * 1.0f / mVideoParams.getMaxDuration();
-        }
-        if (mHWMediaRecorder == null) {
-            return;
-        }
-        if (mHWMediaRecorder.enableAudio() && (mAudioInfo == null || mVideoInfo == null)) {
-            return;
-        }
-        if (mHWMediaRecorder.enableAudio()) {
             final String currentFile = generateOutputPath();
-            FileUtils.createFile(currentFile);
-            mCommandEditor.execCommand(CainCommandEditor.mergeAudioVideo(mVideoInfo.getFileName(),
-                    mAudioInfo.getFileName(), currentFile),
-                    (result) -> {
-                        if (result == 0) {
-                            mVideoList.add(new MediaInfo(currentFile, mVideoInfo.getDuration()));
-                            mRemainDuration -= mVideoInfo.getDuration();
-                            getTarget().addProgressSegment(mCurrentProgress);
-                            getTarget().resetAllLayout();
-                            mCurrentProgress = 0;
-                        }
-                        // 删除旧的文件
-                        FileUtils.deleteFile(mAudioInfo.getFileName());
-                        FileUtils.deleteFile(mVideoInfo.getFileName());
-                        mAudioInfo = null;
-                        mVideoInfo = null;
-
-                        // 如果剩余时间为0
-                        if (mRemainDuration <= 0) {
-                            mergeAndEdit();
-                        }
-                    });
-        } else {
-            if (mVideoInfo != null) {
-                final String currentFile = generateOutputPath();
-                FileUtils.moveFile(mVideoInfo.getFileName(), currentFile);
-                mVideoList.add(new MediaInfo(currentFile, mVideoInfo.getDuration()));
-                mRemainDuration -= mVideoInfo.getDuration();
-                mAudioInfo = null;
-                mVideoInfo = null;
-                getTarget().addProgressSegment(mCurrentProgress);
-                getTarget().resetAllLayout();
-                mCurrentProgress = 0;
-            }
+            FileUtils.moveFile(info.getFileName(), currentFile);
+            mVideoList.add(new MediaInfo(currentFile, info.getDuration()));
+            mRemainDuration -= info.getDuration();
+            getTarget().addProgressSegment(mCurrentProgress);
+            getTarget().resetAllLayout();
+            mCurrentProgress = 0;
         }
         if (mHWMediaRecorder != null) {
             mHWMediaRecorder.release();
             mHWMediaRecorder = null;
         }
+        // 如果剩余时间为0
+        if (mRemainDuration <= 0) {
+            mergeAndEdit();
+        }
+    }
+
+    @Override
+    public void onRecordError(String msg) {
+        mOperateStarted = false;
+        getTarget().resetAllLayout();
+        getTarget().showToast("录制失败");
     }
 
     /**
@@ -613,7 +628,7 @@ public class CameraPreviewPresenter extends PreviewPresenter<CameraPreviewFragme
                 }
             }
             String finalPath = generateOutputPath();
-            mCommandEditor.execCommand(CainCommandEditor.concatVideo(mActivity, videos, finalPath),
+            mCommandEditor.concatVideo(mActivity, videos, finalPath,
                     (result) -> {
                         getTarget().hideConcatProgressDialog();
                         if (result == 0) {
@@ -647,13 +662,46 @@ public class CameraPreviewPresenter extends PreviewPresenter<CameraPreviewFragme
 
     @Override
     public void onCapture(Bitmap bitmap) {
-        String filePath = PathConstraints.getImageCachePath(mActivity);
-        BitmapUtils.saveBitmap(filePath, bitmap);
-        if (mCameraParam.captureListener != null) {
-            mCameraParam.captureListener.onMediaSelectedListener(filePath, OnPreviewCaptureListener.MediaTypePicture);
+        String suffix = mCameraParam.photoFormat == Bitmap.CompressFormat.JPEG ? ".jpeg" : ".webp";
+        String filePath = PathConstraints.getImageCachePath(mActivity, suffix);
+        // 编码和写盘放到保存队列中，不阻塞渲染线程
+        PhotoSaveQueue.PendingPhoto photo = mPhotoSaveQueue.enqueue(bitmap, filePath,
+                mCameraParam.photoFormat, mCameraParam.photoQuality,
+                createExifAttributes(bitmap), this::onPhotoSaved);
+        if (mCameraParam.photoSaveListener != null) {
+            mCameraParam.photoSaveListener.onPhotoPending(photo);
         }
     }
 
+    /**
+     * 照片保存完成，在保存线程回调
+     * @param photo
+     */
+    private void onPhotoSaved(PhotoSaveQueue.PendingPhoto photo) {
+        if (mCameraParam.photoSaveListener != null) {
+            mCameraParam.photoSaveListener.onPhotoSaved(photo);
+        }
+        if (photo.isSuccess() && mCameraParam.captureListener != null) {
+            mCameraParam.captureListener.onMediaSelectedListener(photo.getPath(), OnPreviewCaptureListener.MediaTypePicture);
+        }
+    }
+
+    /**
+     * 照片的EXIF信息
+     * @param bitmap
+     * @return
+     */
+    private Bundle createExifAttributes(Bitmap bitmap) {
+        Bundle exif = new Bundle();
+        exif.putString(ExifInterface.TAG_DATETIME,
+                new SimpleDateFormat("yyyy:MM:dd HH:mm:ss", Locale.US).format(new Date()));
+        exif.putString(ExifInterface.TAG_MAKE, Build.MANUFACTURER);
+        exif.putString(ExifInterface.TAG_MODEL, Build.MODEL);
+        exif.putString(ExifInterface.TAG_IMAGE_WIDTH, String.valueOf(bitmap.getWidth()));
+        exif.putString(ExifInterface.TAG_IMAGE_LENGTH, String.valueOf(bitmap.getHeight()));
+        return exif;
+    }
+
     // ------------------------------------ 渲染fps回调 ------------------------------------------
     /**
      * fps数值回调
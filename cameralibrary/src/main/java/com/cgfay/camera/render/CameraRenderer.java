@@ -5,6 +5,7 @@ import android.opengl.GLES30;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.MotionEvent;
 import android.view.Surface;
@@ -22,6 +23,7 @@ import com.cgfay.filter.glfilter.makeup.bean.DynamicMakeup;
 import com.cgfay.filter.glfilter.stickers.StaticStickerNormalFilter;
 import com.cgfay.filter.glfilter.stickers.bean.DynamicSticker;
 import com.cgfay.filter.glfilter.utils.OpenGLUtils;
+import com.cgfay.landmark.LandmarkEngine;
 import com.zeusee.main.hyperlandmark.jni.FaceTracking;
 
 import java.lang.ref.WeakReference;
@@ -45,6 +47,8 @@ public class CameraRenderer extends Thread {
 
     // 截屏
     private GLImageReader mImageReader;
+    // 拍照请求时间
+    private long mTakePictureTime;
     // EGL共享上下文
     private EglCore mEglCore;
     // 预览用的EGLSurface
@@ -59,8 +63,8 @@ public class CameraRenderer extends Thread {
     private int mCurrentTexture;
     // 渲染管理器
     private final RenderManager mRenderManager;
-    // 计算帧率
-    private final FrameRateMeter mFrameRateMeter;
+    // 帧率以及各阶段耗时统计
+    private final FrameProfiler mFrameProfiler;
     // 预览参数
     private CameraParam mCameraParam;
 
@@ -68,6 +72,12 @@ public class CameraRenderer extends Thread {
     private final WeakReference<PreviewPresenter> mWeakPresenter;
 
     private volatile boolean mThreadStarted;
+    // 开始初始化渲染器的时间
+    private long mInitRenderTime;
+    // 从初始化渲染器到第一帧预览显示的耗时(毫秒)，小于0表示还没有显示
+    private volatile float mTimeToFirstFrame = -1;
+    // 从初始化渲染器到所有滤镜加载完成的耗时(毫秒)，小于0表示还在加载
+    private volatile float mTimeToFiltersLoaded = -1;
 
     public CameraRenderer(@NonNull PreviewPresenter presenter) {
         super(TAG);
@@ -75,7 +85,8 @@ public class CameraRenderer extends Thread {
         mWeakPresenter = new WeakReference<>(presenter);
         mCameraParam = CameraParam.getInstance();
         mRenderManager = new RenderManager();
-        mFrameRateMeter = new FrameRateMeter();
+        mFrameProfiler = new FrameProfiler();
+        mRenderManager.setFrameProfiler(mFrameProfiler);
         mThreadStarted = false;
     }
 
@@ -153,9 +164,6 @@ public class CameraRenderer extends Thread {
      */
     public void setTextureSize(int width, int height) {
         mRenderManager.setTextureSize(width, height);
-        if (mImageReader != null) {
-            mImageReader.init(width, height);
-        }
     }
 
     /**
@@ -171,13 +179,14 @@ public class CameraRenderer extends Thread {
      */
     void release() {
         Log.d(TAG, "release: ");
+        if (mDisplaySurface != null) {
+            mDisplaySurface.makeCurrent();
+        }
         if (mImageReader != null) {
             mImageReader.release();
             mImageReader = null;
         }
-        if (mDisplaySurface != null) {
-            mDisplaySurface.makeCurrent();
-        }
+        mFrameProfiler.release();
         if (mInputTexture != OpenGLUtils.GL_NOT_TEXTURE) {
             OpenGLUtils.deleteTexture(mInputTexture);
             mInputTexture = OpenGLUtils.GL_NOT_TEXTURE;
@@ -202,6 +211,7 @@ public class CameraRenderer extends Thread {
     public void takePicture() {
         synchronized (mSync) {
             mCameraParam.isTakePicture = true;
+            mTakePictureTime = SystemClock.elapsedRealtimeNanos();
         }
         requestRender();
     }
@@ -289,6 +299,9 @@ public class CameraRenderer extends Thread {
             return;
         }
         Log.d(TAG, "initRender: ");
+        mInitRenderTime = SystemClock.elapsedRealtimeNanos();
+        mTimeToFirstFrame = -1;
+        mTimeToFiltersLoaded = -1;
         mEglCore = new EglCore(null, EglCore.FLAG_RECORDABLE);
         mDisplaySurface = new WindowSurface(mEglCore, surface, false);
         mDisplaySurface.makeCurrent();
@@ -298,8 +311,10 @@ public class CameraRenderer extends Thread {
         GLES30.glEnable(GL10.GL_CULL_FACE);
         GLES30.glEnable(GL10.GL_DEPTH_TEST);
 
-        // 渲染器初始化
-        mRenderManager.init(mWeakPresenter.get().getContext());
+        // 渲染器初始化，美颜等滤镜在共享上下文中加载，不阻塞第一帧预览
+        mRenderManager.init(mWeakPresenter.get().getContext(), mEglCore.getEGLContext());
+        // 拍照读取器，在渲染线程的上下文中读取像素
+        mImageReader = createImageReader();
 
         if (mWeakPresenter.get() != null) {
             mWeakPresenter.get().onBindSharedContext(mEglCore.getEGLContext());
@@ -311,6 +326,9 @@ public class CameraRenderer extends Thread {
      */
     void initRender(SurfaceTexture surfaceTexture) {
         Log.d(TAG, "initRender: ");
+        mInitRenderTime = SystemClock.elapsedRealtimeNanos();
+        mTimeToFirstFrame = -1;
+        mTimeToFiltersLoaded = -1;
         mEglCore = new EglCore(null, EglCore.FLAG_RECORDABLE);
         mDisplaySurface = new WindowSurface(mEglCore, surfaceTexture);
         mDisplaySurface.makeCurrent();
@@ -320,14 +338,27 @@ public class CameraRenderer extends Thread {
         GLES30.glEnable(GL10.GL_CULL_FACE);
         GLES30.glEnable(GL10.GL_DEPTH_TEST);
 
-        // 渲染器初始化
-        mRenderManager.init(mWeakPresenter.get().getContext());
+        // 渲染器初始化，美颜等滤镜在共享上下文中加载，不阻塞第一帧预览
+        mRenderManager.init(mWeakPresenter.get().getContext(), mEglCore.getEGLContext());
+        // 拍照读取器，在渲染线程的上下文中读取像素
+        mImageReader = createImageReader();
 
         if (mWeakPresenter.get() != null) {
             mWeakPresenter.get().onBindSharedContext(mEglCore.getEGLContext());
         }
     }
 
+    /**
+     * 创建拍照读取器，资源在第一帧渲染时预先创建
+     */
+    private GLImageReader createImageReader() {
+        return new GLImageReader((bitmap, latency) -> {
+            if (mCameraParam.captureCallback != null) {
+                mCameraParam.captureCallback.onCapture(bitmap);
+            }
+        });
+    }
+
     /**
      * 设置预览大小
      * @param width
@@ -347,51 +378,78 @@ public class CameraRenderer extends Thread {
         // 切换渲染上下文
         mDisplaySurface.makeCurrent();
 
+        // 有监听器时才统计各阶段耗时
+        mFrameProfiler.setOnFrameProfileListener(mCameraParam.frameProfileListener);
+        mFrameProfiler.setEnabled(mCameraParam.frameProfileListener != null);
+        mFrameProfiler.beginFrame();
+
         // 更新纹理
         long timeStamp = 0;
+        mFrameProfiler.beginStage(FrameProfiler.STAGE_UPDATE_TEXTURE);
         synchronized (this) {
             final SurfaceTexture surfaceTexture = mWeakSurfaceTexture.get();
             updateSurfaceTexture(surfaceTexture);
             timeStamp = surfaceTexture.getTimestamp();
         }
+        mFrameProfiler.endStage(FrameProfiler.STAGE_UPDATE_TEXTURE);
 
         // 如果不存在外部输入纹理，则直接返回，不做处理
         if (mInputTexture == OpenGLUtils.GL_NOT_TEXTURE) {
             return;
         }
+        // 取出上一帧之前提交的拍照数据，并在预览开始时准备好拍照用的资源
+        if (mImageReader != null) {
+            mImageReader.poll();
+            mImageReader.prepare(mRenderManager.getTextureWidth(), mRenderManager.getTextureHeight());
+        }
+
+        // 取得最新发布的人脸关键点，本帧所有滤镜使用同一份数据
+        LandmarkEngine.getInstance().acquireFrame();
+
         // 绘制渲染
         mCurrentTexture = mRenderManager.drawFrame(mInputTexture, mMatrix);
 
         // 录制视频
         if (mWeakPresenter.get() != null) {
+            mFrameProfiler.beginStage(FrameProfiler.STAGE_RECORD);
             mWeakPresenter.get().onRecordFrameAvailable(mCurrentTexture, timeStamp);
+            mFrameProfiler.endStage(FrameProfiler.STAGE_RECORD);
         }
 
         // 是否绘制人脸关键点
         mRenderManager.drawFacePoint(mCurrentTexture);
 
         // 显示到屏幕
+        mFrameProfiler.beginStage(FrameProfiler.STAGE_SWAP);
         mDisplaySurface.swapBuffers();
+        mFrameProfiler.endStage(FrameProfiler.STAGE_SWAP);
+        if (mTimeToFirstFrame < 0) {
+            mTimeToFirstFrame = (SystemClock.elapsedRealtimeNanos() - mInitRenderTime) / 1000000f;
+            Log.d(TAG, "onDrawFrame: time to first frame = " + mTimeToFirstFrame + "ms");
+        }
+        // 所有滤镜加载完成之后program缓存的统计才完整
+        if (mTimeToFiltersLoaded < 0 && !mRenderManager.isFilterLoading()) {
+            mTimeToFiltersLoaded = (SystemClock.elapsedRealtimeNanos() - mInitRenderTime) / 1000000f;
+            Log.d(TAG, "onDrawFrame: time to filters loaded = " + mTimeToFiltersLoaded + "ms"
+                    + ", program cache hit = " + mRenderManager.getProgramCacheHitCount()
+                    + ", miss = " + mRenderManager.getProgramCacheMissCount()
+                    + ", load time = " + mRenderManager.getProgramLoadTime() + "ms");
+        }
 
         // 执行拍照
         synchronized (mSync) {
             if (mCameraParam.isTakePicture) {
-                if (mImageReader == null) {
-                    mImageReader = new GLImageReader(mEglCore.getEGLContext(), bitmap -> {
-                        if (mCameraParam.captureCallback != null) {
-                            mCameraParam.captureCallback.onCapture(bitmap);
-                        }
-                    });
-                    mImageReader.init(mRenderManager.getTextureWidth(), mRenderManager.getTextureHeight());
-                }
                 if (mImageReader != null) {
-                    mImageReader.drawFrame(mCurrentTexture);
+                    mFrameProfiler.beginStage(FrameProfiler.STAGE_CAPTURE);
+                    mImageReader.capture(mCurrentTexture, mTakePictureTime);
+                    mFrameProfiler.endStage(FrameProfiler.STAGE_CAPTURE);
                 }
                 mCameraParam.isTakePicture = false;
             }
         }
 
-        // 计算渲染帧率
+        // 计算渲染帧率以及输出耗时统计
+        mFrameProfiler.endFrame(timeStamp);
         calculateFps();
     }
 
@@ -429,11 +487,18 @@ public class CameraRenderer extends Thread {
      */
     private void calculateFps() {
         if ((mCameraParam).fpsCallback != null) {
-            mFrameRateMeter.drawFrameCount();
-            (mCameraParam).fpsCallback.onFpsCallback(mFrameRateMeter.getFPS());
+            (mCameraParam).fpsCallback.onFpsCallback(mFrameProfiler.getFps());
         }
     }
 
+    /**
+     * 提交人脸检测延迟，可以在检测线程调用
+     * @param latencyMs 延迟(毫秒)
+     */
+    public void recordTrackLatency(float latencyMs) {
+        mFrameProfiler.recordTrackLatency(latencyMs);
+    }
+
     /**
      * 切换边框模糊
      * @param enableEdgeBlur
@@ -527,6 +592,22 @@ public class CameraRenderer extends Thread {
         return mLooper;
     }
 
+    /**
+     * 获取从初始化渲染器到第一帧预览显示的耗时(毫秒)，用于跟踪冷启动耗时
+     * @return 还没有显示时返回-1
+     */
+    public float getTimeToFirstFrame() {
+        return mTimeToFirstFrame;
+    }
+
+    /**
+     * 获取从初始化渲染器到所有滤镜加载完成的耗时(毫秒)
+     * @return 还在加载时返回-1
+     */
+    public float getTimeToFiltersLoaded() {
+        return mTimeToFiltersLoaded;
+    }
+
     /**
      * 获取当前线程的Handler
      * @return
@@ -0,0 +1,93 @@
+package com.cgfay.camera.render;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+
+/**
+ * 拍照用的Bitmap缓冲池
+ * 拍照读取的像素直接拷贝到池中的Bitmap，使用者保存完成后通过release交还，下一次拍照直接复用，
+ * 避免每次拍照都分配一张完整尺寸的Bitmap。没有交还的Bitmap由GC回收，已经recycle的Bitmap不会入池。
+ */
+public final class CaptureBitmapPool {
+
+    // 默认缓存的Bitmap数量
+    private static final int DEFAULT_MAX_SIZE = 2;
+
+    private final ArrayDeque<Bitmap> mBitmaps = new ArrayDeque<>();
+    private final int mMaxSize;
+    private int mWidth;
+    private int mHeight;
+
+    private static class CaptureBitmapPoolHolder {
+        private static final CaptureBitmapPool INSTANCE = new CaptureBitmapPool(DEFAULT_MAX_SIZE);
+    }
+
+    public static CaptureBitmapPool getInstance() {
+        return CaptureBitmapPoolHolder.INSTANCE;
+    }
+
+    CaptureBitmapPool(int maxSize) {
+        mMaxSize = Math.max(maxSize, 1);
+    }
+
+    /**
+     * 预先分配Bitmap，尺寸变化时清空旧的Bitmap
+     * @param width     宽度
+     * @param height    高度
+     * @param count     分配数量
+     */
+    public synchronized void prewarm(int width, int height, int count) {
+        resize(width, height);
+        count = Math.min(count, mMaxSize);
+        while (mBitmaps.size() < count) {
+            mBitmaps.add(Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888));
+        }
+    }
+
+    /**
+     * 获取一张ARGB_8888的Bitmap，池中没有时新建
+     */
+    public synchronized Bitmap obtain(int width, int height) {
+        resize(width, height);
+        Bitmap bitmap = mBitmaps.poll();
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 交还Bitmap，尺寸不一致或者池已满时直接回收
+     */
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || mBitmaps.contains(bitmap)) {
+            return;
+        }
+        if (bitmap.getWidth() != mWidth || bitmap.getHeight() != mHeight
+                || bitmap.getConfig() != Bitmap.Config.ARGB_8888 || !bitmap.isMutable()
+                || mBitmaps.size() >= mMaxSize) {
+            bitmap.recycle();
+            return;
+        }
+        mBitmaps.add(bitmap);
+    }
+
+    /**
+     * 清空缓冲池
+     */
+    public synchronized void clear() {
+        for (Bitmap bitmap : mBitmaps) {
+            bitmap.recycle();
+        }
+        mBitmaps.clear();
+    }
+
+    private void resize(int width, int height) {
+        if (width != mWidth || height != mHeight) {
+            clear();
+            mWidth = width;
+            mHeight = height;
+        }
+    }
+}
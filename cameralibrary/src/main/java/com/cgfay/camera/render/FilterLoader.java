@@ -0,0 +1,167 @@
+package com.cgfay.camera.render;
+
+import android.content.Context;
+import android.opengl.EGLContext;
+import android.opengl.GLES30;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.cgfay.filter.gles.EglCore;
+import com.cgfay.filter.gles.OffscreenSurface;
+import com.cgfay.filter.glfilter.base.GLImageDepthBlurFilter;
+import com.cgfay.filter.glfilter.base.GLImageFilter;
+import com.cgfay.filter.glfilter.base.GLImageVignetteFilter;
+import com.cgfay.filter.glfilter.beauty.GLImageBeautyFilter;
+import com.cgfay.filter.glfilter.face.GLImageFacePointsFilter;
+import com.cgfay.filter.glfilter.face.GLImageFaceReshapeFilter;
+import com.cgfay.filter.glfilter.makeup.GLImageMakeupFilter;
+import com.cgfay.filter.glfilter.utils.ProgramCache;
+
+/**
+ * 滤镜加载器
+ * 在共享上下文的加载线程中创建相机预览之外的滤镜，渲染线程先只用相机输入和显示滤镜出图，
+ * 每个滤镜的program链接完成之后再交给渲染线程装入滤镜列表。
+ * 滤镜构造时只创建program和纹理这类可共享的对象，FBO和VAO仍然在渲染线程创建。
+ */
+class FilterLoader {
+
+    private static final String TAG = "FilterLoader";
+
+    // 加载顺序，越靠前越先生效
+    private static final int[] LOAD_ORDER = {
+            RenderIndex.BeautyIndex,
+            RenderIndex.FaceAdjustIndex,
+            RenderIndex.MakeupIndex,
+            RenderIndex.DepthBlurIndex,
+            RenderIndex.VignetteIndex,
+            RenderIndex.FacePointIndex,
+    };
+
+    private final Context mContext;
+    private final EGLContext mSharedContext;
+    private final Thread mThread;
+    private volatile boolean mCancelled;
+
+    // 已经创建好、等待渲染线程装入的滤镜
+    private final SparseArray<GLImageFilter> mLoadedFilters = new SparseArray<>();
+
+    FilterLoader(Context context, EGLContext sharedContext) {
+        mContext = context;
+        mSharedContext = sharedContext;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loadFilters();
+            }
+        }, "FilterLoader");
+    }
+
+    /**
+     * 开始加载
+     */
+    void start() {
+        mThread.start();
+    }
+
+    /**
+     * 取出已经加载完成的滤镜，需要在渲染线程调用
+     * @param filters 输出的滤镜，下标为RenderIndex
+     * @return 是否有新的滤镜
+     */
+    boolean poll(SparseArray<GLImageFilter> filters) {
+        synchronized (mLoadedFilters) {
+            if (mLoadedFilters.size() == 0) {
+                return false;
+            }
+            for (int i = 0; i < mLoadedFilters.size(); i++) {
+                filters.put(mLoadedFilters.keyAt(i), mLoadedFilters.valueAt(i));
+            }
+            mLoadedFilters.clear();
+            return true;
+        }
+    }
+
+    /**
+     * 是否已经全部加载并取出
+     */
+    boolean isFinished() {
+        synchronized (mLoadedFilters) {
+            return !mThread.isAlive() && mLoadedFilters.size() == 0;
+        }
+    }
+
+    /**
+     * 取消加载并等待加载线程退出，没有取出的滤镜在当前线程释放，需要在渲染线程调用
+     */
+    void cancel() {
+        mCancelled = true;
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (mLoadedFilters) {
+            for (int i = 0; i < mLoadedFilters.size(); i++) {
+                mLoadedFilters.valueAt(i).release();
+            }
+            mLoadedFilters.clear();
+        }
+    }
+
+    /**
+     * 加载线程
+     */
+    private void loadFilters() {
+        long start = System.nanoTime();
+        EglCore eglCore = new EglCore(mSharedContext, EglCore.FLAG_RECORDABLE);
+        OffscreenSurface surface = new OffscreenSurface(eglCore, 1, 1);
+        surface.makeCurrent();
+        // 加载线程编译的program放入渲染线程上下文的缓存，两个上下文都可以使用
+        ProgramCache.getInstance().onContextShared(eglCore.getEGLContext(), mSharedContext);
+        try {
+            for (int index : LOAD_ORDER) {
+                if (mCancelled) {
+                    break;
+                }
+                GLImageFilter filter = createFilter(index);
+                // 等待GPU命令执行完成，保证渲染线程的上下文能看到program和纹理
+                GLES30.glFinish();
+                if (mCancelled) {
+                    filter.release();
+                    break;
+                }
+                synchronized (mLoadedFilters) {
+                    mLoadedFilters.put(index, filter);
+                }
+                Log.d(TAG, "loadFilters: " + filter.getClass().getSimpleName() + " loaded in "
+                        + (System.nanoTime() - start) / 1000000f + "ms");
+            }
+        } finally {
+            surface.release();
+            eglCore.release();
+        }
+    }
+
+    /**
+     * 创建滤镜
+     * @param index RenderIndex
+     */
+    private GLImageFilter createFilter(int index) {
+        switch (index) {
+            case RenderIndex.BeautyIndex:
+                return new GLImageBeautyFilter(mContext);
+            case RenderIndex.FaceAdjustIndex:
+                return new GLImageFaceReshapeFilter(mContext);
+            case RenderIndex.MakeupIndex:
+                return new GLImageMakeupFilter(mContext, null);
+            case RenderIndex.DepthBlurIndex:
+                return new GLImageDepthBlurFilter(mContext);
+            case RenderIndex.VignetteIndex:
+                return new GLImageVignetteFilter(mContext);
+            case RenderIndex.FacePointIndex:
+                return new GLImageFacePointsFilter(mContext);
+            default:
+                throw new IllegalArgumentException("unsupported filter index: " + index);
+        }
+    }
+}
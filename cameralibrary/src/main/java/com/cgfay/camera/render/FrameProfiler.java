@@ -0,0 +1,447 @@
+package com.cgfay.camera.render;
+
+import android.opengl.GLES30;
+import android.util.Log;
+
+import com.cgfay.camera.listener.OnFrameProfileListener;
+import com.cgfay.filter.glfilter.utils.OpenGLUtils;
+
+import java.util.Locale;
+
+/**
+ * 帧耗时统计
+ * 统计每帧各渲染阶段的CPU耗时，支持EXT_disjoint_timer_query时通过计时查询统计GPU耗时，
+ * 另外统计人脸检测延迟以及相机帧到显示的延迟，在滑动窗口内计算p50/p95/p99，大约每秒输出一次。
+ * GPU查询结果在若干帧之后才读取，不会等待GPU。帧率始终统计，其余统计只在开启时执行，
+ * 关闭时每个阶段只有一次布尔判断。另外可以指定一个阶段持续计时，不开启统计也能取得该阶段的耗时，
+ * 用于根据实际渲染耗时调整画质。所有方法都需要在渲染线程调用，recordTrackLatency除外。
+ */
+public final class FrameProfiler {
+
+    private static final String TAG = "FrameProfiler";
+
+    // 渲染阶段，前面的阶段与RenderIndex一致
+    public static final int STAGE_UPDATE_TEXTURE = RenderIndex.NumberIndex;
+    public static final int STAGE_FUSED_COLOR = STAGE_UPDATE_TEXTURE + 1;
+    public static final int STAGE_RECORD = STAGE_UPDATE_TEXTURE + 2;
+    public static final int STAGE_SWAP = STAGE_UPDATE_TEXTURE + 3;
+    public static final int STAGE_CAPTURE = STAGE_UPDATE_TEXTURE + 4;
+    public static final int STAGE_COUNT = STAGE_UPDATE_TEXTURE + 5;
+
+    // 统计项，依次为各阶段CPU耗时、各阶段GPU耗时以及整帧的统计
+    public static final int METRIC_FRAME_CPU = STAGE_COUNT * 2;
+    public static final int METRIC_FRAME_GPU = METRIC_FRAME_CPU + 1;
+    public static final int METRIC_TRACK_LATENCY = METRIC_FRAME_CPU + 2;
+    public static final int METRIC_FRAME_AGE = METRIC_FRAME_CPU + 3;
+    public static final int METRIC_COUNT = METRIC_FRAME_CPU + 4;
+
+    private static final String[] STAGE_NAMES = {
+            "camera", "beauty", "makeup", "faceAdjust", "filter", "resource", "depthBlur",
+            "vignette", "display", "facePoint", "updateTexture", "fusedColor", "record",
+            "swap", "capture",
+    };
+
+    // 默认滑动窗口大小
+    private static final int DEFAULT_WINDOW_SIZE = 120;
+    // 输出间隔
+    private static final long REPORT_INTERVAL_NS = 1000000000L;
+    // 超过该时间没有渲染时帧率为0
+    private static final long FPS_TIMEOUT_NS = 2 * REPORT_INTERVAL_NS;
+    // 相机帧到显示的延迟超过该值时认为时间戳不是同一个时钟
+    private static final long MAX_FRAME_AGE_NS = 1000000000L;
+
+    // EXT_disjoint_timer_query
+    private static final String EXT_DISJOINT_TIMER_QUERY = "GL_EXT_disjoint_timer_query";
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+    // 查询结果延迟读取的帧数
+    private static final int QUERY_FRAMES = 4;
+
+    private boolean mEnabled;
+    private OnFrameProfileListener mListener;
+
+    // 持续计时的阶段，小于0表示没有
+    private int mCostStage = -1;
+    // 该阶段最近一次的耗时(纳秒)，小于0表示没有新的数据
+    private long mStageCostNs = -1;
+
+    private final LatencyWindow[] mWindows = new LatencyWindow[METRIC_COUNT];
+
+    // 当前阶段
+    private int mCurrentStage = -1;
+    private long mStageStartNs;
+    private long mFrameStartNs;
+    private long mLastReportNs;
+    // 其他线程提交的人脸检测延迟，小于0表示没有新的数据
+    private volatile long mPendingTrackLatencyNs = -1;
+
+    // 帧率
+    private int mFrameCount;
+    private long mFpsUpdateNs;
+    private long mLastFrameNs;
+    private float mFps;
+
+    // GPU计时
+    private boolean mGpuTimerChecked;
+    private boolean mGpuTimerSupported;
+    private int[] mQueries;
+    // 各帧已提交查询的阶段，每一位对应一个阶段
+    private final int[] mQueryMasks = new int[QUERY_FRAMES];
+    private int mQuerySlot;
+    private int mActiveQueryStage = -1;
+    private final int[] mQueryResult = new int[1];
+
+    /**
+     * 统计结果，耗时单位为毫秒，没有样本的统计项为0
+     */
+    public static final class Report {
+
+        public final float fps;
+        public final float[] p50 = new float[METRIC_COUNT];
+        public final float[] p95 = new float[METRIC_COUNT];
+        public final float[] p99 = new float[METRIC_COUNT];
+        public final int[] samples = new int[METRIC_COUNT];
+        public final boolean gpuTimerSupported;
+
+        Report(float fps, boolean gpuTimerSupported) {
+            this.fps = fps;
+            this.gpuTimerSupported = gpuTimerSupported;
+        }
+
+        /**
+         * 阶段的CPU耗时统计项
+         */
+        public static int cpu(int stage) {
+            return stage;
+        }
+
+        /**
+         * 阶段的GPU耗时统计项
+         */
+        public static int gpu(int stage) {
+            return STAGE_COUNT + stage;
+        }
+
+        /**
+         * 统计项名称
+         */
+        public static String getName(int metric) {
+            if (metric < STAGE_COUNT) {
+                return STAGE_NAMES[metric] + ".cpu";
+            } else if (metric < METRIC_FRAME_CPU) {
+                return STAGE_NAMES[metric - STAGE_COUNT] + ".gpu";
+            } else if (metric == METRIC_FRAME_CPU) {
+                return "frame.cpu";
+            } else if (metric == METRIC_FRAME_GPU) {
+                return "frame.gpu";
+            } else if (metric == METRIC_TRACK_LATENCY) {
+                return "trackLatency";
+            }
+            return "frameAge";
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("fps: ").append(fps);
+            for (int i = 0; i < METRIC_COUNT; i++) {
+                if (samples[i] == 0) {
+                    continue;
+                }
+                builder.append(String.format(Locale.US,
+                        "\n%s: p50 %.2fms, p95 %.2fms, p99 %.2fms (%d)",
+                        getName(i), p50[i], p95[i], p99[i], samples[i]));
+            }
+            return builder.toString();
+        }
+    }
+
+    public FrameProfiler() {
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            mWindows[i] = new LatencyWindow(DEFAULT_WINDOW_SIZE);
+        }
+    }
+
+    /**
+     * 开启或者关闭阶段耗时统计，帧率始终统计
+     */
+    public void setEnabled(boolean enabled) {
+        if (mEnabled == enabled) {
+            return;
+        }
+        mEnabled = enabled;
+        mCurrentStage = -1;
+        mActiveQueryStage = -1;
+        for (int i = 0; i < QUERY_FRAMES; i++) {
+            mQueryMasks[i] = 0;
+        }
+        for (LatencyWindow window : mWindows) {
+            window.clear();
+        }
+        mLastReportNs = 0;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * 设置持续计时的阶段，关闭统计时也对该阶段计时
+     * @param stage 阶段，小于0时取消
+     */
+    public void setCostStage(int stage) {
+        if (mCostStage == stage) {
+            return;
+        }
+        mCostStage = stage;
+        mStageCostNs = -1;
+    }
+
+    /**
+     * 取出持续计时阶段最近一次的耗时，每个样本只返回一次
+     * 支持GPU计时时为GPU耗时，样本比当前帧晚几帧；否则为CPU耗时，只能反映命令提交的开销
+     * @return 耗时(毫秒)，没有新的样本时返回-1
+     */
+    public float pollStageCost() {
+        long cost = mStageCostNs;
+        if (cost < 0) {
+            return -1;
+        }
+        mStageCostNs = -1;
+        return cost / 1000000f;
+    }
+
+    /**
+     * 设置统计结果监听器
+     */
+    public void setOnFrameProfileListener(OnFrameProfileListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 当前帧率
+     */
+    public float getFps() {
+        if (mLastFrameNs == 0 || System.nanoTime() - mLastFrameNs > FPS_TIMEOUT_NS) {
+            return 0;
+        }
+        return mFps;
+    }
+
+    /**
+     * 提交人脸检测延迟，可以在检测线程调用
+     * @param latencyMs 延迟(毫秒)
+     */
+    public void recordTrackLatency(float latencyMs) {
+        if (mEnabled) {
+            mPendingTrackLatencyNs = (long) (latencyMs * 1000000);
+        }
+    }
+
+    /**
+     * 开始一帧，读取之前帧的GPU查询结果
+     */
+    public void beginFrame() {
+        if (!mEnabled && mCostStage < 0) {
+            return;
+        }
+        mFrameStartNs = System.nanoTime();
+        if (!mGpuTimerChecked) {
+            checkGpuTimer();
+        }
+        if (mGpuTimerSupported) {
+            mQuerySlot = (mQuerySlot + 1) % QUERY_FRAMES;
+            collectQueries(mQuerySlot);
+        }
+    }
+
+    /**
+     * 开始一个阶段，上一个阶段没有结束时先结束
+     * @param stage 阶段
+     */
+    public void beginStage(int stage) {
+        if (!mEnabled && stage != mCostStage) {
+            return;
+        }
+        if (mCurrentStage >= 0) {
+            endStage(mCurrentStage);
+        }
+        mCurrentStage = stage;
+        // swapBuffers不是GL命令，只统计CPU耗时
+        if (mGpuTimerSupported && stage != STAGE_SWAP) {
+            GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, mQueries[mQuerySlot * STAGE_COUNT + stage]);
+            mQueryMasks[mQuerySlot] |= (1 << stage);
+            mActiveQueryStage = stage;
+        }
+        mStageStartNs = System.nanoTime();
+    }
+
+    /**
+     * 结束一个阶段
+     * @param stage 阶段
+     */
+    public void endStage(int stage) {
+        if (mCurrentStage != stage) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (mActiveQueryStage >= 0) {
+            GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+            mActiveQueryStage = -1;
+        }
+        if (stage == mCostStage && !mGpuTimerSupported) {
+            mStageCostNs = now - mStageStartNs;
+        }
+        if (mEnabled) {
+            mWindows[Report.cpu(stage)].add(now - mStageStartNs);
+        }
+        mCurrentStage = -1;
+    }
+
+    /**
+     * 结束一帧，需要在swapBuffers之后调用
+     * @param frameTimestamp 相机帧的时间戳(SurfaceTexture.getTimestamp)
+     */
+    public void endFrame(long frameTimestamp) {
+        long now = System.nanoTime();
+        updateFps(now);
+        if (mCurrentStage >= 0) {
+            endStage(mCurrentStage);
+        }
+        if (!mEnabled) {
+            return;
+        }
+        mWindows[METRIC_FRAME_CPU].add(now - mFrameStartNs);
+        long age = now - frameTimestamp;
+        if (frameTimestamp > 0 && age >= 0 && age < MAX_FRAME_AGE_NS) {
+            mWindows[METRIC_FRAME_AGE].add(age);
+        }
+        long trackLatency = mPendingTrackLatencyNs;
+        if (trackLatency >= 0) {
+            mPendingTrackLatencyNs = -1;
+            mWindows[METRIC_TRACK_LATENCY].add(trackLatency);
+        }
+        if (mLastReportNs == 0) {
+            mLastReportNs = now;
+        } else if (now - mLastReportNs >= REPORT_INTERVAL_NS) {
+            mLastReportNs = now;
+            report();
+        }
+    }
+
+    /**
+     * 生成当前窗口的统计结果
+     */
+    public Report getReport() {
+        Report report = new Report(getFps(), mGpuTimerSupported);
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            LatencyWindow window = mWindows[i];
+            report.samples[i] = window.size();
+            report.p50[i] = window.percentile(0.50f) / 1000000f;
+            report.p95[i] = window.percentile(0.95f) / 1000000f;
+            report.p99[i] = window.percentile(0.99f) / 1000000f;
+        }
+        return report;
+    }
+
+    /**
+     * 释放GPU查询对象，需要在渲染线程调用
+     */
+    public void release() {
+        if (mQueries != null) {
+            if (mActiveQueryStage >= 0) {
+                GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+                mActiveQueryStage = -1;
+            }
+            GLES30.glDeleteQueries(mQueries.length, mQueries, 0);
+            mQueries = null;
+        }
+        mGpuTimerChecked = false;
+        mGpuTimerSupported = false;
+        mCurrentStage = -1;
+        for (int i = 0; i < QUERY_FRAMES; i++) {
+            mQueryMasks[i] = 0;
+        }
+    }
+
+    private void report() {
+        Report report = getReport();
+        if (mListener != null) {
+            mListener.onFrameProfile(report);
+        } else {
+            Log.d(TAG, report.toString());
+        }
+    }
+
+    private void updateFps(long now) {
+        if (mFpsUpdateNs == 0) {
+            mFpsUpdateNs = now;
+        }
+        if (now - mFpsUpdateNs > REPORT_INTERVAL_NS) {
+            mFps = mFrameCount * 1000000000f / (now - mFpsUpdateNs);
+            mFpsUpdateNs = now;
+            mFrameCount = 0;
+        }
+        mFrameCount++;
+        mLastFrameNs = now;
+    }
+
+    /**
+     * 检查是否支持GPU计时，计时查询需要OpenGL ES 3.0的查询接口
+     */
+    private void checkGpuTimer() {
+        mGpuTimerChecked = true;
+        String extensions = GLES30.glGetString(GLES30.GL_EXTENSIONS);
+        mGpuTimerSupported = OpenGLUtils.isGLES3Supported()
+                && extensions != null && extensions.contains(EXT_DISJOINT_TIMER_QUERY);
+        if (mGpuTimerSupported) {
+            mQueries = new int[QUERY_FRAMES * STAGE_COUNT];
+            GLES30.glGenQueries(mQueries.length, mQueries, 0);
+            // 清除之前的disjoint状态
+            GLES30.glGetIntegerv(GL_GPU_DISJOINT_EXT, mQueryResult, 0);
+        }
+        Log.d(TAG, "gpu timer supported: " + mGpuTimerSupported);
+    }
+
+    /**
+     * 读取之前提交的GPU查询结果，结果还没有准备好的阶段直接丢弃
+     */
+    private void collectQueries(int slot) {
+        int mask = mQueryMasks[slot];
+        mQueryMasks[slot] = 0;
+        if (mask == 0) {
+            return;
+        }
+        // 期间发生过disjoint(例如GPU降频)，查询结果不可信
+        GLES30.glGetIntegerv(GL_GPU_DISJOINT_EXT, mQueryResult, 0);
+        if (mQueryResult[0] != 0) {
+            return;
+        }
+        long total = 0;
+        boolean complete = true;
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            if ((mask & (1 << stage)) == 0) {
+                continue;
+            }
+            int query = mQueries[slot * STAGE_COUNT + stage];
+            GLES30.glGetQueryObjectuiv(query, GLES30.GL_QUERY_RESULT_AVAILABLE, mQueryResult, 0);
+            if (mQueryResult[0] == 0) {
+                complete = false;
+                continue;
+            }
+            GLES30.glGetQueryObjectuiv(query, GLES30.GL_QUERY_RESULT, mQueryResult, 0);
+            long elapsed = mQueryResult[0] & 0xFFFFFFFFL;
+            if (stage == mCostStage) {
+                mStageCostNs = elapsed;
+            }
+            if (!mEnabled) {
+                continue;
+            }
+            mWindows[Report.gpu(stage)].add(elapsed);
+            total += elapsed;
+        }
+        if (complete && mEnabled) {
+            mWindows[METRIC_FRAME_GPU].add(total);
+        }
+    }
+}
@@ -1,144 +1,335 @@
 package com.cgfay.camera.render;
 
 import android.graphics.Bitmap;
-import android.graphics.PixelFormat;
-import android.media.Image;
-import android.media.ImageReader;
-import android.opengl.EGLContext;
+import android.opengl.GLES30;
+import android.os.SystemClock;
+import android.util.Log;
 
-import com.cgfay.filter.gles.EglCore;
-import com.cgfay.filter.gles.WindowSurface;
 import com.cgfay.filter.glfilter.base.GLImageFilter;
 import com.cgfay.filter.glfilter.utils.OpenGLUtils;
+import com.cgfay.filter.glfilter.utils.Rotation;
 import com.cgfay.filter.glfilter.utils.TextureRotationUtils;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 
 /**
  * 从GPU中读取读取纹理数据
+ * 在渲染线程的上下文中把纹理绘制到FBO，通过双PBO异步读取像素，glReadPixels之后插入栅栏，
+ * 后续帧查询栅栏完成后再映射PBO，按行跨度直接拷贝到缓冲池中的Bitmap，不阻塞当前帧的渲染。
+ * 预览开始时调用prepare预先创建FBO、PBO以及Bitmap，第一次拍照不需要再创建资源。
+ * 上下文不支持OpenGL ES 3.0时，退化为同步glReadPixels。
  */
 public class GLImageReader {
 
-    // 最大存储图像数
-    private static final int MAX_IMAGE_NUMBER = 1;
-    private WindowSurface mWindowSurface;
-    private EglCore mEglCore;
-    private ImageReader mImageReader;
-    private ImageReceiveListener mListener;
+    private static final String TAG = "GLImageReader";
+
+    // PBO数量
+    private static final int PBO_COUNT = 2;
+    // PBO都在使用中时，等待最早一次读取完成的超时时间(纳秒)
+    private static final long FENCE_TIMEOUT_NS = 100_000_000L;
+
+    private final ImageReceiveListener mListener;
+    private final CaptureBitmapPool mBitmapPool;
 
     private GLImageFilter mImageFilter;
     private FloatBuffer mVertexBuffer;
     private FloatBuffer mTextureBuffer;
+    private final int[] mFrameBuffers = new int[1];
+    private final int[] mFrameBufferTextures = new int[1];
+
+    // 是否使用PBO异步读取
+    private boolean mAsyncEnable;
+    private final int[] mPixelBuffers = new int[PBO_COUNT];
+    // 各PBO的栅栏，0表示空闲
+    private final long[] mFences = new long[PBO_COUNT];
+    // 各PBO对应的拍照请求时间
+    private final long[] mRequestTimes = new long[PBO_COUNT];
+    // 下一个使用的PBO
+    private int mNextIndex;
+    // 同步读取或者行跨度不一致时使用的中转缓冲
+    private ByteBuffer mPixelBuffer;
+
+    private int mWidth;
+    private int mHeight;
+    private boolean mPrepared;
 
-    public GLImageReader(EGLContext context, ImageReceiveListener listener) {
+    // 拍照到得到Bitmap的耗时统计
+    private long mLastLatencyNs;
+    private long mTotalLatencyNs;
+    private int mCaptureCount;
+
+    public GLImageReader(ImageReceiveListener listener) {
+        this(listener, CaptureBitmapPool.getInstance());
+    }
+
+    public GLImageReader(ImageReceiveListener listener, CaptureBitmapPool bitmapPool) {
         mListener = listener;
-        mEglCore = new EglCore(context, EglCore.FLAG_RECORDABLE);
+        mBitmapPool = bitmapPool;
         mVertexBuffer = OpenGLUtils.createFloatBuffer(TextureRotationUtils.CubeVertices);
-        mTextureBuffer = OpenGLUtils.createFloatBuffer(TextureRotationUtils.TextureVertices);
-
+        // glReadPixels从底部一行开始读取，这里上下翻转绘制，读出的数据就是从顶部开始的
+        mTextureBuffer = OpenGLUtils.createFloatBuffer(
+                TextureRotationUtils.getRotation(Rotation.NORMAL, false, true));
     }
 
-    public void init(int width, int height) {
-        if (mImageReader == null) {
-            mImageReader = ImageReader.newInstance(width, height, PixelFormat.RGBA_8888, MAX_IMAGE_NUMBER);
-            mImageReader.setOnImageAvailableListener(new ImageAvailable(), null);
-            mWindowSurface = new WindowSurface(mEglCore, mImageReader.getSurface(), true);
+    /**
+     * 预先创建读取用的资源，需要在渲染线程调用，尺寸不变时直接返回
+     * @param width     纹理宽度
+     * @param height    纹理高度
+     */
+    public void prepare(int width, int height) {
+        if (width <= 0 || height <= 0 || (mPrepared && width == mWidth && height == mHeight)) {
+            return;
         }
+        long start = SystemClock.elapsedRealtime();
+        // 尺寸变化前先把读取中的数据取出来
+        flush();
+        releaseBuffers();
+        mWidth = width;
+        mHeight = height;
+
         if (mImageFilter == null) {
-            // 创建录制用的滤镜
             mImageFilter = new GLImageFilter(null);
-            mImageFilter.onInputSizeChanged(width, height);
-            mImageFilter.onDisplaySizeChanged(width, height);
         }
+        mImageFilter.onInputSizeChanged(width, height);
+        mImageFilter.onDisplaySizeChanged(width, height);
+        OpenGLUtils.createFrameBuffer(mFrameBuffers, mFrameBufferTextures, width, height);
+
+        // PBO异步读取需要OpenGL ES 3.0，申请ES 2.0上下文时大部分驱动也会返回3.x的上下文，否则回退到同步glReadPixels
+        mAsyncEnable = OpenGLUtils.isGLES3Supported();
+        if (mAsyncEnable) {
+            GLES30.glGenBuffers(PBO_COUNT, mPixelBuffers, 0);
+            for (int i = 0; i < PBO_COUNT; i++) {
+                GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffers[i]);
+                GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, getFrameSize(), null,
+                        GLES30.GL_STREAM_READ);
+            }
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        }
+        mBitmapPool.prewarm(width, height, 1);
+        mPrepared = true;
+        Log.d(TAG, "prepare: " + width + "x" + height + ", async: " + mAsyncEnable
+                + ", cost: " + (SystemClock.elapsedRealtime() - start) + "ms");
     }
 
-    public void drawFrame(int texture) {
-        makeCurrent();
-        if (mImageFilter != null) {
-            mImageFilter.drawFrame(texture, mVertexBuffer, mTextureBuffer);
+    /**
+     * 读取纹理，需要在渲染线程调用，PBO可用时只提交读取命令，结果在后续的poll中回调
+     * @param texture       纹理
+     * @param requestTime   拍照请求时间(SystemClock.elapsedRealtimeNanos)
+     */
+    public void capture(int texture, long requestTime) {
+        if (!mPrepared || texture == OpenGLUtils.GL_NOT_TEXTURE) {
+            Log.w(TAG, "capture: image reader not prepared");
+            return;
+        }
+        GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, mFrameBuffers[0]);
+        mImageFilter.drawFrame(texture, mVertexBuffer, mTextureBuffer);
+        GLES30.glPixelStorei(GLES30.GL_PACK_ALIGNMENT, 4);
+        if (mAsyncEnable) {
+            int index = mNextIndex;
+            // 两个PBO都在读取中，等最早的一次完成
+            if (mFences[index] != 0) {
+                complete(index, FENCE_TIMEOUT_NS);
+            }
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffers[index]);
+            GLES30.glReadPixels(0, 0, mWidth, mHeight, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, 0);
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            mFences[index] = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            mRequestTimes[index] = requestTime;
+            mNextIndex = (index + 1) % PBO_COUNT;
+            GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
+            // 把命令提交给GPU，否则栅栏可能要等到下一次swap才会开始执行
+            GLES30.glFlush();
+        } else {
+            ByteBuffer buffer = getPixelBuffer();
+            buffer.clear();
+            GLES30.glReadPixels(0, 0, mWidth, mHeight, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, buffer);
+            GLES30.glBindFramebuffer(GLES30.GL_FRAMEBUFFER, 0);
+            deliver(buffer, requestTime);
         }
-        swapBuffers();
     }
 
-    private void makeCurrent() {
-        if (mWindowSurface != null) {
-            mWindowSurface.makeCurrent();
+    /**
+     * 查询读取中的PBO，已经完成的直接回调，需要在渲染线程调用，每帧调用一次即可
+     */
+    public void poll() {
+        if (!mAsyncEnable) {
+            return;
+        }
+        // 按提交顺序检查，保证回调顺序与拍照顺序一致
+        for (int i = 0; i < PBO_COUNT; i++) {
+            int index = (mNextIndex + i) % PBO_COUNT;
+            if (mFences[index] != 0 && !complete(index, 0)) {
+                break;
+            }
         }
     }
 
-    private void swapBuffers() {
-        if (mWindowSurface != null) {
-            mWindowSurface.swapBuffers();
+    /**
+     * 是否有读取中的数据
+     */
+    public boolean hasPendingCapture() {
+        for (long fence : mFences) {
+            if (fence != 0) {
+                return true;
+            }
         }
+        return false;
     }
 
-    public void release() {
-        makeCurrent();
-        if (mImageReader != null) {
-            mImageReader.close();
-            mImageReader = null;
+    /**
+     * 等待并取出所有读取中的数据
+     */
+    public void flush() {
+        for (int i = 0; i < PBO_COUNT; i++) {
+            int index = (mNextIndex + i) % PBO_COUNT;
+            if (mFences[index] != 0) {
+                complete(index, FENCE_TIMEOUT_NS);
+            }
         }
+    }
+
+    /**
+     * 最近一次拍照到得到Bitmap的耗时(毫秒)
+     */
+    public float getLastLatency() {
+        return mLastLatencyNs / 1000000f;
+    }
+
+    /**
+     * 平均拍照耗时(毫秒)
+     */
+    public float getAverageLatency() {
+        return mCaptureCount > 0 ? mTotalLatencyNs / 1000000f / mCaptureCount : 0;
+    }
+
+    /**
+     * 释放资源，需要在渲染线程调用，读取中的数据会先取出回调
+     */
+    public void release() {
+        flush();
+        releaseBuffers();
         if (mImageFilter != null) {
             mImageFilter.release();
             mImageFilter = null;
         }
-        if (mWindowSurface != null) {
-            mWindowSurface.release();
-            mWindowSurface = null;
+        mPixelBuffer = null;
+    }
+
+    /**
+     * 完成一个PBO的读取
+     * @param index     PBO索引
+     * @param timeout   等待栅栏的超时时间(纳秒)，0表示只查询
+     * @return 是否已经完成
+     */
+    private boolean complete(int index, long timeout) {
+        int result = GLES30.glClientWaitSync(mFences[index],
+                GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, timeout);
+        if (result == GLES30.GL_TIMEOUT_EXPIRED) {
+            if (timeout == 0) {
+                return false;
+            }
+            Log.w(TAG, "complete: wait fence timeout");
+        }
+        GLES30.glDeleteSync(mFences[index]);
+        mFences[index] = 0;
+        if (result == GLES30.GL_WAIT_FAILED || result == GLES30.GL_TIMEOUT_EXPIRED) {
+            Log.e(TAG, "complete: wait fence failed, drop capture");
+            return true;
         }
-        if (mEglCore != null) {
-            mEglCore.release();
-            mEglCore = null;
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffers[index]);
+        ByteBuffer buffer = (ByteBuffer) GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER,
+                0, getFrameSize(), GLES30.GL_MAP_READ_BIT);
+        try {
+            if (buffer != null) {
+                deliver(buffer.order(ByteOrder.nativeOrder()), mRequestTimes[index]);
+            } else {
+                Log.e(TAG, "complete: map pixel buffer failed");
+            }
+        } finally {
+            if (buffer != null) {
+                GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+            }
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
         }
+        return true;
     }
 
-    private class ImageAvailable implements ImageReader.OnImageAvailableListener {
+    /**
+     * 把紧密排列的RGBA数据拷贝到Bitmap并回调
+     * ARGB_8888的Bitmap在内存中就是RGBA的字节顺序，行跨度一致时整块拷贝，否则按行中转
+     */
+    private void deliver(ByteBuffer pixels, long requestTime) {
+        Bitmap bitmap = mBitmapPool.obtain(mWidth, mHeight);
+        int rowStride = mWidth * 4;
+        int rowBytes = bitmap.getRowBytes();
+        pixels.position(0);
+        pixels.limit(rowStride * mHeight);
+        if (rowBytes == rowStride) {
+            bitmap.copyPixelsFromBuffer(pixels);
+        } else {
+            ByteBuffer buffer = getPixelBuffer(rowBytes * mHeight);
+            buffer.clear();
+            ByteBuffer row = pixels.duplicate();
+            for (int i = 0; i < mHeight; i++) {
+                row.limit((i + 1) * rowStride);
+                row.position(i * rowStride);
+                buffer.position(i * rowBytes);
+                buffer.put(row);
+            }
+            buffer.position(0);
+            buffer.limit(rowBytes * mHeight);
+            bitmap.copyPixelsFromBuffer(buffer);
+        }
+        long latency = SystemClock.elapsedRealtimeNanos() - requestTime;
+        mLastLatencyNs = latency;
+        mTotalLatencyNs += latency;
+        mCaptureCount++;
+        Log.d(TAG, "capture latency: " + getLastLatency() + "ms, average: " + getAverageLatency() + "ms");
+        if (mListener != null) {
+            mListener.onImageReceive(bitmap, latency / 1000000);
+        } else {
+            mBitmapPool.release(bitmap);
+        }
+    }
 
+    private ByteBuffer getPixelBuffer() {
+        return getPixelBuffer(getFrameSize());
+    }
 
-        public ImageAvailable() {
+    private ByteBuffer getPixelBuffer(int size) {
+        if (mPixelBuffer == null || mPixelBuffer.capacity() < size) {
+            mPixelBuffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
         }
+        return mPixelBuffer;
+    }
+
+    private int getFrameSize() {
+        return mWidth * mHeight * 4;
+    }
 
-        @Override
-        public void onImageAvailable(ImageReader reader) {
-            if (mListener == null) {
-                return;
+    private void releaseBuffers() {
+        for (int i = 0; i < PBO_COUNT; i++) {
+            if (mFences[i] != 0) {
+                GLES30.glDeleteSync(mFences[i]);
+                mFences[i] = 0;
             }
-            Image image = reader.acquireNextImage();
-            Image.Plane[] planes = image.getPlanes();
-            int width = image.getWidth();//设置的宽
-            int height = image.getHeight();//设置的高
-            int pixelStride = planes[0].getPixelStride();//像素个数，RGBA为4
-            int rowStride = planes[0].getRowStride();//这里除pixelStride就是真实宽度
-            int rowPadding = rowStride - pixelStride * width;//计算多余宽度
-
-            byte[] data = new byte[rowStride * height];
-            ByteBuffer buffer = planes[0].getBuffer();
-            buffer.get(data);
-
-            int[] pixelData = new int[width * height];
-
-            int offset = 0;
-            int index = 0;
-            for (int i = 0; i < height; ++i) {
-                for (int j = 0; j < width; ++j) {
-                    int pixel = 0;
-                    pixel |= (data[offset] & 0xff) << 16;     // R
-                    pixel |= (data[offset + 1] & 0xff) << 8;  // G
-                    pixel |= (data[offset + 2] & 0xff);       // B
-                    pixel |= (data[offset + 3] & 0xff) << 24; // A
-                    pixelData[index++] = pixel;
-                    offset += pixelStride;
-                }
-                offset += rowPadding;
+        }
+        if (mPixelBuffers[0] != 0) {
+            GLES30.glDeleteBuffers(PBO_COUNT, mPixelBuffers, 0);
+            for (int i = 0; i < PBO_COUNT; i++) {
+                mPixelBuffers[i] = 0;
             }
-            Bitmap bitmap = Bitmap.createBitmap(pixelData,
-                    width, height,
-                    Bitmap.Config.ARGB_8888);
-
-            image.close();
-            mListener.onImageReceive(bitmap);
         }
+        if (mFrameBuffers[0] != 0) {
+            GLES30.glDeleteFramebuffers(1, mFrameBuffers, 0);
+            GLES30.glDeleteTextures(1, mFrameBufferTextures, 0);
+            mFrameBuffers[0] = 0;
+            mFrameBufferTextures[0] = 0;
+        }
+        mNextIndex = 0;
+        mPrepared = false;
     }
 
     /**
@@ -146,7 +337,12 @@ public class GLImageReader {
      */
     public interface ImageReceiveListener {
 
-        void onImageReceive(Bitmap bitmap);
+        /**
+         * 得到拍照的Bitmap，Bitmap来自CaptureBitmapPool，使用完成后可以交还复用
+         * @param bitmap    图像
+         * @param latency   拍照请求到得到Bitmap的耗时(毫秒)
+         */
+        void onImageReceive(Bitmap bitmap, long latency);
     }
 
 }
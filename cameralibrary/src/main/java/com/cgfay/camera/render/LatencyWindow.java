@@ -0,0 +1,64 @@
+package com.cgfay.camera.render;
+
+import java.util.Arrays;
+
+/**
+ * 耗时滑动窗口
+ * 保存最近的若干个样本(纳秒)，按最近邻排名法计算分位数，添加样本不分配内存
+ */
+final class LatencyWindow {
+
+    private final long[] mSamples;
+    // 计算分位数时使用的排序缓冲
+    private final long[] mSorted;
+    private int mHead;
+    private int mCount;
+    private boolean mSortDirty = true;
+
+    LatencyWindow(int capacity) {
+        mSamples = new long[Math.max(capacity, 1)];
+        mSorted = new long[mSamples.length];
+    }
+
+    /**
+     * 添加样本，窗口已满时覆盖最早的样本
+     * @param value 耗时(纳秒)
+     */
+    void add(long value) {
+        mSamples[mHead] = value;
+        mHead = (mHead + 1) % mSamples.length;
+        if (mCount < mSamples.length) {
+            mCount++;
+        }
+        mSortDirty = true;
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    void clear() {
+        mHead = 0;
+        mCount = 0;
+        mSortDirty = true;
+    }
+
+    /**
+     * 计算分位数
+     * @param percentile 分位，0~1
+     * @return 分位数(纳秒)，没有样本时返回0
+     */
+    long percentile(float percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        if (mSortDirty) {
+            System.arraycopy(mSamples, 0, mSorted, 0, mCount);
+            Arrays.sort(mSorted, 0, mCount);
+            mSortDirty = false;
+        }
+        int rank = (int) Math.ceil(percentile * mCount);
+        int index = Math.max(0, Math.min(mCount - 1, rank - 1));
+        return mSorted[index];
+    }
+}
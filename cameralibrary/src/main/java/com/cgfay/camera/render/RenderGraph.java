@@ -0,0 +1,311 @@
+package com.cgfay.camera.render;
+
+import android.content.Context;
+import android.util.SparseArray;
+
+import com.cgfay.filter.glfilter.base.GLImageFilter;
+import com.cgfay.filter.glfilter.base.GLImageFusedColorFilter;
+import com.cgfay.filter.glfilter.base.GLImageGroupFilter;
+import com.cgfay.filter.glfilter.base.IColorPass;
+import com.cgfay.filter.glfilter.utils.FrameBuffer;
+import com.cgfay.filter.glfilter.utils.FrameBufferPool;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 渲染图
+ * 根据滤镜列表编译出实际需要执行的渲染链：
+ * 1、移除为空、不可用或者处于恒等变换状态的滤镜，避免无效的FBO读写
+ * 2、将相邻的单次采样颜色滤镜(IColorPass)合并成一个pass，中间不参与渲染的滤镜不影响合并，
+ *    子滤镜全部是颜色滤镜的滤镜组展开之后参与合并
+ * 3、单pass滤镜轮流使用两个共享的FBO(ping-pong)，不再每个滤镜各自占用一个FBO
+ * 只有在滤镜发生变化(invalidate)或者可用状态发生变化时才重新编译
+ */
+final class RenderGraph {
+
+    private final Context mContext;
+
+    // 编译后的渲染链
+    private final List<GLImageFilter> mPasses = new ArrayList<>();
+    // 各pass对应的统计阶段
+    private final List<Integer> mPassStages = new ArrayList<>();
+    // 已编译的合并滤镜，重新编译时尽量复用
+    private final List<GLImageFusedColorFilter> mFusedFilters = new ArrayList<>();
+    // 编译时的滤镜状态，每一位表示对应索引的滤镜是否参与渲染
+    private int mCompiledMask = -1;
+    private boolean mDirty = true;
+    // 轮流使用的两个FBO
+    private final FrameBuffer[] mPingPongBuffers = new FrameBuffer[2];
+
+    // 输入纹理和显示大小
+    private int mTextureWidth, mTextureHeight;
+    private int mViewWidth, mViewHeight;
+
+    // 每帧统计数据
+    private int mPassCount;
+    private int mFrameBufferCount;
+
+    RenderGraph(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * 滤镜发生变化，下一帧重新编译
+     */
+    void invalidate() {
+        mDirty = true;
+    }
+
+    /**
+     * 设置输入纹理和显示大小
+     */
+    void setSize(int textureWidth, int textureHeight, int viewWidth, int viewHeight) {
+        if (mTextureWidth != textureWidth || mTextureHeight != textureHeight) {
+            releasePingPongBuffers();
+        }
+        mTextureWidth = textureWidth;
+        mTextureHeight = textureHeight;
+        mViewWidth = viewWidth;
+        mViewHeight = viewHeight;
+        for (int i = 0; i < mFusedFilters.size(); i++) {
+            prepareFilter(mFusedFilters.get(i));
+        }
+    }
+
+    /**
+     * 绘制[begin, end)范围内的滤镜到FBO
+     * @param filters       滤镜列表
+     * @param begin         起始索引
+     * @param end           结束索引(不包含)
+     * @param textureId     输入纹理
+     * @param profiler      耗时统计
+     * @return 输出纹理
+     */
+    int drawFrameBuffer(SparseArray<GLImageFilter> filters, int begin, int end, int textureId,
+                        FloatBuffer vertexBuffer, FloatBuffer textureBuffer, FrameProfiler profiler) {
+        int mask = computeMask(filters, begin, end);
+        if (mDirty || mask != mCompiledMask) {
+            compile(filters, begin, end, mask);
+        }
+        int currentTexture = textureId;
+        for (int i = 0; i < mPasses.size(); i++) {
+            GLImageFilter filter = mPasses.get(i);
+            if (isPingPongPass(filter)) {
+                filter.setOutputFrameBuffer(getPingPongBuffer(currentTexture));
+            }
+            int stage = mPassStages.get(i);
+            profiler.beginStage(stage);
+            currentTexture = filter.drawFrameBuffer(currentTexture, vertexBuffer, textureBuffer);
+            profiler.endStage(stage);
+        }
+        return currentTexture;
+    }
+
+    /**
+     * 是否可以使用共享FBO，滤镜组以及没有program的复合滤镜内部自行管理FBO
+     */
+    private static boolean isPingPongPass(GLImageFilter filter) {
+        return filter.isInitialized() && !(filter instanceof GLImageGroupFilter);
+    }
+
+    /**
+     * 获取绑定纹理不是输入纹理的共享FBO，避免同一个纹理既读又写
+     */
+    private FrameBuffer getPingPongBuffer(int inputTexture) {
+        if (mPingPongBuffers[0] == null) {
+            mPingPongBuffers[0] = FrameBufferPool.getInstance().acquire(mTextureWidth, mTextureHeight);
+            mPingPongBuffers[1] = FrameBufferPool.getInstance().acquire(mTextureWidth, mTextureHeight);
+        }
+        if (mPingPongBuffers[0].getTextureId() != inputTexture) {
+            return mPingPongBuffers[0];
+        }
+        return mPingPongBuffers[1];
+    }
+
+    /**
+     * 归还共享FBO，滤镜仍持有引用时由滤镜释放
+     */
+    private void releasePingPongBuffers() {
+        for (int i = 0; i < mPingPongBuffers.length; i++) {
+            if (mPingPongBuffers[i] != null) {
+                FrameBufferPool.getInstance().release(mPingPongBuffers[i]);
+                mPingPongBuffers[i] = null;
+            }
+        }
+    }
+
+    /**
+     * 计算参与渲染的滤镜
+     */
+    private int computeMask(SparseArray<GLImageFilter> filters, int begin, int end) {
+        int mask = 0;
+        for (int i = begin; i < end; i++) {
+            if (isActive(filters.get(i))) {
+                mask |= (1 << i);
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * 滤镜是否需要参与渲染
+     */
+    private static boolean isActive(GLImageFilter filter) {
+        if (filter == null || !filter.isFilterEnable()) {
+            return false;
+        }
+        return !(filter instanceof IColorPass) || !((IColorPass) filter).isIdentity();
+    }
+
+    /**
+     * 编译渲染链
+     * 子滤镜全部是颜色滤镜的滤镜组(例如查找表类的动态颜色滤镜)展开成子滤镜，可以与前后的颜色滤镜合并
+     */
+    private void compile(SparseArray<GLImageFilter> filters, int begin, int end, int mask) {
+        mPasses.clear();
+        mPassStages.clear();
+        List<GLImageFilter> nodes = new ArrayList<>();
+        List<Integer> nodeStages = new ArrayList<>();
+        for (int i = begin; i < end; i++) {
+            if ((mask & (1 << i)) == 0) {
+                continue;
+            }
+            GLImageFilter filter = filters.get(i);
+            if (isColorGroup(filter)) {
+                List<GLImageFilter> children = ((GLImageGroupFilter) filter).getmFilters();
+                for (int j = 0; j < children.size(); j++) {
+                    nodes.add(children.get(j));
+                    nodeStages.add(i);
+                }
+            } else {
+                nodes.add(filter);
+                nodeStages.add(i);
+            }
+        }
+        int[] types = new int[nodes.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = isColorPass(nodes.get(i)) ? RenderPlanner.NODE_COLOR : RenderPlanner.NODE_PASS;
+        }
+
+        List<GLImageFusedColorFilter> usedFused = new ArrayList<>();
+        List<int[]> plan = RenderPlanner.plan(types);
+        for (int i = 0; i < plan.size(); i++) {
+            int[] pass = plan.get(i);
+            if (pass.length == 1) {
+                mPasses.add(nodes.get(pass[0]));
+                mPassStages.add(nodeStages.get(pass[0]));
+                continue;
+            }
+            List<IColorPass> colorRun = new ArrayList<>();
+            for (int node : pass) {
+                colorRun.add((IColorPass) nodes.get(node));
+            }
+            mPasses.add(obtainFusedFilter(colorRun, usedFused));
+            mPassStages.add(FrameProfiler.STAGE_FUSED_COLOR);
+        }
+
+        // 释放不再使用的合并滤镜
+        for (int i = 0; i < mFusedFilters.size(); i++) {
+            if (!usedFused.contains(mFusedFilters.get(i))) {
+                mFusedFilters.get(i).release();
+            }
+        }
+        mFusedFilters.clear();
+        mFusedFilters.addAll(usedFused);
+
+        // 统计每帧pass数量，相机输入和显示输出各占一个pass，其中相机输入需要一个FBO
+        mFrameBufferCount = 1 + mPasses.size();
+        mPassCount = mFrameBufferCount + 1;
+        mCompiledMask = mask;
+        mDirty = false;
+    }
+
+    /**
+     * 是否为可以合并的颜色滤镜
+     */
+    private static boolean isColorPass(GLImageFilter filter) {
+        return filter instanceof IColorPass && filter.isInitialized();
+    }
+
+    /**
+     * 是否为子滤镜全部是颜色滤镜的滤镜组
+     */
+    private static boolean isColorGroup(GLImageFilter filter) {
+        if (!(filter instanceof GLImageGroupFilter)) {
+            return false;
+        }
+        List<GLImageFilter> children = ((GLImageGroupFilter) filter).getmFilters();
+        if (children == null || children.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < children.size(); i++) {
+            if (!isColorPass(children.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 获取连续颜色滤镜的合并滤镜，优先复用已经编译的
+     */
+    private GLImageFusedColorFilter obtainFusedFilter(List<IColorPass> colorRun,
+                                                      List<GLImageFusedColorFilter> usedFused) {
+        GLImageFusedColorFilter fused = null;
+        for (int i = 0; i < mFusedFilters.size(); i++) {
+            if (mFusedFilters.get(i).isFusedFrom(colorRun)) {
+                fused = mFusedFilters.get(i);
+                break;
+            }
+        }
+        if (fused == null) {
+            fused = new GLImageFusedColorFilter(mContext, colorRun);
+            prepareFilter(fused);
+        }
+        usedFused.add(fused);
+        return fused;
+    }
+
+    /**
+     * 设置滤镜的输入输出大小以及FBO
+     */
+    private void prepareFilter(GLImageFilter filter) {
+        if (mTextureWidth == 0 || mTextureHeight == 0) {
+            return;
+        }
+        filter.onInputSizeChanged(mTextureWidth, mTextureHeight);
+        filter.initFrameBuffer(mTextureWidth, mTextureHeight);
+        filter.onDisplaySizeChanged(mViewWidth, mViewHeight);
+    }
+
+    /**
+     * 每帧执行的pass数量，包括相机输入和显示输出
+     */
+    int getPassCount() {
+        return mPassCount;
+    }
+
+    /**
+     * 每帧写入的FBO数量
+     */
+    int getFrameBufferCount() {
+        return mFrameBufferCount;
+    }
+
+    /**
+     * 释放资源
+     */
+    void release() {
+        for (int i = 0; i < mFusedFilters.size(); i++) {
+            mFusedFilters.get(i).release();
+        }
+        mFusedFilters.clear();
+        mPasses.clear();
+        mPassStages.clear();
+        releasePingPongBuffers();
+        mCompiledMask = -1;
+        mDirty = true;
+    }
+}
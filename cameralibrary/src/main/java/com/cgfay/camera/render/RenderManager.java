@@ -1,6 +1,7 @@
 package com.cgfay.camera.render;
 
 import android.content.Context;
+import android.opengl.EGLContext;
 import android.util.Log;
 import android.util.SparseArray;
 import android.view.MotionEvent;
@@ -23,11 +24,16 @@ import com.cgfay.filter.glfilter.multiframe.GLImageFrameEdgeBlurFilter;
 import com.cgfay.filter.glfilter.stickers.GLImageDynamicStickerFilter;
 import com.cgfay.filter.glfilter.stickers.GestureHelp;
 import com.cgfay.filter.glfilter.stickers.StaticStickerNormalFilter;
+import com.cgfay.filter.glfilter.stickers.StickerFramePrefetcher;
 import com.cgfay.filter.glfilter.stickers.bean.DynamicSticker;
+import com.cgfay.filter.glfilter.utils.FrameBufferPool;
+import com.cgfay.filter.glfilter.utils.GLVertexArray;
 import com.cgfay.filter.glfilter.utils.OpenGLUtils;
+import com.cgfay.filter.glfilter.utils.ProgramCache;
 import com.cgfay.filter.glfilter.utils.TextureRotationUtils;
 import com.cgfay.landmark.LandmarkEngine;
 
+import java.io.File;
 import java.nio.FloatBuffer;
 
 /**
@@ -41,6 +47,8 @@ public final class RenderManager {
 
     // 滤镜列表
     private SparseArray<GLImageFilter> mFilterArrays = new SparseArray<GLImageFilter>();
+    // 从加载线程取出的滤镜
+    private final SparseArray<GLImageFilter> mLoadedFilters = new SparseArray<GLImageFilter>();
 
     // 坐标缓冲
     private ScaleType mScaleType = ScaleType.CENTER_CROP;
@@ -59,14 +67,46 @@ public final class RenderManager {
     private CameraParam mCameraParam;
     // 上下文
     private Context mContext;
+    // 渲染图
+    private RenderGraph mRenderGraph;
+    // 切换边框模糊时缓存的显示滤镜
+    private GLImageFilter mSpareDisplayFilter;
+    // 耗时统计
+    private FrameProfiler mProfiler = new FrameProfiler();
+    // 共享上下文中加载滤镜，为null时滤镜已经全部创建
+    private FilterLoader mFilterLoader;
 
     /**
-     * 初始化
+     * 初始化，在当前线程创建所有滤镜
      */
     public void init(Context context) {
+        init(context, null);
+    }
+
+    /**
+     * 初始化
+     * @param context
+     * @param sharedContext 当前渲染线程的上下文，不为null时只创建相机输入和显示滤镜，
+     *                      其余滤镜在共享该上下文的加载线程中创建，加载完成后在绘制时装入
+     */
+    public void init(Context context, EGLContext sharedContext) {
+        // program二进制缓存，下次启动时不需要重新编译shader
+        ProgramCache.getInstance().setCacheDir(new File(context.getCacheDir(), "program_cache"));
         initBuffers();
-        initFilters(context);
+        initFilters(context, sharedContext);
         mContext = context;
+        mRenderGraph = new RenderGraph(context);
+        // 美颜阶段持续计时，用于自动画质
+        mProfiler.setCostStage(RenderIndex.BeautyIndex);
+    }
+
+    /**
+     * 设置耗时统计
+     * @param profiler
+     */
+    public void setFrameProfiler(FrameProfiler profiler) {
+        mProfiler = profiler;
+        mProfiler.setCostStage(RenderIndex.BeautyIndex);
     }
 
     /**
@@ -75,6 +115,10 @@ public final class RenderManager {
     public void release() {
         releaseBuffers();
         releaseFilters();
+        if (mRenderGraph != null) {
+            mRenderGraph.release();
+            mRenderGraph = null;
+        }
         mContext = null;
     }
 
@@ -82,12 +126,20 @@ public final class RenderManager {
      * 释放滤镜
      */
     private void releaseFilters() {
+        if (mFilterLoader != null) {
+            mFilterLoader.cancel();
+            mFilterLoader = null;
+        }
         for (int i = 0; i < RenderIndex.NumberIndex; i++) {
             if (mFilterArrays.get(i) != null) {
                 mFilterArrays.get(i).release();
             }
         }
         mFilterArrays.clear();
+        if (mSpareDisplayFilter != null) {
+            mSpareDisplayFilter.release();
+            mSpareDisplayFilter = null;
+        }
     }
 
     /**
@@ -126,11 +178,24 @@ public final class RenderManager {
     /**
      * 初始化滤镜
      * @param context
+     * @param sharedContext 不为null时在加载线程中创建相机输入和显示之外的滤镜
      */
-    private void initFilters(Context context) {
+    private void initFilters(Context context, EGLContext sharedContext) {
         releaseFilters();
         // 相机输入滤镜
         mFilterArrays.put(RenderIndex.CameraIndex, new GLImageOESInputFilter(context));
+        // LUT/颜色滤镜
+        mFilterArrays.put(RenderIndex.FilterIndex, null);
+        // 贴纸资源滤镜
+        mFilterArrays.put(RenderIndex.ResourceIndex, null);
+        // 显示输出
+        mFilterArrays.put(RenderIndex.DisplayIndex, new GLImageFilter(context));
+        if (sharedContext != null) {
+            // 先用相机输入和显示滤镜出图，其余滤镜加载完成后再装入
+            mFilterLoader = new FilterLoader(context, sharedContext);
+            mFilterLoader.start();
+            return;
+        }
         // 美颜滤镜
         mFilterArrays.put(RenderIndex.BeautyIndex, new GLImageBeautyFilter(context));
         // 彩妆滤镜
@@ -138,38 +203,76 @@ public final class RenderManager {
         // 美型滤镜
         mFilterArrays.put(RenderIndex.FaceAdjustIndex, new GLImageFaceReshapeFilter(context));
 //        mFilterArrays.put(RenderIndex.FaceAdjustIndex, null);
-        // LUT/颜色滤镜
-        mFilterArrays.put(RenderIndex.FilterIndex, null);
-        // 贴纸资源滤镜
-        mFilterArrays.put(RenderIndex.ResourceIndex, null);
         // 景深滤镜
         mFilterArrays.put(RenderIndex.DepthBlurIndex, new GLImageDepthBlurFilter(context));
         // 暗角滤镜
         mFilterArrays.put(RenderIndex.VignetteIndex, new GLImageVignetteFilter(context));
-        // 显示输出
-        mFilterArrays.put(RenderIndex.DisplayIndex, new GLImageFilter(context));
         // 人脸关键点调试
         mFilterArrays.put(RenderIndex.FacePointIndex, new GLImageFacePointsFilter(context));
     }
 
+    /**
+     * 装入加载线程已经创建好的滤镜，需要在渲染线程调用
+     */
+    private synchronized void installLoadedFilters() {
+        if (mFilterLoader == null) {
+            return;
+        }
+        if (mFilterLoader.poll(mLoadedFilters)) {
+            for (int i = 0; i < mLoadedFilters.size(); i++) {
+                int index = mLoadedFilters.keyAt(i);
+                GLImageFilter filter = mLoadedFilters.valueAt(i);
+                if (mFilterArrays.get(index) != null) {
+                    // 加载期间已经由切换操作创建
+                    filter.release();
+                    continue;
+                }
+                if (mTextureWidth != 0 && mTextureHeight != 0 && mViewWidth != 0 && mViewHeight != 0) {
+                    filter.onInputSizeChanged(mTextureWidth, mTextureHeight);
+                    if (index < RenderIndex.DisplayIndex) {
+                        filter.initFrameBuffer(mTextureWidth, mTextureHeight);
+                    }
+                    filter.onDisplaySizeChanged(mViewWidth, mViewHeight);
+                }
+                mFilterArrays.put(index, filter);
+            }
+            mLoadedFilters.clear();
+            invalidateRenderGraph();
+        }
+        if (mFilterLoader.isFinished()) {
+            mFilterLoader.cancel();
+            mFilterLoader = null;
+        }
+    }
+
+    /**
+     * 加载线程是否还有滤镜没有装入
+     */
+    public synchronized boolean isFilterLoading() {
+        return mFilterLoader != null;
+    }
+
     /**
      * 是否切换边框模糊
      * @param enableEdgeBlur
      */
     public synchronized void changeEdgeBlurFilter(boolean enableEdgeBlur) {
-        if (enableEdgeBlur) {
-            mFilterArrays.get(RenderIndex.DisplayIndex).release();
-            GLImageFrameEdgeBlurFilter filter = new GLImageFrameEdgeBlurFilter(mContext);
-            filter.onInputSizeChanged(mTextureWidth, mTextureHeight);
-            filter.onDisplaySizeChanged(mViewWidth, mViewHeight);
-            mFilterArrays.put(RenderIndex.DisplayIndex, filter);
-        } else {
-            mFilterArrays.get(RenderIndex.DisplayIndex).release();
-            GLImageFilter filter = new GLImageFilter(mContext);
-            filter.onInputSizeChanged(mTextureWidth, mTextureHeight);
-            filter.onDisplaySizeChanged(mViewWidth, mViewHeight);
-            mFilterArrays.put(RenderIndex.DisplayIndex, filter);
+        GLImageFilter current = mFilterArrays.get(RenderIndex.DisplayIndex);
+        if (current != null && (current instanceof GLImageFrameEdgeBlurFilter) == enableEdgeBlur) {
+            return;
+        }
+        // 优先复用之前切换下来的显示滤镜，避免重复编译program和创建FBO
+        GLImageFilter filter = mSpareDisplayFilter;
+        if (filter == null || (filter instanceof GLImageFrameEdgeBlurFilter) != enableEdgeBlur) {
+            if (filter != null) {
+                filter.release();
+            }
+            filter = enableEdgeBlur ? new GLImageFrameEdgeBlurFilter(mContext) : new GLImageFilter(mContext);
         }
+        filter.onInputSizeChanged(mTextureWidth, mTextureHeight);
+        filter.onDisplaySizeChanged(mViewWidth, mViewHeight);
+        mSpareDisplayFilter = current;
+        mFilterArrays.put(RenderIndex.DisplayIndex, filter);
     }
 
     /**
@@ -180,6 +283,7 @@ public final class RenderManager {
         if (mFilterArrays.get(RenderIndex.FilterIndex) != null) {
             mFilterArrays.get(RenderIndex.FilterIndex).release();
             mFilterArrays.put(RenderIndex.FilterIndex, null);
+            invalidateRenderGraph();
         }
         if (color == null) {
             return;
@@ -189,6 +293,7 @@ public final class RenderManager {
         filter.initFrameBuffer(mTextureWidth, mTextureHeight);
         filter.onDisplaySizeChanged(mViewWidth, mViewHeight);
         mFilterArrays.put(RenderIndex.FilterIndex, filter);
+        invalidateRenderGraph();
     }
 
     /**
@@ -204,6 +309,16 @@ public final class RenderManager {
             filter.initFrameBuffer(mTextureWidth, mTextureHeight);
             filter.onDisplaySizeChanged(mViewWidth, mViewHeight);
             mFilterArrays.put(RenderIndex.MakeupIndex, filter);
+            invalidateRenderGraph();
+        }
+    }
+
+    /**
+     * 滤镜发生变化，重新编译渲染图
+     */
+    private void invalidateRenderGraph() {
+        if (mRenderGraph != null) {
+            mRenderGraph.invalidate();
         }
     }
 
@@ -215,6 +330,7 @@ public final class RenderManager {
         if (mFilterArrays.get(RenderIndex.ResourceIndex) != null) {
             mFilterArrays.get(RenderIndex.ResourceIndex).release();
             mFilterArrays.put(RenderIndex.ResourceIndex, null);
+            invalidateRenderGraph();
         }
         if (color == null) {
             return;
@@ -224,6 +340,7 @@ public final class RenderManager {
         filter.initFrameBuffer(mTextureWidth, mTextureHeight);
         filter.onDisplaySizeChanged(mViewWidth, mViewHeight);
         mFilterArrays.put(RenderIndex.ResourceIndex, filter);
+        invalidateRenderGraph();
     }
 
     /**
@@ -235,6 +352,7 @@ public final class RenderManager {
         if (mFilterArrays.get(RenderIndex.ResourceIndex) != null) {
             mFilterArrays.get(RenderIndex.ResourceIndex).release();
             mFilterArrays.put(RenderIndex.ResourceIndex, null);
+            invalidateRenderGraph();
         }
         if (sticker == null) {
             return;
@@ -245,6 +363,7 @@ public final class RenderManager {
         filter.initFrameBuffer(mTextureWidth, mTextureHeight);
         filter.onDisplaySizeChanged(mViewWidth, mViewHeight);
         mFilterArrays.put(RenderIndex.ResourceIndex, filter);
+        invalidateRenderGraph();
     }
 
     /**
@@ -254,6 +373,7 @@ public final class RenderManager {
      * @return
      */
     public int drawFrame(int inputTexture, float[] mMatrix) {
+        installLoadedFilters();
         int currentTexture = inputTexture;
         if (mFilterArrays.get(RenderIndex.CameraIndex) == null
                 || mFilterArrays.get(RenderIndex.DisplayIndex) == null) {
@@ -262,57 +382,43 @@ public final class RenderManager {
         if (mFilterArrays.get(RenderIndex.CameraIndex) instanceof GLImageOESInputFilter) {
             ((GLImageOESInputFilter)mFilterArrays.get(RenderIndex.CameraIndex)).setTextureTransformMatrix(mMatrix);
         }
+        mProfiler.beginStage(RenderIndex.CameraIndex);
         currentTexture = mFilterArrays.get(RenderIndex.CameraIndex)
                 .drawFrameBuffer(currentTexture, mVertexBuffer, mTextureBuffer);
+        mProfiler.endStage(RenderIndex.CameraIndex);
         // 如果处于对比状态，不做处理
         if (!mCameraParam.showCompare) {
-            // 美颜滤镜
-            if (mFilterArrays.get(RenderIndex.BeautyIndex) != null) {
-                if (mFilterArrays.get(RenderIndex.BeautyIndex) instanceof IBeautify
-                        && mCameraParam.beauty != null) {
-                    ((IBeautify) mFilterArrays.get(RenderIndex.BeautyIndex)).onBeauty(mCameraParam.beauty);
-                }
-                currentTexture = mFilterArrays.get(RenderIndex.BeautyIndex).drawFrameBuffer(currentTexture, mVertexBuffer, mTextureBuffer);
-            }
-
-            // 彩妆滤镜
-            if (mFilterArrays.get(RenderIndex.MakeupIndex) != null) {
-                currentTexture = mFilterArrays.get(RenderIndex.MakeupIndex).drawFrameBuffer(currentTexture, mVertexBuffer, mTextureBuffer);
-            }
-
-            // 美型滤镜
-            if (mFilterArrays.get(RenderIndex.FaceAdjustIndex) != null) {
-                if (mFilterArrays.get(RenderIndex.FaceAdjustIndex) instanceof IBeautify) {
-                    ((IBeautify) mFilterArrays.get(RenderIndex.FaceAdjustIndex)).onBeauty(mCameraParam.beauty);
-                }
-                currentTexture = mFilterArrays.get(RenderIndex.FaceAdjustIndex).drawFrameBuffer(currentTexture, mVertexBuffer, mTextureBuffer);
+            // 美颜参数
+            if (mFilterArrays.get(RenderIndex.BeautyIndex) instanceof IBeautify
+                    && mCameraParam.beauty != null) {
+                ((IBeautify) mFilterArrays.get(RenderIndex.BeautyIndex)).onBeauty(mCameraParam.beauty);
             }
-
-            // 绘制颜色滤镜
-            if (mFilterArrays.get(RenderIndex.FilterIndex) != null) {
-                currentTexture = mFilterArrays.get(RenderIndex.FilterIndex).drawFrameBuffer(currentTexture, mVertexBuffer, mTextureBuffer);
+            // 根据美颜阶段实际的渲染耗时调整自动画质
+            float beautyCost = mProfiler.pollStageCost();
+            if (beautyCost >= 0 && mFilterArrays.get(RenderIndex.BeautyIndex) instanceof GLImageBeautyFilter) {
+                ((GLImageBeautyFilter) mFilterArrays.get(RenderIndex.BeautyIndex)).updateAutoQuality(beautyCost);
             }
-
-            // 资源滤镜，可以是贴纸、滤镜甚至是彩妆类型
-            if (mFilterArrays.get(RenderIndex.ResourceIndex) != null) {
-                currentTexture = mFilterArrays.get(RenderIndex.ResourceIndex).drawFrameBuffer(currentTexture, mVertexBuffer, mTextureBuffer);
+            // 美型参数
+            if (mFilterArrays.get(RenderIndex.FaceAdjustIndex) instanceof IBeautify) {
+                ((IBeautify) mFilterArrays.get(RenderIndex.FaceAdjustIndex)).onBeauty(mCameraParam.beauty);
             }
-
             // 景深
             if (mFilterArrays.get(RenderIndex.DepthBlurIndex) != null) {
                 mFilterArrays.get(RenderIndex.DepthBlurIndex).setFilterEnable(mCameraParam.enableDepthBlur);
-                currentTexture = mFilterArrays.get(RenderIndex.DepthBlurIndex).drawFrameBuffer(currentTexture, mVertexBuffer, mTextureBuffer);
             }
-
             // 暗角
             if (mFilterArrays.get(RenderIndex.VignetteIndex) != null) {
                 mFilterArrays.get(RenderIndex.VignetteIndex).setFilterEnable(mCameraParam.enableVignette);
-                currentTexture = mFilterArrays.get(RenderIndex.VignetteIndex).drawFrameBuffer(currentTexture, mVertexBuffer, mTextureBuffer);
             }
+            // 美颜、彩妆、美型、颜色滤镜、资源、景深、暗角，由渲染图跳过无效滤镜并合并颜色滤镜
+            currentTexture = mRenderGraph.drawFrameBuffer(mFilterArrays, RenderIndex.BeautyIndex,
+                    RenderIndex.DisplayIndex, currentTexture, mVertexBuffer, mTextureBuffer, mProfiler);
         }
 
         // 显示输出，需要调整视口大小
+        mProfiler.beginStage(RenderIndex.DisplayIndex);
         mFilterArrays.get(RenderIndex.DisplayIndex).drawFrame(currentTexture, mDisplayVertexBuffer, mDisplayTextureBuffer);
+        mProfiler.endStage(RenderIndex.DisplayIndex);
 
         return currentTexture;
     }
@@ -324,7 +430,9 @@ public final class RenderManager {
     public void drawFacePoint(int mCurrentTexture) {
         if (mFilterArrays.get(RenderIndex.FacePointIndex) != null) {
             if (mCameraParam.drawFacePoints && LandmarkEngine.getInstance().hasFace()) {
+                mProfiler.beginStage(RenderIndex.FacePointIndex);
                 mFilterArrays.get(RenderIndex.FacePointIndex).drawFrame(mCurrentTexture, mDisplayVertexBuffer, mDisplayTextureBuffer);
+                mProfiler.endStage(RenderIndex.FacePointIndex);
             }
         }
     }
@@ -359,6 +467,96 @@ public final class RenderManager {
         return mTextureHeight;
     }
 
+    /**
+     * 获取每帧渲染的pass数量
+     * @return
+     */
+    public int getRenderPassCount() {
+        return mRenderGraph != null ? mRenderGraph.getPassCount() : 0;
+    }
+
+    /**
+     * 获取每帧写入的FBO数量
+     * @return
+     */
+    public int getFrameBufferCount() {
+        return mRenderGraph != null ? mRenderGraph.getFrameBufferCount() : 0;
+    }
+
+    /**
+     * 获取FBO缓存池中存活的FBO数量
+     * @return
+     */
+    public int getLiveFrameBufferCount() {
+        return FrameBufferPool.getInstance().getLiveCount();
+    }
+
+    /**
+     * 获取FBO缓存池中同时存活的FBO数量峰值
+     * @return
+     */
+    public int getPeakFrameBufferCount() {
+        return FrameBufferPool.getInstance().getPeakCount();
+    }
+
+    /**
+     * 获取program缓存命中次数，包括内存缓存和磁盘缓存
+     * @return
+     */
+    public int getProgramCacheHitCount() {
+        ProgramCache cache = ProgramCache.getInstance();
+        return cache.getHitCount() + cache.getBinaryHitCount();
+    }
+
+    /**
+     * 获取program缓存未命中、从源码编译的次数
+     * @return
+     */
+    public int getProgramCacheMissCount() {
+        return ProgramCache.getInstance().getMissCount();
+    }
+
+    /**
+     * 获取累计编译和加载program的耗时(毫秒)
+     * @return
+     */
+    public float getProgramLoadTime() {
+        ProgramCache cache = ProgramCache.getInstance();
+        return (cache.getCompileTime() + cache.getBinaryLoadTime()) / 1000000f;
+    }
+
+    /**
+     * 获取累计使用VAO绘制的次数
+     * @return
+     */
+    public long getVertexArrayDrawCount() {
+        return GLVertexArray.getVertexArrayDrawCount();
+    }
+
+    /**
+     * 获取累计使用客户端顶点数组绘制的次数
+     * @return
+     */
+    public long getClientArrayDrawCount() {
+        return GLVertexArray.getClientArrayDrawCount();
+    }
+
+    /**
+     * 获取贴纸帧预取命中率
+     * @return
+     */
+    public float getStickerPrefetchHitRate() {
+        return StickerFramePrefetcher.getHitRate();
+    }
+
+    /**
+     * 获取贴纸帧平均解码耗时(ms)
+     * @return
+     */
+    public float getStickerDecodeTime() {
+        return StickerFramePrefetcher.getAverageDecodeTime();
+    }
+
     /**
      * 设置纹理显示大小
      * @param width
@@ -387,6 +585,9 @@ public final class RenderManager {
                 mFilterArrays.get(i).onDisplaySizeChanged(mViewWidth, mViewHeight);
             }
         }
+        if (mRenderGraph != null) {
+            mRenderGraph.setSize(mTextureWidth, mTextureHeight, mViewWidth, mViewHeight);
+        }
     }
 
     /**
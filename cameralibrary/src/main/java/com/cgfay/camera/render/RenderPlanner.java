@@ -0,0 +1,53 @@
+package com.cgfay.camera.render;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 渲染链划分
+ * 只根据各节点的类型决定每个pass包含哪些节点，不涉及GL调用：
+ * 不参与渲染的节点直接跳过，不会打断前后颜色节点的合并；连续的颜色节点合并成一个pass。
+ */
+final class RenderPlanner {
+
+    // 不参与渲染，例如为空、不可用或者处于恒等变换状态
+    static final int NODE_SKIP = 0;
+    // 单独的pass
+    static final int NODE_PASS = 1;
+    // 单次采样的颜色变换，可以与相邻的颜色节点合并
+    static final int NODE_COLOR = 2;
+
+    private RenderPlanner() {
+
+    }
+
+    /**
+     * 划分pass
+     * @param nodes 各节点的类型
+     * @return 每个pass包含的节点下标，包含多个节点时需要合并
+     */
+    static List<int[]> plan(int[] nodes) {
+        List<int[]> passes = new ArrayList<>();
+        int runCount = 0;
+        int[] run = new int[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            if (nodes[i] == NODE_SKIP) {
+                continue;
+            }
+            if (nodes[i] == NODE_COLOR) {
+                run[runCount++] = i;
+                continue;
+            }
+            if (runCount > 0) {
+                passes.add(Arrays.copyOf(run, runCount));
+                runCount = 0;
+            }
+            passes.add(new int[] { i });
+        }
+        if (runCount > 0) {
+            passes.add(Arrays.copyOf(run, runCount));
+        }
+        return passes;
+    }
+}
@@ -21,6 +21,16 @@ public class PathConstraints {
      * @return
      */
     public static String getImageCachePath(Context context) {
+        return getImageCachePath(context, ".jpeg");
+    }
+
+    /**
+     * 获取图片缓存绝对路径
+     * @param context
+     * @param suffix    文件后缀，例如".jpeg"、".webp"
+     * @return
+     */
+    public static String getImageCachePath(Context context, String suffix) {
         String directoryPath;
         // 判断外部存储是否可用，如果不可用则使用内部存储路径
         if (Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())) {
@@ -28,7 +38,7 @@ public class PathConstraints {
         } else { // 使用内部存储缓存目录
             directoryPath = context.getCacheDir().getAbsolutePath();
         }
-        String path = directoryPath + File.separator + "CainCamera_" + System.currentTimeMillis() + ".jpeg";
+        String path = directoryPath + File.separator + "CainCamera_" + System.currentTimeMillis() + suffix;
         File file = new File(path);
         if (!file.getParentFile().exists()) {
             file.getParentFile().mkdirs();
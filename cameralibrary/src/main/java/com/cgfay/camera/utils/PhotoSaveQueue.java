@@ -0,0 +1,369 @@
+package com.cgfay.camera.utils;
+
+import android.graphics.Bitmap;
+import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.cgfay.camera.render.CaptureBitmapPool;
+import com.cgfay.uitls.utils.BitmapUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 照片保存队列
+ * 拍照得到的Bitmap放入有界队列，由后台线程编码(JPEG/WebP)、写入临时文件、写入EXIF，
+ * 最后重命名为目标文件，目标路径上不会出现写了一半的文件。编码完成后Bitmap立即交还缓冲池，
+ * 不用等待写盘。入队时马上返回PendingPhoto，保存结果以及各阶段耗时在保存线程中回调。
+ * 队列已满时直接拒绝，不阻塞调用线程(拍照在渲染线程回调)。
+ */
+public final class PhotoSaveQueue {
+
+    private static final String TAG = "PhotoSaveQueue";
+
+    // 默认保存线程数
+    public static final int DEFAULT_WORKER_COUNT = 2;
+    // 默认队列长度
+    public static final int DEFAULT_CAPACITY = 4;
+
+    // 临时文件后缀
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * 保存完成回调，在保存线程中执行
+     */
+    public interface Callback {
+
+        /**
+         * 保存完成
+         * @param photo 照片，通过isSuccess判断是否保存成功
+         */
+        void onPhotoSaved(PendingPhoto photo);
+    }
+
+    /**
+     * 等待保存的照片
+     */
+    public static final class PendingPhoto {
+
+        public static final int STATE_PENDING = 0;
+        public static final int STATE_SAVED = 1;
+        public static final int STATE_FAILED = 2;
+
+        private final String mPath;
+        private final Bitmap.CompressFormat mFormat;
+        private final int mQuality;
+        private final Bundle mExif;
+        private final Callback mCallback;
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+        private Bitmap mBitmap;
+        private volatile int mState = STATE_PENDING;
+        private volatile String mError;
+
+        // 各阶段耗时(毫秒)
+        private final long mEnqueueTime;
+        private volatile long mQueueTime;
+        private volatile long mEncodeTime;
+        private volatile long mWriteTime;
+        private volatile long mExifTime;
+        private volatile long mRenameTime;
+        private volatile long mTotalTime;
+        private volatile int mFileSize;
+
+        private PendingPhoto(Bitmap bitmap, String path, Bitmap.CompressFormat format, int quality,
+                             Bundle exif, Callback callback) {
+            mBitmap = bitmap;
+            mPath = path;
+            mFormat = format;
+            mQuality = quality;
+            mExif = exif;
+            mCallback = callback;
+            mEnqueueTime = SystemClock.elapsedRealtime();
+        }
+
+        /**
+         * 保存路径，保存成功之前该路径上没有文件
+         */
+        public String getPath() {
+            return mPath;
+        }
+
+        public int getState() {
+            return mState;
+        }
+
+        public boolean isDone() {
+            return mState != STATE_PENDING;
+        }
+
+        public boolean isSuccess() {
+            return mState == STATE_SAVED;
+        }
+
+        /**
+         * 失败原因
+         */
+        public String getError() {
+            return mError;
+        }
+
+        /**
+         * 等待保存完成
+         * @param timeoutMs 超时时间
+         * @return 是否已经完成
+         * @throws InterruptedException
+         */
+        public boolean await(long timeoutMs) throws InterruptedException {
+            return mLatch.await(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * 在队列中等待的时间
+         */
+        public long getQueueTime() {
+            return mQueueTime;
+        }
+
+        /**
+         * 编码耗时
+         */
+        public long getEncodeTime() {
+            return mEncodeTime;
+        }
+
+        /**
+         * 写入临时文件耗时，包括同步到磁盘
+         */
+        public long getWriteTime() {
+            return mWriteTime;
+        }
+
+        /**
+         * 写入EXIF耗时
+         */
+        public long getExifTime() {
+            return mExifTime;
+        }
+
+        /**
+         * 重命名耗时
+         */
+        public long getRenameTime() {
+            return mRenameTime;
+        }
+
+        /**
+         * 入队到完成的总耗时
+         */
+        public long getTotalTime() {
+            return mTotalTime;
+        }
+
+        /**
+         * 文件大小
+         */
+        public int getFileSize() {
+            return mFileSize;
+        }
+
+        @Override
+        public String toString() {
+            return "PendingPhoto{path=" + mPath + ", state=" + mState
+                    + ", queue=" + mQueueTime + "ms, encode=" + mEncodeTime
+                    + "ms, write=" + mWriteTime + "ms, exif=" + mExifTime
+                    + "ms, rename=" + mRenameTime + "ms, total=" + mTotalTime
+                    + "ms, size=" + mFileSize + "}";
+        }
+    }
+
+    private final ArrayBlockingQueue<PendingPhoto> mQueue;
+    private final Thread[] mWorkers;
+    private final CaptureBitmapPool mBitmapPool;
+    private volatile boolean mQuit;
+
+    public PhotoSaveQueue() {
+        this(DEFAULT_WORKER_COUNT, DEFAULT_CAPACITY, CaptureBitmapPool.getInstance());
+    }
+
+    /**
+     * @param workerCount   保存线程数
+     * @param capacity      队列长度
+     * @param bitmapPool    编码完成后交还Bitmap的缓冲池，为null时直接回收
+     */
+    public PhotoSaveQueue(int workerCount, int capacity, CaptureBitmapPool bitmapPool) {
+        mQueue = new ArrayBlockingQueue<>(Math.max(capacity, 1));
+        mBitmapPool = bitmapPool;
+        mWorkers = new Thread[Math.max(workerCount, 1)];
+        for (int i = 0; i < mWorkers.length; i++) {
+            mWorkers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    loop();
+                }
+            }, TAG + "-" + i);
+            mWorkers[i].setDaemon(true);
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * 提交保存任务，Bitmap的所有权交给队列
+     * @param bitmap    图像
+     * @param path      保存路径
+     * @param format    编码格式，JPEG或者WEBP
+     * @param quality   编码质量，0~100
+     * @param exif      EXIF信息，键为BitmapUtils.EXIF_TAGS，可为null
+     * @param callback  保存完成回调，可为null
+     * @return 等待保存的照片，队列已满或者已经释放时返回的照片状态为失败
+     */
+    public PendingPhoto enqueue(Bitmap bitmap, String path, Bitmap.CompressFormat format,
+                                int quality, Bundle exif, Callback callback) {
+        PendingPhoto photo = new PendingPhoto(bitmap, path, format,
+                Math.max(0, Math.min(quality, 100)), exif, callback);
+        if (mQuit || !mQueue.offer(photo)) {
+            Log.w(TAG, "enqueue: save queue is full, drop photo " + path);
+            recycleBitmap(photo);
+            finish(photo, PendingPhoto.STATE_FAILED, "save queue is full");
+        }
+        return photo;
+    }
+
+    /**
+     * 排队中的照片数量
+     */
+    public int getPendingCount() {
+        return mQueue.size();
+    }
+
+    /**
+     * 释放队列，已经入队的照片会继续保存完
+     */
+    public void release() {
+        mQuit = true;
+        for (Thread worker : mWorkers) {
+            worker.interrupt();
+        }
+    }
+
+    private void loop() {
+        // 每个线程复用自己的编码缓冲
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        while (true) {
+            PendingPhoto photo;
+            try {
+                photo = mQuit ? mQueue.poll() : mQueue.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (photo == null) {
+                break;
+            }
+            save(photo, stream);
+        }
+    }
+
+    private void save(PendingPhoto photo, ByteArrayOutputStream stream) {
+        long start = SystemClock.elapsedRealtime();
+        photo.mQueueTime = start - photo.mEnqueueTime;
+
+        // 编码
+        stream.reset();
+        boolean encoded;
+        try {
+            encoded = photo.mBitmap != null && !photo.mBitmap.isRecycled()
+                    && photo.mBitmap.compress(photo.mFormat, photo.mQuality, stream);
+        } finally {
+            recycleBitmap(photo);
+        }
+        long time = SystemClock.elapsedRealtime();
+        photo.mEncodeTime = time - start;
+        if (!encoded) {
+            finish(photo, PendingPhoto.STATE_FAILED, "encode failed");
+            return;
+        }
+
+        File file = new File(photo.mPath);
+        File tempFile = new File(photo.mPath + TEMP_SUFFIX);
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        // 写入临时文件
+        FileOutputStream output = null;
+        try {
+            output = new FileOutputStream(tempFile);
+            stream.writeTo(output);
+            output.flush();
+            output.getFD().sync();
+        } catch (IOException e) {
+            closeQuietly(output);
+            tempFile.delete();
+            finish(photo, PendingPhoto.STATE_FAILED, "write failed: " + e.getMessage());
+            return;
+        }
+        closeQuietly(output);
+        photo.mFileSize = stream.size();
+        long now = SystemClock.elapsedRealtime();
+        photo.mWriteTime = now - time;
+        time = now;
+
+        // 写入EXIF，失败时仍然保留照片
+        if (photo.mExif != null && !BitmapUtils.saveExifAttributes(tempFile.getAbsolutePath(), photo.mExif)) {
+            Log.w(TAG, "save: write exif failed, " + photo.mPath);
+        }
+        now = SystemClock.elapsedRealtime();
+        photo.mExifTime = now - time;
+        time = now;
+
+        // 重命名为目标文件
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            finish(photo, PendingPhoto.STATE_FAILED, "rename failed");
+            return;
+        }
+        photo.mRenameTime = SystemClock.elapsedRealtime() - time;
+        finish(photo, PendingPhoto.STATE_SAVED, null);
+    }
+
+    private void recycleBitmap(PendingPhoto photo) {
+        Bitmap bitmap = photo.mBitmap;
+        photo.mBitmap = null;
+        if (bitmap == null) {
+            return;
+        }
+        if (mBitmapPool != null) {
+            mBitmapPool.release(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    private void finish(PendingPhoto photo, int state, String error) {
+        photo.mTotalTime = SystemClock.elapsedRealtime() - photo.mEnqueueTime;
+        photo.mError = error;
+        photo.mState = state;
+        photo.mLatch.countDown();
+        Log.d(TAG, photo.toString() + (error != null ? ", error: " + error : ""));
+        if (photo.mCallback != null) {
+            photo.mCallback.onPhotoSaved(photo);
+        }
+    }
+
+    private static void closeQuietly(FileOutputStream output) {
+        if (output != null) {
+            try {
+                output.close();
+            } catch (IOException e) {
+                // do nothing
+            }
+        }
+    }
+}
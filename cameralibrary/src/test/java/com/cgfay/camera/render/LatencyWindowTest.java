@@ -0,0 +1,95 @@
+package com.cgfay.camera.render;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 耗时滑动窗口测试
+ */
+public class LatencyWindowTest {
+
+    @Test
+    public void emptyWindow() {
+        LatencyWindow window = new LatencyWindow(8);
+        assertEquals(0, window.size());
+        assertEquals(0, window.percentile(0.5f));
+        assertEquals(0, window.percentile(0.99f));
+    }
+
+    @Test
+    public void nearestRankPercentile() {
+        LatencyWindow window = new LatencyWindow(100);
+        // 乱序写入1~100
+        int[] values = new int[100];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i + 1;
+        }
+        Random random = new Random(7);
+        for (int i = values.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int temp = values[i];
+            values[i] = values[j];
+            values[j] = temp;
+        }
+        for (int value : values) {
+            window.add(value);
+        }
+        assertEquals(100, window.size());
+        assertEquals(50, window.percentile(0.50f));
+        assertEquals(95, window.percentile(0.95f));
+        assertEquals(99, window.percentile(0.99f));
+        assertEquals(100, window.percentile(1.0f));
+        assertEquals(1, window.percentile(0f));
+    }
+
+    @Test
+    public void slidingWindowDropsOldSamples() {
+        LatencyWindow window = new LatencyWindow(10);
+        for (int i = 0; i < 10; i++) {
+            window.add(1000);
+        }
+        assertEquals(1000, window.percentile(0.5f));
+        // 新样本覆盖最早的样本，窗口内只剩下较小的值
+        for (int i = 0; i < 10; i++) {
+            window.add(i + 1);
+        }
+        assertEquals(10, window.size());
+        assertEquals(5, window.percentile(0.5f));
+        assertEquals(10, window.percentile(0.99f));
+    }
+
+    @Test
+    public void matchesReference() {
+        LatencyWindow window = new LatencyWindow(120);
+        Random random = new Random(42);
+        long[] all = new long[500];
+        float[] percentiles = {0.5f, 0.95f, 0.99f};
+        for (int i = 0; i < all.length; i++) {
+            all[i] = (long) (random.nextGaussian() * 2000000 + 16000000);
+            window.add(all[i]);
+            int count = Math.min(i + 1, 120);
+            long[] reference = Arrays.copyOfRange(all, i + 1 - count, i + 1);
+            Arrays.sort(reference);
+            for (float p : percentiles) {
+                int rank = (int) Math.ceil(p * count);
+                assertEquals(reference[Math.max(rank - 1, 0)], window.percentile(p));
+            }
+        }
+    }
+
+    @Test
+    public void clear() {
+        LatencyWindow window = new LatencyWindow(4);
+        window.add(5);
+        window.add(6);
+        window.clear();
+        assertEquals(0, window.size());
+        assertEquals(0, window.percentile(0.5f));
+        window.add(3);
+        assertEquals(3, window.percentile(0.5f));
+    }
+}
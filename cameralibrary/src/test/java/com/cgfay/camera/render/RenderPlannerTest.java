@@ -0,0 +1,109 @@
+package com.cgfay.camera.render;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static com.cgfay.camera.render.RenderPlanner.NODE_COLOR;
+import static com.cgfay.camera.render.RenderPlanner.NODE_PASS;
+import static com.cgfay.camera.render.RenderPlanner.NODE_SKIP;
+import static org.junit.Assert.*;
+
+/**
+ * 渲染链划分测试，节点按照RenderManager中[BeautyIndex, DisplayIndex)的顺序排列
+ */
+public class RenderPlannerTest {
+
+    /**
+     * 按照RenderIndex的顺序生成节点，颜色滤镜位置可以展开成多个查找表
+     * @param lookupTables  颜色滤镜中的查找表个数，0表示没有选择颜色滤镜
+     * @param resource      是否有贴纸等资源
+     * @param depthBlur     是否开启景深
+     * @param vignette      是否开启暗角
+     * @return 节点类型以及各节点对应的RenderIndex
+     */
+    private static int[][] cameraChain(int lookupTables, boolean resource, boolean depthBlur,
+                                       boolean vignette) {
+        int count = RenderIndex.DisplayIndex - RenderIndex.BeautyIndex + Math.max(lookupTables - 1, 0);
+        int[] nodes = new int[count];
+        int[] indices = new int[count];
+        int node = 0;
+        for (int index = RenderIndex.BeautyIndex; index < RenderIndex.DisplayIndex; index++) {
+            int type;
+            switch (index) {
+                case RenderIndex.FilterIndex:
+                    for (int i = 1; i < lookupTables; i++) {
+                        indices[node] = index;
+                        nodes[node++] = NODE_COLOR;
+                    }
+                    type = lookupTables > 0 ? NODE_COLOR : NODE_SKIP;
+                    break;
+                case RenderIndex.ResourceIndex:
+                    type = resource ? NODE_PASS : NODE_SKIP;
+                    break;
+                case RenderIndex.DepthBlurIndex:
+                    type = depthBlur ? NODE_PASS : NODE_SKIP;
+                    break;
+                case RenderIndex.VignetteIndex:
+                    type = vignette ? NODE_COLOR : NODE_SKIP;
+                    break;
+                default:
+                    // 美颜、彩妆、美型
+                    type = NODE_PASS;
+                    break;
+            }
+            indices[node] = index;
+            nodes[node++] = type;
+        }
+        return new int[][] { nodes, indices };
+    }
+
+    private static int[] toIndices(int[] pass, int[] indices) {
+        int[] result = new int[pass.length];
+        for (int i = 0; i < pass.length; i++) {
+            result[i] = indices[pass[i]];
+        }
+        return result;
+    }
+
+    @Test
+    public void lookupTableFusesWithVignetteAcrossInactiveSlots() {
+        int[][] chain = cameraChain(1, false, false, true);
+        List<int[]> passes = RenderPlanner.plan(chain[0]);
+        // 美颜、彩妆、美型各一个pass，颜色滤镜和暗角合并成一个pass
+        assertEquals(4, passes.size());
+        assertArrayEquals(new int[] { RenderIndex.FilterIndex, RenderIndex.VignetteIndex },
+                toIndices(passes.get(3), chain[1]));
+    }
+
+    @Test
+    public void colorGroupChildrenFuseIntoOnePass() {
+        int[][] chain = cameraChain(2, false, false, true);
+        List<int[]> passes = RenderPlanner.plan(chain[0]);
+        assertEquals(4, passes.size());
+        assertArrayEquals(new int[] { RenderIndex.FilterIndex, RenderIndex.FilterIndex,
+                RenderIndex.VignetteIndex }, toIndices(passes.get(3), chain[1]));
+    }
+
+    @Test
+    public void activePassBetweenColorsPreventsFusion() {
+        int[][] chain = cameraChain(1, false, true, true);
+        List<int[]> passes = RenderPlanner.plan(chain[0]);
+        assertEquals(6, passes.size());
+        for (int[] pass : passes) {
+            assertEquals(1, pass.length);
+        }
+        assertEquals(RenderIndex.FilterIndex, chain[1][passes.get(3)[0]]);
+        assertEquals(RenderIndex.DepthBlurIndex, chain[1][passes.get(4)[0]]);
+        assertEquals(RenderIndex.VignetteIndex, chain[1][passes.get(5)[0]]);
+    }
+
+    @Test
+    public void skippedNodesProduceNoPass() {
+        List<int[]> passes = RenderPlanner.plan(new int[] { NODE_SKIP, NODE_SKIP });
+        assertTrue(passes.isEmpty());
+        passes = RenderPlanner.plan(new int[] { NODE_COLOR });
+        assertEquals(1, passes.size());
+        assertArrayEquals(new int[] { 0 }, passes.get(0));
+    }
+}
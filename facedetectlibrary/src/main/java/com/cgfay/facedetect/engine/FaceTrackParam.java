@@ -1,6 +1,8 @@
 package com.cgfay.facedetect.engine;
 
 import com.cgfay.facedetect.listener.FaceTrackerCallback;
+import com.cgfay.facedetect.listener.OnFrameReleaseListener;
+import com.cgfay.landmark.LandmarkPredictor;
 
 /**
  * 人脸检测参数
@@ -31,10 +33,26 @@ public final class FaceTrackParam {
     public int minFaceSize;
     // 检测间隔
     public int detectInterval;
+    // 每N帧检测一次
+    public int frameInterval;
+    // 是否预测关键点，开启后渲染每一帧都外推关键点，不再等待检测完成
+    public boolean enablePrediction;
+    // 是否根据检测耗时自动调整检测间隔，只在开启预测时生效，frameInterval作为最小间隔
+    public boolean adaptiveInterval;
+    // 自动调整时的最大检测间隔
+    public int maxFrameInterval;
+    // 关键点平滑的最小截止频率(Hz)，越小抖动越少、延迟越大
+    public float smoothMinCutoff;
+    // 关键点平滑的速度系数，越大快速运动时延迟越小
+    public float smoothBeta;
+    // 最大外推时间(毫秒)
+    public float maxPredictionTime;
     // 检测模式
     public int trackMode;
     // 检测回调
     public FaceTrackerCallback trackerCallback;
+    // 检测帧释放回调
+    public OnFrameReleaseListener frameReleaseListener;
 
     private static class FaceParamHolder {
         public static FaceTrackParam instance = new FaceTrackParam();
@@ -62,8 +80,16 @@ public final class FaceTrackParam {
         enableMultiFace = true;
         minFaceSize = 200;
         detectInterval = 25;
+        frameInterval = 1;
+        enablePrediction = true;
+        adaptiveInterval = true;
+        maxFrameInterval = 3;
+        smoothMinCutoff = LandmarkPredictor.DEFAULT_MIN_CUTOFF;
+        smoothBeta = LandmarkPredictor.DEFAULT_BETA;
+        maxPredictionTime = LandmarkPredictor.DEFAULT_MAX_PREDICTION_TIME;
 //        trackMode = Facepp.FaceppConfig.DETECTION_MODE_TRACKING_SMOOTH;
         trackerCallback = null;
+        frameReleaseListener = null;
     }
 
     public void setCanFaceTrack(boolean canFaceTrack) {
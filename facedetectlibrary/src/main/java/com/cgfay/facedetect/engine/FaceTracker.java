@@ -6,14 +6,15 @@ import android.os.Looper;
 import android.util.Log;
 
 import com.cgfay.facedetect.listener.FaceTrackerCallback;
+import com.cgfay.facedetect.listener.OnFrameReleaseListener;
 import com.cgfay.facedetect.utils.ConUtil;
 import com.cgfay.facedetect.utils.SensorEventUtil;
 import com.cgfay.landmark.LandmarkEngine;
+import com.cgfay.landmark.LandmarkFrame;
 import com.cgfay.landmark.OneFace;
-import com.zeusee.main.hyperlandmark.jni.Face;
+import com.zeusee.main.hyperlandmark.jni.FaceResult;
 import com.zeusee.main.hyperlandmark.jni.FaceTracking;
 
-import java.util.List;
 
 import androidx.annotation.Nullable;
 
@@ -85,15 +86,104 @@ public final class FaceTracker {
     /**
      * 检测人脸
      *
+     * @return 该帧会在检测完成后回调onTrackingFinish时返回true，按检测间隔跳过、
+     *         替换掉信箱中的旧帧或者检测器未初始化时返回false，调用方需要自行驱动渲染
      */
-    public void trackFace(byte[] data, int width, int height) {
+    public boolean trackFace(byte[] data, int width, int height) {
         synchronized (mSyncFence) {
             if (mTrackerThread != null) {
-                mTrackerThread.trackFace(data, width, height);
+                return mTrackerThread.trackFace(data, width, height);
+            } else {
+                releaseFrame(data);
+                return false;
             }
         }
     }
 
+    /**
+     * 释放检测帧
+     * @param data 图像数据
+     */
+    private static void releaseFrame(byte[] data) {
+        OnFrameReleaseListener listener = FaceTrackParam.getInstance().frameReleaseListener;
+        if (listener != null) {
+            listener.onFrameRelease(data);
+        }
+    }
+
+    /**
+     * 检测线程忙时被新帧替换掉的帧数
+     */
+    public long getDroppedFrameCount() {
+        synchronized (mSyncFence) {
+            return mTrackerThread != null ? mTrackerThread.mDroppedCount : 0;
+        }
+    }
+
+    /**
+     * 按检测间隔跳过的帧数
+     */
+    public long getSkippedFrameCount() {
+        synchronized (mSyncFence) {
+            return mTrackerThread != null ? mTrackerThread.mSkippedCount : 0;
+        }
+    }
+
+    /**
+     * 最近一帧在信箱中等待的时间(毫秒)
+     */
+    public float getQueueAge() {
+        synchronized (mSyncFence) {
+            return mTrackerThread != null ? mTrackerThread.mLastQueueAge / 1000000f : 0;
+        }
+    }
+
+    /**
+     * 最近一帧从送入到关键点更新完成的延时(毫秒)
+     */
+    public float getTrackLatency() {
+        synchronized (mSyncFence) {
+            return mTrackerThread != null ? mTrackerThread.mLastLatency / 1000000f : 0;
+        }
+    }
+
+    /**
+     * 平均检测延时(毫秒)
+     */
+    public float getAverageTrackLatency() {
+        synchronized (mSyncFence) {
+            if (mTrackerThread == null || mTrackerThread.mTrackedCount == 0) {
+                return 0;
+            }
+            return mTrackerThread.mTotalLatency / (float) mTrackerThread.mTrackedCount / 1000000f;
+        }
+    }
+
+    /**
+     * 最大检测延时(毫秒)
+     */
+    public float getMaxTrackLatency() {
+        synchronized (mSyncFence) {
+            return mTrackerThread != null ? mTrackerThread.mMaxLatency / 1000000f : 0;
+        }
+    }
+
+    /**
+     * 当前的检测间隔，开启自动调整时随检测耗时变化
+     */
+    public int getFrameInterval() {
+        synchronized (mSyncFence) {
+            return mTrackerThread != null ? mTrackerThread.getFrameInterval() : mFaceTrackParam.frameInterval;
+        }
+    }
+
+    /**
+     * 是否开启关键点预测，开启时渲染不需要等待检测完成
+     */
+    public boolean isPredictionEnabled() {
+        return mFaceTrackParam.enablePrediction;
+    }
+
     /**
      * 销毁检测器
      */
@@ -191,6 +281,56 @@ public final class FaceTracker {
         return this;
     }
 
+    /**
+     * 每N帧检测一次，发热降频时可以调大以减少检测负载
+     *
+     * @param interval
+     * @return
+     */
+    public FaceTracker frameInterval(int interval) {
+        mFaceTrackParam.frameInterval = Math.max(interval, 1);
+        return this;
+    }
+
+    /**
+     * 是否预测关键点
+     *
+     * @param enable
+     * @return
+     */
+    public FaceTracker enablePrediction(boolean enable) {
+        mFaceTrackParam.enablePrediction = enable;
+        return this;
+    }
+
+    /**
+     * 根据检测耗时自动调整检测间隔
+     *
+     * @param enable        是否自动调整
+     * @param maxInterval   最大检测间隔
+     * @return
+     */
+    public FaceTracker adaptiveInterval(boolean enable, int maxInterval) {
+        mFaceTrackParam.adaptiveInterval = enable;
+        mFaceTrackParam.maxFrameInterval = Math.max(maxInterval, 1);
+        return this;
+    }
+
+    /**
+     * 关键点平滑与外推参数，在抖动和延迟之间取舍
+     *
+     * @param minCutoff         最小截止频率(Hz)，越小抖动越少、延迟越大
+     * @param beta              速度系数，越大快速运动时延迟越小
+     * @param maxPredictionTime 最大外推时间(毫秒)
+     * @return
+     */
+    public FaceTracker smoothParams(float minCutoff, float beta, float maxPredictionTime) {
+        mFaceTrackParam.smoothMinCutoff = minCutoff;
+        mFaceTrackParam.smoothBeta = beta;
+        mFaceTrackParam.maxPredictionTime = maxPredictionTime;
+        return this;
+    }
+
     /**
      * 检测模式
      *
@@ -256,6 +396,33 @@ public final class FaceTracker {
         private @Nullable
         Handler mHandler;
 
+        // 单帧信箱，只保留最新的一帧
+        private final Object mMailboxLock = new Object();
+        private byte[] mPendingData;
+        private int mPendingWidth;
+        private int mPendingHeight;
+        private long mPendingTime;
+        private boolean mPosted;
+        // 帧计数，用于每N帧检测一次
+        private int mFrameCounter;
+        // 上一次送入帧的时间，只在调用线程访问
+        private long mLastFrameTime;
+        // 送入帧的平均间隔(纳秒)
+        private volatile long mFramePeriod;
+        // 检测的平均耗时(纳秒)，只在检测线程访问
+        private long mTrackCost;
+        // 根据检测耗时自动调整的检测间隔
+        private volatile int mAdaptiveInterval = 1;
+
+        // 统计数据，只在调用线程和检测线程中各自写入
+        private volatile long mDroppedCount;
+        private volatile long mSkippedCount;
+        private volatile long mTrackedCount;
+        private volatile long mLastQueueAge;
+        private volatile long mLastLatency;
+        private volatile long mMaxLatency;
+        private volatile long mTotalLatency;
+
         public TrackerThread(String name) {
             super(name);
         }
@@ -273,6 +440,8 @@ public final class FaceTracker {
                 mStartLock.notify();
             }
             Looper.loop();
+            // 退出时释放信箱中剩下的帧
+            releasePendingFrame();
             synchronized (this) {
                 release();
                 mHandler.removeCallbacksAndMessages(null);
@@ -353,16 +522,131 @@ public final class FaceTracker {
 
         /**
          * 检测人脸
+         * 使用单帧信箱，检测线程忙时新帧直接替换旧帧，旧帧被丢弃，检测总是处理最新的一帧
          *
          * @param data   图像数据， NV21 或者 RGBA格式
          * @param width  图像宽度
          * @param height 图像高度
+         * @return 检测完成后会回调时返回true
          */
-        public void trackFace(final byte[] data, final int width, final int height) {
+        public boolean trackFace(final byte[] data, final int width, final int height) {
             waitUntilReady();
-            mHandler.post(() -> internalTrackFace(data, width, height));
+            long now = System.nanoTime();
+            if (mLastFrameTime > 0) {
+                long period = now - mLastFrameTime;
+                long framePeriod = mFramePeriod;
+                mFramePeriod = framePeriod == 0 ? period : (framePeriod * 7 + period) / 8;
+            }
+            mLastFrameTime = now;
+            // 每N帧检测一次，其余帧直接跳过
+            int interval = getFrameInterval();
+            if (interval > 1 && (mFrameCounter++ % interval) != 0) {
+                mSkippedCount++;
+                releaseFrame(data);
+                return false;
+            }
+            byte[] staleData;
+            boolean needPost;
+            synchronized (mMailboxLock) {
+                staleData = mPendingData;
+                mPendingData = data;
+                mPendingWidth = width;
+                mPendingHeight = height;
+                mPendingTime = now;
+                needPost = !mPosted;
+                mPosted = true;
+            }
+            if (staleData != null) {
+                mDroppedCount++;
+                releaseFrame(staleData);
+            }
+            if (needPost && (mHandler == null || !mHandler.post(mTrackRunnable))) {
+                releasePendingFrame();
+                return false;
+            }
+            // 替换掉旧帧说明检测跟不上帧率，旧帧不会再回调
+            return staleData == null;
+        }
+
+        /**
+         * 从信箱中取出最新的一帧进行检测
+         */
+        private final Runnable mTrackRunnable = new Runnable() {
+            @Override
+            public void run() {
+                byte[] data;
+                int width;
+                int height;
+                long frameTime;
+                synchronized (mMailboxLock) {
+                    data = mPendingData;
+                    width = mPendingWidth;
+                    height = mPendingHeight;
+                    frameTime = mPendingTime;
+                    mPendingData = null;
+                    mPosted = false;
+                }
+                if (data == null) {
+                    return;
+                }
+                long start = System.nanoTime();
+                mLastQueueAge = start - frameTime;
+                try {
+                    internalTrackFace(data, width, height, frameTime);
+                } finally {
+                    releaseFrame(data);
+                }
+                long end = System.nanoTime();
+                updateAdaptiveInterval(end - start);
+                long latency = end - frameTime;
+                mLastLatency = latency;
+                mMaxLatency = Math.max(mMaxLatency, latency);
+                mTotalLatency += latency;
+                mTrackedCount++;
+            }
+        };
+
+        /**
+         * 当前的检测间隔
+         */
+        int getFrameInterval() {
+            FaceTrackParam faceTrackParam = FaceTrackParam.getInstance();
+            int interval = Math.max(faceTrackParam.frameInterval, 1);
+            if (faceTrackParam.enablePrediction && faceTrackParam.adaptiveInterval) {
+                interval = Math.max(interval, mAdaptiveInterval);
+            }
+            return interval;
+        }
+
+        /**
+         * 根据检测耗时与送入帧的间隔调整检测间隔，检测一帧需要几个帧间隔就每几帧检测一次
+         * @param cost 本次检测耗时(纳秒)
+         */
+        private void updateAdaptiveInterval(long cost) {
+            mTrackCost = mTrackCost == 0 ? cost : (mTrackCost * 7 + cost) / 8;
+            long framePeriod = mFramePeriod;
+            if (framePeriod <= 0) {
+                return;
+            }
+            int maxInterval = Math.max(FaceTrackParam.getInstance().maxFrameInterval, 1);
+            int interval = (int) ((mTrackCost + framePeriod - 1) / framePeriod);
+            mAdaptiveInterval = Math.max(1, Math.min(interval, maxInterval));
         }
 
+        /**
+         * 释放信箱中还没有检测的帧
+         */
+        private void releasePendingFrame() {
+            byte[] data;
+            synchronized (mMailboxLock) {
+                data = mPendingData;
+                mPendingData = null;
+                mPosted = false;
+            }
+            if (data != null) {
+                releaseFrame(data);
+            }
+        }
 
         /**
          * 释放资源
@@ -426,17 +710,34 @@ public final class FaceTracker {
 //            facepp.setFaceppConfig(faceppConfig);
         }
 
+        // 跟踪库关键点索引到Face++ 106点索引的映射表
+        private static final int[] LANDMARK_INDEX_TABLE = {
+            16, 53, 101, 73, 91, 6, 5, 4, 3, 2,
+            1, 0, 57, 32, 30, 31, 28, 29, 26, 33,
+            61, 43, 45, 44, 38, 99, 88, 58, 37, 35,
+            92, 82, 93, 89, 72, 78, 98, 85, 87, 86,
+            97, 75, 100, 76, 68, 84, 49, 62, 71, 24,
+            90, 63, 77, 54, 69, 104, 25, 12, 66, 55,
+            67, 96, 64, 103, 94, 95, 8, 56, 27, 46,
+            40, 70, 74, 39, 42, 41, 15, 14, 13, 36,
+            11, 10, 9, 65, 34, 60, 51, 50, 47, 48,
+            80, 79, 81, 83, 52, 18, 19, 17, 22, 23,
+            20, 21, 7, 102, 59, 105
+        };
+
         /**
          * 检测人脸
          *
          * @param data 图像数据，预览时为NV21，静态图片则为RGBA格式
+         * @param timestamp 图像采集时间
          */
-        private synchronized void internalTrackFace(byte[] data, int width, int height) {
+        private synchronized void internalTrackFace(byte[] data, int width, int height, long timestamp) {
             FaceTrackParam faceTrackParam = FaceTrackParam.getInstance();
             if (!faceTrackParam.canFaceTrack
 //                    || facepp == null
             ) {
-                LandmarkEngine.getInstance().setFaceSize(0);
+                LandmarkEngine.getInstance().beginFrame(timestamp);
+                LandmarkEngine.getInstance().publishFrame();
                 if (faceTrackParam.trackerCallback != null) {
                     faceTrackParam.trackerCallback.onTrackingFinish();
                 }
@@ -468,7 +769,7 @@ public final class FaceTracker {
 //            final Facepp.Face[] faces = facepp.detect(data, width, height,
 //                    faceTrackParam.previewTrack ? Facepp.IMAGEMODE_NV21 : Facepp.IMAGEMODE_RGBA);
             FaceTracking.getInstance().Update(data, height, width);
-            List<Face> faces = FaceTracking.getInstance().getTrackingInfo();
+            FaceResult faces = FaceTracking.getInstance().getTrackingResult();
 
             // 计算检测时间
             if (VERBOSE) {
@@ -476,339 +777,119 @@ public final class FaceTracker {
                 Log.d("onFaceTracking", "track time = " + algorithmTime);
             }
 
-            // 设置旋转方向
-            LandmarkEngine.getInstance().setOrientation(orientation);
-            // 设置是否需要翻转
-            boolean needFlip = faceTrackParam.previewTrack && !faceTrackParam.isBackCamera;
-            LandmarkEngine.getInstance().setNeedFlip(needFlip);
-
-            // 计算人脸关键点
-            if (faces != null && faces.size() > 0) {
-                for (int index = 0; index < faces.size(); index++) {
-                    // 关键点个数
-//                    if (faceTrackParam.enable106Points) {
-//                        facepp.getLandmark(faces.get(index), Facepp.FPP_GET_LANDMARK106);
-//                    } else {
-//                        facepp.getLandmark(faces[index], Facepp.FPP_GET_LANDMARK81);
-//                    }
-                    // 获取姿态角信息
-//                    if (faceTrackParam.enable3DPose) {
-//                        facepp.get3DPose(faces[index]);
-//                    }
-                    Face face = faces.get(index);
-                    OneFace oneFace = LandmarkEngine.getInstance().getOneFace(index);
-                    // 是否检测性别年龄属性
-//                    if (faceTrackParam.enableFaceProperty) {
-//                        facepp.getAgeGender(face);
-//                        oneFace.gender = face.female > face.male ? OneFace.GENDER_WOMAN
-//                                : OneFace.GENDER_MAN;
-//                        oneFace.age = Math.max(face.age, 1);
-//                    } else {
-//                        oneFace.gender = -1;
-//                        oneFace.age = -1;
-//                    }
-//
-                    // 姿态角和置信度
-                    oneFace.pitch = face.pitch;
-                    if (faceTrackParam.isBackCamera) {
-                        oneFace.yaw = -face.yaw;
-                    } else {
-                        oneFace.yaw = face.yaw;
+            // 写入后台帧，写完之后整帧发布给渲染线程
+            LandmarkFrame frame = LandmarkEngine.getInstance().beginFrame(timestamp);
+            try {
+                // 关键点预测参数
+                LandmarkEngine.getInstance().getPredictor().setParams(faceTrackParam.enablePrediction,
+                        faceTrackParam.smoothMinCutoff, faceTrackParam.smoothBeta,
+                        faceTrackParam.maxPredictionTime);
+                // 设置旋转方向
+                frame.setOrientation(orientation);
+                // 设置是否需要翻转
+                boolean needFlip = faceTrackParam.previewTrack && !faceTrackParam.isBackCamera;
+                frame.setNeedFlip(needFlip);
+
+                // 预览状态下，宽高交换
+                if (faceTrackParam.previewTrack) {
+                    if (orientation == 1 || orientation == 2) {
+                        int temp = width;
+                        width = height;
+                        height = temp;
                     }
-                    oneFace.roll = face.roll;
-                    if (faceTrackParam.previewTrack) {
-
+                }
+                // 坐标变换参数，循环中不创建对象
+                final float scaleX = 2.0f / height;
+                final float scaleY = 2.0f / width;
+                final boolean backPreview = faceTrackParam.previewTrack && faceTrackParam.isBackCamera;
+                final int[] landmarks = faces.landmarks;
+
+                // 计算人脸关键点
+                int faceCount = faces.getFaceCount();
+                if (faceCount > 0) {
+                    for (int index = 0; index < faceCount; index++) {
+                        // 关键点个数
+//                        if (faceTrackParam.enable106Points) {
+//                            facepp.getLandmark(faces.get(index), Facepp.FPP_GET_LANDMARK106);
+//                        } else {
+//                            facepp.getLandmark(faces[index], Facepp.FPP_GET_LANDMARK81);
+//                        }
+                        // 获取姿态角信息
+//                        if (faceTrackParam.enable3DPose) {
+//                            facepp.get3DPose(faces[index]);
+//                        }
+                        int landmarkOffset = index * FaceResult.LANDMARK_SIZE;
+                        OneFace oneFace = frame.obtainFace(index);
+                        oneFace.trackId = faces.ids[index];
+                        // 是否检测性别年龄属性
+//                        if (faceTrackParam.enableFaceProperty) {
+//                            facepp.getAgeGender(face);
+//                            oneFace.gender = face.female > face.male ? OneFace.GENDER_WOMAN
+//                                    : OneFace.GENDER_MAN;
+//                            oneFace.age = Math.max(face.age, 1);
+//                        } else {
+//                            oneFace.gender = -1;
+//                            oneFace.age = -1;
+//                        }
+//
+                        // 姿态角和置信度
+                        oneFace.pitch = faces.getPitch(index);
                         if (faceTrackParam.isBackCamera) {
-                            oneFace.roll = (float) (Math.PI / 2.0f + oneFace.roll);
+                            oneFace.yaw = -faces.getYaw(index);
                         } else {
-                            oneFace.roll = (float) (Math.PI / 2.0f - face.roll);
+                            oneFace.yaw = faces.getYaw(index);
                         }
-                    }
-//                    oneFace.confidence = face.isStable;
-
-                    // 预览状态下，宽高交换
-                    if (faceTrackParam.previewTrack) {
-                        if (orientation == 1 || orientation == 2) {
-                            int temp = width;
-                            width = height;
-                            height = temp;
-                        }
-                    }
-//
-                    // 获取一个人的关键点坐标
-                    if (oneFace.vertexPoints == null || oneFace.vertexPoints.length != face.landmarks.length) {
-                        oneFace.vertexPoints = new float[face.landmarks.length];
-                    }
-                    for (int i = 0; i + 1 < face.landmarks.length; i += 2) {
-                        // orientation = 0、3 表示竖屏，1、2 表示横屏
-                        float x = ((face.landmarks[i] / (float) height) * 2) - 1;
-                        float y = ((face.landmarks[i + 1] / (float) width) * 2) - 1;
-//                        float x = face.landmarks[i];
-//                        float y = face.landmarks[i + 1];
-                        float[] point = new float[]{x, -y};
-                        if (orientation == 1) {
-                            if (faceTrackParam.previewTrack && faceTrackParam.isBackCamera) {
-                                point[0] = -y;
-                                point[1] = -x;
-                            } else {
-                                point[0] = y;
-                                point[1] = x;
-                            }
-                        } else if (orientation == 2) {
-                            if (faceTrackParam.previewTrack && faceTrackParam.isBackCamera) {
-                                point[0] = y;
-                                point[1] = x;
+                        oneFace.roll = faces.getRoll(index);
+                        if (faceTrackParam.previewTrack) {
+
+                            if (faceTrackParam.isBackCamera) {
+                                oneFace.roll = (float) (Math.PI / 2.0f + oneFace.roll);
                             } else {
-                                point[0] = -y;
-                                point[1] = -x;
+                                oneFace.roll = (float) (Math.PI / 2.0f - faces.getRoll(index));
                             }
-                        } else if (orientation == 3) {
-                            point[0] = -x;
-                            point[1] = y;
                         }
-                        // 顶点坐标
-                        int vertexIndex = transform(i / 2);
-                        if (faceTrackParam.previewTrack) {
-                            if (faceTrackParam.isBackCamera) {
-                                oneFace.vertexPoints[vertexIndex * 2] = point[0];
+//                        oneFace.confidence = faces.stables[index];
+
+                        // 获取一个人的关键点坐标
+                        if (oneFace.vertexPoints == null || oneFace.vertexPoints.length != FaceResult.LANDMARK_SIZE) {
+                            oneFace.vertexPoints = new float[FaceResult.LANDMARK_SIZE];
+                        }
+                        final float[] vertexPoints = oneFace.vertexPoints;
+                        for (int i = 0; i < FaceResult.LANDMARK_SIZE; i += 2) {
+                            // orientation = 0、3 表示竖屏，1、2 表示横屏
+                            float x = landmarks[landmarkOffset + i] * scaleX - 1;
+                            float y = landmarks[landmarkOffset + i + 1] * scaleY - 1;
+                            float pointX;
+                            float pointY;
+                            if (orientation == 1) {
+                                pointX = backPreview ? -y : y;
+                                pointY = backPreview ? -x : x;
+                            } else if (orientation == 2) {
+                                pointX = backPreview ? y : -y;
+                                pointY = backPreview ? x : -x;
+                            } else if (orientation == 3) {
+                                pointX = -x;
+                                pointY = y;
                             } else {
-                                oneFace.vertexPoints[vertexIndex * 2] = -point[0];
+                                pointX = x;
+                                pointY = -y;
                             }
-                        } else { // 非预览状态下，左右不需要翻转
-                            oneFace.vertexPoints[vertexIndex * 2] = point[0];
+                            // 顶点坐标，前置摄像头预览时左右翻转，非预览状态下左右不需要翻转
+                            int vertexIndex = LANDMARK_INDEX_TABLE[i >> 1] << 1;
+                            vertexPoints[vertexIndex] = needFlip ? -pointX : pointX;
+                            vertexPoints[vertexIndex + 1] = pointY;
                         }
-                        oneFace.vertexPoints[vertexIndex * 2 + 1] = point[1];
                     }
-                    // 插入人脸对象
-                    LandmarkEngine.getInstance().putOneFace(index, oneFace);
                 }
+            } finally {
+                // 发布人脸关键点
+                LandmarkEngine.getInstance().publishFrame();
             }
-            // 设置人脸个数
-            LandmarkEngine.getInstance().setFaceSize(faces != null ? faces.size() : 0);
             // 检测完成回调
             if (faceTrackParam.trackerCallback != null) {
                 faceTrackParam.trackerCallback.onTrackingFinish();
             }
         }
-
-        private int transform(int i) {
-            switch (i) {
-                case 0:
-                    return 16;
-                case 1:
-                    return 53;
-                case 2:
-                    return 101;
-                case 3:
-                    return 73;
-                case 4:
-                    return 91;
-                case 5:
-                    return 6;
-                case 6:
-                    return 5;
-                case 7:
-                    return 4;
-                case 8:
-                    return 3;
-                case 9:
-                    return 2;
-                case 10:
-                    return 1;
-                case 11:
-                    return 0;
-                case 12:
-                    return 57;
-                case 13:
-                    return 32;
-                case 14:
-                    return 30;
-                case 15:
-                    return 31;
-                case 16:
-                    return 28;
-                case 17:
-                    return 29;
-                case 18:
-                    return 26;
-                case 19:
-                    return 33;
-                case 20:
-                    return 61;
-                case 21:
-                    return 43;
-                case 22:
-                    return 45;
-                case 23:
-                    return 44;
-                case 24:
-                    return 38;
-                case 25:
-                    return 99;
-                case 26:
-                    return 88;
-                case 27:
-                    return 58;
-                case 28:
-                    return 37;
-                case 29:
-                    return 35;
-                case 30:
-                    return 92;
-                case 31:
-                    return 82;
-                case 32:
-                    return 93;
-                case 33:
-                    return 89;
-                case 34:
-                    return 72;
-                case 35:
-                    return 78;
-                case 36:
-                    return 98;
-                case 37:
-                    return 85;
-                case 38:
-                    return 87;
-                case 39:
-                    return 86;
-                case 40:
-                    return 97;
-                case 41:
-                    return 75;
-                case 42:
-                    return 100;
-                case 43:
-                    return 76;
-                case 44:
-                    return 68;
-                case 45:
-                    return 84;
-                case 46:
-                    return 49;
-                case 47:
-                    return 62;
-                case 48:
-                    return 71;
-                case 49:
-                    return 24;
-                case 50:
-                    return 90;
-                case 51:
-                    return 63;
-                case 52:
-                    return 77;
-                case 53:
-                    return 54;
-                case 54:
-                    return 69;
-                case 55:
-                    return 104;
-                case 56:
-                    return 25;
-                case 57:
-                    return 12;
-                case 58:
-                    return 66;
-                case 59:
-                    return 55;
-                case 60:
-                    return 67;
-                case 61:
-                    return 96;
-                case 62:
-                    return 64;
-                case 63:
-                    return 103;
-                case 64:
-                    return 94;
-                case 65:
-                    return 95;
-                case 66:
-                    return 8;
-                case 67:
-                    return 56;
-                case 68:
-                    return 27;
-                case 69:
-                    return 46;
-                case 70:
-                    return 40;
-                case 71:
-                    return 70;
-                case 72:
-                    return 74;
-                case 73:
-                    return 39;
-                case 74:
-                    return 42;
-                case 75:
-                    return 41;
-                case 76:
-                    return 15;
-                case 77:
-                    return 14;
-                case 78:
-                    return 13;
-                case 79:
-                    return 36;
-                case 80:
-                    return 11;
-                case 81:
-                    return 10;
-                case 82:
-                    return 9;
-                case 83:
-                    return 65;
-                case 84:
-                    return 34;
-                case 85:
-                    return 60;
-                case 86:
-                    return 51;
-                case 87:
-                    return 50;
-                case 88:
-                    return 47;
-                case 89:
-                    return 48;
-                case 90:
-                    return 80;
-                case 91:
-                    return 79;
-                case 92:
-                    return 81;
-                case 93:
-                    return 83;
-                case 94:
-                    return 52;
-                case 95:
-                    return 18;
-                case 96:
-                    return 19;
-                case 97:
-                    return 17;
-                case 98:
-                    return 22;
-                case 99:
-                    return 23;
-                case 100:
-                    return 20;
-                case 101:
-                    return 21;
-                case 102:
-                    return 7;
-                case 103:
-                    return 102;
-                case 104:
-                    return 59;
-                case 105:
-                    return 105;
-                default:
-                    return -1;
-            }
-        }
     }
 
 }
@@ -1,6 +1,7 @@
 package com.cgfay.facedetect.engine;
 
 import com.cgfay.facedetect.listener.FaceTrackerCallback;
+import com.cgfay.facedetect.listener.OnFrameReleaseListener;
 
 /**
  * 人脸检测构建器
@@ -33,4 +34,14 @@ public final class FaceTrackerBuilder {
         return this;
     }
 
+    /**
+     * 检测帧释放回调，用于回收相机预览缓冲
+     * @param listener
+     * @return
+     */
+    public FaceTrackerBuilder frameReleaseListener(OnFrameReleaseListener listener) {
+        mFaceTrackParam.frameReleaseListener = listener;
+        return this;
+    }
+
 }
@@ -0,0 +1,13 @@
+package com.cgfay.facedetect.listener;
+
+/**
+ * 检测帧释放回调，检测线程用完图像数据后回调，可以将数据缓冲交还给相机
+ */
+public interface OnFrameReleaseListener {
+
+    /**
+     * 图像数据已经使用完
+     * @param data 图像数据
+     */
+    void onFrameRelease(byte[] data);
+}
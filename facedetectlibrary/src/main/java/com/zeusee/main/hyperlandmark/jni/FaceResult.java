@@ -0,0 +1,66 @@
+package com.zeusee.main.hyperlandmark.jni;
+
+/**
+ * 人脸跟踪结果
+ * 所有人脸的数据按索引平铺在基本类型数组中，数组按最大人脸数预先分配，帧之间复用，不创建人脸对象。
+ * 第i个人脸的关键点为landmarks[i * LANDMARK_SIZE] ~ landmarks[(i + 1) * LANDMARK_SIZE - 1]，按x、y交替存放。
+ */
+public final class FaceResult {
+
+    // 最大人脸数
+    public static final int MAX_FACE_COUNT = 5;
+    // 关键点个数
+    public static final int LANDMARK_COUNT = 106;
+    // 一个人脸的关键点数组长度
+    public static final int LANDMARK_SIZE = LANDMARK_COUNT * 2;
+    // 人脸框数组长度，left、top、width、height
+    public static final int RECT_SIZE = 4;
+    // 姿态角数组长度，pitch、yaw、roll
+    public static final int ANGLE_SIZE = 3;
+
+    // 人脸个数
+    int faceCount;
+    // 跟踪ID
+    public final int[] ids = new int[MAX_FACE_COUNT];
+    // 人脸框
+    public final int[] rects = new int[MAX_FACE_COUNT * RECT_SIZE];
+    // 关键点坐标
+    public final int[] landmarks = new int[MAX_FACE_COUNT * LANDMARK_SIZE];
+    // 姿态角
+    public final float[] angles = new float[MAX_FACE_COUNT * ANGLE_SIZE];
+    // 关键点是否稳定
+    public final boolean[] stables = new boolean[MAX_FACE_COUNT];
+
+    FaceResult() {
+    }
+
+    public int getFaceCount() {
+        return faceCount;
+    }
+
+    /**
+     * 查找跟踪ID对应的人脸索引
+     * @param id 跟踪ID
+     * @return 不存在时返回-1
+     */
+    public int indexOf(int id) {
+        for (int i = 0; i < faceCount; i++) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public float getPitch(int index) {
+        return angles[index * ANGLE_SIZE];
+    }
+
+    public float getYaw(int index) {
+        return angles[index * ANGLE_SIZE + 1];
+    }
+
+    public float getRoll(int index) {
+        return angles[index * ANGLE_SIZE + 2];
+    }
+}
@@ -2,9 +2,6 @@ package com.zeusee.main.hyperlandmark.jni;
 
 import com.zeusee.main.hyperlandmark.CameraOverlap;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import static java.lang.Math.abs;
 
 
@@ -46,7 +43,9 @@ public class FaceTracking {
     public native static int getTrackingIDByIndex(int index, long session);
 
     private long session;
-    private List<Face> faces;
+    // 跟踪结果双缓冲，上一帧的结果用于平滑当前帧的关键点
+    private FaceResult mResult = new FaceResult();
+    private FaceResult mBackResult = new FaceResult();
     private int tracking_seq = 0;
 
     public FaceTracking() {
@@ -65,95 +64,72 @@ public class FaceTracking {
 
     public void FaceTrackingInit(String pathModel, int height, int width) {
         session = createSession(pathModel);
-        faces = new ArrayList<Face>();
+        mResult.faceCount = 0;
+        mBackResult.faceCount = 0;
+        tracking_seq = 0;
         initTracker(height, width, CameraOverlap.SCALLE_FACTOR, session);
     }
 
-    public boolean postProcess(int[] landmark_prev, int[] landmark_curr) {
+    /**
+     * 与上一帧的关键点比较，变化很小时取平均值
+     * @return 关键点是否稳定
+     */
+    private static boolean postProcess(int[] landmark_prev, int prevOffset, int[] landmark_curr, int currOffset) {
         int diff = 0;
-
-        for (int i = 0; i < 106 * 2; i++) {
-            diff += abs(landmark_curr[i] - landmark_prev[i]);
-
+        for (int i = 0; i < FaceResult.LANDMARK_SIZE; i++) {
+            diff += abs(landmark_curr[currOffset + i] - landmark_prev[prevOffset + i]);
         }
-
-        if (diff < 1.0 * 106 * 2) {
-            for (int j = 0; j < 106 * 2; j++) {
-                landmark_curr[j] = (landmark_curr[j] + landmark_prev[j]) / 2;
-            }
-            return true;
-        } else if (diff < 2 * 106 * 2) {
-            for (int j = 0; j < 106 * 2; j++) {
-                landmark_curr[j] = (landmark_curr[j] + landmark_prev[j]) / 2;
+        if (diff < 2 * FaceResult.LANDMARK_SIZE) {
+            for (int j = 0; j < FaceResult.LANDMARK_SIZE; j++) {
+                landmark_curr[currOffset + j] = (landmark_curr[currOffset + j] + landmark_prev[prevOffset + j]) / 2;
             }
             return true;
         }
         return false;
     }
 
-    public int find_id_face(List<Face> faces, int targetID) {
-        for (int i = 0; i < faces.size(); i++) {
-            if (faces.get(i).ID == targetID)
-                return i;
-        }
-        return -1;
-    }
-
-    public void postProcess_aux(int[] landmark_prev, int[] landmark_curr) {
-
-        for (int i = 0; i < 106 * 2; i++) {
-            landmark_curr[i] = (landmark_curr[i]);
-
-        }
-    }
-
-
+    /**
+     * 跟踪一帧，结果写入复用的FaceResult
+     * 预编译的跟踪库只提供返回新数组的接口，取回后立即复制到结果数组中，Java层不再创建对象
+     */
     public void Update(byte[] data, int height, int width) {
         update(data, height, width, 270, true, session);
-        int numsFace = getTrackingNum(session);
-        List<Face> _faces = new ArrayList<Face>();
+        FaceResult previous = mResult;
+        FaceResult current = mBackResult;
+        int numsFace = Math.min(getTrackingNum(session), FaceResult.MAX_FACE_COUNT);
         for (int i = 0; i < numsFace; i++) {
-            int ID_GET = -1;
-            int flag = -1;
-
-            int[] faceRect = getTrackingLocationByIndex(i, session);
             int id = getTrackingIDByIndex(i, session);
-//            Log.e("TAG","====id====="+id);
+            current.ids[i] = id;
+            int[] faceRect = getTrackingLocationByIndex(i, session);
+            System.arraycopy(faceRect, 0, current.rects, i * FaceResult.RECT_SIZE,
+                    Math.min(faceRect.length, FaceResult.RECT_SIZE));
             int[] landmarks = getTrackingLandmarkByIndex(i, session);
+            System.arraycopy(landmarks, 0, current.landmarks, i * FaceResult.LANDMARK_SIZE,
+                    Math.min(landmarks.length, FaceResult.LANDMARK_SIZE));
             float[] attitudes = getEulerAngleByIndex(i, session);
+            System.arraycopy(attitudes, 0, current.angles, i * FaceResult.ANGLE_SIZE,
+                    Math.min(attitudes.length, FaceResult.ANGLE_SIZE));
+            boolean stable = false;
             if (tracking_seq > 0) {
-                ID_GET = find_id_face(faces, id);
-                if (ID_GET != -1) {
-                    boolean res = postProcess(faces.get(ID_GET).landmarks, landmarks);
-                    if (res)
-                        flag = -2;
-                }
-                if (ID_GET != -1) {
-                    if (faces.get(ID_GET).isStable) {
-                        postProcess_aux(faces.get(ID_GET).landmarks, landmarks);
-                    }
+                int prevIndex = previous.indexOf(id);
+                if (prevIndex != -1) {
+                    stable = postProcess(previous.landmarks, prevIndex * FaceResult.LANDMARK_SIZE,
+                            current.landmarks, i * FaceResult.LANDMARK_SIZE);
                 }
             }
-            Face face = new Face(faceRect[0], faceRect[1], faceRect[2], faceRect[3], landmarks, id);
-            face.pitch = attitudes[0];
-            face.yaw = attitudes[1];
-            face.roll = attitudes[2];
-            if (flag == -2)
-                face.isStable = true;
-            else
-                face.isStable = false;
-            _faces.add(face);
-//            faces.(i,face);
+            current.stables[i] = stable;
         }
-        faces.clear();
-        faces = _faces;
+        current.faceCount = numsFace;
+        mResult = current;
+        mBackResult = previous;
         tracking_seq += 1;
-
     }
 
 
-    public List<Face> getTrackingInfo() {
-        return faces;
-
+    /**
+     * 获取最近一帧的跟踪结果，下一次Update之后内容会被覆盖
+     */
+    public FaceResult getTrackingResult() {
+        return mResult;
     }
 }
@@ -0,0 +1,19 @@
+#version 300 es
+precision mediump float;
+in highp vec2 textureCoordinate;
+
+uniform sampler2D inputTexture;                 // 输入图像纹理
+uniform mediump sampler3D lookupTableTexture;   // 三维lut纹理
+
+uniform mediump vec2 lookupTableDomain;         // 颜色到纹理坐标的缩放和偏移，(size - 1) / size 和 0.5 / size
+uniform lowp float strength;                    // 滤镜强度值，0 ~ 1.0f
+
+out vec4 fragColor;
+
+void main() {
+    lowp vec4 textureColor = texture(inputTexture, textureCoordinate);
+    // 硬件三线性插值，一次采样
+    lowp vec4 newColor = texture(lookupTableTexture,
+            textureColor.rgb * lookupTableDomain.x + lookupTableDomain.y);
+    fragColor = mix(textureColor, vec4(newColor.rgb, textureColor.w), strength);
+}
@@ -0,0 +1,19 @@
+//
+// Java层GLES绑定缺少的接口
+//
+
+#include <jni.h>
+#include <stdint.h>
+#include <GLES3/gl3.h>
+
+/**
+ * 从当前绑定的PBO上传纹理，pixels参数为PBO中的偏移
+ */
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_cgfay_filter_glfilter_utils_OpenGLNative_glTexSubImage2D(JNIEnv *env, jclass clazz,
+        jint target, jint level, jint xoffset, jint yoffset, jint width, jint height,
+        jint format, jint type, jint offset) {
+    glTexSubImage2D((GLenum) target, level, xoffset, yoffset, width, height,
+                    (GLenum) format, (GLenum) type, (const void *) (intptr_t) offset);
+}
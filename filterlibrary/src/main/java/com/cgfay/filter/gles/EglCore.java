@@ -26,6 +26,9 @@ import android.opengl.EGLSurface;
 import android.util.Log;
 import android.view.Surface;
 
+import com.cgfay.filter.glfilter.utils.FrameBufferPool;
+import com.cgfay.filter.glfilter.utils.ProgramCache;
+
 /**
  * Core EGL state (display, context, config).
  * <p>
@@ -188,6 +191,9 @@ public final class EglCore {
             EGL14.eglMakeCurrent(mEGLDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE,
                     EGL14.EGL_NO_CONTEXT);
             EGL14.eglDestroyContext(mEGLDisplay, mEGLContext);
+            // FBO和program缓存随上下文一起销毁
+            FrameBufferPool.getInstance().onContextDestroyed(mEGLContext);
+            ProgramCache.getInstance().onContextDestroyed(mEGLContext);
             EGL14.eglReleaseThread();
             EGL14.eglTerminate(mEGLDisplay);
         }
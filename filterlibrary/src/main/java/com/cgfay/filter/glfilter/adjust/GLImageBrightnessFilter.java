@@ -4,6 +4,7 @@ import android.content.Context;
 import android.opengl.GLES30;
 
 import com.cgfay.filter.glfilter.base.GLImageFilter;
+import com.cgfay.filter.glfilter.base.IColorPass;
 import com.cgfay.filter.glfilter.utils.OpenGLUtils;
 
 /**
@@ -13,11 +14,14 @@ import com.cgfay.filter.glfilter.utils.OpenGLUtils;
  * Created by cain on 2017/7/30.
  */
 
-public class GLImageBrightnessFilter extends GLImageFilter {
+public class GLImageBrightnessFilter extends GLImageFilter implements IColorPass {
 
     private int mBrightnessHandle;
     private float mBrightness;
 
+    // 合并shader中的句柄
+    private int mPassBrightnessHandle;
+
     public GLImageBrightnessFilter(Context context) {
         this(context, VERTEX_SHADER, OpenGLUtils.getShaderFromAssets(context,
                 "shader/adjust/fragment_brightness.glsl"));
@@ -47,4 +51,32 @@ public class GLImageBrightnessFilter extends GLImageFilter {
         mBrightness = brightness;
         setFloat(mBrightnessHandle, mBrightness);
     }
+
+    @Override
+    public String getColorPassUniforms() {
+        return "uniform lowp float $brightness;";
+    }
+
+    @Override
+    public String getColorPassFunction() {
+        return "vec4 $apply(vec4 color, vec2 uv) {\n"
+                + "    return vec4(color.rgb + vec3($brightness), color.w);\n"
+                + "}";
+    }
+
+    @Override
+    public void onBindColorPass(int programHandle, String prefix) {
+        mPassBrightnessHandle = GLES30.glGetUniformLocation(programHandle, prefix + "brightness");
+    }
+
+    @Override
+    public int onDrawColorPass(int textureIndex) {
+        GLES30.glUniform1f(mPassBrightnessHandle, mBrightness);
+        return textureIndex;
+    }
+
+    @Override
+    public boolean isIdentity() {
+        return mBrightness == 0.0f;
+    }
 }
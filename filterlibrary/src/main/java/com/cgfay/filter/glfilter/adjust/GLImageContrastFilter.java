@@ -4,6 +4,7 @@ import android.content.Context;
 import android.opengl.GLES30;
 
 import com.cgfay.filter.glfilter.base.GLImageFilter;
+import com.cgfay.filter.glfilter.base.IColorPass;
 import com.cgfay.filter.glfilter.utils.OpenGLUtils;
 
 /**
@@ -11,11 +12,14 @@ import com.cgfay.filter.glfilter.utils.OpenGLUtils;
  * Created by cain.huang on 2017/8/8.
  */
 
-public class GLImageContrastFilter extends GLImageFilter {
+public class GLImageContrastFilter extends GLImageFilter implements IColorPass {
 
     private int mContrastHandle;
     private float mContrast;
 
+    // 合并shader中的句柄
+    private int mPassContrastHandle;
+
     public GLImageContrastFilter(Context context) {
         this(context, VERTEX_SHADER, OpenGLUtils.getShaderFromAssets(context,
                 "shader/adjust/fragment_contrast.glsl"));
@@ -45,4 +49,32 @@ public class GLImageContrastFilter extends GLImageFilter {
         mContrast = contrast;
         setFloat(mContrastHandle, mContrast);
     }
+
+    @Override
+    public String getColorPassUniforms() {
+        return "uniform lowp float $contrast;";
+    }
+
+    @Override
+    public String getColorPassFunction() {
+        return "vec4 $apply(vec4 color, vec2 uv) {\n"
+                + "    return vec4((color.rgb - vec3(0.5)) * $contrast + vec3(0.5), color.w);\n"
+                + "}";
+    }
+
+    @Override
+    public void onBindColorPass(int programHandle, String prefix) {
+        mPassContrastHandle = GLES30.glGetUniformLocation(programHandle, prefix + "contrast");
+    }
+
+    @Override
+    public int onDrawColorPass(int textureIndex) {
+        GLES30.glUniform1f(mPassContrastHandle, mContrast);
+        return textureIndex;
+    }
+
+    @Override
+    public boolean isIdentity() {
+        return mContrast == 1.0f;
+    }
 }
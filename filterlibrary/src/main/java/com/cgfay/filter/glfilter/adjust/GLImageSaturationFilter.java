@@ -4,6 +4,7 @@ import android.content.Context;
 import android.opengl.GLES30;
 
 import com.cgfay.filter.glfilter.base.GLImageFilter;
+import com.cgfay.filter.glfilter.base.IColorPass;
 import com.cgfay.filter.glfilter.utils.OpenGLUtils;
 
 /**
@@ -12,7 +13,7 @@ import com.cgfay.filter.glfilter.utils.OpenGLUtils;
  * 饱和度是某种色光纯度的反映，饱和度越高，则深色越深
  * Created by cain.huang on 2017/7/21.
  */
-public class GLImageSaturationFilter extends GLImageFilter {
+public class GLImageSaturationFilter extends GLImageFilter implements IColorPass {
 
     private int mRangeMinHandle;
     private int mRangeMaxHandle;
@@ -20,6 +21,9 @@ public class GLImageSaturationFilter extends GLImageFilter {
 
     private float mSaturation;
 
+    // 合并shader中的句柄
+    private int mPassInputLevelHandle;
+
     public GLImageSaturationFilter(Context context) {
         this(context, VERTEX_SHADER, OpenGLUtils.getShaderFromAssets(context,
                 "shader/adjust/fragment_saturation.glsl"));
@@ -69,4 +73,33 @@ public class GLImageSaturationFilter extends GLImageFilter {
     public void setSaturationMax(float[] matrix) {
         setFloatVec3(mRangeMaxHandle, matrix);
     }
+
+    @Override
+    public String getColorPassUniforms() {
+        return "uniform lowp float $inputLevel;";
+    }
+
+    @Override
+    public String getColorPassFunction() {
+        return "vec4 $apply(vec4 color, vec2 uv) {\n"
+                + "    lowp float luminance = dot(color.rgb, vec3(0.2125, 0.7154, 0.0721));\n"
+                + "    return vec4(mix(vec3(luminance), color.rgb, $inputLevel), color.w);\n"
+                + "}";
+    }
+
+    @Override
+    public void onBindColorPass(int programHandle, String prefix) {
+        mPassInputLevelHandle = GLES30.glGetUniformLocation(programHandle, prefix + "inputLevel");
+    }
+
+    @Override
+    public int onDrawColorPass(int textureIndex) {
+        GLES30.glUniform1f(mPassInputLevelHandle, mSaturation);
+        return textureIndex;
+    }
+
+    @Override
+    public boolean isIdentity() {
+        return mSaturation == 1.0f;
+    }
 }
@@ -1,67 +1,22 @@
 package com.cgfay.filter.glfilter.base;
 
 import android.content.Context;
-import android.opengl.GLES30;
-
-import com.cgfay.filter.glfilter.utils.OpenGLUtils;
 
 /**
  * 应用查找表(3D LUT)滤镜(512 x 512)
  * Created by cain.huang on 2018/3/8.
  */
 
-public class GLImage512LookupTableFilter extends GLImageFilter {
-
-    private float mStrength;
-    private int mStrengthHandle;
-    private int mLookupTableTextureHandle;
+public class GLImage512LookupTableFilter extends GLImageLookupTableFilter {
 
-    private int mCurveTexture = OpenGLUtils.GL_NOT_INIT;
+    // 8 x 8 个 64 x 64 的方格
+    private static final int TILE_COUNT = 8;
 
     public GLImage512LookupTableFilter(Context context) {
-        this(context, VERTEX_SHADER, OpenGLUtils.getShaderFromAssets(context,
-                "shader/base/fragment_lookup_table_512.glsl"));
+        super(context, "shader/base/fragment_lookup_table_512.glsl", TILE_COUNT);
     }
 
     public GLImage512LookupTableFilter(Context context, String vertexShader, String fragmentShader) {
-        super(context, vertexShader, fragmentShader);
-    }
-
-    @Override
-    public void initProgramHandle() {
-        super.initProgramHandle();
-        mStrengthHandle = GLES30.glGetUniformLocation(mProgramHandle, "strength");
-        mLookupTableTextureHandle = GLES30.glGetUniformLocation(mProgramHandle, "lookupTableTexture");
-        setStrength(1.0f);
-    }
-
-    @Override
-    public void onDrawFrameBegin() {
-        super.onDrawFrameBegin();
-        OpenGLUtils.bindTexture(mLookupTableTextureHandle, mCurveTexture, 1);
-        GLES30.glUniform1f(mStrengthHandle, mStrength);
-    }
-
-    @Override
-    public void release() {
-        GLES30.glDeleteTextures(1, new int[]{ mCurveTexture }, 0);
-        super.release();
-    }
-
-    /**
-     *  设置变化值，0.0f ~ 1.0f
-     * @param value
-     */
-    public void setStrength(float value) {
-        float opacity;
-        if (value <= 0) {
-            opacity = 0.0f;
-        } else if (value > 1.0f) {
-            opacity = 1.0f;
-        } else {
-            opacity = value;
-        }
-        mStrength = opacity;
-        setFloat(mStrengthHandle, mStrength);
+        super(context, vertexShader, fragmentShader, TILE_COUNT);
     }
 }
@@ -23,6 +23,9 @@ public class GLImageDepthBlurFilter extends GLImageFilter {
     private int mLine2Handle;
     private int mIntensityHandle;
 
+    // 景深背景模糊的高斯核半径，在1/2分辨率上处理
+    private static final int BLUR_RADIUS = 4;
+
     // 高斯模糊滤镜
     private GLImageGaussianBlurFilter mGaussianBlurFilter;
 
@@ -38,7 +41,7 @@ public class GLImageDepthBlurFilter extends GLImageFilter {
 
     public GLImageDepthBlurFilter(Context context, String vertexShader, String fragmentShader) {
         super(context, vertexShader, fragmentShader);
-        mGaussianBlurFilter = new GLImageGaussianBlurFilter(context);
+        mGaussianBlurFilter = new GLImageGaussianBlurFilter(context, BLUR_RADIUS);
         mBlurTexture = OpenGLUtils.GL_NOT_TEXTURE;
     }
 
@@ -136,8 +139,7 @@ public class GLImageDepthBlurFilter extends GLImageFilter {
             mGaussianBlurFilter.release();
             mGaussianBlurFilter = null;
         }
-        if (mBlurTexture != OpenGLUtils.GL_NOT_TEXTURE) {
-            GLES30.glDeleteTextures(1, new int[]{mBlurTexture}, 0);
-        }
+        // 模糊纹理属于高斯模糊滤镜的FBO，随高斯模糊滤镜一起释放
+        mBlurTexture = OpenGLUtils.GL_NOT_TEXTURE;
     }
 }
@@ -49,7 +49,7 @@ public class GLImageDrawElementsFilter extends GLImageFilter {
     protected void onDrawFrame() {
         // 如果不存在索引缓冲，则直接用glDrawArrays绘制
         if (mIndexBuffer != null) {
-            GLES30.glDrawElements(GLES30.GL_TRIANGLES, mIndexLength, GLES30.GL_UNSIGNED_SHORT, mIndexBuffer);
+            drawElements(GLES30.GL_TRIANGLES, mIndexLength, mIndexBuffer);
         } else {
             super.onDrawFrame();
         }
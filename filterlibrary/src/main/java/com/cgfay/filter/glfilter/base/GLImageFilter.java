@@ -5,11 +5,16 @@ import android.graphics.PointF;
 import android.opengl.GLES30;
 import android.text.TextUtils;
 
+import com.cgfay.filter.glfilter.utils.FrameBuffer;
+import com.cgfay.filter.glfilter.utils.FrameBufferPool;
+import com.cgfay.filter.glfilter.utils.GLVertexArray;
 import com.cgfay.filter.glfilter.utils.OpenGLUtils;
+import com.cgfay.filter.glfilter.utils.ProgramCache;
 import com.cgfay.filter.glfilter.utils.TextureRotationUtils;
 
 import java.nio.FloatBuffer;
-import java.util.LinkedList;
+import java.nio.ShortBuffer;
+import java.util.ArrayDeque;
 
 /**
  * 基类滤镜
@@ -35,12 +40,27 @@ public class GLImageFilter {
             "    gl_FragColor = texture2D(inputTexture, textureCoordinate); \n" +
             "}                                                          \n";
 
+    // GLES3.0 的顶点shader，fragment shader使用 "#version 300 es" 时必须搭配使用
+    protected static final String VERTEX_SHADER_ES3 = "" +
+            "#version 300 es                                            \n" +
+            "in vec4 aPosition;                                         \n" +
+            "in vec4 aTextureCoord;                                     \n" +
+            "out vec2 textureCoordinate;                                \n" +
+            "void main() {                                              \n" +
+            "    gl_Position = aPosition;                               \n" +
+            "    textureCoordinate = aTextureCoord.xy;                  \n" +
+            "}                                                          \n";
+
 
     protected String TAG = getClass().getSimpleName();
 
     protected Context mContext;
 
-    private final LinkedList<Runnable> mRunOnDraw;
+    private final ArrayDeque<Runnable> mRunOnDraw;
+    // 统一变量状态，在glUseProgram之后统一提交
+    private final GLUniformState mUniformState;
+    // 提交统一变量的任务，用于保证统一变量与延时任务的先后顺序
+    private final Runnable mFlushUniformTask;
 
     // 纹理字符串
     protected String mVertexShader;
@@ -56,6 +76,9 @@ public class GLImageFilter {
     // 顶点坐标数量
     protected int mVertexCount = TextureRotationUtils.CubeVertices.length / mCoordsPerVertex;
 
+    // 从缓存中获取的program，相同shader的滤镜共享
+    private ProgramCache.Program mProgram;
+
     // 句柄
     protected int mProgramHandle;
     protected int mPositionHandle;
@@ -77,6 +100,17 @@ public class GLImageFilter {
     // FBO
     protected int[] mFrameBuffers;
     protected int[] mFrameBufferTextures;
+    // 从缓存池借用的FBO
+    private FrameBuffer mFrameBuffer;
+
+    // 是否使用VAO绘制，在onDrawFrameBegin中设置额外客户端顶点属性的滤镜需要关闭
+    protected boolean mVertexArrayEnable = true;
+    // 当前上下文是否支持VAO(OpenGLES 3.0)，在初始化程序句柄时检测
+    private boolean mVertexArraySupported;
+    // 顶点数组对象，通常只有全屏顶点和一组贴纸/彩妆顶点交替使用
+    private final GLVertexArray[] mVertexArrays = new GLVertexArray[2];
+    // 当前绑定的顶点数组对象，为空时表示使用客户端顶点数组
+    private GLVertexArray mBoundVertexArray;
 
     public GLImageFilter(Context context) {
         this(context, VERTEX_SHADER, FRAGMENT_SHADER);
@@ -84,7 +118,14 @@ public class GLImageFilter {
 
     public GLImageFilter(Context context, String vertexShader, String fragmentShader) {
         mContext = context;
-        mRunOnDraw = new LinkedList<>();
+        mRunOnDraw = new ArrayDeque<>();
+        mUniformState = new GLUniformState();
+        mFlushUniformTask = new Runnable() {
+            @Override
+            public void run() {
+                mUniformState.flush();
+            }
+        };
         // 记录shader数据
         mVertexShader = vertexShader;
         mFragmentShader = fragmentShader;
@@ -96,9 +137,18 @@ public class GLImageFilter {
      * 初始化程序句柄
      */
     public void initProgramHandle() {
+        // 句柄可能发生变化，并且可能是在新的上下文中重新创建，旧的VAO不能再使用
+        for (int i = 0; i < mVertexArrays.length; i++) {
+            if (mVertexArrays[i] != null) {
+                mVertexArrays[i].discard();
+                mVertexArrays[i] = null;
+            }
+        }
+        mBoundVertexArray = null;
+        mVertexArraySupported = OpenGLUtils.isGLES3Supported();
         // 只有在shader都不为空的情况下才初始化程序句柄
         if (!TextUtils.isEmpty(mVertexShader) && !TextUtils.isEmpty(mFragmentShader)) {
-            mProgramHandle = OpenGLUtils.createProgram(mVertexShader, mFragmentShader);
+            mProgramHandle = obtainProgram(mVertexShader, mFragmentShader);
             mPositionHandle = GLES30.glGetAttribLocation(mProgramHandle, "aPosition");
             mTextureCoordinateHandle = GLES30.glGetAttribLocation(mProgramHandle, "aTextureCoord");
             mInputTextureHandle = GLES30.glGetUniformLocation(mProgramHandle, "inputTexture");
@@ -111,6 +161,18 @@ public class GLImageFilter {
         }
     }
 
+    /**
+     * 从program缓存中获取program，相同shader的滤镜共享同一个program，重复调用时释放之前的program
+     * @param vertexShader
+     * @param fragmentShader
+     * @return program句柄，失败时返回0
+     */
+    protected int obtainProgram(String vertexShader, String fragmentShader) {
+        ProgramCache.getInstance().release(mProgram);
+        mProgram = ProgramCache.getInstance().acquire(vertexShader, fragmentShader);
+        return mProgram != null ? mProgram.getProgramId() : 0;
+    }
+
     /**
      * Surface发生变化时调用
      * @param width
@@ -219,16 +281,8 @@ public class GLImageFilter {
      * 绘制
      */
     protected void onDrawTexture(int textureId, FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
-        // 绑定顶点坐标缓冲
-        vertexBuffer.position(0);
-        GLES30.glVertexAttribPointer(mPositionHandle, mCoordsPerVertex,
-                GLES30.GL_FLOAT, false, 0, vertexBuffer);
-        GLES30.glEnableVertexAttribArray(mPositionHandle);
-        // 绑定纹理坐标缓冲
-        textureBuffer.position(0);
-        GLES30.glVertexAttribPointer(mTextureCoordinateHandle, 2,
-                GLES30.GL_FLOAT, false, 0, textureBuffer);
-        GLES30.glEnableVertexAttribArray(mTextureCoordinateHandle);
+        // 绑定顶点坐标和纹理坐标
+        bindVertexAttributes(vertexBuffer, textureBuffer);
         // 绑定纹理
         GLES30.glActiveTexture(GLES30.GL_TEXTURE0);
         GLES30.glBindTexture(getTextureType(), textureId);
@@ -237,13 +291,94 @@ public class GLImageFilter {
         onDrawFrame();
         onDrawFrameAfter();
         // 解绑
-        GLES30.glDisableVertexAttribArray(mPositionHandle);
-        GLES30.glDisableVertexAttribArray(mTextureCoordinateHandle);
+        unbindVertexAttributes();
         GLES30.glBindTexture(getTextureType(), 0);
 
         GLES30.glUseProgram(0);
     }
 
+    /**
+     * 绑定顶点坐标和纹理坐标，优先使用VAO，不支持时使用客户端顶点数组
+     * @param vertexBuffer
+     * @param textureBuffer
+     */
+    protected void bindVertexAttributes(FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
+        if (mVertexArrayEnable && mVertexArraySupported && mPositionHandle >= 0) {
+            mBoundVertexArray = obtainVertexArray(vertexBuffer, textureBuffer);
+            mBoundVertexArray.bind(vertexBuffer, textureBuffer);
+            return;
+        }
+        mBoundVertexArray = null;
+        // 绑定顶点坐标缓冲
+        vertexBuffer.position(0);
+        GLES30.glVertexAttribPointer(mPositionHandle, mCoordsPerVertex,
+                GLES30.GL_FLOAT, false, 0, vertexBuffer);
+        GLES30.glEnableVertexAttribArray(mPositionHandle);
+        // 绑定纹理坐标缓冲
+        textureBuffer.position(0);
+        GLES30.glVertexAttribPointer(mTextureCoordinateHandle, 2,
+                GLES30.GL_FLOAT, false, 0, textureBuffer);
+        GLES30.glEnableVertexAttribArray(mTextureCoordinateHandle);
+        GLVertexArray.recordClientArrayDraw();
+    }
+
+    /**
+     * 当前上下文是否支持VAO
+     */
+    protected boolean isVertexArraySupported() {
+        return mVertexArraySupported;
+    }
+
+    /**
+     * 解绑顶点坐标和纹理坐标
+     */
+    protected void unbindVertexAttributes() {
+        if (mBoundVertexArray != null) {
+            mBoundVertexArray.unbind();
+            mBoundVertexArray = null;
+        } else {
+            GLES30.glDisableVertexAttribArray(mPositionHandle);
+            GLES30.glDisableVertexAttribArray(mTextureCoordinateHandle);
+        }
+    }
+
+    /**
+     * 获取顶点数组对象，优先使用上一次绑定同一组缓冲的VAO，避免两组顶点交替绘制时每帧重新上传
+     */
+    private GLVertexArray obtainVertexArray(FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
+        for (int i = 0; i < mVertexArrays.length; i++) {
+            if (mVertexArrays[i] != null && mVertexArrays[i].isBoundTo(vertexBuffer, textureBuffer)) {
+                return mVertexArrays[i];
+            }
+        }
+        for (int i = 0; i < mVertexArrays.length; i++) {
+            if (mVertexArrays[i] == null) {
+                mVertexArrays[i] = new GLVertexArray(mPositionHandle, mTextureCoordinateHandle,
+                        mCoordsPerVertex);
+                return mVertexArrays[i];
+            }
+        }
+        // 都被占用时，复用最早的一个，并移到末尾
+        GLVertexArray vertexArray = mVertexArrays[0];
+        System.arraycopy(mVertexArrays, 1, mVertexArrays, 0, mVertexArrays.length - 1);
+        mVertexArrays[mVertexArrays.length - 1] = vertexArray;
+        return vertexArray;
+    }
+
+    /**
+     * 使用索引绘制，绑定了VAO时索引也上传到VBO中
+     * @param mode      绘制模式
+     * @param count     索引个数
+     * @param indices   索引缓冲
+     */
+    protected void drawElements(int mode, int count, ShortBuffer indices) {
+        if (mBoundVertexArray != null) {
+            mBoundVertexArray.drawElements(mode, count, indices);
+        } else {
+            GLES30.glDrawElements(mode, count, GLES30.GL_UNSIGNED_SHORT, indices);
+        }
+    }
+
     /**
      * 调用glDrawArrays/glDrawElements之前，方便添加其他属性
      */
@@ -282,14 +417,33 @@ public class GLImageFilter {
      */
     public void release() {
         if (mIsInitialized) {
-            GLES30.glDeleteProgram(mProgramHandle);
+            if (mProgram != null) {
+                ProgramCache.getInstance().release(mProgram);
+                mProgram = null;
+            } else {
+                GLES30.glDeleteProgram(mProgramHandle);
+            }
             mProgramHandle = OpenGLUtils.GL_NOT_INIT;
         }
+        releaseVertexArrays();
         destroyFrameBuffer();
     }
 
     /**
-     * 创建FBO
+     * 释放顶点数组对象
+     */
+    private void releaseVertexArrays() {
+        for (int i = 0; i < mVertexArrays.length; i++) {
+            if (mVertexArrays[i] != null) {
+                mVertexArrays[i].release();
+                mVertexArrays[i] = null;
+            }
+        }
+        mBoundVertexArray = null;
+    }
+
+    /**
+     * 创建FBO，从缓存池中借用
      * @param width
      * @param height
      */
@@ -301,32 +455,65 @@ public class GLImageFilter {
             destroyFrameBuffer();
         }
         if (mFrameBuffers == null) {
-            mFrameWidth = width;
-            mFrameHeight = height;
+            bindFrameBuffer(FrameBufferPool.getInstance().acquire(width, height));
+        }
+    }
+
+    /**
+     * 使用外部共享的FBO作为输出，用于渲染链中多个滤镜轮流使用同一组FBO
+     * 调用者需要保证当前滤镜的输入纹理不是该FBO绑定的纹理
+     * @param frameBuffer
+     */
+    public void setOutputFrameBuffer(FrameBuffer frameBuffer) {
+        if (!isInitialized() || frameBuffer == null || frameBuffer == mFrameBuffer) {
+            return;
+        }
+        FrameBufferPool.getInstance().retain(frameBuffer);
+        if (mFrameBuffer != null) {
+            FrameBufferPool.getInstance().release(mFrameBuffer);
+        }
+        bindFrameBuffer(frameBuffer);
+    }
+
+    /**
+     * 获取当前的输出FBO
+     * @return
+     */
+    public FrameBuffer getOutputFrameBuffer() {
+        return mFrameBuffer;
+    }
+
+    /**
+     * 绑定FBO
+     * @param frameBuffer
+     */
+    private void bindFrameBuffer(FrameBuffer frameBuffer) {
+        mFrameBuffer = frameBuffer;
+        mFrameWidth = frameBuffer.getWidth();
+        mFrameHeight = frameBuffer.getHeight();
+        if (mFrameBuffers == null || mFrameBufferTextures == null) {
             mFrameBuffers = new int[1];
             mFrameBufferTextures = new int[1];
-            OpenGLUtils.createFrameBuffer(mFrameBuffers, mFrameBufferTextures, width, height);
         }
+        mFrameBuffers[0] = frameBuffer.getFrameBufferId();
+        mFrameBufferTextures[0] = frameBuffer.getTextureId();
     }
 
     /**
-     * 销毁纹理
+     * 销毁纹理，归还到缓存池
      */
     public void destroyFrameBuffer() {
         if (!mIsInitialized) {
             return;
         }
-        if (mFrameBufferTextures != null) {
-            GLES30.glDeleteTextures(1, mFrameBufferTextures, 0);
-            mFrameBufferTextures = null;
-        }
-
-        if (mFrameBuffers != null) {
-            GLES30.glDeleteFramebuffers(1, mFrameBuffers, 0);
-            mFrameBuffers = null;
+        if (mFrameBuffer != null) {
+            FrameBufferPool.getInstance().release(mFrameBuffer);
+            mFrameBuffer = null;
         }
+        mFrameBufferTextures = null;
+        mFrameBuffers = null;
         mFrameWidth = -1;
-        mFrameWidth = -1;
+        mFrameHeight = -1;
     }
 
     /**
@@ -345,6 +532,14 @@ public class GLImageFilter {
         mFilterEnable = enable;
     }
 
+    /**
+     * 判断滤镜是否可用
+     * @return
+     */
+    public boolean isFilterEnable() {
+        return mFilterEnable;
+    }
+
     /**
      * 获取输出宽度
      * @return
@@ -363,108 +558,76 @@ public class GLImageFilter {
 
     ///------------------ 统一变量(uniform)设置 ------------------------///
     protected void setInteger(final int location, final int intValue) {
-        runOnDraw(new Runnable() {
-            @Override
-            public void run() {
-                GLES30.glUniform1i(location, intValue);
-            }
-        });
+        mUniformState.setInt(location, intValue);
     }
 
     protected void setFloat(final int location, final float floatValue) {
-        runOnDraw(new Runnable() {
-            @Override
-            public void run() {
-                GLES30.glUniform1f(location, floatValue);
-            }
-        });
+        mUniformState.setFloat(location, floatValue);
     }
 
     protected void setFloatVec2(final int location, final float[] arrayValue) {
-        runOnDraw(new Runnable() {
-            @Override
-            public void run() {
-                GLES30.glUniform2fv(location, 1, FloatBuffer.wrap(arrayValue));
-            }
-        });
+        mUniformState.setFloats(location, GLUniformState.TYPE_VEC2, arrayValue, 2);
     }
 
     protected void setFloatVec3(final int location, final float[] arrayValue) {
-        runOnDraw(new Runnable() {
-            @Override
-            public void run() {
-                GLES30.glUniform3fv(location, 1, FloatBuffer.wrap(arrayValue));
-            }
-        });
+        mUniformState.setFloats(location, GLUniformState.TYPE_VEC3, arrayValue, 3);
     }
 
     protected void setFloatVec4(final int location, final float[] arrayValue) {
-        runOnDraw(new Runnable() {
-            @Override
-            public void run() {
-                GLES30.glUniform4fv(location, 1, FloatBuffer.wrap(arrayValue));
-            }
-        });
+        mUniformState.setFloats(location, GLUniformState.TYPE_VEC4, arrayValue, 4);
     }
 
     protected void setFloatArray(final int location, final float[] arrayValue) {
-        runOnDraw(new Runnable() {
-            @Override
-            public void run() {
-                GLES30.glUniform1fv(location, arrayValue.length, FloatBuffer.wrap(arrayValue));
-            }
-        });
+        if (arrayValue == null) {
+            return;
+        }
+        mUniformState.setFloats(location, GLUniformState.TYPE_FLOAT_ARRAY, arrayValue, arrayValue.length);
     }
 
     protected void setPoint(final int location, final PointF point) {
-        runOnDraw(new Runnable() {
-
-            @Override
-            public void run() {
-                float[] vec2 = new float[2];
-                vec2[0] = point.x;
-                vec2[1] = point.y;
-                GLES30.glUniform2fv(location, 1, vec2, 0);
-            }
-        });
+        mUniformState.setFloat2(location, point.x, point.y);
     }
 
     protected void setUniformMatrix3f(final int location, final float[] matrix) {
-        runOnDraw(new Runnable() {
-
-            @Override
-            public void run() {
-                GLES30.glUniformMatrix3fv(location, 1, false, matrix, 0);
-            }
-        });
+        mUniformState.setFloats(location, GLUniformState.TYPE_MAT3, matrix, 9);
     }
 
     protected void setUniformMatrix4f(final int location, final float[] matrix) {
-        runOnDraw(new Runnable() {
-
-            @Override
-            public void run() {
-                GLES30.glUniformMatrix4fv(location, 1, false, matrix, 0);
-            }
-        });
+        mUniformState.setFloats(location, GLUniformState.TYPE_MAT4, matrix, 16);
     }
 
     /**
      * 添加延时任务
+     * 如果之前设置的统一变量还没有提交，先插入一个提交任务，保证执行顺序与调用顺序一致
      * @param runnable
      */
     protected void runOnDraw(final Runnable runnable) {
         synchronized (mRunOnDraw) {
+            if (mUniformState.isDirty()) {
+                mRunOnDraw.addLast(mFlushUniformTask);
+            }
             mRunOnDraw.addLast(runnable);
         }
     }
 
     /**
-     * 运行延时任务
+     * 运行延时任务，并提交剩余的统一变量
      */
     protected void runPendingOnDrawTasks() {
-        while (!mRunOnDraw.isEmpty()) {
-            mRunOnDraw.removeFirst().run();
+        // program被其他滤镜使用过，统一变量可能已被覆盖
+        if (mProgram != null && mProgram.use(this)) {
+            mUniformState.markAllDirty();
+        }
+        Runnable runnable;
+        while ((runnable = pollOnDrawTask()) != null) {
+            runnable.run();
+        }
+        mUniformState.flush();
+    }
+
+    private Runnable pollOnDrawTask() {
+        synchronized (mRunOnDraw) {
+            return mRunOnDraw.pollFirst();
         }
     }
 
@@ -0,0 +1,126 @@
+package com.cgfay.filter.glfilter.base;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 合并颜色滤镜
+ * 将多个相邻的单次采样颜色滤镜(亮度/对比度/饱和度/LUT/暗角等)合并成一个fragment shader，
+ * 只需要一次FBO读写即可完成原本多个pass的处理
+ */
+public class GLImageFusedColorFilter extends GLImageFilter {
+
+    // 被合并的滤镜
+    private final List<IColorPass> mColorPasses = new ArrayList<>();
+
+    public GLImageFusedColorFilter(Context context, List<IColorPass> colorPasses) {
+        super(context, requiresES3(colorPasses) ? VERTEX_SHADER_ES3 : VERTEX_SHADER,
+                buildFragmentShader(colorPasses));
+        mColorPasses.addAll(colorPasses);
+        if (mIsInitialized) {
+            for (int i = 0; i < mColorPasses.size(); i++) {
+                mColorPasses.get(i).onBindColorPass(mProgramHandle, getPrefix(i));
+            }
+        }
+    }
+
+    @Override
+    public void onDrawFrameBegin() {
+        super.onDrawFrameBegin();
+        // 纹理单元0 已被输入纹理占用
+        int textureIndex = 1;
+        for (int i = 0; i < mColorPasses.size(); i++) {
+            textureIndex = mColorPasses.get(i).onDrawColorPass(textureIndex);
+        }
+    }
+
+    /**
+     * 判断是否由同一组滤镜合并而成，用于复用已编译的program
+     * @param colorPasses
+     * @return
+     */
+    public boolean isFusedFrom(List<IColorPass> colorPasses) {
+        if (colorPasses == null || colorPasses.size() != mColorPasses.size()) {
+            return false;
+        }
+        for (int i = 0; i < colorPasses.size(); i++) {
+            if (colorPasses.get(i) != mColorPasses.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 获取合并的pass数量
+     * @return
+     */
+    public int getFusedCount() {
+        return mColorPasses.size();
+    }
+
+    /**
+     * 是否有pass使用三维纹理，需要生成GLES3.0 的shader
+     * @param colorPasses
+     * @return
+     */
+    private static boolean requiresES3(List<IColorPass> colorPasses) {
+        if (colorPasses == null) {
+            return false;
+        }
+        for (int i = 0; i < colorPasses.size(); i++) {
+            if (colorPasses.get(i).getColorPassUniforms().contains("sampler3D")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 生成合并后的fragment shader
+     * 有pass使用三维纹理时生成 "#version 300 es" 的shader，其余pass中的texture2D替换成texture
+     * @param colorPasses
+     * @return
+     */
+    private static String buildFragmentShader(List<IColorPass> colorPasses) {
+        if (colorPasses == null || colorPasses.isEmpty()) {
+            return FRAGMENT_SHADER;
+        }
+        boolean es3 = requiresES3(colorPasses);
+        StringBuilder builder = new StringBuilder();
+        if (es3) {
+            builder.append("#version 300 es\n")
+                    .append("precision mediump float;\n")
+                    .append("in highp vec2 textureCoordinate;\n")
+                    .append("out vec4 fragColor;\n");
+        } else {
+            builder.append("precision mediump float;\n")
+                    .append("varying highp vec2 textureCoordinate;\n");
+        }
+        builder.append("uniform sampler2D inputTexture;\n");
+        for (int i = 0; i < colorPasses.size(); i++) {
+            String prefix = getPrefix(i);
+            String function = colorPasses.get(i).getColorPassFunction().replace("$", prefix);
+            if (es3) {
+                function = function.replace("texture2D(", "texture(");
+            }
+            builder.append(colorPasses.get(i).getColorPassUniforms().replace("$", prefix)).append("\n");
+            builder.append(function).append("\n");
+        }
+        builder.append("void main() {\n")
+                .append("    vec4 color = ").append(es3 ? "texture" : "texture2D")
+                .append("(inputTexture, textureCoordinate);\n");
+        for (int i = 0; i < colorPasses.size(); i++) {
+            builder.append("    color = ").append(getPrefix(i)).append("apply(color, textureCoordinate);\n");
+        }
+        builder.append("    ").append(es3 ? "fragColor" : "gl_FragColor").append(" = color;\n")
+                .append("}\n");
+        return builder.toString();
+    }
+
+    private static String getPrefix(int index) {
+        return "pass" + index + "_";
+    }
+}
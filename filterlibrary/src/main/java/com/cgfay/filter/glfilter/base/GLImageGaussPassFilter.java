@@ -27,6 +27,19 @@ class GLImageGaussPassFilter extends GLImageFilter {
         super(context, vertexShader, fragmentShader);
     }
 
+    /**
+     * 使用线性采样高斯核的shader
+     * @param radius    高斯核半径
+     * @param direction GaussianKernel.DIRECTION_HORIZONTAL 或 GaussianKernel.DIRECTION_VERTICAL
+     */
+    public GLImageGaussPassFilter(Context context, int radius, int direction) {
+        this(context, GaussianKernel.obtainShaders(radius, direction));
+    }
+
+    private GLImageGaussPassFilter(Context context, String[] shaders) {
+        super(context, shaders[0], shaders[1]);
+    }
+
     @Override
     public void initProgramHandle() {
         super.initProgramHandle();
@@ -26,6 +26,16 @@ public class GLImageGaussianBlurFilter extends GLImageFilter {
         initFilters(vertexShader, fragmentShader);
     }
 
+    /**
+     * 线性采样的高斯模糊，按需要的模糊范围选择半径，半径越小纹理读取越少
+     * @param radius 高斯核半径(纹素)，1 ~ GaussianKernel.MAX_RADIUS
+     */
+    public GLImageGaussianBlurFilter(Context context, int radius) {
+        super(context, null, null);
+        mVerticalPassFilter = new GLImageGaussPassFilter(mContext, radius, GaussianKernel.DIRECTION_VERTICAL);
+        mHorizontalPassFilter = new GLImageGaussPassFilter(mContext, radius, GaussianKernel.DIRECTION_HORIZONTAL);
+    }
+
     private void initFilters() {
         mVerticalPassFilter = new GLImageGaussPassFilter(mContext);
         mHorizontalPassFilter = new GLImageGaussPassFilter(mContext);
@@ -0,0 +1,254 @@
+package com.cgfay.filter.glfilter.base;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import com.cgfay.filter.glfilter.utils.OpenGLUtils;
+import com.cgfay.uitls.utils.BitmapUtils;
+
+import java.io.File;
+
+/**
+ * 查找表(3D LUT)滤镜基类
+ * GLES3.0 下把PNG查找表转换成三维纹理，每个像素只需要一次硬件三线性采样；
+ * GLES2.0 下使用原来的二维纹理模拟，两次采样再按蓝色分量混合。
+ * 三维数据第一次加载时转换并缓存到PNG旁边，之后通过内存映射读取，切换滤镜时不需要重新解码PNG。
+ */
+public abstract class GLImageLookupTableFilter extends GLImageFilter implements IColorPass {
+
+    private static final String FRAGMENT_SHADER_3D = "shader/base/fragment_lookup_table_3d.glsl";
+
+    // 二维查找表中每行的方格数
+    private final int mTileCount;
+    // 是否使用三维纹理
+    private final boolean mUseTexture3D;
+
+    private float mStrength;
+    private int mStrengthHandle;
+    private int mLookupTableTextureHandle;
+    private int mLookupTableDomainHandle;
+
+    private int mCurveTexture = OpenGLUtils.GL_NOT_INIT;
+    // 三维纹理的缩放和偏移
+    private final float[] mLookupTableDomain = new float[] {1.0f, 0.0f};
+
+    // 合并shader中的句柄
+    private int mPassStrengthHandle;
+    private int mPassLookupTableHandle;
+    private int mPassLookupTableDomainHandle;
+
+    /**
+     * 使用默认shader，根据当前上下文选择三维纹理或二维纹理
+     * @param context
+     * @param fragmentShaderPath    二维纹理的fragment shader
+     * @param tileCount             二维查找表中每行的方格数
+     */
+    protected GLImageLookupTableFilter(Context context, String fragmentShaderPath, int tileCount) {
+        this(context, OpenGLUtils.isGLES3Supported(), fragmentShaderPath, tileCount);
+    }
+
+    private GLImageLookupTableFilter(Context context, boolean useTexture3D,
+                                     String fragmentShaderPath, int tileCount) {
+        super(context, useTexture3D ? VERTEX_SHADER_ES3 : VERTEX_SHADER,
+                OpenGLUtils.getShaderFromAssets(context,
+                        useTexture3D ? FRAGMENT_SHADER_3D : fragmentShaderPath));
+        mUseTexture3D = useTexture3D;
+        mTileCount = tileCount;
+    }
+
+    /**
+     * 自定义shader，只使用二维纹理
+     */
+    protected GLImageLookupTableFilter(Context context, String vertexShader, String fragmentShader,
+                                       int tileCount) {
+        super(context, vertexShader, fragmentShader);
+        mUseTexture3D = false;
+        mTileCount = tileCount;
+    }
+
+    @Override
+    public void initProgramHandle() {
+        super.initProgramHandle();
+        mStrengthHandle = GLES30.glGetUniformLocation(mProgramHandle, "strength");
+        mLookupTableTextureHandle = GLES30.glGetUniformLocation(mProgramHandle, "lookupTableTexture");
+        mLookupTableDomainHandle = GLES30.glGetUniformLocation(mProgramHandle, "lookupTableDomain");
+        setStrength(1.0f);
+    }
+
+    @Override
+    public void onDrawFrameBegin() {
+        super.onDrawFrameBegin();
+        if (mUseTexture3D) {
+            OpenGLUtils.bindTexture(mLookupTableTextureHandle, mCurveTexture, 1, GLES30.GL_TEXTURE_3D);
+            GLES30.glUniform2fv(mLookupTableDomainHandle, 1, mLookupTableDomain, 0);
+        } else {
+            OpenGLUtils.bindTexture(mLookupTableTextureHandle, mCurveTexture, 1);
+        }
+        GLES30.glUniform1f(mStrengthHandle, mStrength);
+    }
+
+    @Override
+    public void release() {
+        deleteCurveTexture();
+        super.release();
+    }
+
+    /**
+     * 设置查找表，PNG的解码和三维数据的读取在调用线程完成，纹理在下一次绘制前上传
+     * @param path PNG查找表的绝对路径
+     */
+    public void setLookupTable(final String path) {
+        if (mUseTexture3D) {
+            final LutCube cube = loadLutCube(path);
+            if (cube == null) {
+                return;
+            }
+            runOnDraw(new Runnable() {
+                @Override
+                public void run() {
+                    deleteCurveTexture();
+                    mCurveTexture = OpenGLUtils.createTexture3D(cube.getData(), cube.getSize());
+                    mLookupTableDomain[0] = (cube.getSize() - 1.0f) / cube.getSize();
+                    mLookupTableDomain[1] = 0.5f / cube.getSize();
+                }
+            });
+        } else {
+            final Bitmap bitmap = BitmapUtils.getBitmapFromFile(path);
+            if (bitmap == null) {
+                Log.e(TAG, "setLookupTable: failed to decode " + path);
+                return;
+            }
+            runOnDraw(new Runnable() {
+                @Override
+                public void run() {
+                    deleteCurveTexture();
+                    mCurveTexture = OpenGLUtils.createTexture(bitmap);
+                    bitmap.recycle();
+                }
+            });
+        }
+    }
+
+    /**
+     * 是否使用三维纹理
+     */
+    public boolean isTexture3D() {
+        return mUseTexture3D;
+    }
+
+    /**
+     *  设置lut滤镜强度，0.0f ~ 1.0f
+     * @param value
+     */
+    public void setStrength(float value) {
+        float opacity;
+        if (value <= 0) {
+            opacity = 0.0f;
+        } else if (value > 1.0f) {
+            opacity = 1.0f;
+        } else {
+            opacity = value;
+        }
+        mStrength = opacity;
+        setFloat(mStrengthHandle, mStrength);
+    }
+
+    @Override
+    public String getColorPassUniforms() {
+        if (mUseTexture3D) {
+            return "uniform mediump sampler3D $lookupTableTexture;\n"
+                    + "uniform mediump vec2 $lookupTableDomain;\n"
+                    + "uniform lowp float $strength;";
+        }
+        return "uniform sampler2D $lookupTableTexture;\n"
+                + "uniform lowp float $strength;";
+    }
+
+    @Override
+    public String getColorPassFunction() {
+        if (mUseTexture3D) {
+            return "vec4 $apply(vec4 color, vec2 uv) {\n"
+                    + "    lowp vec4 newColor = texture($lookupTableTexture,\n"
+                    + "            color.rgb * $lookupTableDomain.x + $lookupTableDomain.y);\n"
+                    + "    return mix(color, vec4(newColor.rgb, color.w), $strength);\n"
+                    + "}";
+        }
+        int size = mTileCount * mTileCount;
+        String tiles = mTileCount + ".0";
+        String tileSize = "(1.0 / " + tiles + ")";
+        String width = (size * mTileCount) + ".0";
+        return "vec4 $apply(vec4 color, vec2 uv) {\n"
+                + "    mediump float blueColor = color.b * " + (size - 1) + ".0;\n"
+                + "    mediump vec2 quad1;\n"
+                + "    quad1.y = floor(blueColor / " + tiles + ");\n"
+                + "    quad1.x = floor(blueColor) - (quad1.y * " + tiles + ");\n"
+                + "    mediump vec2 quad2;\n"
+                + "    quad2.y = floor(ceil(blueColor) / " + tiles + ");\n"
+                + "    quad2.x = ceil(blueColor) - (quad2.y * " + tiles + ");\n"
+                + "    highp vec2 texPos1 = quad1 * " + tileSize + " + 0.5 / " + width
+                + " + (" + tileSize + " - 1.0 / " + width + ") * color.rg;\n"
+                + "    highp vec2 texPos2 = quad2 * " + tileSize + " + 0.5 / " + width
+                + " + (" + tileSize + " - 1.0 / " + width + ") * color.rg;\n"
+                + "    lowp vec4 newColor = mix(texture2D($lookupTableTexture, texPos1),\n"
+                + "            texture2D($lookupTableTexture, texPos2), fract(blueColor));\n"
+                + "    return mix(color, vec4(newColor.rgb, color.w), $strength);\n"
+                + "}";
+    }
+
+    @Override
+    public void onBindColorPass(int programHandle, String prefix) {
+        mPassStrengthHandle = GLES30.glGetUniformLocation(programHandle, prefix + "strength");
+        mPassLookupTableHandle = GLES30.glGetUniformLocation(programHandle, prefix + "lookupTableTexture");
+        mPassLookupTableDomainHandle = GLES30.glGetUniformLocation(programHandle, prefix + "lookupTableDomain");
+    }
+
+    @Override
+    public int onDrawColorPass(int textureIndex) {
+        if (mUseTexture3D) {
+            OpenGLUtils.bindTexture(mPassLookupTableHandle, mCurveTexture, textureIndex, GLES30.GL_TEXTURE_3D);
+            GLES30.glUniform2fv(mPassLookupTableDomainHandle, 1, mLookupTableDomain, 0);
+        } else {
+            OpenGLUtils.bindTexture(mPassLookupTableHandle, mCurveTexture, textureIndex);
+        }
+        GLES30.glUniform1f(mPassStrengthHandle, mStrength);
+        return textureIndex + 1;
+    }
+
+    @Override
+    public boolean isIdentity() {
+        return mStrength == 0.0f || mCurveTexture == OpenGLUtils.GL_NOT_INIT;
+    }
+
+    private void deleteCurveTexture() {
+        if (mCurveTexture != OpenGLUtils.GL_NOT_INIT) {
+            GLES30.glDeleteTextures(1, new int[]{ mCurveTexture }, 0);
+            mCurveTexture = OpenGLUtils.GL_NOT_INIT;
+        }
+    }
+
+    /**
+     * 读取三维查找表，缓存存在且与PNG一致时直接内存映射，否则解码PNG转换后写入缓存
+     * @param path PNG查找表的绝对路径
+     * @return 失败时返回null
+     */
+    private LutCube loadLutCube(String path) {
+        File source = new File(path);
+        if (!source.isFile()) {
+            Log.e(TAG, "loadLutCube: " + path + " not found");
+            return null;
+        }
+        File cache = LutCubeLoader.getCacheFile(source.getParentFile(), source.getName());
+        LutCube cube = LutCubeLoader.read(cache, source);
+        if (cube != null) {
+            return cube;
+        }
+        Bitmap bitmap = BitmapUtils.getBitmapFromFile(path);
+        if (bitmap == null) {
+            Log.e(TAG, "loadLutCube: failed to decode " + path);
+            return null;
+        }
+        return LutCubeLoader.convert(bitmap, cache, source);
+    }
+}
@@ -9,7 +9,7 @@ import com.cgfay.filter.glfilter.utils.OpenGLUtils;
 /**
  * 暗角(虚光照)滤镜
  */
-public class GLImageVignetteFilter extends GLImageFilter {
+public class GLImageVignetteFilter extends GLImageFilter implements IColorPass {
 
     private int mVignetteCenterHandle;
     private int mVignetteColorHandle;
@@ -24,6 +24,12 @@ public class GLImageVignetteFilter extends GLImageFilter {
 
     private float mVignetteEnd;
 
+    // 合并shader中的句柄
+    private int mPassCenterHandle;
+    private int mPassColorHandle;
+    private int mPassStartHandle;
+    private int mPassEndHandle;
+
     public GLImageVignetteFilter(Context context) {
         this(context, VERTEX_SHADER, OpenGLUtils.getShaderFromAssets(context,
                 "shader/base/fragment_vignette.glsl"));
@@ -81,4 +87,42 @@ public class GLImageVignetteFilter extends GLImageFilter {
         mVignetteEnd = vignetteEnd;
         setFloat(mVignetteEndHandle, mVignetteEnd);
     }
+
+    @Override
+    public String getColorPassUniforms() {
+        return "uniform lowp vec2 $vignetteCenter;\n"
+                + "uniform lowp vec3 $vignetteColor;\n"
+                + "uniform highp float $vignetteStart;\n"
+                + "uniform highp float $vignetteEnd;";
+    }
+
+    @Override
+    public String getColorPassFunction() {
+        return "vec4 $apply(vec4 color, vec2 uv) {\n"
+                + "    lowp float percent = smoothstep($vignetteStart, $vignetteEnd, distance(uv, $vignetteCenter));\n"
+                + "    return vec4(mix(color.rgb, $vignetteColor, percent), 1.0);\n"
+                + "}";
+    }
+
+    @Override
+    public void onBindColorPass(int programHandle, String prefix) {
+        mPassCenterHandle = GLES20.glGetUniformLocation(programHandle, prefix + "vignetteCenter");
+        mPassColorHandle = GLES20.glGetUniformLocation(programHandle, prefix + "vignetteColor");
+        mPassStartHandle = GLES20.glGetUniformLocation(programHandle, prefix + "vignetteStart");
+        mPassEndHandle = GLES20.glGetUniformLocation(programHandle, prefix + "vignetteEnd");
+    }
+
+    @Override
+    public int onDrawColorPass(int textureIndex) {
+        GLES20.glUniform2f(mPassCenterHandle, mVignetteCenter.x, mVignetteCenter.y);
+        GLES20.glUniform3f(mPassColorHandle, mVignetteColor[0], mVignetteColor[1], mVignetteColor[2]);
+        GLES20.glUniform1f(mPassStartHandle, mVignetteStart);
+        GLES20.glUniform1f(mPassEndHandle, mVignetteEnd);
+        return textureIndex;
+    }
+
+    @Override
+    public boolean isIdentity() {
+        return false;
+    }
 }
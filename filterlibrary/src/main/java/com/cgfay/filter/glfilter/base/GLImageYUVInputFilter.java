@@ -206,16 +206,8 @@ public class GLImageYUVInputFilter extends GLImageFilter {
         GLES30.glPixelStorei(GLES30.GL_UNPACK_ALIGNMENT, 1);
         GLES30.glClear(GLES30.GL_COLOR_BUFFER_BIT);
 
-        // 绑定顶点坐标缓冲
-        vertexBuffer.position(0);
-        GLES30.glVertexAttribPointer(mPositionHandle, mCoordsPerVertex,
-                GLES30.GL_FLOAT, false, 0, vertexBuffer);
-        GLES30.glEnableVertexAttribArray(mPositionHandle);
-        // 绑定纹理坐标缓冲
-        textureBuffer.position(0);
-        GLES30.glVertexAttribPointer(mTextureCoordinateHandle, 2,
-                GLES30.GL_FLOAT, false, 0, textureBuffer);
-        GLES30.glEnableVertexAttribArray(mTextureCoordinateHandle);
+        // 绑定顶点坐标和纹理坐标
+        bindVertexAttributes(vertexBuffer, textureBuffer);
         // 绑定纹理
         if (mRenderYUV == 1) {
             updateYUV();
@@ -227,8 +219,7 @@ public class GLImageYUVInputFilter extends GLImageFilter {
         onDrawFrame();
         onDrawFrameAfter();
         // 解绑
-        GLES30.glDisableVertexAttribArray(mPositionHandle);
-        GLES30.glDisableVertexAttribArray(mTextureCoordinateHandle);
+        unbindVertexAttributes();
         GLES30.glBindTexture(getTextureType(), 0);
 
         GLES30.glUseProgram(0);
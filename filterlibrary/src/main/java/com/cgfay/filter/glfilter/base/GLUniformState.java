@@ -0,0 +1,268 @@
+package com.cgfay.filter.glfilter.base;
+
+import android.opengl.GLES30;
+
+/**
+ * 滤镜统一变量状态
+ * 按句柄缓存统一变量的最新值，每个句柄一个脏标记，在glUseProgram之后一次性提交，
+ * 设置统一变量时不再创建Runnable和FloatBuffer，稳定状态下不产生任何对象分配
+ */
+public final class GLUniformState {
+
+    /**
+     * 统一变量提交接口，默认使用GLES30提交
+     */
+    interface Uploader {
+        void uniform1i(int location, int value);
+        void uniform1f(int location, float value);
+        void uniform2fv(int location, float[] value);
+        void uniform3fv(int location, float[] value);
+        void uniform4fv(int location, float[] value);
+        void uniform1fv(int location, int count, float[] value);
+        void uniformMatrix3fv(int location, float[] value);
+        void uniformMatrix4fv(int location, float[] value);
+    }
+
+    static final int TYPE_INT = 0;
+    static final int TYPE_FLOAT = 1;
+    static final int TYPE_VEC2 = 2;
+    static final int TYPE_VEC3 = 3;
+    static final int TYPE_VEC4 = 4;
+    static final int TYPE_FLOAT_ARRAY = 5;
+    static final int TYPE_MAT3 = 6;
+    static final int TYPE_MAT4 = 7;
+
+    private static final int DEFAULT_CAPACITY = 8;
+
+    private final Uploader mUploader;
+
+    // 句柄 -> 槽位
+    private int[] mLocations = new int[DEFAULT_CAPACITY];
+    private int[] mTypes = new int[DEFAULT_CAPACITY];
+    private int[] mIntValues = new int[DEFAULT_CAPACITY];
+    private float[][] mFloatValues = new float[DEFAULT_CAPACITY][];
+    private int[] mFloatCounts = new int[DEFAULT_CAPACITY];
+    private boolean[] mDirty = new boolean[DEFAULT_CAPACITY];
+    private int mSize;
+    private int mDirtyCount;
+
+    public GLUniformState() {
+        this(GLES_UPLOADER);
+    }
+
+    GLUniformState(Uploader uploader) {
+        mUploader = uploader;
+    }
+
+    public synchronized void setInt(int location, int value) {
+        if (location < 0) {
+            return;
+        }
+        int slot = obtainSlot(location, TYPE_INT);
+        mIntValues[slot] = value;
+        markDirty(slot);
+    }
+
+    public synchronized void setFloat(int location, float value) {
+        if (location < 0) {
+            return;
+        }
+        int slot = obtainSlot(location, TYPE_FLOAT);
+        float[] values = obtainFloats(slot, 1);
+        values[0] = value;
+        markDirty(slot);
+    }
+
+    public synchronized void setFloat2(int location, float x, float y) {
+        if (location < 0) {
+            return;
+        }
+        int slot = obtainSlot(location, TYPE_VEC2);
+        float[] values = obtainFloats(slot, 2);
+        values[0] = x;
+        values[1] = y;
+        markDirty(slot);
+    }
+
+    /**
+     * 设置float数组类型的统一变量，数值会被复制
+     * @param location  句柄
+     * @param type      TYPE_VEC2 / TYPE_VEC3 / TYPE_VEC4 / TYPE_FLOAT_ARRAY / TYPE_MAT3 / TYPE_MAT4
+     * @param value     数值
+     * @param count     需要复制的float个数
+     */
+    synchronized void setFloats(int location, int type, float[] value, int count) {
+        if (location < 0 || value == null) {
+            return;
+        }
+        int slot = obtainSlot(location, type);
+        float[] values = obtainFloats(slot, count);
+        System.arraycopy(value, 0, values, 0, Math.min(count, value.length));
+        markDirty(slot);
+    }
+
+    /**
+     * 是否有未提交的统一变量
+     */
+    public synchronized boolean isDirty() {
+        return mDirtyCount > 0;
+    }
+
+    /**
+     * 提交所有脏的统一变量，需要在glUseProgram之后调用
+     */
+    public synchronized void flush() {
+        if (mDirtyCount == 0) {
+            return;
+        }
+        for (int slot = 0; slot < mSize; slot++) {
+            if (!mDirty[slot]) {
+                continue;
+            }
+            mDirty[slot] = false;
+            int location = mLocations[slot];
+            float[] values = mFloatValues[slot];
+            switch (mTypes[slot]) {
+                case TYPE_INT:
+                    mUploader.uniform1i(location, mIntValues[slot]);
+                    break;
+                case TYPE_FLOAT:
+                    mUploader.uniform1f(location, values[0]);
+                    break;
+                case TYPE_VEC2:
+                    mUploader.uniform2fv(location, values);
+                    break;
+                case TYPE_VEC3:
+                    mUploader.uniform3fv(location, values);
+                    break;
+                case TYPE_VEC4:
+                    mUploader.uniform4fv(location, values);
+                    break;
+                case TYPE_FLOAT_ARRAY:
+                    mUploader.uniform1fv(location, mFloatCounts[slot], values);
+                    break;
+                case TYPE_MAT3:
+                    mUploader.uniformMatrix3fv(location, values);
+                    break;
+                case TYPE_MAT4:
+                    mUploader.uniformMatrix4fv(location, values);
+                    break;
+                default:
+                    break;
+            }
+        }
+        mDirtyCount = 0;
+    }
+
+    /**
+     * 把所有缓存的统一变量标记为脏，program被其他滤镜共享使用之后调用，下一次flush全部重新提交
+     */
+    public synchronized void markAllDirty() {
+        for (int slot = 0; slot < mSize; slot++) {
+            markDirty(slot);
+        }
+    }
+
+    private void markDirty(int slot) {
+        if (!mDirty[slot]) {
+            mDirty[slot] = true;
+            mDirtyCount++;
+        }
+    }
+
+    /**
+     * 查找句柄对应的槽位，不存在时创建，只有首次设置某个句柄时才会分配内存
+     */
+    private int obtainSlot(int location, int type) {
+        for (int slot = 0; slot < mSize; slot++) {
+            if (mLocations[slot] == location) {
+                mTypes[slot] = type;
+                return slot;
+            }
+        }
+        if (mSize == mLocations.length) {
+            grow();
+        }
+        int slot = mSize++;
+        mLocations[slot] = location;
+        mTypes[slot] = type;
+        mFloatCounts[slot] = 0;
+        mDirty[slot] = false;
+        return slot;
+    }
+
+    private float[] obtainFloats(int slot, int count) {
+        float[] values = mFloatValues[slot];
+        if (values == null || values.length < count) {
+            values = new float[count];
+            mFloatValues[slot] = values;
+        }
+        mFloatCounts[slot] = count;
+        return values;
+    }
+
+    private void grow() {
+        int capacity = mLocations.length * 2;
+        mLocations = copyOf(mLocations, capacity);
+        mTypes = copyOf(mTypes, capacity);
+        mIntValues = copyOf(mIntValues, capacity);
+        mFloatCounts = copyOf(mFloatCounts, capacity);
+        boolean[] dirty = new boolean[capacity];
+        System.arraycopy(mDirty, 0, dirty, 0, mSize);
+        mDirty = dirty;
+        float[][] floatValues = new float[capacity][];
+        System.arraycopy(mFloatValues, 0, floatValues, 0, mSize);
+        mFloatValues = floatValues;
+    }
+
+    private static int[] copyOf(int[] array, int capacity) {
+        int[] result = new int[capacity];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+
+    /**
+     * GLES30 提交
+     */
+    private static final Uploader GLES_UPLOADER = new Uploader() {
+        @Override
+        public void uniform1i(int location, int value) {
+            GLES30.glUniform1i(location, value);
+        }
+
+        @Override
+        public void uniform1f(int location, float value) {
+            GLES30.glUniform1f(location, value);
+        }
+
+        @Override
+        public void uniform2fv(int location, float[] value) {
+            GLES30.glUniform2fv(location, 1, value, 0);
+        }
+
+        @Override
+        public void uniform3fv(int location, float[] value) {
+            GLES30.glUniform3fv(location, 1, value, 0);
+        }
+
+        @Override
+        public void uniform4fv(int location, float[] value) {
+            GLES30.glUniform4fv(location, 1, value, 0);
+        }
+
+        @Override
+        public void uniform1fv(int location, int count, float[] value) {
+            GLES30.glUniform1fv(location, count, value, 0);
+        }
+
+        @Override
+        public void uniformMatrix3fv(int location, float[] value) {
+            GLES30.glUniformMatrix3fv(location, 1, false, value, 0);
+        }
+
+        @Override
+        public void uniformMatrix4fv(int location, float[] value) {
+            GLES30.glUniformMatrix4fv(location, 1, false, value, 0);
+        }
+    };
+}
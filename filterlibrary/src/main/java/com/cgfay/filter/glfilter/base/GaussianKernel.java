@@ -0,0 +1,222 @@
+package com.cgfay.filter.glfilter.base;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 线性采样的一维高斯核
+ * 利用纹理的双线性过滤，把相邻两个离散权重合并为一次采样：权重相加，偏移取两者按权重的加权位置，
+ * 半径为R的高斯核只需要 1 + 2 * ceil(R / 2) 次纹理读取，原来需要 2R + 1 次。
+ * 同时负责生成并缓存每个(半径, 方向)对应的shader，纯Java实现，可以在JVM上测试。
+ */
+public final class GaussianKernel {
+
+    // 水平方向
+    public static final int DIRECTION_HORIZONTAL = 0;
+    // 垂直方向
+    public static final int DIRECTION_VERTICAL = 1;
+
+    // 最大半径，受varying数量限制(GLES2至少8个vec4)，每个vec4保存正反两个采样坐标
+    public static final int MAX_RADIUS = 14;
+
+    private final int mRadius;
+    private final float mSigma;
+    // 离散权重，下标为到中心的距离，0 ~ radius
+    private final float[] mDiscreteWeights;
+    // 线性采样的偏移和权重，下标0为中心
+    private final float[] mOffsets;
+    private final float[] mWeights;
+
+    // 核缓存，key为半径
+    private static final Map<Integer, GaussianKernel> sKernelCache = new HashMap<>();
+    // shader缓存，key为半径和方向
+    private static final Map<Integer, String[]> sShaderCache = new HashMap<>();
+
+    private GaussianKernel(int radius, float sigma) {
+        mRadius = radius;
+        mSigma = sigma;
+        mDiscreteWeights = discreteWeights(radius, sigma);
+        int sampleCount = (radius + 1) / 2;
+        mOffsets = new float[sampleCount + 1];
+        mWeights = new float[sampleCount + 1];
+        mOffsets[0] = 0;
+        mWeights[0] = mDiscreteWeights[0];
+        for (int i = 1; i <= sampleCount; i++) {
+            int first = 2 * i - 1;
+            int second = first + 1;
+            float firstWeight = mDiscreteWeights[first];
+            float secondWeight = second <= radius ? mDiscreteWeights[second] : 0;
+            float weight = firstWeight + secondWeight;
+            mWeights[i] = weight;
+            mOffsets[i] = weight > 0 ? (first * firstWeight + second * secondWeight) / weight : first;
+        }
+    }
+
+    /**
+     * 获取指定半径的高斯核，sigma取半径的1/3，结果会被缓存
+     * @param radius 半径，1 ~ MAX_RADIUS
+     */
+    public static GaussianKernel obtain(int radius) {
+        int clamped = clampRadius(radius);
+        synchronized (sKernelCache) {
+            GaussianKernel kernel = sKernelCache.get(clamped);
+            if (kernel == null) {
+                kernel = new GaussianKernel(clamped, defaultSigma(clamped));
+                sKernelCache.put(clamped, kernel);
+            }
+            return kernel;
+        }
+    }
+
+    /**
+     * 创建指定半径和sigma的高斯核，不缓存
+     */
+    public static GaussianKernel create(int radius, float sigma) {
+        return new GaussianKernel(clampRadius(radius), sigma > 0 ? sigma : defaultSigma(clampRadius(radius)));
+    }
+
+    /**
+     * 计算归一化的离散高斯权重
+     * @param radius 半径
+     * @param sigma  标准差
+     * @return 下标为到中心的距离，中心权重加上两侧权重之和为1
+     */
+    public static float[] discreteWeights(int radius, float sigma) {
+        float[] weights = new float[radius + 1];
+        double sum = 0;
+        for (int i = 0; i <= radius; i++) {
+            double weight = Math.exp(-(i * i) / (2.0 * sigma * sigma));
+            weights[i] = (float) weight;
+            sum += i == 0 ? weight : weight * 2;
+        }
+        for (int i = 0; i <= radius; i++) {
+            weights[i] = (float) (weights[i] / sum);
+        }
+        return weights;
+    }
+
+    private static int clampRadius(int radius) {
+        return Math.max(1, Math.min(radius, MAX_RADIUS));
+    }
+
+    private static float defaultSigma(int radius) {
+        return Math.max(radius / 3.0f, 0.5f);
+    }
+
+    public int getRadius() {
+        return mRadius;
+    }
+
+    public float getSigma() {
+        return mSigma;
+    }
+
+    /**
+     * 单侧的采样次数，不包括中心
+     */
+    public int getSampleCount() {
+        return mOffsets.length - 1;
+    }
+
+    /**
+     * 线性采样的偏移，单位为纹素，下标0为中心
+     */
+    public float[] getOffsets() {
+        return mOffsets.clone();
+    }
+
+    /**
+     * 线性采样的权重，下标0为中心，两侧对称
+     */
+    public float[] getWeights() {
+        return mWeights.clone();
+    }
+
+    /**
+     * 离散权重，下标为到中心的距离
+     */
+    public float[] getDiscreteWeights() {
+        return mDiscreteWeights.clone();
+    }
+
+    /**
+     * 获取指定半径和方向的shader，结果会被缓存
+     * @param radius    半径
+     * @param direction DIRECTION_HORIZONTAL 或 DIRECTION_VERTICAL
+     * @return 顶点shader和片元shader
+     */
+    public static String[] obtainShaders(int radius, int direction) {
+        GaussianKernel kernel = obtain(radius);
+        int key = kernel.mRadius * 2 + (direction == DIRECTION_VERTICAL ? 1 : 0);
+        synchronized (sShaderCache) {
+            String[] shaders = sShaderCache.get(key);
+            if (shaders == null) {
+                shaders = new String[] {
+                        kernel.generateVertexShader(direction),
+                        kernel.generateFragmentShader()
+                };
+                sShaderCache.put(key, shaders);
+            }
+            return shaders;
+        }
+    }
+
+    /**
+     * 生成顶点shader，采样偏移写成常量，方向只使用对应的纹素偏移
+     */
+    String generateVertexShader(int direction) {
+        int count = getSampleCount();
+        String step = direction == DIRECTION_VERTICAL
+                ? "vec2(0.0, texelHeightOffset)" : "vec2(texelWidthOffset, 0.0)";
+        StringBuilder builder = new StringBuilder();
+        builder.append("attribute vec4 aPosition;\n")
+                .append("attribute vec4 aTextureCoord;\n")
+                .append("uniform highp float texelWidthOffset;\n")
+                .append("uniform highp float texelHeightOffset;\n")
+                .append("varying vec2 textureCoordinate;\n")
+                .append("varying vec4 blurCoordinates[").append(count).append("];\n")
+                .append("void main() {\n")
+                .append("    gl_Position = aPosition;\n")
+                .append("    textureCoordinate = aTextureCoord.xy;\n")
+                .append("    highp vec2 singleStepOffset = ").append(step).append(";\n");
+        for (int i = 1; i <= count; i++) {
+            String offset = formatFloat(mOffsets[i]);
+            builder.append("    blurCoordinates[").append(i - 1)
+                    .append("] = vec4(textureCoordinate - singleStepOffset * ").append(offset)
+                    .append(", textureCoordinate + singleStepOffset * ").append(offset)
+                    .append(");\n");
+        }
+        builder.append("}\n");
+        return builder.toString();
+    }
+
+    /**
+     * 生成片元shader，权重写成常量
+     */
+    String generateFragmentShader() {
+        int count = getSampleCount();
+        StringBuilder builder = new StringBuilder();
+        builder.append("precision mediump float;\n")
+                .append("varying vec2 textureCoordinate;\n")
+                .append("varying vec4 blurCoordinates[").append(count).append("];\n")
+                .append("uniform sampler2D inputTexture;\n")
+                .append("void main() {\n")
+                .append("    vec4 color = texture2D(inputTexture, textureCoordinate);\n")
+                .append("    vec3 sum = color.rgb * ").append(formatFloat(mWeights[0])).append(";\n");
+        for (int i = 1; i <= count; i++) {
+            String weight = formatFloat(mWeights[i]);
+            builder.append("    sum += texture2D(inputTexture, blurCoordinates[").append(i - 1)
+                    .append("].xy).rgb * ").append(weight).append(";\n")
+                    .append("    sum += texture2D(inputTexture, blurCoordinates[").append(i - 1)
+                    .append("].zw).rgb * ").append(weight).append(";\n");
+        }
+        builder.append("    gl_FragColor = vec4(sum, color.a);\n")
+                .append("}\n");
+        return builder.toString();
+    }
+
+    private static String formatFloat(float value) {
+        return String.format(Locale.US, "%.8f", value);
+    }
+}
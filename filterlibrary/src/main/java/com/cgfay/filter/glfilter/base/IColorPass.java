@@ -0,0 +1,38 @@
+package com.cgfay.filter.glfilter.base;
+
+/**
+ * 单次采样颜色变换接口
+ * 实现该接口的滤镜只对当前像素做颜色变换，不依赖邻域像素，可以与相邻的同类滤镜合并成一个shader
+ * 代码片段中的"$"会被替换成唯一前缀，用于区分合并后的统一变量和函数名称
+ */
+public interface IColorPass {
+
+    /**
+     * 统一变量声明，例如 "uniform lowp float $brightness;"
+     */
+    String getColorPassUniforms();
+
+    /**
+     * 颜色变换函数，签名必须为 "vec4 $apply(vec4 color, vec2 uv)"
+     */
+    String getColorPassFunction();
+
+    /**
+     * 合并shader编译之后获取统一变量句柄
+     * @param programHandle 合并后的program
+     * @param prefix        统一变量前缀
+     */
+    void onBindColorPass(int programHandle, String prefix);
+
+    /**
+     * 绘制前更新统一变量
+     * @param textureIndex  可用的纹理单元起始位置
+     * @return 下一个可用的纹理单元
+     */
+    int onDrawColorPass(int textureIndex);
+
+    /**
+     * 当前参数下是否为恒等变换，恒等变换时可以直接跳过
+     */
+    boolean isIdentity();
+}
@@ -0,0 +1,185 @@
+package com.cgfay.filter.glfilter.base;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 三维查找表数据
+ * 把按方格平铺的PNG查找表(512 x 512 为 8 x 8 个 64 x 64 的方格，64 x 64 为 4 x 4 个 16 x 16 的方格)
+ * 转换成 size^3 个RGB字节的立方体，可以直接用glTexImage3D上传。
+ * 转换结果以二进制文件缓存，文件头记录源文件的大小和修改时间，源文件变化后缓存失效，读取时使用内存映射。
+ * 纯Java实现，可以在JVM上测试。
+ */
+public final class LutCube {
+
+    // 缓存文件后缀
+    public static final String CACHE_SUFFIX = ".lut3d";
+
+    // 文件头："LUT3"
+    static final int MAGIC = 0x4C555433;
+    static final int VERSION = 1;
+    // magic、version、size、保留字段各4字节，源文件大小和修改时间各8字节
+    static final int HEADER_SIZE = 32;
+
+    private static final int MIN_SIZE = 2;
+    private static final int MAX_SIZE = 256;
+
+    // 立方体边长
+    private final int mSize;
+    // RGB数据，r变化最快，其次是g，最后是b
+    private final ByteBuffer mData;
+
+    private LutCube(int size, ByteBuffer data) {
+        mSize = size;
+        mData = data;
+    }
+
+    /**
+     * 根据PNG的宽高计算立方体边长，宽高必须相等且为方格数的三次方
+     * @return 不支持的尺寸返回0
+     */
+    public static int detectSize(int width, int height) {
+        if (width != height || width <= 0) {
+            return 0;
+        }
+        int tiles = (int) Math.round(Math.cbrt(width));
+        if (tiles * tiles * tiles != width) {
+            return 0;
+        }
+        int size = tiles * tiles;
+        return size >= MIN_SIZE && size <= MAX_SIZE ? size : 0;
+    }
+
+    /**
+     * 从PNG解码后的像素转换
+     * @param pixels ARGB像素，按行存放
+     * @param width  宽度
+     * @param height 高度
+     */
+    public static LutCube fromPixels(int[] pixels, int width, int height) {
+        int size = detectSize(width, height);
+        if (size == 0) {
+            throw new IllegalArgumentException("unsupported lookup table size: " + width + "x" + height);
+        }
+        if (pixels == null || pixels.length < width * height) {
+            throw new IllegalArgumentException("pixels is too short");
+        }
+        int tiles = width / size;
+        ByteBuffer data = ByteBuffer.allocateDirect(size * size * size * 3);
+        for (int b = 0; b < size; b++) {
+            int tileX = (b % tiles) * size;
+            int tileY = (b / tiles) * size;
+            for (int g = 0; g < size; g++) {
+                int row = (tileY + g) * width + tileX;
+                for (int r = 0; r < size; r++) {
+                    int color = pixels[row + r];
+                    data.put((byte) (color >> 16));
+                    data.put((byte) (color >> 8));
+                    data.put((byte) color);
+                }
+            }
+        }
+        data.flip();
+        return new LutCube(size, data);
+    }
+
+    /**
+     * 读取缓存文件，使用内存映射，不复制数据
+     * @param file           缓存文件
+     * @param sourceLength   源文件大小
+     * @param sourceModified 源文件修改时间
+     * @return 文件不存在、格式不对或者与源文件不一致时返回null
+     */
+    public static LutCube load(File file, long sourceLength, long sourceModified) throws IOException {
+        if (file == null || !file.isFile() || file.length() < HEADER_SIZE) {
+            return null;
+        }
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            int size = buffer.getInt();
+            buffer.getInt();
+            if (buffer.getLong() != sourceLength || buffer.getLong() != sourceModified) {
+                return null;
+            }
+            if (size < MIN_SIZE || size > MAX_SIZE
+                    || buffer.remaining() != size * size * size * 3) {
+                return null;
+            }
+            return new LutCube(size, buffer.slice());
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * 写入缓存文件，先写临时文件再重命名，避免读到写了一半的文件
+     * @param file           缓存文件
+     * @param sourceLength   源文件大小
+     * @param sourceModified 源文件修改时间
+     */
+    public void write(File file, long sourceLength, long sourceModified) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream output = new DataOutputStream(new FileOutputStream(temp));
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(mSize);
+            output.writeInt(0);
+            output.writeLong(sourceLength);
+            output.writeLong(sourceModified);
+            ByteBuffer data = getData();
+            byte[] bytes = new byte[mSize * mSize * 3];
+            while (data.hasRemaining()) {
+                int count = Math.min(bytes.length, data.remaining());
+                data.get(bytes, 0, count);
+                output.write(bytes, 0, count);
+            }
+        } finally {
+            output.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("failed to rename " + temp);
+        }
+    }
+
+    /**
+     * 立方体边长
+     */
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * RGB数据，每次返回独立的位置，可以直接传给glTexImage3D
+     */
+    public ByteBuffer getData() {
+        ByteBuffer data = mData.duplicate();
+        data.order(ByteOrder.nativeOrder());
+        data.position(0);
+        return data;
+    }
+
+    /**
+     * 获取立方体中的颜色
+     * @return RGB颜色，不带alpha
+     */
+    public int getColor(int r, int g, int b) {
+        int index = ((b * mSize + g) * mSize + r) * 3;
+        return (mData.get(index) & 0xFF) << 16
+                | (mData.get(index + 1) & 0xFF) << 8
+                | (mData.get(index + 2) & 0xFF);
+    }
+}
@@ -0,0 +1,78 @@
+package com.cgfay.filter.glfilter.base;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 三维查找表加载
+ * 缓存文件记录源文件的大小和修改时间，源文件没有变化时直接内存映射缓存，不需要解码PNG；
+ * 否则由调用方解码PNG，转换之后写入缓存。
+ */
+public final class LutCubeLoader {
+
+    private static final String TAG = "LutCubeLoader";
+
+    private LutCubeLoader() {
+
+    }
+
+    /**
+     * 获取缓存文件
+     * @param folder    缓存所在的文件夹
+     * @param name      PNG查找表的文件名
+     */
+    public static File getCacheFile(File folder, String name) {
+        int dot = name.lastIndexOf('.');
+        return new File(folder, (dot > 0 ? name.substring(0, dot) : name) + LutCube.CACHE_SUFFIX);
+    }
+
+    /**
+     * 读取缓存
+     * @param cache     缓存文件
+     * @param source    查找表的源文件，可以是PNG文件或者打包的资源数据文件
+     * @return 缓存不存在或者已经过期时返回null
+     */
+    public static LutCube read(File cache, File source) {
+        if (!source.isFile()) {
+            return null;
+        }
+        try {
+            return LutCube.load(cache, source.length(), source.lastModified());
+        } catch (IOException e) {
+            Log.w(TAG, "read: failed to read cache " + cache, e);
+            return null;
+        }
+    }
+
+    /**
+     * 将PNG查找表转换成三维数据并写入缓存，转换完成后回收bitmap
+     * @param bitmap    PNG查找表
+     * @param cache     缓存文件
+     * @param source    查找表的源文件
+     * @return 不是合法的查找表时返回null
+     */
+    public static LutCube convert(Bitmap bitmap, File cache, File source) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        bitmap.recycle();
+        LutCube cube;
+        try {
+            cube = LutCube.fromPixels(pixels, width, height);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "convert: " + source, e);
+            return null;
+        }
+        try {
+            cube.write(cache, source.length(), source.lastModified());
+        } catch (IOException e) {
+            // 缓存写入失败不影响本次使用
+            Log.w(TAG, "convert: failed to write cache " + cache, e);
+        }
+        return cube;
+    }
+}
@@ -12,9 +12,42 @@ import java.nio.FloatBuffer;
 
 /**
  * 实时美颜，这里用的是高反差保留磨皮法
+ * 模糊、高通、高通模糊三个阶段都是低频处理，分别在缩小的FBO中进行，最后在调节滤镜中双线性放大混合。
+ * 每个阶段的缩放比例可以单独设置，也可以通过画质档位选择，或者根据美颜的渲染耗时自动切换。
  */
 public class GLImageBeautyFilter extends GLImageFilter implements IBeautify {
 
+    // 处理阶段
+    public static final int STAGE_BLUR = 0;             // 原图高斯模糊
+    public static final int STAGE_HIGH_PASS = 1;        // 高通滤波
+    public static final int STAGE_HIGH_PASS_BLUR = 2;   // 高通滤波结果的高斯模糊
+    private static final int STAGE_COUNT = 3;
+
+    // 画质档位
+    public static final int QUALITY_FULL = 0;       // 全分辨率
+    public static final int QUALITY_HIGH = 1;       // 1/2分辨率，默认画质
+    public static final int QUALITY_LOW = 2;        // 1/4分辨率
+    public static final int QUALITY_AUTO = 3;       // 根据渲染耗时在HIGH和LOW之间切换
+    public static final int QUALITY_CUSTOM = 4;     // 通过setStageScale单独设置
+
+    // 各画质档位下每个阶段的缩放比例
+    private static final float[][] QUALITY_SCALES = {
+            {1.0f, 1.0f, 1.0f},
+            {0.5f, 0.5f, 0.5f},
+            {0.25f, 0.25f, 0.25f},
+    };
+
+    // 模糊半径按1/2分辨率调校，不同的缩放比例下保持相同的模糊范围
+    private static final float REFERENCE_SCALE = 0.5f;
+
+    // 自动画质：渲染耗时超过目标的比例，以及需要连续多少个样本才切换
+    private static final float AUTO_DOWNGRADE_RATIO = 1.15f;
+    private static final float AUTO_UPGRADE_RATIO = 1.05f;
+    private static final int AUTO_DOWNGRADE_FRAMES = 30;
+    private static final int AUTO_UPGRADE_FRAMES = 90;
+    // LOW档位的耗时换算成HIGH档位的估计倍数，缩小的阶段像素数为4倍，全分辨率的阶段不变，取保守值
+    private static final float AUTO_HIGH_COST_FACTOR = 2.0f;
+
     // 美肤滤镜
     private GLImageBeautyComplexionFilter mComplexionFilter;
     // 高斯模糊
@@ -28,8 +61,20 @@ public class GLImageBeautyFilter extends GLImageFilter implements IBeautify {
     // 人脸美化处理
     private GLImageBeautyFaceFilter mBeautyFaceFilter;
 
-    // 缩放
-    private float mBlurScale = 0.5f;
+    // 画质档位
+    private int mQuality = QUALITY_AUTO;
+    // 自动画质时当前使用的档位
+    private int mAutoQuality = QUALITY_HIGH;
+    // 各阶段当前的缩放比例
+    private final float[] mStageScales = new float[STAGE_COUNT];
+    // 自定义的缩放比例
+    private final float[] mCustomScales = new float[STAGE_COUNT];
+
+    // 自动画质的目标渲染耗时(毫秒)，默认为30fps帧间隔的四分之一
+    private float mTargetCost = 1000f / 30 / 4;
+    // 平均渲染耗时(毫秒)
+    private float mRenderCost;
+    private int mAutoFrameCount;
 
     public GLImageBeautyFilter(Context context) {
         this(context, null, null);
@@ -37,6 +82,8 @@ public class GLImageBeautyFilter extends GLImageFilter implements IBeautify {
 
     public GLImageBeautyFilter(Context context, String vertexShader, String fragmentShader) {
         super(context, vertexShader, fragmentShader);
+        System.arraycopy(QUALITY_SCALES[QUALITY_HIGH], 0, mCustomScales, 0, STAGE_COUNT);
+        System.arraycopy(QUALITY_SCALES[mAutoQuality], 0, mStageScales, 0, STAGE_COUNT);
         initFilters();
     }
 
@@ -55,14 +102,17 @@ public class GLImageBeautyFilter extends GLImageFilter implements IBeautify {
         if (mComplexionFilter != null) {
             mComplexionFilter.onInputSizeChanged(width, height);
         }
+        // 模糊的采样步长按参考比例计算，与实际的FBO大小无关
+        int referenceWidth = scaleSize(width, REFERENCE_SCALE);
+        int referenceHeight = scaleSize(height, REFERENCE_SCALE);
         if (mBeautyBlurFilter != null) {
-            mBeautyBlurFilter.onInputSizeChanged((int) (width * mBlurScale), (int) (height * mBlurScale));
+            mBeautyBlurFilter.onInputSizeChanged(referenceWidth, referenceHeight);
         }
         if (mHighPassFilter != null) {
-            mHighPassFilter.onInputSizeChanged((int) (width * mBlurScale), (int) (height * mBlurScale));
+            mHighPassFilter.onInputSizeChanged(referenceWidth, referenceHeight);
         }
         if (mHighPassBlurFilter != null) {
-            mHighPassBlurFilter.onInputSizeChanged((int) (width * mBlurScale), (int) (height * mBlurScale));
+            mHighPassBlurFilter.onInputSizeChanged(referenceWidth, referenceHeight);
         }
         if (mBeautyAdjustFilter != null) {
             mBeautyAdjustFilter.onInputSizeChanged(width, height);
@@ -177,15 +227,7 @@ public class GLImageBeautyFilter extends GLImageFilter implements IBeautify {
         if (mComplexionFilter != null) {
             mComplexionFilter.initFrameBuffer(width, height);
         }
-        if (mBeautyBlurFilter != null) {
-            mBeautyBlurFilter.initFrameBuffer((int) (width * mBlurScale), (int) (height * mBlurScale));
-        }
-        if (mHighPassFilter != null) {
-            mHighPassFilter.initFrameBuffer((int) (width * mBlurScale), (int) (height * mBlurScale));
-        }
-        if (mHighPassBlurFilter != null) {
-            mHighPassBlurFilter.initFrameBuffer((int) (width * mBlurScale), (int) (height * mBlurScale));
-        }
+        initStageFrameBuffers(width, height);
         if (mBeautyAdjustFilter != null) {
             mBeautyAdjustFilter.initFrameBuffer(width, height);
         }
@@ -246,6 +288,134 @@ public class GLImageBeautyFilter extends GLImageFilter implements IBeautify {
         }
     }
 
+    /**
+     * 设置画质档位
+     * @param quality QUALITY_FULL、QUALITY_HIGH、QUALITY_LOW、QUALITY_AUTO或QUALITY_CUSTOM
+     */
+    public void setQuality(int quality) {
+        if (quality < QUALITY_FULL || quality > QUALITY_CUSTOM || quality == mQuality) {
+            return;
+        }
+        mQuality = quality;
+        mAutoFrameCount = 0;
+        mRenderCost = 0;
+        applyStageScales();
+    }
+
+    public int getQuality() {
+        return mQuality;
+    }
+
+    /**
+     * 设置某个阶段的缩放比例，画质档位切换为QUALITY_CUSTOM
+     * @param stage STAGE_BLUR、STAGE_HIGH_PASS或STAGE_HIGH_PASS_BLUR
+     * @param scale 缩放比例，0.125 ~ 1.0
+     */
+    public void setStageScale(int stage, float scale) {
+        if (stage < 0 || stage >= STAGE_COUNT) {
+            return;
+        }
+        mCustomScales[stage] = Math.max(0.125f, Math.min(scale, 1.0f));
+        mQuality = QUALITY_CUSTOM;
+        applyStageScales();
+    }
+
+    /**
+     * 当前某个阶段的缩放比例
+     */
+    public float getStageScale(int stage) {
+        return mStageScales[stage];
+    }
+
+    /**
+     * 设置自动画质的目标渲染耗时
+     * @param cost 美颜处理的耗时(毫秒)
+     */
+    public void setTargetCost(float cost) {
+        if (cost > 0) {
+            mTargetCost = cost;
+        }
+    }
+
+    /**
+     * 根据美颜处理实际的渲染耗时切换自动画质的档位，超出目标一段时间后降低，恢复一段时间后再升高
+     * 耗时由外部测量，最好是GPU耗时，不受相机帧率影响
+     * @param cost 最近一次美颜处理的耗时(毫秒)
+     */
+    public void updateAutoQuality(float cost) {
+        if (mQuality != QUALITY_AUTO || cost < 0) {
+            return;
+        }
+        mRenderCost = mRenderCost == 0 ? cost : mRenderCost * 0.9f + cost * 0.1f;
+        int quality = mAutoQuality;
+        if (quality == QUALITY_HIGH) {
+            mAutoFrameCount = mRenderCost > mTargetCost * AUTO_DOWNGRADE_RATIO ? mAutoFrameCount + 1 : 0;
+            if (mAutoFrameCount >= AUTO_DOWNGRADE_FRAMES) {
+                quality = QUALITY_LOW;
+            }
+        } else {
+            // 用估计的HIGH档位耗时判断，避免升档后马上又超出目标
+            float highCost = mRenderCost * AUTO_HIGH_COST_FACTOR;
+            mAutoFrameCount = highCost < mTargetCost * AUTO_UPGRADE_RATIO ? mAutoFrameCount + 1 : 0;
+            if (mAutoFrameCount >= AUTO_UPGRADE_FRAMES) {
+                quality = QUALITY_HIGH;
+            }
+        }
+        if (quality != mAutoQuality) {
+            mAutoQuality = quality;
+            mAutoFrameCount = 0;
+            // 切换后的耗时重新统计
+            mRenderCost = 0;
+            applyStageScales();
+        }
+    }
+
+    /**
+     * 根据画质档位更新各阶段的缩放比例，比例变化时重新分配缩小的FBO
+     */
+    private void applyStageScales() {
+        float[] scales;
+        if (mQuality == QUALITY_CUSTOM) {
+            scales = mCustomScales;
+        } else if (mQuality == QUALITY_AUTO) {
+            scales = QUALITY_SCALES[mAutoQuality];
+        } else {
+            scales = QUALITY_SCALES[mQuality];
+        }
+        boolean changed = false;
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            if (mStageScales[i] != scales[i]) {
+                mStageScales[i] = scales[i];
+                changed = true;
+            }
+        }
+        if (changed && mFrameWidth > 0 && mFrameHeight > 0) {
+            initStageFrameBuffers(mFrameWidth, mFrameHeight);
+        }
+    }
+
+    /**
+     * 按各阶段的缩放比例创建FBO
+     */
+    private void initStageFrameBuffers(int width, int height) {
+        if (mBeautyBlurFilter != null) {
+            mBeautyBlurFilter.initFrameBuffer(scaleSize(width, mStageScales[STAGE_BLUR]),
+                    scaleSize(height, mStageScales[STAGE_BLUR]));
+        }
+        if (mHighPassFilter != null) {
+            mHighPassFilter.initFrameBuffer(scaleSize(width, mStageScales[STAGE_HIGH_PASS]),
+                    scaleSize(height, mStageScales[STAGE_HIGH_PASS]));
+        }
+        if (mHighPassBlurFilter != null) {
+            mHighPassBlurFilter.initFrameBuffer(scaleSize(width, mStageScales[STAGE_HIGH_PASS_BLUR]),
+                    scaleSize(height, mStageScales[STAGE_HIGH_PASS_BLUR]));
+        }
+    }
+
+    private static int scaleSize(int size, float scale) {
+        return Math.max(1, (int) (size * scale));
+    }
+
     @Override
     public void onBeauty(BeautyParam beauty) {
         if (mComplexionFilter != null) {
@@ -257,5 +427,6 @@ public class GLImageBeautyFilter extends GLImageFilter implements IBeautify {
         if (mBeautyFaceFilter != null) {
             mBeautyFaceFilter.onBeauty(beauty);
         }
+        setQuality(beauty.beautyQuality);
     }
 }
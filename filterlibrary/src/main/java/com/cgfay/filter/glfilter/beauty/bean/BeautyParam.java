@@ -1,5 +1,7 @@
 package com.cgfay.filter.glfilter.beauty.bean;
 
+import com.cgfay.filter.glfilter.beauty.GLImageBeautyFilter;
+
 /**
  * 美颜参数
  */
@@ -42,6 +44,8 @@ public class BeautyParam {
     public float mouthEnlargeIntensity;
     // 美牙 0.0 ~ 1.0f
     public float teethBeautyIntensity;
+    // 磨皮画质档位，见GLImageBeautyFilter.QUALITY_XXX
+    public int beautyQuality;
 
     public BeautyParam() {
         reset();
@@ -70,5 +74,6 @@ public class BeautyParam {
         proboscisIntensity = 0.0f;
         mouthEnlargeIntensity = 0.0f;
         teethBeautyIntensity = 0.0f;
+        beautyQuality = GLImageBeautyFilter.QUALITY_AUTO;
     }
 }
@@ -12,20 +12,40 @@ import com.cgfay.filter.glfilter.utils.OpenGLUtils;
  */
 public class DynamicColorBaseFilter extends GLImageAudioFilter {
 
+    // 三维查找表的fragment shader
+    private static final String FRAGMENT_SHADER_LOOKUP_TABLE_3D = "shader/base/fragment_lookup_table_3d.glsl";
+
     // 颜色滤镜参数
     protected DynamicColorData mDynamicColorData;
     protected DynamicColorLoader mDynamicColorLoader;
 
     public DynamicColorBaseFilter(Context context, DynamicColorData dynamicColorData, String unzipPath) {
-        super(context, (dynamicColorData == null || TextUtils.isEmpty(dynamicColorData.vertexShader)) ? VERTEX_SHADER
+        this(context, dynamicColorData, unzipPath, isLookupTable3D(dynamicColorData));
+    }
+
+    private DynamicColorBaseFilter(Context context, DynamicColorData dynamicColorData, String unzipPath,
+                                   boolean lookupTable3D) {
+        super(context, lookupTable3D ? VERTEX_SHADER_ES3
+                        : (dynamicColorData == null || TextUtils.isEmpty(dynamicColorData.vertexShader)) ? VERTEX_SHADER
                         : getShaderString(context, unzipPath, dynamicColorData.vertexShader),
-                (dynamicColorData == null || TextUtils.isEmpty(dynamicColorData.fragmentShader)) ? FRAGMENT_SHADER
+                lookupTable3D ? OpenGLUtils.getShaderFromAssets(context, FRAGMENT_SHADER_LOOKUP_TABLE_3D)
+                        : (dynamicColorData == null || TextUtils.isEmpty(dynamicColorData.fragmentShader)) ? FRAGMENT_SHADER
                         : getShaderString(context, unzipPath, dynamicColorData.fragmentShader));
         mDynamicColorData = dynamicColorData;
-        mDynamicColorLoader = new DynamicColorLoader(this, mDynamicColorData, unzipPath);
+        mDynamicColorLoader = new DynamicColorLoader(this, mDynamicColorData, unzipPath, lookupTable3D);
         mDynamicColorLoader.onBindUniformHandle(mProgramHandle);
     }
 
+    /**
+     * 单纯的查找表滤镜在GLES3.0 下改用三维纹理，一次硬件三线性采样代替两次二维采样
+     * @param dynamicColorData
+     * @return
+     */
+    static boolean isLookupTable3D(DynamicColorData dynamicColorData) {
+        return dynamicColorData != null && dynamicColorData.isLookupTable()
+                && OpenGLUtils.isGLES3Supported();
+    }
+
     @Override
     public void onInputSizeChanged(int width, int height) {
         super.onInputSizeChanged(width, height);
@@ -7,12 +7,15 @@ import android.text.TextUtils;
 import android.util.Log;
 import android.util.Pair;
 
+import com.cgfay.filter.glfilter.base.LutCube;
+import com.cgfay.filter.glfilter.base.LutCubeLoader;
 import com.cgfay.filter.glfilter.color.bean.DynamicColorData;
 import com.cgfay.filter.glfilter.resource.ResourceCodec;
 import com.cgfay.filter.glfilter.resource.ResourceDataCodec;
 import com.cgfay.filter.glfilter.utils.OpenGLUtils;
 import com.cgfay.uitls.utils.BitmapUtils;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.HashMap;
@@ -30,6 +33,13 @@ public class DynamicColorLoader {
     private DynamicColorData mColorData;
     // 资源加载器
     private ResourceDataCodec mResourceCodec;
+    // 打包的资源数据文件
+    private File mResourceDataFile;
+    // 查找表是否使用三维纹理
+    private final boolean mLookupTable3D;
+    // 三维纹理的缩放和偏移
+    private final float[] mLookupTableDomain = new float[] {1.0f, 0.0f};
+    private int mLookupTableDomainHandle = OpenGLUtils.GL_NOT_INIT;
     // 动态滤镜
     private final WeakReference<DynamicColorBaseFilter> mWeakFilter;
     // 统一变量列表
@@ -46,13 +56,23 @@ public class DynamicColorLoader {
     private float mTexelHeightOffset = 1.0f;
 
     public DynamicColorLoader(DynamicColorBaseFilter filter, DynamicColorData colorData, String folderPath) {
+        this(filter, colorData, folderPath, false);
+    }
+
+    /**
+     * @param lookupTable3D 查找表滤镜是否使用三维纹理，此时shader中的查找表为lookupTableTexture
+     */
+    public DynamicColorLoader(DynamicColorBaseFilter filter, DynamicColorData colorData, String folderPath,
+                              boolean lookupTable3D) {
         mWeakFilter = new WeakReference<>(filter);
+        mLookupTable3D = lookupTable3D;
         mFolderPath = folderPath.startsWith("file://") ? folderPath.substring("file://".length()) : folderPath;
         mColorData = colorData;
         mStrength = (colorData == null) ? 1.0f : colorData.strength;
         Pair pair = ResourceCodec.getResourceFile(mFolderPath);
         if (pair != null) {
             mResourceCodec = new ResourceDataCodec(mFolderPath + "/" + (String) pair.first, mFolderPath + "/" + pair.second);
+            mResourceDataFile = new File(mFolderPath + "/" + pair.second);
         }
         if (mResourceCodec != null) {
             try {
@@ -79,14 +99,12 @@ public class DynamicColorLoader {
             return;
         }
         mTextureList = new int[mColorData.uniformDataList.size()];
+        if (mLookupTable3D) {
+            mTextureList[0] = loadLookupTable3D(mColorData.uniformDataList.get(0).value);
+            return;
+        }
         for (int dataIndex = 0; dataIndex < mColorData.uniformDataList.size(); dataIndex++) {
-            Bitmap bitmap = null;
-            if (mResourceCodec != null) {
-                bitmap = mResourceCodec.loadBitmap(mColorData.uniformDataList.get(dataIndex).value);
-            }
-            if (bitmap == null) {
-                bitmap = BitmapUtils.getBitmapFromFile(mFolderPath + "/" + String.format(mColorData.uniformDataList.get(dataIndex).value));
-            }
+            Bitmap bitmap = loadBitmap(mColorData.uniformDataList.get(dataIndex).value);
             if (bitmap != null) {
                 mTextureList[dataIndex] = OpenGLUtils.createTexture(bitmap);
                 bitmap.recycle();
@@ -97,6 +115,46 @@ public class DynamicColorLoader {
     }
 
 
+    /**
+     * 读取滤镜图片
+     * @param name 图片名称
+     */
+    private Bitmap loadBitmap(String name) {
+        Bitmap bitmap = null;
+        if (mResourceCodec != null) {
+            bitmap = mResourceCodec.loadBitmap(name);
+        }
+        if (bitmap == null) {
+            bitmap = BitmapUtils.getBitmapFromFile(mFolderPath + "/" + String.format(name));
+        }
+        return bitmap;
+    }
+
+    /**
+     * 加载三维查找表纹理，缓存与资源一致时直接读取缓存，不需要解码PNG
+     * @param name 查找表图片名称
+     * @return 失败时返回GL_NOT_TEXTURE
+     */
+    private int loadLookupTable3D(String name) {
+        File source = mResourceCodec != null ? mResourceDataFile : new File(mFolderPath, name);
+        File cache = LutCubeLoader.getCacheFile(new File(mFolderPath), name);
+        LutCube cube = LutCubeLoader.read(cache, source);
+        if (cube == null) {
+            Bitmap bitmap = loadBitmap(name);
+            if (bitmap == null) {
+                Log.e(TAG, "loadLookupTable3D: failed to decode " + name);
+                return OpenGLUtils.GL_NOT_TEXTURE;
+            }
+            cube = LutCubeLoader.convert(bitmap, cache, source);
+            if (cube == null) {
+                return OpenGLUtils.GL_NOT_TEXTURE;
+            }
+        }
+        mLookupTableDomain[0] = (cube.getSize() - 1.0f) / cube.getSize();
+        mLookupTableDomain[1] = 0.5f / cube.getSize();
+        return OpenGLUtils.createTexture3D(cube.getData(), cube.getSize());
+    }
+
     /**
      * 绑定统一变量句柄
      * @param programHandle
@@ -113,6 +171,13 @@ public class DynamicColorLoader {
             mTexelWidthOffsetHandle = OpenGLUtils.GL_NOT_INIT;
             mTexelHeightOffsetHandle = OpenGLUtils.GL_NOT_INIT;
         }
+        if (mLookupTable3D) {
+            // 三维查找表使用内置的shader
+            mUniformHandleList.put(DynamicColorData.LOOKUP_TEXTURE,
+                    GLES30.glGetUniformLocation(programHandle, "lookupTableTexture"));
+            mLookupTableDomainHandle = GLES30.glGetUniformLocation(programHandle, "lookupTableDomain");
+            return;
+        }
         for (int uniformIndex = 0; uniformIndex < mColorData.uniformList.size(); uniformIndex++) {
             String uniformString = mColorData.uniformList.get(uniformIndex);
             int handle = GLES30.glGetUniformLocation(programHandle, uniformString);
@@ -134,6 +199,10 @@ public class DynamicColorLoader {
      * 绑定滤镜纹理，只需要绑定一次就行，不用重复绑定，减少开销
      */
     public void onDrawFrameBegin() {
+        if (mLookupTable3D) {
+            onDrawLookupTable3D();
+            return;
+        }
         if (mStrengthHandle != OpenGLUtils.GL_NOT_INIT) {
             GLES30.glUniform1f(mStrengthHandle, mStrength);
         }
@@ -159,6 +228,48 @@ public class DynamicColorLoader {
         }
     }
 
+    /**
+     * 绑定三维查找表，查找表加载失败时强度为0，直接输出原图
+     */
+    private void onDrawLookupTable3D() {
+        boolean valid = mTextureList != null && mTextureList[0] != OpenGLUtils.GL_NOT_TEXTURE;
+        if (mStrengthHandle != OpenGLUtils.GL_NOT_INIT) {
+            GLES30.glUniform1f(mStrengthHandle, valid ? mStrength : 0.0f);
+        }
+        if (!valid) {
+            return;
+        }
+        Integer handle = mUniformHandleList.get(DynamicColorData.LOOKUP_TEXTURE);
+        if (handle != null) {
+            OpenGLUtils.bindTexture(handle, mTextureList[0], 1, GLES30.GL_TEXTURE_3D);
+        }
+        if (mLookupTableDomainHandle != OpenGLUtils.GL_NOT_INIT) {
+            GLES30.glUniform2fv(mLookupTableDomainHandle, 1, mLookupTableDomain, 0);
+        }
+    }
+
+    /**
+     * 三维查找表纹理
+     * @return 不是三维查找表或者加载失败时返回GL_NOT_TEXTURE
+     */
+    public int getLookupTableTexture() {
+        if (!mLookupTable3D || mTextureList == null) {
+            return OpenGLUtils.GL_NOT_TEXTURE;
+        }
+        return mTextureList[0];
+    }
+
+    /**
+     * 三维查找表的缩放和偏移
+     */
+    public float[] getLookupTableDomain() {
+        return mLookupTableDomain;
+    }
+
+    public float getStrength() {
+        return mStrength;
+    }
+
     /**
      * 释放资源
      */
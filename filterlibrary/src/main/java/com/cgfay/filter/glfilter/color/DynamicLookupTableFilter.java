@@ -0,0 +1,64 @@
+package com.cgfay.filter.glfilter.color;
+
+import android.content.Context;
+import android.opengl.GLES30;
+
+import com.cgfay.filter.glfilter.base.IColorPass;
+import com.cgfay.filter.glfilter.color.bean.DynamicColorData;
+import com.cgfay.filter.glfilter.utils.OpenGLUtils;
+
+/**
+ * 三维查找表颜色滤镜
+ * 只在GLES3.0 下用于单纯的查找表滤镜，可以与相邻的颜色滤镜合并成一个pass
+ */
+public class DynamicLookupTableFilter extends DynamicColorBaseFilter implements IColorPass {
+
+    // 合并shader中的句柄
+    private int mPassStrengthHandle;
+    private int mPassLookupTableHandle;
+    private int mPassLookupTableDomainHandle;
+
+    public DynamicLookupTableFilter(Context context, DynamicColorData dynamicColorData, String unzipPath) {
+        super(context, dynamicColorData, unzipPath);
+    }
+
+    @Override
+    public String getColorPassUniforms() {
+        return "uniform mediump sampler3D $lookupTableTexture;\n"
+                + "uniform mediump vec2 $lookupTableDomain;\n"
+                + "uniform lowp float $strength;";
+    }
+
+    @Override
+    public String getColorPassFunction() {
+        return "vec4 $apply(vec4 color, vec2 uv) {\n"
+                + "    lowp vec4 newColor = texture($lookupTableTexture,\n"
+                + "            color.rgb * $lookupTableDomain.x + $lookupTableDomain.y);\n"
+                + "    return mix(color, vec4(newColor.rgb, color.w), $strength);\n"
+                + "}";
+    }
+
+    @Override
+    public void onBindColorPass(int programHandle, String prefix) {
+        mPassStrengthHandle = GLES30.glGetUniformLocation(programHandle, prefix + "strength");
+        mPassLookupTableHandle = GLES30.glGetUniformLocation(programHandle, prefix + "lookupTableTexture");
+        mPassLookupTableDomainHandle = GLES30.glGetUniformLocation(programHandle, prefix + "lookupTableDomain");
+    }
+
+    @Override
+    public int onDrawColorPass(int textureIndex) {
+        int texture = mDynamicColorLoader.getLookupTableTexture();
+        // 查找表加载失败时绑定空纹理并且强度为0，直接输出原图，采样器仍然需要单独的纹理单元
+        boolean valid = texture != OpenGLUtils.GL_NOT_TEXTURE;
+        OpenGLUtils.bindTexture(mPassLookupTableHandle, valid ? texture : 0, textureIndex, GLES30.GL_TEXTURE_3D);
+        GLES30.glUniform2fv(mPassLookupTableDomainHandle, 1, mDynamicColorLoader.getLookupTableDomain(), 0);
+        GLES30.glUniform1f(mPassStrengthHandle, valid ? mDynamicColorLoader.getStrength() : 0.0f);
+        return textureIndex + 1;
+    }
+
+    @Override
+    public boolean isIdentity() {
+        return mDynamicColorLoader.getStrength() == 0.0f
+                || mDynamicColorLoader.getLookupTableTexture() == OpenGLUtils.GL_NOT_TEXTURE;
+    }
+}
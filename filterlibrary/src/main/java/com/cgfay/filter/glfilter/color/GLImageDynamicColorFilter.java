@@ -5,6 +5,7 @@ import android.text.TextUtils;
 
 import com.cgfay.filter.glfilter.base.GLImageGroupFilter;
 import com.cgfay.filter.glfilter.color.bean.DynamicColor;
+import com.cgfay.filter.glfilter.color.bean.DynamicColorData;
 
 /**
  * 颜色滤镜
@@ -18,9 +19,14 @@ public class GLImageDynamicColorFilter extends GLImageGroupFilter {
                 || TextUtils.isEmpty(dynamicColor.unzipPath)) {
             return;
         }
-        // 添加滤镜
+        // 添加滤镜，三维查找表可以与相邻的颜色滤镜合并
         for (int i = 0; i < dynamicColor.filterList.size(); i++) {
-            mFilters.add(new DynamicColorFilter(context, dynamicColor.filterList.get(i), dynamicColor.unzipPath));
+            DynamicColorData data = dynamicColor.filterList.get(i);
+            if (DynamicColorBaseFilter.isLookupTable3D(data)) {
+                mFilters.add(new DynamicLookupTableFilter(context, data, dynamicColor.unzipPath));
+            } else {
+                mFilters.add(new DynamicColorFilter(context, data, dynamicColor.unzipPath));
+            }
         }
     }
 
@@ -5,4 +5,17 @@ package com.cgfay.filter.glfilter.color.bean;
  */
 public class DynamicColorData extends DynamicColorBaseData {
 
+    // 查找表纹理的统一变量名称
+    public static final String LOOKUP_TEXTURE = "lookupTexture";
+
+    /**
+     * 是否是单纯的查找表滤镜，只绑定一张lookupTexture查找表，并且不需要宽高偏移，
+     * 这类滤镜的shader只做查找表映射以及按强度混合
+     */
+    public boolean isLookupTable() {
+        return uniformList.size() == 1 && LOOKUP_TEXTURE.equals(uniformList.get(0))
+                && uniformDataList.size() == 1
+                && LOOKUP_TEXTURE.equals(uniformDataList.get(0).uniform)
+                && !texelOffset;
+    }
 }
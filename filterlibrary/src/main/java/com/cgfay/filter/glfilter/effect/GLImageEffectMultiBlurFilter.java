@@ -18,6 +18,9 @@ public class GLImageEffectMultiBlurFilter extends GLImageEffectFilter {
     private int mScaleHandle;
     private float blurOffsetY;
 
+    // 分屏背景模糊的高斯核半径，在1/2分辨率上处理，线性采样后每个方向5次纹理读取，与原来的5点模糊相同
+    private static final int BLUR_RADIUS = 4;
+
     // 高斯模糊滤镜
     private GLImageGaussianBlurFilter mGaussianBlurFilter;
     // 高斯模糊图像缩放半径
@@ -32,7 +35,7 @@ public class GLImageEffectMultiBlurFilter extends GLImageEffectFilter {
 
     public GLImageEffectMultiBlurFilter(Context context, String vertexShader, String fragmentShader) {
         super(context, vertexShader, fragmentShader);
-        mGaussianBlurFilter = new GLImageGaussianBlurFilter(mContext);
+        mGaussianBlurFilter = new GLImageGaussianBlurFilter(mContext, BLUR_RADIUS);
         mGaussianBlurFilter.setBlurSize(1.0f);
         mBlurTexture = OpenGLUtils.GL_NOT_TEXTURE;
     }
@@ -113,9 +116,8 @@ public class GLImageEffectMultiBlurFilter extends GLImageEffectFilter {
             mGaussianBlurFilter.release();
             mGaussianBlurFilter = null;
         }
-        if (mBlurTexture != OpenGLUtils.GL_NOT_TEXTURE) {
-            GLES30.glDeleteTextures(1, new int[]{mBlurTexture}, 0);
-        }
+        // 模糊纹理属于高斯模糊滤镜的FBO，随高斯模糊滤镜一起释放
+        mBlurTexture = OpenGLUtils.GL_NOT_TEXTURE;
     }
 
     /**
@@ -3,7 +3,6 @@ package com.cgfay.filter.glfilter.face;
 import android.content.Context;
 import android.opengl.GLES30;
 import android.text.TextUtils;
-import android.util.SparseArray;
 
 import com.cgfay.filter.glfilter.base.GLImageFilter;
 import com.cgfay.filter.glfilter.utils.OpenGLUtils;
@@ -54,7 +53,7 @@ public class GLImageFacePointsFilter extends GLImageFilter {
     public void initProgramHandle() {
         // 只有在shader都不为空的情况下才初始化程序句柄
         if (!TextUtils.isEmpty(mVertexShader) && !TextUtils.isEmpty(mFragmentShader)) {
-            mProgramHandle = OpenGLUtils.createProgram(mVertexShader, mFragmentShader);
+            mProgramHandle = obtainProgram(mVertexShader, mFragmentShader);
             mPositionHandle = GLES30.glGetAttribLocation(mProgramHandle, "aPosition");
             mColorHandle = GLES30.glGetUniformLocation(mProgramHandle, "color");
             mIsInitialized = true;
@@ -92,10 +91,11 @@ public class GLImageFacePointsFilter extends GLImageFilter {
         onDrawFrameBegin();
         // 逐个顶点绘制出来
         synchronized (this) {
-            if (LandmarkEngine.getInstance().getFaceSize() > 0) {
-                SparseArray<OneFace> faceArrays = LandmarkEngine.getInstance().getFaceArrays();
-                for (int i = 0; i < faceArrays.size(); i++) {
-                    if (faceArrays.get(i).vertexPoints != null) {
+            int faceSize = LandmarkEngine.getInstance().getFaceSize();
+            if (faceSize > 0) {
+                for (int i = 0; i < faceSize; i++) {
+                    OneFace oneFace = LandmarkEngine.getInstance().getOneFace(i);
+                    if (oneFace != null && oneFace.vertexPoints != null) {
                         LandmarkEngine.getInstance().calculateExtraFacePoints(mPoints, i);
                         mPointVertexBuffer.clear();
                         mPointVertexBuffer.put(mPoints, 0, mPoints.length);
@@ -126,7 +126,7 @@ public class GLImageFaceReshapeFilter extends GLImageDrawElementsFilter implemen
         GLES30.glDisable(GL10.GL_CULL_FACE);
         GLES30.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
         GLES30.glClear(GLES30.GL_COLOR_BUFFER_BIT);
-        GLES20.glUniform1fv(mReshapeIntensityHandle, 7, FloatBuffer.wrap(mReshapeIntensity));
+        GLES20.glUniform1fv(mReshapeIntensityHandle, 7, mReshapeIntensity, 0);
         GLES30.glUniform2fv(mCartesianPointsHandle, FacePoints, mCartesianBuffer);
     }
 
@@ -8,6 +8,7 @@ import com.cgfay.filter.glfilter.base.GLImageFilter;
 import com.cgfay.filter.glfilter.makeup.bean.DynamicMakeup;
 import com.cgfay.filter.glfilter.makeup.bean.MakeupBaseData;
 import com.cgfay.filter.glfilter.makeup.bean.MakeupType;
+import com.cgfay.filter.glfilter.utils.GLVertexArray;
 import com.cgfay.filter.glfilter.utils.OpenGLUtils;
 import com.cgfay.landmark.LandmarkEngine;
 
@@ -24,6 +25,9 @@ public class GLImageMakeupFilter extends GLImageFilter {
     private int mStrengthHandle;        // 强度句柄
     private int mMakeupTypeHandle;      // 彩妆类型句柄
 
+    // 彩妆顶点的VAO，顶点每帧都会变化，使用动态VBO
+    private GLVertexArray mMakeupVertexArray;
+
     // 彩妆加载器列表
     private SparseArray<MakeupBaseLoader> mLoaderArrays = new SparseArray<MakeupBaseLoader>();
 
@@ -59,6 +63,10 @@ public class GLImageMakeupFilter extends GLImageFilter {
     @Override
     public void initProgramHandle() {
         super.initProgramHandle();
+        if (mMakeupVertexArray != null) {
+            mMakeupVertexArray.discard();
+            mMakeupVertexArray = null;
+        }
         if (mProgramHandle != OpenGLUtils.GL_NOT_INIT) {
             mMaskTextureHandle = GLES30.glGetUniformLocation(mProgramHandle, "maskTexture");
             mMaterialTextureHandle = GLES30.glGetUniformLocation(mProgramHandle, "materialTexture");
@@ -104,6 +112,10 @@ public class GLImageMakeupFilter extends GLImageFilter {
     @Override
     public void release() {
         super.release();
+        if (mMakeupVertexArray != null) {
+            mMakeupVertexArray.release();
+            mMakeupVertexArray = null;
+        }
         for (int i = 0; i < mLoaderArrays.size(); i++) {
             if (mLoaderArrays.get(i) != null) {
                 mLoaderArrays.get(i).release();
@@ -223,19 +235,31 @@ public class GLImageMakeupFilter extends GLImageFilter {
         // 使能混合功能
         GLES30.glEnable(GLES30.GL_BLEND);
         GLES30.glBlendFunc(GLES30.GL_ONE, GLES30.GL_ONE_MINUS_SRC_COLOR);
-        // 绑定顶点坐标缓冲
-        if (vertexBuffer != null) {
-            vertexBuffer.position(0);
-            GLES30.glVertexAttribPointer(mPositionHandle, 2,
-                    GLES30.GL_FLOAT, false, 0, vertexBuffer);
-            GLES30.glEnableVertexAttribArray(mPositionHandle);
-        }
-        // 绑定纹理坐标缓冲，绘制彩妆时，需要绑定遮罩的纹理坐标缓冲，这里是为了节省资源做的复用流程
-        if (textureBuffer != null) {
-            textureBuffer.position(0);
-            GLES30.glVertexAttribPointer(mTextureCoordinateHandle, 2,
-                    GLES30.GL_FLOAT, false, 0, textureBuffer);
-            GLES30.glEnableVertexAttribArray(mTextureCoordinateHandle);
+        // 绑定顶点坐标和纹理坐标，绘制彩妆时，需要绑定遮罩的纹理坐标缓冲，这里是为了节省资源做的复用流程
+        boolean useVertexArray = isVertexArraySupported()
+                && vertexBuffer != null && textureBuffer != null
+                && mPositionHandle >= 0 && mTextureCoordinateHandle >= 0;
+        if (useVertexArray) {
+            if (mMakeupVertexArray == null) {
+                mMakeupVertexArray = new GLVertexArray(mPositionHandle, mTextureCoordinateHandle, 2);
+            }
+            mMakeupVertexArray.bind(vertexBuffer, textureBuffer);
+        } else {
+            // 绑定顶点坐标缓冲
+            if (vertexBuffer != null) {
+                vertexBuffer.position(0);
+                GLES30.glVertexAttribPointer(mPositionHandle, 2,
+                        GLES30.GL_FLOAT, false, 0, vertexBuffer);
+                GLES30.glEnableVertexAttribArray(mPositionHandle);
+            }
+            // 绑定纹理坐标缓冲，绘制彩妆时，需要绑定遮罩的纹理坐标缓冲，这里是为了节省资源做的复用流程
+            if (textureBuffer != null) {
+                textureBuffer.position(0);
+                GLES30.glVertexAttribPointer(mTextureCoordinateHandle, 2,
+                        GLES30.GL_FLOAT, false, 0, textureBuffer);
+                GLES30.glEnableVertexAttribArray(mTextureCoordinateHandle);
+            }
+            GLVertexArray.recordClientArrayDraw();
         }
 
         // 绑定输入纹理
@@ -259,10 +283,14 @@ public class GLImageMakeupFilter extends GLImageFilter {
         GLES30.glUniform1i(mMakeupTypeHandle, makeupType);
         GLES30.glUniform1f(mStrengthHandle, strength);
 
-        GLES30.glDrawElements(GLES30.GL_TRIANGLES, indexBuffer.capacity(), GLES30.GL_UNSIGNED_SHORT, indexBuffer);
-
-        GLES30.glDisableVertexAttribArray(mPositionHandle);
-        GLES30.glDisableVertexAttribArray(mTextureCoordinateHandle);
+        if (useVertexArray) {
+            mMakeupVertexArray.drawElements(GLES30.GL_TRIANGLES, indexBuffer.capacity(), indexBuffer);
+            mMakeupVertexArray.unbind();
+        } else {
+            GLES30.glDrawElements(GLES30.GL_TRIANGLES, indexBuffer.capacity(), GLES30.GL_UNSIGNED_SHORT, indexBuffer);
+            GLES30.glDisableVertexAttribArray(mPositionHandle);
+            GLES30.glDisableVertexAttribArray(mTextureCoordinateHandle);
+        }
         GLES30.glBindTexture(getTextureType(), 0);
         GLES30.glDisable(GLES30.GL_BLEND);
 
@@ -112,9 +112,8 @@ public class GLImageFrameEdgeBlurFilter extends GLImageFilter {
             mGaussianBlurFilter.release();
             mGaussianBlurFilter = null;
         }
-        if (mBlurTexture != OpenGLUtils.GL_NOT_TEXTURE) {
-            GLES30.glDeleteTextures(1, new int[]{mBlurTexture}, 0);
-        }
+        // 模糊纹理属于高斯模糊滤镜的FBO，随高斯模糊滤镜一起释放
+        mBlurTexture = OpenGLUtils.GL_NOT_TEXTURE;
     }
 
     /**
@@ -0,0 +1,73 @@
+package com.cgfay.filter.glfilter.resource;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 读取ByteBuffer中某一段数据的输入流
+ * 使用独立的duplicate，不修改原缓冲的position，多个线程可以同时读取同一个缓冲的不同切片
+ */
+final class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer mBuffer;
+    private int mMark;
+
+    ByteBufferInputStream(ByteBuffer buffer, int offset, int length) {
+        mBuffer = buffer.duplicate();
+        mBuffer.limit(offset + length);
+        mBuffer.position(offset);
+        mMark = offset;
+    }
+
+    @Override
+    public int read() {
+        if (!mBuffer.hasRemaining()) {
+            return -1;
+        }
+        return mBuffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        int remaining = mBuffer.remaining();
+        if (remaining == 0) {
+            return -1;
+        }
+        int count = Math.min(length, remaining);
+        mBuffer.get(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0) {
+            return 0;
+        }
+        int count = (int) Math.min(n, mBuffer.remaining());
+        mBuffer.position(mBuffer.position() + count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return mBuffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        mMark = mBuffer.position();
+    }
+
+    @Override
+    public synchronized void reset() {
+        mBuffer.position(mMark);
+    }
+}
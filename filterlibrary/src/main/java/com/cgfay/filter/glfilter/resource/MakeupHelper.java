@@ -45,7 +45,7 @@ public final class MakeupHelper extends ResourceBaseHelper {
     }
 
     /**
-     * 解压所有资源
+     * 解压所有资源，解压在后台线程中进行，通过ResourceDecompressor获取进度
      * @param context
      * @param resourceList
      */
@@ -58,15 +58,9 @@ public final class MakeupHelper extends ResourceBaseHelper {
         }
 
         String filterPath = getMakeupDirectory(context);
-        // 解码列表中的所有资源
+        // 提交到解压服务，多个资源包并行解压
         for (ResourceData item : resourceList) {
-            if (item.type.getIndex() >= 0) {
-                if (item.zipPath.startsWith("assets://")) {
-                    decompressAsset(context, item.zipPath.substring("assets://".length()), item.unzipFolder, filterPath);
-                } else if (item.zipPath.startsWith("file://")) {    // 绝对目录中的资源
-                    decompressFile(item.zipPath.substring("file://".length()), item.unzipFolder, filterPath);
-                }
-            }
+            ResourceDecompressor.getInstance().submit(context, item, filterPath, ResourceDecompressor.PRIORITY_MAKEUP);
         }
     }
 
@@ -4,12 +4,12 @@ import android.content.Context;
 import android.content.res.AssetManager;
 import android.util.Log;
 
+import com.cgfay.uitls.utils.FileUtils;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.Map;
 
 /**
  * 资源助手基类
@@ -18,19 +18,32 @@ public class ResourceBaseHelper {
 
     private static String TAG = "ResourceBaseHelper";
 
+    // 解压完成标记文件，解压被中断的文件夹中没有该文件
+    static final String COMPLETE_MARKER = ".complete";
+
+    /**
+     * 资源文件夹是否已经完整解压
+     * @param folder 解压后的资源文件夹
+     * @return
+     */
+    public static boolean isDecompressed(String folder) {
+        return new File(folder, COMPLETE_MARKER).exists();
+    }
+
     /**
      * 解压Asset文件夹目录下的资源
      * @param context
      * @param assetName     assets文件夹路径
      * @param unzipFolder   解压的文件夹名称
      * @param parentFolder  解压目录
+     * @return 是否解压成功或已经解压
      */
-    protected static void decompressAsset(Context context, String assetName, String unzipFolder, String parentFolder) {
+    protected static boolean decompressAsset(Context context, String assetName, String unzipFolder, String parentFolder) {
 
-        // 如果路径已经存在，则直接返回
-        if (new File(parentFolder + "/" + unzipFolder).exists()) {
+        // 如果已经完整解压，则直接返回
+        if (isDecompressed(parentFolder + "/" + unzipFolder)) {
             Log.d(TAG, "decompressAsset: directory " + unzipFolder + " is existed!");
-            return;
+            return true;
         }
 
         // 打开输入流
@@ -40,48 +53,9 @@ public class ResourceBaseHelper {
             inputStream = manager.open(assetName);
         } catch (IOException e) {
             Log.e(TAG, "decompressAsset: ", e);
-            return;
-        }
-
-        // 获取所有zip包
-        Map<String, ArrayList<ResourceCodec.FileDescription>> dirList = null;
-        try {
-            dirList = ResourceCodec.getFileFromZip(inputStream);
-        } catch (IOException e) {
-            Log.e(TAG, "decompressAsset: ", e);
-        } finally {
-            try {
-                inputStream.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-
-        // 如果zip包不存在，则不做处理
-        if (dirList == null) {
-            return;
-        }
-
-        // 将zip包解压到目录中
-        try {
-            inputStream = manager.open(assetName);
-        } catch (IOException e) {
-            Log.e(TAG, "decompressAsset: ", e);
-            return;
-        }
-        try {
-            if (inputStream != null) {
-                ResourceCodec.unzipToFolder(inputStream, new File(parentFolder), dirList);
-            }
-        } catch (IOException e) {
-            Log.e(TAG, "decompressAsset: ", e);
-        } finally {
-            try {
-                inputStream.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            return false;
         }
+        return decompressStream(inputStream, unzipFolder, parentFolder);
     }
 
     /**
@@ -89,12 +63,13 @@ public class ResourceBaseHelper {
      * @param zipPath       zip绝对路径
      * @param unzipPath     解压的目录
      * @param parentFolder  解压目录
+     * @return 是否解压成功或已经解压
      */
-    protected static void decompressFile(String zipPath, String unzipPath, String parentFolder) {
-        // 如果资源路径已经存在，则直接返回
-        if (new File(parentFolder + "/" + unzipPath).exists()) {
-            Log.d(TAG, "decompressFile: directory " + unzipPath + "is existed!");
-            return;
+    protected static boolean decompressFile(String zipPath, String unzipPath, String parentFolder) {
+        // 如果已经完整解压，则直接返回
+        if (isDecompressed(parentFolder + "/" + unzipPath)) {
+            Log.d(TAG, "decompressFile: directory " + unzipPath + " is existed!");
+            return true;
         }
 
         // 打开文件输入流
@@ -103,45 +78,36 @@ public class ResourceBaseHelper {
             inputStream = new FileInputStream(zipPath);
         } catch (IOException e) {
             Log.e(TAG, "decompressFile: ", e);
-            return;
-        }
-
-        // 获取所有zip包
-        Map<String, ArrayList<ResourceCodec.FileDescription>> dirList = null;
-        try {
-            dirList = ResourceCodec.getFileFromZip(inputStream);
-        } catch (IOException e) {
-            Log.e(TAG, "decompressFile: ", e);
-        } finally {
-            try {
-                inputStream.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-
-        // 如果zip包不存在，则不做处理
-        if (dirList == null) {
-            return;
+            return false;
         }
+        return decompressStream(inputStream, unzipPath, parentFolder);
+    }
 
-        // 将zip包解压到目录中
-        try {
-            inputStream = new FileInputStream(zipPath);
-        } catch (IOException e) {
-            Log.e(TAG, "decompressFile: ", e);
-            return;
+    /**
+     * 单次读取zip包解压到目录中，成功后写入完成标记
+     * @param inputStream   zip输入流，解压后关闭
+     * @param unzipFolder   解压的文件夹名称
+     * @param parentFolder  解压目录
+     * @return
+     */
+    private static boolean decompressStream(InputStream inputStream, String unzipFolder, String parentFolder) {
+        File folder = new File(parentFolder, unzipFolder);
+        // 没有完成标记的文件夹是上一次被中断的解压，删除后重新解压
+        if (folder.exists()) {
+            Log.d(TAG, "decompressStream: resume interrupted directory " + unzipFolder);
+            FileUtils.deleteDir(folder);
         }
         try {
-            ResourceCodec.unzipToFolder(inputStream, new File(parentFolder), dirList);
+            ResourceCodec.unzipToFolder(inputStream, new File(parentFolder));
+            if (!folder.isDirectory() && !folder.mkdirs()) {
+                return false;
+            }
+            return new File(folder, COMPLETE_MARKER).createNewFile();
         } catch (IOException e) {
-            Log.e(TAG, "decompressFile: ", e);
+            Log.e(TAG, "decompressStream: ", e);
+            return false;
         } finally {
-            try {
-                inputStream.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            FileUtils.safetyClose(inputStream);
         }
     }
 
@@ -1,5 +1,7 @@
 package com.cgfay.filter.glfilter.resource;
 
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.text.TextUtils;
 import android.util.Log;
 import android.util.Pair;
@@ -16,13 +18,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -37,15 +36,27 @@ public class ResourceCodec {
     private String mIndexPath;
     // 数据文件路径
     private String mDataPath;
+    // 是否使用内存映射读取数据文件
+    private final boolean mMemoryMapped;
 
-    // 索引绑定
-    protected Map<String, Pair<Integer, Integer>> mIndexMap;
-    // 数据缓冲
+    // 资源索引
+    protected ResourceIndex mIndex;
+    // 数据缓冲，内存映射模式下不占用Java堆
     protected ByteBuffer mDataBuffer;
 
     public ResourceCodec(String indexPath, String dataPath) {
+        this(indexPath, dataPath, true);
+    }
+
+    /**
+     * @param indexPath     索引文件路径
+     * @param dataPath      数据文件路径
+     * @param memoryMapped  是否使用内存映射，为false时将整个数据文件读入缓存
+     */
+    public ResourceCodec(String indexPath, String dataPath, boolean memoryMapped) {
         mIndexPath = indexPath;
         mDataPath = dataPath;
+        mMemoryMapped = memoryMapped;
     }
 
     /**
@@ -53,17 +64,37 @@ public class ResourceCodec {
      * @throws Exception
      */
     public void init() throws IOException {
-        mIndexMap = parseIndexFile(mIndexPath);
-        File file = new File(mDataPath);
+        mIndex = ResourceIndex.open(new File(mIndexPath));
+        mDataBuffer = loadDataBuffer(new File(mDataPath), mMemoryMapped);
+    }
+
+    /**
+     * 加载数据文件
+     * 内存映射模式只建立映射，打开耗时与文件大小无关，数据由系统按需分页读入
+     * @param file          数据文件
+     * @param memoryMapped  是否使用内存映射
+     * @return
+     * @throws IOException
+     */
+    static ByteBuffer loadDataBuffer(File file, boolean memoryMapped) throws IOException {
+        if (memoryMapped) {
+            RandomAccessFile accessFile = new RandomAccessFile(file, "r");
+            try {
+                // 关闭文件后映射依然有效
+                return accessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, accessFile.length());
+            } finally {
+                FileUtils.safetyClose(accessFile);
+            }
+        }
         // 将资源数据读入缓存中
-        mDataBuffer = ByteBuffer.allocateDirect((int)file.length());
+        ByteBuffer dataBuffer = ByteBuffer.allocateDirect((int)file.length());
         FileInputStream inputStream = new FileInputStream(file);
         byte[] buffer = new byte[2048];
         boolean result = false;
         try {
             int length;
             while ((length = inputStream.read(buffer)) != -1) {
-                mDataBuffer.put(buffer, 0, length);
+                dataBuffer.put(buffer, 0, length);
             }
             result = true;
         } catch (IOException e) {
@@ -74,50 +105,36 @@ public class ResourceCodec {
         if (!result) {
             throw new IOException("Failed to parse data file!");
         }
+        return dataBuffer;
     }
 
     /**
-     * 解码Index索引文件
-     * @param indexPath
+     * 从数据缓冲中解码一张图片
+     * 数据缓冲可直接访问数组时从数组解码，内存映射时从映射区域的切片解码，不复制整段数据
+     * @param offset    数据偏移
+     * @param length    数据长度
+     * @param options   解码参数，可以为空
      * @return
-     * @throws IOException
      */
-    private static Map<String, Pair<Integer, Integer>> parseIndexFile(String indexPath) throws IOException {
-        String indexString = FileUtils.convertToString(new FileInputStream(new File(indexPath)));
-        HashMap<String, Pair<Integer, Integer>> map = new HashMap<>();
-        // 拆分得到贴纸索引
-        String[] indexArray = indexString.split(";");
-        for (int i = 0; i < indexArray.length; ++i) {
-            if (!TextUtils.isEmpty(indexArray[i])) {
-                // ":" 分成3个，第一个是贴纸名，第二是文件起始位置，第三个是贴纸大小
-                String[] subIndexArray = indexArray[i].split(":");
-                if (subIndexArray.length == 3) {
-                    int offset = parseInt(subIndexArray[1], -1);
-                    int length = parseInt(subIndexArray[2], -1);
-                    if (-1 == offset || -1 == length) {
-                        throw new IOException("Failed to parse offset or length for " + indexArray[i]);
-                    }
-                    map.put(subIndexArray[0], new Pair<>(offset, length));
-                }
-            }
+    protected Bitmap decodeBitmap(int offset, int length, BitmapFactory.Options options) {
+        if (mDataBuffer == null || offset < 0 || length <= 0
+                || offset + length > mDataBuffer.capacity()) {
+            return null;
+        }
+        if (mDataBuffer.hasArray()) {
+            return BitmapFactory.decodeByteArray(mDataBuffer.array(),
+                    mDataBuffer.arrayOffset() + offset, length, options);
         }
-        return map;
+        return BitmapFactory.decodeStream(new ByteBufferInputStream(mDataBuffer, offset, length),
+                null, options);
     }
 
     /**
-     * 将字符串转成整型数
-     * @param str
-     * @param defaultValue
+     * 是否使用内存映射
      * @return
      */
-    private static int parseInt(String str, int defaultValue) {
-        int result = defaultValue;
-        try {
-            result = Integer.parseInt(str);
-        } catch (NumberFormatException e) {
-            Log.e(TAG, "parseInt: ", e);
-        }
-        return result;
+    public boolean isMemoryMapped() {
+        return mMemoryMapped;
     }
 
     /**
@@ -148,133 +165,20 @@ public class ResourceCodec {
     }
 
     /**
-     * 从zip包中读入png文件列表
-     * @param stream
-     * @return
-     */
-    public static Map<String, ArrayList<FileDescription>> getFileFromZip(InputStream stream)
-            throws IOException {
-        HashMap<String, ArrayList<FileDescription>> map = new HashMap<>();
-        ZipInputStream inputStream = new ZipInputStream(new BufferedInputStream(stream));
-        try {
-            byte[] buffer = new byte[8192];
-            ZipEntry entry;
-            while ((entry = inputStream.getNextEntry()) != null) {
-                // 找到png文件
-                if (!entry.isDirectory()
-                        && !entry.getName().endsWith(".DS_Store")
-                        && !entry.getName().contains("__MACOSX")
-                        && !FileUtils.extractFileName(entry.getName()).startsWith(".")
-                        && entry.getName().endsWith(".png")) {
-                    String folder = FileUtils.extractFileFolder(entry.getName());
-                    ArrayList<FileDescription> folderList = map.get(folder);
-                    if (folderList == null) {
-                        folderList = new ArrayList<>();
-                        map.put(folder, folderList);
-                    }
-                    int offset;
-                    int length;
-                    for (offset = 0; (length = inputStream.read(buffer)) != -1; offset += length) {
-                        ;
-                    }
-                    folderList.add(new FileDescription(entry.getName(), (long) offset));
-                }
-            }
-        } finally {
-            inputStream.close();
-        }
-        return map;
-    }
-
-    /**
-     * 将压缩包资源解码到文件中
+     * 单次读取zip包并解码到文件中
+     * png文件按读取顺序追加到所在文件夹的数据文件中，同时记录偏移和大小，读取完成后再写入索引，
+     * 不需要先完整读一遍zip包统计文件大小
      * @param inputStream       输入流
      * @param folder            需要写入的文件夹
-     * @param dirList           文件夹列表
      * @throws IOException
      */
-    public static void unzipToFolder(InputStream inputStream, File folder, Map<String, ArrayList<FileDescription>> dirList)
-            throws IOException {
-        HashMap<String, Object> offsetMap = new HashMap<>();
-        HashMap<String, Object> sizeMap = new HashMap<>();
-
-        Iterator iterator = dirList.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry entry = (Map.Entry) iterator.next();
-            // 做一次文件名的排序
-            Collections.sort((List) entry.getValue(), new Comparator<FileDescription>() {
-                @Override
-                public int compare(FileDescription item1, FileDescription item2) {
-                    return item1.fileName.compareTo(item2.fileName);
-                }
-            });
-
-            // 创建文件或文件夹
-            FileUtils.makeDirectory(folder + "/" + (String)entry.getKey());
-            int offset = 16;
-            HashMap<String, Integer> offsetHashMap = new HashMap<>();
-            HashMap<String, Integer> sizeHashMap = new HashMap<>();
-
-            // 记录文件偏移和大小
-            FileDescription fileDescription;
-            for (Iterator fileDesIterator = ((ArrayList)entry.getValue()).iterator(); fileDesIterator.hasNext(); offset += (int)fileDescription.size) {
-                fileDescription = (FileDescription)fileDesIterator.next();
-                String fileName = FileUtils.extractFileName(fileDescription.fileName);
-                offsetHashMap.put(fileName, offset);
-                sizeHashMap.put(fileName, (int)fileDescription.size);
-            }
-
-            // 创建索引字符串
-            sizeMap.put((String) entry.getKey(), offsetHashMap);
-            StringBuilder builder = new StringBuilder();
-            Iterator indexIterator = offsetHashMap.entrySet().iterator();
-            while (indexIterator.hasNext()) {
-                Map.Entry indexEntry = (Map.Entry)indexIterator.next();
-                builder.append((String)indexEntry.getKey())
-                        .append(':')
-                        .append(indexEntry.getValue())
-                        .append(':')
-                        .append(sizeHashMap.get(indexEntry.getKey()))
-                        .append(';');
-            }
-
-            // 写入索引文件
-            boolean success = false;
-            FileOutputStream outputStream = null;
-            File file;
-            try {
-                file = new File(folder + "/" + (String)entry.getKey(), "index.idx");
-                outputStream = new FileOutputStream(file);
-                outputStream.write(builder.toString().getBytes("UTF-8"));
-                success = true;
-            } catch (Exception e) {
-                Log.e(TAG, "writeLinesToFile failed!", e);
-            } finally {
-                FileUtils.safetyClose(outputStream);
-            }
-            if(!success) {
-                throw new IOException("write index file failed!");
-            }
-
-            // 创建AccessFile用于写入data数据
-            file = new File(folder + "/" + (String)entry.getKey(), "resource.res");
-            RandomAccessFile accessFile = new RandomAccessFile(file, "rw");
-            // 文件头有16个0作为开头
-            for (int i = 0; i < 16; ++i) {
-                accessFile.write(0);
-            }
-            offsetMap.put((String) entry.getKey(), accessFile);
-        }
-
-        // 从zip包中读入数据并写入到folder所在的文件夹中
+    public static void unzipToFolder(InputStream inputStream, File folder) throws IOException {
+        HashMap<String, PackWriter> writerMap = new HashMap<>();
         ZipInputStream zipStream = new ZipInputStream(new BufferedInputStream(inputStream));
         try {
             byte[] buffer = new byte[8192];
-            while (true) {
-                ZipEntry zipEntry = zipStream.getNextEntry();
-                if (zipEntry == null) {
-                    break;
-                }
+            ZipEntry zipEntry;
+            while ((zipEntry = zipStream.getNextEntry()) != null) {
                 // 跳过目录、隐藏文件
                 if (zipEntry.isDirectory()
                         || zipEntry.getName().endsWith(".DS_Store")
@@ -283,21 +187,18 @@ public class ResourceCodec {
                     continue;
                 }
 
-                // 如果文件是png图片，则需要从png中读入数据再写入到输出文件中
+                // 如果文件是png图片，则追加到所在文件夹的数据文件中
                 if (zipEntry.getName().endsWith(".png")) {
                     String folderName = FileUtils.extractFileFolder(zipEntry.getName());
-                    RandomAccessFile accessFile = (RandomAccessFile) offsetMap.get(folderName);
-                    // 找到起始位置
-                    int pos = (Integer) ((Map) sizeMap.get(folderName)).get(FileUtils.extractFileName(zipEntry.getName()));
-                    accessFile.seek((long) pos);
-                    // 将png数据写入文件中
-                    int length;
-                    while ((length = zipStream.read(buffer)) != -1) {
-                        accessFile.write(buffer, 0, length);
+                    PackWriter writer = writerMap.get(folderName);
+                    if (writer == null) {
+                        writer = new PackWriter(new File(folder + "/" + folderName));
+                        writerMap.put(folderName, writer);
                     }
+                    writer.append(FileUtils.extractFileName(zipEntry.getName()), zipStream, buffer);
                 } else { // 如果此时已经是索引和data文件的形式，则直接写入
                     File file = new File(folder, zipEntry.getName());
-                    File folderFile = zipEntry.isDirectory() ? file : file.getParentFile();
+                    File folderFile = file.getParentFile();
                     if (!folderFile.isDirectory() && !folderFile.mkdirs()) {
                         throw new FileNotFoundException("Failed to find directory: " +
                                 folderFile.getAbsolutePath());
@@ -312,35 +213,108 @@ public class ResourceCodec {
                     } finally {
                         outputStream.close();
                     }
-
                 }
-
             }
 
+            // 数据写入完成后再写入索引
+            for (PackWriter writer : writerMap.values()) {
+                writer.finish();
+            }
         } finally { // 关闭输入流
             zipStream.close();
-            Iterator entryIterator = offsetMap.entrySet().iterator();
-            while (entryIterator.hasNext()) {
-                Map.Entry entry = (Map.Entry) entryIterator.next();
-                FileUtils.safetyClose((Closeable) entry.getValue());
+            for (PackWriter writer : writerMap.values()) {
+                FileUtils.safetyClose(writer);
             }
         }
     }
 
     /**
-     * 资源文件描述
+     * 单个文件夹的数据文件写入器，记录每个png的偏移和大小
      */
-    public static class FileDescription {
+    private static class PackWriter implements Closeable {
+
+        private final File mFolder;
+        private final FileOutputStream mOutputStream;
+        private final ArrayList<String> mNames = new ArrayList<>();
+        private int[] mOffsets = new int[32];
+        private int[] mLengths = new int[32];
+        private int mPosition;
+
+        PackWriter(File folder) throws IOException {
+            mFolder = folder;
+            if (!folder.isDirectory() && !folder.mkdirs()) {
+                throw new FileNotFoundException("Failed to find directory: " + folder.getAbsolutePath());
+            }
+            mOutputStream = new FileOutputStream(new File(folder, "resource.res"));
+            // 文件头有16个0作为开头
+            mOutputStream.write(new byte[16]);
+            mPosition = 16;
+        }
+
+        void append(String name, InputStream inputStream, byte[] buffer) throws IOException {
+            int offset = mPosition;
+            int length;
+            while ((length = inputStream.read(buffer)) != -1) {
+                mOutputStream.write(buffer, 0, length);
+                mPosition += length;
+            }
+            int count = mNames.size();
+            if (count == mOffsets.length) {
+                mOffsets = Arrays.copyOf(mOffsets, count * 2);
+                mLengths = Arrays.copyOf(mLengths, count * 2);
+            }
+            mNames.add(name);
+            mOffsets[count] = offset;
+            mLengths[count] = mPosition - offset;
+        }
 
-        // 文件名
-        public String fileName;
+        /**
+         * 写入二进制索引，文件名哈希冲突时写入文本索引
+         */
+        void finish() throws IOException {
+            mOutputStream.getFD().sync();
+            String[] names = mNames.toArray(new String[0]);
+            int[] offsets = Arrays.copyOf(mOffsets, names.length);
+            int[] lengths = Arrays.copyOf(mLengths, names.length);
+            File file = new File(mFolder, "index.idx");
+            if (!ResourceIndex.write(file, names, offsets, lengths)) {
+                writeLegacyIndex(file, names, offsets, lengths);
+            }
+        }
 
-        // 文件大小
-        public long size;
+        @Override
+        public void close() throws IOException {
+            mOutputStream.close();
+        }
+    }
 
-        public FileDescription(String fileName, long size) {
-            this.fileName = fileName;
-            this.size = size;
+    /**
+     * 写入旧版本的文本索引 "name:offset:length;"
+     */
+    private static void writeLegacyIndex(File file, String[] names, int[] offsets, int[] lengths)
+            throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            builder.append(names[i])
+                    .append(':')
+                    .append(offsets[i])
+                    .append(':')
+                    .append(lengths[i])
+                    .append(';');
+        }
+        boolean success = false;
+        FileOutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(file);
+            outputStream.write(builder.toString().getBytes("UTF-8"));
+            success = true;
+        } catch (Exception e) {
+            Log.e(TAG, "writeLinesToFile failed!", e);
+        } finally {
+            FileUtils.safetyClose(outputStream);
+        }
+        if (!success) {
+            throw new IOException("write index file failed!");
         }
     }
 }
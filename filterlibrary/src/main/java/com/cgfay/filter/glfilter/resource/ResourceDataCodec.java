@@ -1,7 +1,6 @@
 package com.cgfay.filter.glfilter.resource;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.util.Pair;
 
 /**
@@ -19,20 +18,19 @@ public class ResourceDataCodec extends ResourceCodec {
      * @return
      */
     public Bitmap loadBitmap(String name) {
-        Pair pair = mIndexMap.get(name);
-        if (pair == null) {
+        int entry = mIndex.find(name);
+        if (entry < 0) {
             return null;
         }
-        return BitmapFactory.decodeByteArray(mDataBuffer.array(),
-                mDataBuffer.arrayOffset() + (Integer) pair.first, (Integer) pair.second);
+        return decodeBitmap(mIndex.getOffset(entry), mIndex.getLength(entry), null);
     }
 
     /**
-     * 获取文件缓冲
+     * 获取文件缓冲，内存映射模式下没有数组，返回null
      * @return
      */
     public byte[] getBufferArray() {
-        return mDataBuffer.array();
+        return mDataBuffer.hasArray() ? mDataBuffer.array() : null;
     }
 
     /**
@@ -41,11 +39,11 @@ public class ResourceDataCodec extends ResourceCodec {
      * @return
      */
     public Pair<Integer, Integer> getResourcePair(String path) {
-        Pair pair = (Pair) mIndexMap.get(path);
-        if (pair == null) {
+        int entry = mIndex.find(path);
+        if (entry < 0) {
             return null;
         }
-        return new Pair<>(((Integer) pair.first) + mDataBuffer.arrayOffset(),
-                (Integer) pair.second);
+        int arrayOffset = mDataBuffer.hasArray() ? mDataBuffer.arrayOffset() : 0;
+        return new Pair<>(mIndex.getOffset(entry) + arrayOffset, mIndex.getLength(entry));
     }
 }
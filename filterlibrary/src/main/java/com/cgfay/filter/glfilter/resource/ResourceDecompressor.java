@@ -0,0 +1,227 @@
+package com.cgfay.filter.glfilter.resource;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import com.cgfay.filter.glfilter.resource.bean.ResourceData;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 资源包解压服务
+ * 多个资源包在有限数量的线程中并行解压，优先级高的资源包(滤镜)先解压，
+ * 每个资源包解压完成后写入完成标记，被中断的资源包下次启动时重新解压。
+ */
+public final class ResourceDecompressor {
+
+    private static final String TAG = "ResourceDecompressor";
+
+    // 优先级，数值越小越先解压
+    public static final int PRIORITY_FILTER = 0;
+    public static final int PRIORITY_MAKEUP = 1;
+    public static final int PRIORITY_RESOURCE = 2;
+
+    // 解压线程数，留一个核给UI线程
+    private static final int THREAD_COUNT =
+            Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors() - 1));
+
+    /**
+     * 解压进度监听器，在解压线程中回调
+     */
+    public interface OnDecompressListener {
+
+        /**
+         * 单个资源包解压完成
+         * @param resource  资源
+         * @param folder    解压后的文件夹
+         * @param success   是否成功
+         */
+        void onDecompressed(ResourceData resource, String folder, boolean success);
+
+        /**
+         * 解压进度
+         * @param finished  已完成的资源包数量
+         * @param total     提交的资源包数量
+         */
+        void onProgress(int finished, int total);
+    }
+
+    private static class DecompressorHolder {
+        private static final ResourceDecompressor instance = new ResourceDecompressor();
+    }
+
+    public static ResourceDecompressor getInstance() {
+        return DecompressorHolder.instance;
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+    private final CopyOnWriteArrayList<OnDecompressListener> mListeners = new CopyOnWriteArrayList<>();
+    // 排队或正在解压的文件夹
+    private final Set<String> mPendingFolders = new HashSet<>();
+    private final AtomicInteger mSequence = new AtomicInteger();
+    private int mTotalCount;
+    private int mFinishedCount;
+
+    private ResourceDecompressor() {
+        mExecutor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        Thread thread = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, "ResourceDecompressor-" + mCount.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 提交资源包解压任务，已经完整解压或正在解压的资源包直接跳过
+     * @param context
+     * @param resource      资源
+     * @param parentFolder  解压目录
+     * @param priority      优先级
+     */
+    public void submit(Context context, ResourceData resource, String parentFolder, int priority) {
+        if (resource.type.getIndex() < 0) {
+            return;
+        }
+        String folder = parentFolder + File.separator + resource.unzipFolder;
+        if (ResourceBaseHelper.isDecompressed(folder)) {
+            return;
+        }
+        synchronized (this) {
+            if (!mPendingFolders.add(folder)) {
+                return;
+            }
+            mTotalCount++;
+        }
+        mExecutor.execute(new DecompressTask(context.getApplicationContext(), resource,
+                parentFolder, folder, priority, mSequence.getAndIncrement()));
+    }
+
+    /**
+     * 资源包是否正在排队或解压
+     * @param folder 解压后的文件夹
+     */
+    public synchronized boolean isPending(String folder) {
+        return mPendingFolders.contains(folder);
+    }
+
+    /**
+     * 等待资源包解压完成
+     * @param folder    解压后的文件夹
+     * @param timeoutMs 超时时间
+     * @return 资源包是否已经完整解压
+     * @throws InterruptedException
+     */
+    public boolean await(String folder, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (this) {
+            long remain = timeoutMs;
+            while (mPendingFolders.contains(folder) && remain > 0) {
+                wait(remain);
+                remain = deadline - System.currentTimeMillis();
+            }
+        }
+        return ResourceBaseHelper.isDecompressed(folder);
+    }
+
+    public void addOnDecompressListener(OnDecompressListener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    public void removeOnDecompressListener(OnDecompressListener listener) {
+        mListeners.remove(listener);
+    }
+
+    public synchronized int getFinishedCount() {
+        return mFinishedCount;
+    }
+
+    public synchronized int getTotalCount() {
+        return mTotalCount;
+    }
+
+    private void onTaskFinished(DecompressTask task, boolean success) {
+        int finished;
+        int total;
+        synchronized (this) {
+            mPendingFolders.remove(task.mFolder);
+            finished = ++mFinishedCount;
+            total = mTotalCount;
+            notifyAll();
+        }
+        for (OnDecompressListener listener : mListeners) {
+            listener.onDecompressed(task.mResource, task.mFolder, success);
+            listener.onProgress(finished, total);
+        }
+    }
+
+    /**
+     * 解压任务，按优先级排序，同一优先级按提交顺序
+     */
+    private class DecompressTask implements Runnable, Comparable<DecompressTask> {
+
+        private final Context mContext;
+        private final ResourceData mResource;
+        private final String mParentFolder;
+        private final String mFolder;
+        private final int mPriority;
+        private final int mOrder;
+
+        DecompressTask(Context context, ResourceData resource, String parentFolder, String folder,
+                       int priority, int order) {
+            mContext = context;
+            mResource = resource;
+            mParentFolder = parentFolder;
+            mFolder = folder;
+            mPriority = priority;
+            mOrder = order;
+        }
+
+        @Override
+        public void run() {
+            long start = System.currentTimeMillis();
+            boolean success = false;
+            try {
+                if (mResource.zipPath.startsWith("assets://")) {
+                    success = ResourceBaseHelper.decompressAsset(mContext,
+                            mResource.zipPath.substring("assets://".length()), mResource.unzipFolder, mParentFolder);
+                } else if (mResource.zipPath.startsWith("file://")) {    // 绝对目录中的资源
+                    success = ResourceBaseHelper.decompressFile(
+                            mResource.zipPath.substring("file://".length()), mResource.unzipFolder, mParentFolder);
+                }
+            } finally {
+                Log.d(TAG, "decompress " + mResource.unzipFolder + " " + (success ? "finished" : "failed")
+                        + " in " + (System.currentTimeMillis() - start) + " ms");
+                onTaskFinished(this, success);
+            }
+        }
+
+        @Override
+        public int compareTo(DecompressTask other) {
+            if (mPriority != other.mPriority) {
+                return mPriority < other.mPriority ? -1 : 1;
+            }
+            return Integer.compare(mOrder, other.mOrder);
+        }
+    }
+}
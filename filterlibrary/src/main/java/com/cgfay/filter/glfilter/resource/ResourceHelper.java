@@ -55,7 +55,7 @@ public final class ResourceHelper extends ResourceBaseHelper {
     }
 
     /**
-     * 解压所有资源
+     * 解压所有资源，解压在后台线程中进行，通过ResourceDecompressor获取进度
      * @param context
      * @param resourceList 资源列表
      */
@@ -67,15 +67,9 @@ public final class ResourceHelper extends ResourceBaseHelper {
             return;
         }
         String resourcePath = getResourceDirectory(context);
-        // 解码列表中的所有资源
+        // 提交到解压服务，多个资源包并行解压
         for (ResourceData item : resourceList) {
-            if (item.type.getIndex() >= 0) {
-                if (item.zipPath.startsWith("assets://")) {
-                    decompressAsset(context, item.zipPath.substring("assets://".length()), item.unzipFolder, resourcePath);
-                } else if (item.zipPath.startsWith("file://")) {    // 绝对目录中的资源
-                    decompressFile(item.zipPath.substring("file://".length()), item.unzipFolder, resourcePath);
-                }
-            }
+            ResourceDecompressor.getInstance().submit(context, item, resourcePath, ResourceDecompressor.PRIORITY_RESOURCE);
         }
     }
 
@@ -0,0 +1,293 @@
+package com.cgfay.filter.glfilter.resource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 资源索引
+ * 二进制格式(大端)：
+ * | magic(4) | version(4) | count(4) | reserved(4) |
+ * | hash[count] (8) | offset[count] (4) | length[count] (4) | number[count] (4) |
+ * hash为文件名的64位FNV-1a哈希，按从小到大排序，查找时二分搜索，不产生任何对象分配；
+ * number为文件名末尾的三位序号(xxx_001.png)，没有序号时为-1。
+ * 二进制索引通过内存映射读取，旧版本"name:offset:length;"文本索引读取时转换成相同的结构。
+ */
+public final class ResourceIndex {
+
+    static final int MAGIC = 0x43524958; // "CRIX"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    // 每个索引项的大小
+    private static final int ENTRY_SIZE = 8 + 4 + 4 + 4;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final ByteBuffer mBuffer;
+    private final int mCount;
+    private final int mOffsetStart;
+    private final int mLengthStart;
+    private final int mNumberStart;
+
+    private ResourceIndex(ByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Invalid resource index!");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported resource index version: " + buffer.getInt(4));
+        }
+        mBuffer = buffer;
+        mCount = buffer.getInt(8);
+        if (mCount < 0 || HEADER_SIZE + (long) mCount * ENTRY_SIZE > buffer.capacity()) {
+            throw new IOException("Corrupted resource index!");
+        }
+        mOffsetStart = HEADER_SIZE + mCount * 8;
+        mLengthStart = mOffsetStart + mCount * 4;
+        mNumberStart = mLengthStart + mCount * 4;
+    }
+
+    /**
+     * 打开索引文件，二进制索引使用内存映射，否则按旧版本文本索引解析
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static ResourceIndex open(File file) throws IOException {
+        RandomAccessFile accessFile = new RandomAccessFile(file, "r");
+        try {
+            long length = accessFile.length();
+            if (length >= HEADER_SIZE && accessFile.readInt() == MAGIC) {
+                return new ResourceIndex(accessFile.getChannel()
+                        .map(FileChannel.MapMode.READ_ONLY, 0, length));
+            }
+        } finally {
+            accessFile.close();
+        }
+        return parseLegacy(file);
+    }
+
+    /**
+     * 解析旧版本的文本索引
+     */
+    private static ResourceIndex parseLegacy(File file) throws IOException {
+        String indexString = readString(file);
+        String[] indexArray = indexString.split(";");
+        // 重复的文件名以最后一个为准
+        Map<String, int[]> entries = new LinkedHashMap<>();
+        for (int i = 0; i < indexArray.length; ++i) {
+            if (indexArray[i].isEmpty()) {
+                continue;
+            }
+            // ":" 分成3个，第一个是文件名，第二是文件起始位置，第三个是文件大小
+            String[] subIndexArray = indexArray[i].split(":");
+            if (subIndexArray.length != 3) {
+                continue;
+            }
+            int offset = parseInt(subIndexArray[1]);
+            int length = parseInt(subIndexArray[2]);
+            if (-1 == offset || -1 == length) {
+                throw new IOException("Failed to parse offset or length for " + indexArray[i]);
+            }
+            entries.put(subIndexArray[0], new int[]{ offset, length });
+        }
+        int count = entries.size();
+        String[] names = new String[count];
+        int[] offsets = new int[count];
+        int[] lengths = new int[count];
+        int i = 0;
+        for (Map.Entry<String, int[]> entry : entries.entrySet()) {
+            names[i] = entry.getKey();
+            offsets[i] = entry.getValue()[0];
+            lengths[i] = entry.getValue()[1];
+            i++;
+        }
+        ByteBuffer buffer = encode(names, offsets, lengths, count);
+        if (buffer == null) {
+            throw new IOException("Name hash collision in resource index!");
+        }
+        return new ResourceIndex(buffer);
+    }
+
+    /**
+     * 写入二进制索引
+     * @param file      索引文件
+     * @param names     文件名
+     * @param offsets   文件偏移
+     * @param lengths   文件大小
+     * @return 文件名哈希冲突时返回false，此时不写入
+     * @throws IOException
+     */
+    public static boolean write(File file, String[] names, int[] offsets, int[] lengths)
+            throws IOException {
+        ByteBuffer buffer = encode(names, offsets, lengths, names.length);
+        if (buffer == null) {
+            return false;
+        }
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(buffer.array(), 0, buffer.capacity());
+        } finally {
+            outputStream.close();
+        }
+        return true;
+    }
+
+    /**
+     * 编码成二进制索引，哈希冲突时返回null
+     */
+    private static ByteBuffer encode(String[] names, int[] offsets, int[] lengths, int count) {
+        long[] hashes = new long[count];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            hashes[i] = hash(names[i]);
+            order[i] = i;
+        }
+        final long[] sortHashes = hashes;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer left, Integer right) {
+                return Long.compare(sortHashes[left], sortHashes[right]);
+            }
+        });
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * ENTRY_SIZE);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(0);
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && hashes[order[i]] == hashes[order[i - 1]]) {
+                return null;
+            }
+            buffer.putLong(hashes[order[i]]);
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(offsets[order[i]]);
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(lengths[order[i]]);
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(parseNumber(names[order[i]]));
+        }
+        buffer.position(0);
+        return buffer;
+    }
+
+    /**
+     * 查找文件名对应的索引项
+     * @param name  文件名
+     * @return 索引项位置，不存在时返回-1
+     */
+    public int find(CharSequence name) {
+        long target = hash(name);
+        int low = 0;
+        int high = mCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long value = mBuffer.getLong(HEADER_SIZE + mid * 8);
+            if (value < target) {
+                low = mid + 1;
+            } else if (value > target) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 索引项数量
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * 文件在数据文件中的偏移
+     */
+    public int getOffset(int entry) {
+        return mBuffer.getInt(mOffsetStart + entry * 4);
+    }
+
+    /**
+     * 文件大小
+     */
+    public int getLength(int entry) {
+        return mBuffer.getInt(mLengthStart + entry * 4);
+    }
+
+    /**
+     * 文件名末尾的序号，没有序号时返回-1
+     */
+    public int getNumber(int entry) {
+        return mBuffer.getInt(mNumberStart + entry * 4);
+    }
+
+    /**
+     * 64位FNV-1a哈希，直接按字符计算，不需要转换成字节数组
+     * @param name
+     * @return
+     */
+    static long hash(CharSequence name) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            hash ^= (c & 0xff);
+            hash *= FNV_PRIME;
+            hash ^= (c >>> 8);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * 提取文件名末尾的序号，文件名类似：xxx_001.png，length - 7 ~ length - 4即为序号
+     * @param fileName
+     * @return
+     */
+    static int parseNumber(String fileName) {
+        if (fileName.length() < 7) {
+            return -1;
+        }
+        int number = 0;
+        for (int i = fileName.length() - 7; i < fileName.length() - 4; i++) {
+            char c = fileName.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+    private static int parseInt(String str) {
+        try {
+            return Integer.parseInt(str);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String readString(File file) throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[2048];
+            int length;
+            while ((length = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, length);
+            }
+            return outputStream.toString("UTF-8");
+        } finally {
+            inputStream.close();
+        }
+    }
+}
@@ -19,6 +19,8 @@ public class DynamicStickerFrameFilter extends DynamicStickerBaseFilter {
     private int mEnableStickerHandle;
     // 贴纸缓冲
     private FloatBuffer mStickerBuffer;
+    // 贴纸坐标VBO，VAO绑定时不能使用客户端顶点数组
+    private int mStickerBufferId = OpenGLUtils.GL_NOT_INIT;
     private int mStickerTexture;
 
     public DynamicStickerFrameFilter(Context context, DynamicSticker sticker) {
@@ -74,10 +76,21 @@ public class DynamicStickerFrameFilter extends DynamicStickerBaseFilter {
     @Override
     public void onDrawFrameBegin() {
         super.onDrawFrameBegin();
-        mStickerBuffer.position(0);
+        if (mStickerBufferId == OpenGLUtils.GL_NOT_INIT) {
+            int[] buffers = new int[1];
+            GLES30.glGenBuffers(1, buffers, 0);
+            mStickerBufferId = buffers[0];
+            mStickerBuffer.position(0);
+            GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, mStickerBufferId);
+            GLES30.glBufferData(GLES30.GL_ARRAY_BUFFER, mStickerBuffer.capacity() * 4,
+                    mStickerBuffer, GLES30.GL_STATIC_DRAW);
+        } else {
+            GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, mStickerBufferId);
+        }
         GLES30.glVertexAttribPointer(mStickerCoordHandle, 2,
-                GLES30.GL_FLOAT, false, 0, mStickerBuffer);
+                GLES30.GL_FLOAT, false, 0, 0);
         GLES30.glEnableVertexAttribArray(mStickerCoordHandle);
+        GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, 0);
         if (mStickerTexture != OpenGLUtils.GL_NOT_TEXTURE) {
             OpenGLUtils.bindTexture(mStickerTextureHandle, mStickerTexture, 1);
             GLES30.glUniform1i(mEnableStickerHandle, 1);
@@ -95,6 +108,10 @@ public class DynamicStickerFrameFilter extends DynamicStickerBaseFilter {
     @Override
     public void release() {
         super.release();
+        if (mStickerBufferId != OpenGLUtils.GL_NOT_INIT) {
+            GLES30.glDeleteBuffers(1, new int[]{ mStickerBufferId }, 0);
+            mStickerBufferId = OpenGLUtils.GL_NOT_INIT;
+        }
         for (int i = 0; i < mStickerLoaderList.size(); i++) {
             if (mStickerLoaderList.get(i) != null) {
                 mStickerLoaderList.get(i).release();
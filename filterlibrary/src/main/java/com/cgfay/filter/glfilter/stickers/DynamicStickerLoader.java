@@ -1,6 +1,7 @@
 package com.cgfay.filter.glfilter.stickers;
 
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.text.TextUtils;
 import android.util.Log;
@@ -11,7 +12,6 @@ import com.cgfay.filter.glfilter.resource.ResourceIndexCodec;
 import com.cgfay.filter.glfilter.stickers.bean.DynamicStickerData;
 import com.cgfay.filter.glfilter.utils.OpenGLUtils;
 import com.cgfay.landmark.LandmarkEngine;
-import com.cgfay.uitls.utils.BitmapUtils;
 
 import java.io.IOException;
 import java.lang.ref.WeakReference;
@@ -26,8 +26,10 @@ public class DynamicStickerLoader {
 
     // 贴纸纹理
     private int mStickerTexture;
-    // 暂存纹理id，用于复用
-    private int mRestoreTexture;
+    // 贴纸纹理环，GL线程只负责上传
+    private final StickerTextureRing mTextureRing = new StickerTextureRing();
+    // 后台预取解码
+    private final StickerFramePrefetcher mPrefetcher;
     // 贴纸所在的文件夹
     private String mFolderPath;
     // 贴纸数据
@@ -44,7 +46,6 @@ public class DynamicStickerLoader {
         this.isStaticSticker=isStaticSticker;
         mWeakFilter = new WeakReference<>(filter);
         mStickerTexture = OpenGLUtils.GL_NOT_TEXTURE;
-        mRestoreTexture = OpenGLUtils.GL_NOT_TEXTURE;
         mFolderPath = folderPath.startsWith("file://") ? folderPath.substring("file://".length()) : folderPath;
         mStickerData = stickerData;
         Pair pair = ResourceCodec.getResourceFile(mFolderPath);
@@ -60,7 +61,12 @@ public class DynamicStickerLoader {
             }
         }
         mStickerTexture = OpenGLUtils.GL_NOT_TEXTURE;
-        mRestoreTexture = OpenGLUtils.GL_NOT_TEXTURE;
+        mPrefetcher = new StickerFramePrefetcher(new StickerFramePrefetcher.FrameDecoder() {
+            @Override
+            public Bitmap decode(int index, BitmapFactory.Options options) {
+                return decodeFrame(index, options);
+            }
+        }, mStickerData.frames);
         // 如果存在的音乐路径，则播放需要初始化路径
         if (!TextUtils.isEmpty(mStickerData.audioPath)) {
             String str;
@@ -89,6 +95,8 @@ public class DynamicStickerLoader {
             if (mWeakFilter.get() != null) {
                 mWeakFilter.get().stopPlayer();
             }
+            // 人脸出现时从第0帧开始播放，提前解码开头的几帧
+            mPrefetcher.prefetch(-1);
             return;
         }
 
@@ -107,9 +115,9 @@ public class DynamicStickerLoader {
         if (frameIndex >= mStickerData.frames) {
             if (!mStickerData.stickerLooping) {
                 mCurrentTime = -1L;
-                mRestoreTexture = mStickerTexture;
                 mStickerTexture = OpenGLUtils.GL_NOT_TEXTURE;
                 mFrameIndex = -1;
+                mPrefetcher.prefetch(-1);
                 return;
             }
             frameIndex = 0;
@@ -128,46 +136,44 @@ public class DynamicStickerLoader {
                 mWeakFilter.get().restartPlayer();
             }
         }
-        // 根据帧索引读取贴纸
-        Bitmap bitmap = null;
-        if (mResourceIndexCodec != null) {
-            bitmap = mResourceIndexCodec.loadResource(frameIndex);
-        }
-        if (bitmap == null) {
-            String path = String.format(mStickerData.stickerName + "_%03d.png", new Object[]{frameIndex});
-            bitmap = BitmapUtils.getBitmapFromFile(mFolderPath + "/" + path);
-        }
+        // 根据帧索引获取贴纸，预取命中时不需要在GL线程解码
+        Bitmap bitmap = mPrefetcher.obtainFrame(frameIndex);
+        mPrefetcher.prefetch(frameIndex);
         if (null != bitmap) {
-            // 如果此时暂存的纹理ID存在，则复用该ID
-            if (mStickerTexture == OpenGLUtils.GL_NOT_TEXTURE
-                    && mRestoreTexture != OpenGLUtils.GL_NOT_TEXTURE) {
-                mStickerTexture = mRestoreTexture;
-            }
-            if (mStickerTexture == OpenGLUtils.GL_NOT_TEXTURE) {
-                mStickerTexture = OpenGLUtils.createTexture(bitmap);
-            } else {
-                mStickerTexture = OpenGLUtils.createTexture(bitmap, mStickerTexture);
-            }
-            mRestoreTexture = mStickerTexture;
+            mStickerTexture = mTextureRing.upload(bitmap);
             mFrameIndex = frameIndex;
-            bitmap.recycle();
+            mPrefetcher.recycleBitmap(bitmap);
         } else {
-            mRestoreTexture = mStickerTexture;
             mStickerTexture = OpenGLUtils.GL_NOT_TEXTURE;
             mFrameIndex = -1;
         }
     }
 
+    /**
+     * 解码某一帧贴纸，在解码线程或GL线程调用
+     * @param frameIndex
+     * @param options
+     * @return
+     */
+    private Bitmap decodeFrame(int frameIndex, BitmapFactory.Options options) {
+        Bitmap bitmap = null;
+        if (mResourceIndexCodec != null) {
+            bitmap = mResourceIndexCodec.loadResource(frameIndex, options);
+        }
+        if (bitmap == null) {
+            String path = String.format(mStickerData.stickerName + "_%03d.png", new Object[]{frameIndex});
+            bitmap = BitmapFactory.decodeFile(mFolderPath + "/" + path, options);
+        }
+        return bitmap;
+    }
+
     /**
      * 释放资源
      */
     public void release() {
-        if (mStickerTexture == OpenGLUtils.GL_NOT_TEXTURE) {
-            mStickerTexture = mRestoreTexture;
-        }
-        OpenGLUtils.deleteTexture(mStickerTexture);
+        mPrefetcher.release();
+        mTextureRing.release();
         mStickerTexture = OpenGLUtils.GL_NOT_TEXTURE;
-        mRestoreTexture = OpenGLUtils.GL_NOT_TEXTURE;
         if (mWeakFilter.get() != null) {
             mWeakFilter.clear();
         }
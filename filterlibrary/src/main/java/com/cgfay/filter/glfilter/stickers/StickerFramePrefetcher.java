@@ -0,0 +1,333 @@
+package com.cgfay.filter.glfilter.stickers;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 贴纸帧预取器
+ * 在后台线程中提前解码接下来的几帧贴纸，GL线程只需要上传纹理。
+ * 解码使用的Bitmap来自一个有上限的缓存池，通过inBitmap复用，避免每帧分配新的Bitmap。
+ */
+public final class StickerFramePrefetcher {
+
+    private static final String TAG = "StickerFramePrefetcher";
+
+    // 预取的帧数
+    private static final int PREFETCH_COUNT = 3;
+    // Bitmap缓存池上限
+    private static final int MAX_POOL_SIZE = PREFETCH_COUNT + 1;
+    // 预取帧还在解码时，GL线程最长等待时间
+    private static final long MAX_WAIT_MS = 8;
+
+    /**
+     * 帧解码接口
+     */
+    interface FrameDecoder {
+        Bitmap decode(int index, BitmapFactory.Options options);
+    }
+
+    // 所有贴纸共用一个解码线程
+    private static ExecutorService sDecodeExecutor;
+
+    // 统计数据
+    private static final AtomicLong sHitCount = new AtomicLong();
+    private static final AtomicLong sMissCount = new AtomicLong();
+    private static final AtomicLong sDecodeCount = new AtomicLong();
+    private static final AtomicLong sDecodeTimeNs = new AtomicLong();
+    private static final AtomicLong sMaxDecodeTimeNs = new AtomicLong();
+
+    private final FrameDecoder mDecoder;
+    private final int mFrames;
+
+    // 预取槽位，index为-1表示空闲
+    private final int[] mSlotIndex = new int[PREFETCH_COUNT];
+    private final Bitmap[] mSlotBitmap = new Bitmap[PREFETCH_COUNT];
+    private final boolean[] mSlotPending = new boolean[PREFETCH_COUNT];
+    // 可复用的Bitmap
+    private final ArrayDeque<Bitmap> mBitmapPool = new ArrayDeque<>();
+    private boolean mReleased;
+
+    StickerFramePrefetcher(FrameDecoder decoder, int frames) {
+        mDecoder = decoder;
+        mFrames = frames;
+        for (int i = 0; i < PREFETCH_COUNT; i++) {
+            mSlotIndex[i] = -1;
+        }
+    }
+
+    /**
+     * 根据当前帧预测接下来要显示的帧并提交解码任务。
+     * 不循环的贴纸播放结束后，下一次更新同样从第0帧重新开始，因此两种情况都按环形预测。
+     * @param currentIndex 当前帧，-1表示还没有开始播放
+     */
+    synchronized void prefetch(int currentIndex) {
+        if (mReleased || mFrames <= 0) {
+            return;
+        }
+        // 丢弃不在预取窗口内的帧
+        for (int slot = 0; slot < PREFETCH_COUNT; slot++) {
+            if (mSlotIndex[slot] != -1 && !mSlotPending[slot]
+                    && !isInWindow(mSlotIndex[slot], currentIndex)) {
+                recycleBitmapLocked(mSlotBitmap[slot]);
+                mSlotBitmap[slot] = null;
+                mSlotIndex[slot] = -1;
+            }
+        }
+        for (int i = 1; i <= Math.min(PREFETCH_COUNT, mFrames); i++) {
+            int index = (currentIndex + i) % mFrames;
+            if (index == currentIndex || findSlot(index) >= 0) {
+                continue;
+            }
+            int slot = findSlot(-1);
+            if (slot < 0) {
+                break;
+            }
+            mSlotIndex[slot] = index;
+            mSlotPending[slot] = true;
+            getExecutor().execute(new DecodeTask(slot, index));
+        }
+    }
+
+    /**
+     * 获取某一帧的Bitmap，预取命中时直接返回，否则在当前线程解码
+     * 使用完之后需要调用recycleBitmap归还
+     * @param index 帧索引
+     * @return
+     */
+    Bitmap obtainFrame(int index) {
+        synchronized (this) {
+            int slot = findSlot(index);
+            if (slot >= 0 && mSlotPending[slot]) {
+                // 正在解码，它比重新解码更早完成
+                long deadline = System.currentTimeMillis() + MAX_WAIT_MS;
+                long remain = MAX_WAIT_MS;
+                while (mSlotPending[slot] && mSlotIndex[slot] == index && remain > 0) {
+                    try {
+                        wait(remain);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    remain = deadline - System.currentTimeMillis();
+                }
+            }
+            if (slot >= 0 && mSlotIndex[slot] == index && !mSlotPending[slot]) {
+                Bitmap bitmap = mSlotBitmap[slot];
+                mSlotBitmap[slot] = null;
+                mSlotIndex[slot] = -1;
+                if (bitmap != null) {
+                    sHitCount.incrementAndGet();
+                    return bitmap;
+                }
+            }
+        }
+        sMissCount.incrementAndGet();
+        return decode(index);
+    }
+
+    /**
+     * 归还Bitmap到缓存池
+     * @param bitmap
+     */
+    synchronized void recycleBitmap(Bitmap bitmap) {
+        recycleBitmapLocked(bitmap);
+    }
+
+    /**
+     * 释放资源，正在解码的帧在解码结束后回收
+     */
+    synchronized void release() {
+        mReleased = true;
+        for (int slot = 0; slot < PREFETCH_COUNT; slot++) {
+            if (mSlotBitmap[slot] != null) {
+                mSlotBitmap[slot].recycle();
+                mSlotBitmap[slot] = null;
+            }
+            mSlotIndex[slot] = -1;
+        }
+        while (!mBitmapPool.isEmpty()) {
+            mBitmapPool.poll().recycle();
+        }
+        notifyAll();
+    }
+
+    /**
+     * 解码一帧，优先复用缓存池中的Bitmap
+     */
+    private Bitmap decode(int index) {
+        long start = System.nanoTime();
+        Bitmap reuse;
+        synchronized (this) {
+            reuse = mBitmapPool.poll();
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        options.inBitmap = reuse;
+        Bitmap bitmap;
+        try {
+            bitmap = mDecoder.decode(index, options);
+        } catch (IllegalArgumentException e) {
+            // 复用的Bitmap不满足解码要求，重新分配
+            options.inBitmap = null;
+            bitmap = mDecoder.decode(index, options);
+            if (reuse != null) {
+                reuse.recycle();
+                reuse = null;
+            }
+        }
+        if (reuse != null && bitmap != reuse) {
+            recycleBitmap(reuse);
+        }
+        long elapsed = System.nanoTime() - start;
+        sDecodeCount.incrementAndGet();
+        sDecodeTimeNs.addAndGet(elapsed);
+        long max;
+        while (elapsed > (max = sMaxDecodeTimeNs.get())) {
+            if (sMaxDecodeTimeNs.compareAndSet(max, elapsed)) {
+                break;
+            }
+        }
+        return bitmap;
+    }
+
+    private void recycleBitmapLocked(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        if (!mReleased && bitmap.isMutable() && mBitmapPool.size() < MAX_POOL_SIZE) {
+            mBitmapPool.offer(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    private int findSlot(int index) {
+        for (int slot = 0; slot < PREFETCH_COUNT; slot++) {
+            if (mSlotIndex[slot] == index) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 帧是否在当前帧之后的预取窗口内
+     */
+    private boolean isInWindow(int index, int currentIndex) {
+        int distance = ((index - currentIndex) % mFrames + mFrames) % mFrames;
+        if (currentIndex < 0) {
+            distance = index + 1;
+        }
+        return distance >= 1 && distance <= PREFETCH_COUNT;
+    }
+
+    /**
+     * 后台解码任务
+     */
+    private final class DecodeTask implements Runnable {
+
+        private final int mSlot;
+        private final int mIndex;
+
+        DecodeTask(int slot, int index) {
+            mSlot = slot;
+            mIndex = index;
+        }
+
+        @Override
+        public void run() {
+            Bitmap bitmap = null;
+            synchronized (StickerFramePrefetcher.this) {
+                if (mReleased) {
+                    mSlotPending[mSlot] = false;
+                    return;
+                }
+            }
+            try {
+                bitmap = decode(mIndex);
+            } catch (Exception e) {
+                Log.e(TAG, "decode sticker frame failed: " + mIndex, e);
+            }
+            synchronized (StickerFramePrefetcher.this) {
+                mSlotPending[mSlot] = false;
+                if (mReleased || mSlotIndex[mSlot] != mIndex) {
+                    if (bitmap != null) {
+                        bitmap.recycle();
+                    }
+                } else {
+                    mSlotBitmap[mSlot] = bitmap;
+                    if (bitmap == null) {
+                        mSlotIndex[mSlot] = -1;
+                    }
+                }
+                StickerFramePrefetcher.this.notifyAll();
+            }
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (sDecodeExecutor == null) {
+            sDecodeExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "StickerDecoder");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sDecodeExecutor;
+    }
+
+    /**
+     * 预取命中次数
+     */
+    public static long getHitCount() {
+        return sHitCount.get();
+    }
+
+    /**
+     * 预取未命中，需要在GL线程解码的次数
+     */
+    public static long getMissCount() {
+        return sMissCount.get();
+    }
+
+    /**
+     * 预取命中率
+     */
+    public static float getHitRate() {
+        long hit = sHitCount.get();
+        long total = hit + sMissCount.get();
+        return total == 0 ? 0f : (float) hit / total;
+    }
+
+    /**
+     * 平均解码耗时(ms)
+     */
+    public static float getAverageDecodeTime() {
+        long count = sDecodeCount.get();
+        return count == 0 ? 0f : sDecodeTimeNs.get() / (count * 1000000f);
+    }
+
+    /**
+     * 最大解码耗时(ms)
+     */
+    public static float getMaxDecodeTime() {
+        return sMaxDecodeTimeNs.get() / 1000000f;
+    }
+}
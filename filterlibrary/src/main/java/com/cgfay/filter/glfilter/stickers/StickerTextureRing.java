@@ -0,0 +1,123 @@
+package com.cgfay.filter.glfilter.stickers;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES30;
+import android.opengl.GLUtils;
+
+import com.cgfay.filter.glfilter.utils.OpenGLNative;
+import com.cgfay.filter.glfilter.utils.OpenGLUtils;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * 贴纸纹理环
+ * 每次上传写入下一个纹理，避免覆盖正在被上一帧绘制使用的纹理导致GPU同步等待。
+ * 支持OpenGL ES 3.0时ARGB_8888的Bitmap通过PBO上传，Java层没有PBO偏移的glTexSubImage2D，通过JNI调用；
+ * 不支持或者映射失败时退回到GLUtils.texSubImage2D。
+ */
+final class StickerTextureRing {
+
+    private static final int RING_SIZE = 2;
+
+    private final int[] mTextures = new int[RING_SIZE];
+    private final int[] mWidths = new int[RING_SIZE];
+    private final int[] mHeights = new int[RING_SIZE];
+    private int mNext;
+
+    // 像素缓冲对象
+    private int mPixelBuffer = OpenGLUtils.GL_NOT_INIT;
+    private int mPixelBufferSize;
+    // 是否可以使用PBO，在第一次上传时检查
+    private boolean mPixelBufferChecked;
+    private boolean mPixelBufferSupported;
+
+    StickerTextureRing() {
+        for (int i = 0; i < RING_SIZE; i++) {
+            mTextures[i] = OpenGLUtils.GL_NOT_TEXTURE;
+        }
+    }
+
+    /**
+     * 上传Bitmap到下一个纹理
+     * @param bitmap
+     * @return 纹理id
+     */
+    int upload(Bitmap bitmap) {
+        int slot = mNext;
+        mNext = (mNext + 1) % RING_SIZE;
+        int texture = mTextures[slot];
+        if (texture == OpenGLUtils.GL_NOT_TEXTURE
+                || mWidths[slot] != bitmap.getWidth() || mHeights[slot] != bitmap.getHeight()) {
+            // 大小发生变化时需要重新分配纹理存储
+            if (texture != OpenGLUtils.GL_NOT_TEXTURE) {
+                OpenGLUtils.deleteTexture(texture);
+            }
+            texture = OpenGLUtils.createTexture(bitmap);
+            mTextures[slot] = texture;
+            mWidths[slot] = bitmap.getWidth();
+            mHeights[slot] = bitmap.getHeight();
+        } else if (!uploadWithPixelBuffer(bitmap, texture)) {
+            GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, texture);
+            GLUtils.texSubImage2D(GLES30.GL_TEXTURE_2D, 0, 0, 0, bitmap);
+        }
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, 0);
+        return texture;
+    }
+
+    /**
+     * 通过PBO上传
+     */
+    private boolean uploadWithPixelBuffer(Bitmap bitmap, int texture) {
+        if (!mPixelBufferChecked) {
+            mPixelBufferChecked = true;
+            mPixelBufferSupported = OpenGLUtils.isGLES3Supported() && OpenGLNative.isAvailable();
+        }
+        if (!mPixelBufferSupported || bitmap.getConfig() != Bitmap.Config.ARGB_8888
+                || bitmap.getRowBytes() != bitmap.getWidth() * 4) {
+            return false;
+        }
+        int size = bitmap.getByteCount();
+        if (mPixelBuffer == OpenGLUtils.GL_NOT_INIT) {
+            int[] buffers = new int[1];
+            GLES30.glGenBuffers(1, buffers, 0);
+            mPixelBuffer = buffers[0];
+        }
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, mPixelBuffer);
+        if (mPixelBufferSize != size) {
+            GLES30.glBufferData(GLES30.GL_PIXEL_UNPACK_BUFFER, size, null, GLES30.GL_STREAM_DRAW);
+            mPixelBufferSize = size;
+        }
+        Buffer mapped = GLES30.glMapBufferRange(GLES30.GL_PIXEL_UNPACK_BUFFER, 0, size,
+                GLES30.GL_MAP_WRITE_BIT | GLES30.GL_MAP_INVALIDATE_BUFFER_BIT);
+        if (!(mapped instanceof ByteBuffer)) {
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+            return false;
+        }
+        bitmap.copyPixelsToBuffer(mapped);
+        GLES30.glUnmapBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER);
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, texture);
+        OpenGLNative.glTexSubImage2D(GLES30.GL_TEXTURE_2D, 0, 0, 0, bitmap.getWidth(), bitmap.getHeight(),
+                GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, 0);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+        return true;
+    }
+
+    /**
+     * 释放纹理和PBO
+     */
+    void release() {
+        for (int i = 0; i < RING_SIZE; i++) {
+            if (mTextures[i] != OpenGLUtils.GL_NOT_TEXTURE) {
+                OpenGLUtils.deleteTexture(mTextures[i]);
+                mTextures[i] = OpenGLUtils.GL_NOT_TEXTURE;
+            }
+        }
+        if (mPixelBuffer != OpenGLUtils.GL_NOT_INIT) {
+            GLES30.glDeleteBuffers(1, new int[]{ mPixelBuffer }, 0);
+            mPixelBuffer = OpenGLUtils.GL_NOT_INIT;
+            mPixelBufferSize = 0;
+        }
+        mPixelBufferChecked = false;
+    }
+}
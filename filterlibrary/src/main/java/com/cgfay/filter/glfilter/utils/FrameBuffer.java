@@ -0,0 +1,46 @@
+package com.cgfay.filter.glfilter.utils;
+
+/**
+ * FBO及其绑定的纹理，由FrameBufferPool统一分配和回收
+ */
+public final class FrameBuffer {
+
+    // FBO
+    final int mFrameBufferId;
+    // FBO绑定的纹理
+    final int mTextureId;
+    // 宽高和纹理格式
+    final int mWidth;
+    final int mHeight;
+    final int mFormat;
+    // 引用计数
+    int mRefCount;
+
+    FrameBuffer(int frameBufferId, int textureId, int width, int height, int format) {
+        mFrameBufferId = frameBufferId;
+        mTextureId = textureId;
+        mWidth = width;
+        mHeight = height;
+        mFormat = format;
+    }
+
+    public int getFrameBufferId() {
+        return mFrameBufferId;
+    }
+
+    public int getTextureId() {
+        return mTextureId;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getFormat() {
+        return mFormat;
+    }
+}
@@ -0,0 +1,223 @@
+package com.cgfay.filter.glfilter.utils;
+
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * FBO缓存池
+ * 按(宽, 高, 纹理格式)分组缓存FBO，滤镜通过引用计数借用和归还，避免切换滤镜时重复创建FBO。
+ * FBO属于容器对象，不能在共享上下文之间共享，因此每个EGLContext单独维护一个缓存池。
+ */
+public final class FrameBufferPool {
+
+    private static final String TAG = "FrameBufferPool";
+
+    // 每种规格最多保留的空闲FBO数量，超出时直接销毁
+    private static final int MAX_FREE_PER_KEY = 2;
+
+    private static final FrameBufferPool sInstance = new FrameBufferPool();
+
+    public static FrameBufferPool getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * 单个EGLContext的缓存
+     */
+    private static final class ContextPool {
+        // 空闲的FBO
+        final Map<Long, List<FrameBuffer>> freeBuffers = new HashMap<>();
+        // 已创建且未销毁的FBO数量
+        int liveCount;
+        // 正在使用的FBO数量
+        int usedCount;
+    }
+
+    private final Map<EGLContext, ContextPool> mPools = new HashMap<>();
+
+    // 统计数据
+    private int mPeakCount;
+    private int mAllocateCount;
+    private int mReuseCount;
+
+    private FrameBufferPool() {
+
+    }
+
+    /**
+     * 获取RGBA格式的FBO
+     * @param width
+     * @param height
+     * @return
+     */
+    public FrameBuffer acquire(int width, int height) {
+        return acquire(width, height, GLES30.GL_RGBA);
+    }
+
+    /**
+     * 获取FBO，优先复用缓存池中相同规格的FBO
+     * @param width
+     * @param height
+     * @param format    纹理格式
+     * @return
+     */
+    public synchronized FrameBuffer acquire(int width, int height, int format) {
+        ContextPool pool = getContextPool(true);
+        long key = makeKey(width, height, format);
+        List<FrameBuffer> freeList = pool.freeBuffers.get(key);
+        FrameBuffer frameBuffer;
+        if (freeList != null && !freeList.isEmpty()) {
+            frameBuffer = freeList.remove(freeList.size() - 1);
+            mReuseCount++;
+        } else {
+            int[] frameBuffers = new int[1];
+            int[] textures = new int[1];
+            OpenGLUtils.createFrameBuffer(frameBuffers, textures, width, height, format);
+            frameBuffer = new FrameBuffer(frameBuffers[0], textures[0], width, height, format);
+            pool.liveCount++;
+            mAllocateCount++;
+        }
+        frameBuffer.mRefCount = 1;
+        pool.usedCount++;
+        mPeakCount = Math.max(mPeakCount, pool.liveCount);
+        return frameBuffer;
+    }
+
+    /**
+     * 增加引用
+     * @param frameBuffer
+     */
+    public synchronized void retain(FrameBuffer frameBuffer) {
+        if (frameBuffer != null) {
+            frameBuffer.mRefCount++;
+        }
+    }
+
+    /**
+     * 归还FBO，引用计数为0时放回缓存池
+     * @param frameBuffer
+     */
+    public synchronized void release(FrameBuffer frameBuffer) {
+        if (frameBuffer == null || frameBuffer.mRefCount <= 0) {
+            return;
+        }
+        if (--frameBuffer.mRefCount > 0) {
+            return;
+        }
+        ContextPool pool = getContextPool(false);
+        if (pool == null) {
+            // 上下文已经销毁，GL对象随上下文一起释放
+            return;
+        }
+        pool.usedCount--;
+        long key = makeKey(frameBuffer.mWidth, frameBuffer.mHeight, frameBuffer.mFormat);
+        List<FrameBuffer> freeList = pool.freeBuffers.get(key);
+        if (freeList == null) {
+            freeList = new ArrayList<>();
+            pool.freeBuffers.put(key, freeList);
+        }
+        if (freeList.size() < MAX_FREE_PER_KEY) {
+            freeList.add(frameBuffer);
+        } else {
+            deleteFrameBuffer(pool, frameBuffer);
+        }
+    }
+
+    /**
+     * 销毁当前上下文中所有空闲的FBO
+     */
+    public synchronized void trim() {
+        ContextPool pool = getContextPool(false);
+        if (pool == null) {
+            return;
+        }
+        for (List<FrameBuffer> freeList : pool.freeBuffers.values()) {
+            for (FrameBuffer frameBuffer : freeList) {
+                deleteFrameBuffer(pool, frameBuffer);
+            }
+            freeList.clear();
+        }
+        pool.freeBuffers.clear();
+    }
+
+    /**
+     * 上下文销毁时调用，丢弃该上下文的缓存记录，GL对象随上下文一起释放
+     * @param context
+     */
+    public synchronized void onContextDestroyed(EGLContext context) {
+        ContextPool pool = mPools.remove(context);
+        if (pool != null && pool.usedCount > 0) {
+            Log.w(TAG, "context destroyed with " + pool.usedCount + " framebuffer(s) still in use");
+        }
+    }
+
+    /**
+     * 所有上下文中存活的FBO数量，包括空闲的
+     */
+    public synchronized int getLiveCount() {
+        int count = 0;
+        for (ContextPool pool : mPools.values()) {
+            count += pool.liveCount;
+        }
+        return count;
+    }
+
+    /**
+     * 所有上下文中正在使用的FBO数量
+     */
+    public synchronized int getUsedCount() {
+        int count = 0;
+        for (ContextPool pool : mPools.values()) {
+            count += pool.usedCount;
+        }
+        return count;
+    }
+
+    /**
+     * 单个上下文中同时存活的FBO数量峰值
+     */
+    public synchronized int getPeakCount() {
+        return mPeakCount;
+    }
+
+    /**
+     * 累计创建的FBO数量
+     */
+    public synchronized int getAllocateCount() {
+        return mAllocateCount;
+    }
+
+    /**
+     * 累计复用的FBO数量
+     */
+    public synchronized int getReuseCount() {
+        return mReuseCount;
+    }
+
+    private ContextPool getContextPool(boolean create) {
+        EGLContext context = EGL14.eglGetCurrentContext();
+        ContextPool pool = mPools.get(context);
+        if (pool == null && create) {
+            pool = new ContextPool();
+            mPools.put(context, pool);
+        }
+        return pool;
+    }
+
+    private static void deleteFrameBuffer(ContextPool pool, FrameBuffer frameBuffer) {
+        GLES30.glDeleteFramebuffers(1, new int[]{ frameBuffer.mFrameBufferId }, 0);
+        GLES30.glDeleteTextures(1, new int[]{ frameBuffer.mTextureId }, 0);
+        pool.liveCount--;
+    }
+
+    private static long makeKey(int width, int height, int format) {
+        return ((long) width << 32) | ((long) (height & 0xffff) << 16) | (format & 0xffff);
+    }
+}
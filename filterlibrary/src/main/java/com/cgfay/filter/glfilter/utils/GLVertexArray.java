@@ -0,0 +1,260 @@
+package com.cgfay.filter.glfilter.utils;
+
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.GLES30;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 顶点数组对象(VAO)
+ * 顶点坐标、纹理坐标以及索引保存在GPU端的VBO中，属性指针只在创建时设置一次，绘制时只需要绑定VAO。
+ * 每次绑定时会比较传入的缓冲数据，只有数据发生变化时才重新上传；
+ * 数据第一次发生变化后改用GL_DYNAMIC_DRAW，适用于贴纸、彩妆等每帧变化的顶点。
+ * VAO属于容器对象，只能在创建它的EGLContext中使用。
+ */
+public final class GLVertexArray {
+
+    private static final int SIZEOF_FLOAT = 4;
+    private static final int SIZEOF_SHORT = 2;
+
+    // 统计数据
+    private static final AtomicLong sVertexArrayDrawCount = new AtomicLong();
+    private static final AtomicLong sClientArrayDrawCount = new AtomicLong();
+
+    private final int mPositionHandle;
+    private final int mTextureHandle;
+    private final int mCoordsPerVertex;
+
+    private int mVertexArrayId = OpenGLUtils.GL_NOT_INIT;
+    // 创建VAO的上下文
+    private EGLContext mContext;
+    private final int[] mBufferIds = new int[3];
+    private final VertexData mPositionData = new VertexData();
+    private final VertexData mTextureData = new VertexData();
+    // 索引数据
+    private short[] mIndices;
+    private int mIndexCount = -1;
+    private boolean mIndexDynamic;
+
+    // 最近一次绑定的缓冲，用于在多个VAO之间选择
+    private FloatBuffer mLastVertexBuffer;
+    private FloatBuffer mLastTextureBuffer;
+
+    /**
+     * 缓存的顶点数据
+     */
+    private static final class VertexData {
+        float[] data;
+        int count = -1;
+        boolean dynamic;
+    }
+
+    /**
+     * @param positionHandle    顶点坐标句柄，小于0时不绑定
+     * @param textureHandle     纹理坐标句柄，小于0时不绑定
+     * @param coordsPerVertex   每个顶点坐标有几个参数
+     */
+    public GLVertexArray(int positionHandle, int textureHandle, int coordsPerVertex) {
+        mPositionHandle = positionHandle;
+        mTextureHandle = textureHandle;
+        mCoordsPerVertex = coordsPerVertex;
+    }
+
+    /**
+     * 上传变化的顶点数据并绑定VAO，需要在GL线程调用
+     * @param vertexBuffer  顶点坐标缓冲
+     * @param textureBuffer 纹理坐标缓冲
+     */
+    public void bind(FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
+        if (mVertexArrayId == OpenGLUtils.GL_NOT_INIT) {
+            create();
+        }
+        GLES30.glBindVertexArray(mVertexArrayId);
+        upload(mBufferIds[0], mPositionData, vertexBuffer);
+        upload(mBufferIds[1], mTextureData, textureBuffer);
+        mLastVertexBuffer = vertexBuffer;
+        mLastTextureBuffer = textureBuffer;
+        sVertexArrayDrawCount.incrementAndGet();
+    }
+
+    /**
+     * 使用VAO中的索引缓冲绘制，需要在bind之后调用
+     * @param mode      绘制模式
+     * @param count     索引个数
+     * @param indices   索引数据
+     */
+    public void drawElements(int mode, int count, ShortBuffer indices) {
+        int length = indices.limit();
+        if (mBufferIds[2] == 0) {
+            int[] buffers = new int[1];
+            GLES30.glGenBuffers(1, buffers, 0);
+            mBufferIds[2] = buffers[0];
+        }
+        // 索引缓冲的绑定状态记录在VAO中
+        GLES30.glBindBuffer(GLES30.GL_ELEMENT_ARRAY_BUFFER, mBufferIds[2]);
+        if (mIndexCount != length || !sameIndices(indices, length)) {
+            if (mIndices == null || mIndices.length < length) {
+                mIndices = new short[length];
+            }
+            for (int i = 0; i < length; i++) {
+                mIndices[i] = indices.get(i);
+            }
+            indices.position(0);
+            if (mIndexCount == length) {
+                mIndexDynamic = true;
+                GLES30.glBufferSubData(GLES30.GL_ELEMENT_ARRAY_BUFFER, 0,
+                        length * SIZEOF_SHORT, indices);
+            } else {
+                mIndexDynamic |= mIndexCount >= 0;
+                GLES30.glBufferData(GLES30.GL_ELEMENT_ARRAY_BUFFER, length * SIZEOF_SHORT,
+                        indices, mIndexDynamic ? GLES30.GL_DYNAMIC_DRAW : GLES30.GL_STATIC_DRAW);
+            }
+            mIndexCount = length;
+        }
+        GLES30.glDrawElements(mode, count, GLES30.GL_UNSIGNED_SHORT, 0);
+    }
+
+    /**
+     * 解绑VAO
+     */
+    public void unbind() {
+        GLES30.glBindVertexArray(0);
+    }
+
+    /**
+     * 最近一次是否使用这组缓冲绑定
+     */
+    public boolean isBoundTo(FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
+        return mLastVertexBuffer == vertexBuffer && mLastTextureBuffer == textureBuffer;
+    }
+
+    /**
+     * 释放VAO和VBO，需要在创建它的GL线程调用
+     */
+    public void release() {
+        if (mVertexArrayId != OpenGLUtils.GL_NOT_INIT) {
+            GLES30.glDeleteVertexArrays(1, new int[]{ mVertexArrayId }, 0);
+            GLES30.glDeleteBuffers(mBufferIds.length, mBufferIds, 0);
+            mVertexArrayId = OpenGLUtils.GL_NOT_INIT;
+        }
+        mContext = null;
+        mBufferIds[0] = mBufferIds[1] = mBufferIds[2] = 0;
+        mPositionData.count = -1;
+        mTextureData.count = -1;
+        mIndexCount = -1;
+        mLastVertexBuffer = null;
+        mLastTextureBuffer = null;
+    }
+
+    /**
+     * 丢弃VAO和VBO，仍然在创建它的上下文中时删除，上下文已经切换时GL对象随旧的上下文一起销毁，只清空记录
+     */
+    public void discard() {
+        if (mContext != null && !mContext.equals(EGL14.eglGetCurrentContext())) {
+            mVertexArrayId = OpenGLUtils.GL_NOT_INIT;
+        }
+        release();
+    }
+
+    /**
+     * 创建VAO，并设置顶点属性指针
+     */
+    private void create() {
+        mContext = EGL14.eglGetCurrentContext();
+        int[] arrays = new int[1];
+        GLES30.glGenVertexArrays(1, arrays, 0);
+        mVertexArrayId = arrays[0];
+        int[] buffers = new int[2];
+        GLES30.glGenBuffers(2, buffers, 0);
+        mBufferIds[0] = buffers[0];
+        mBufferIds[1] = buffers[1];
+        GLES30.glBindVertexArray(mVertexArrayId);
+        if (mPositionHandle >= 0) {
+            GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, mBufferIds[0]);
+            GLES30.glVertexAttribPointer(mPositionHandle, mCoordsPerVertex,
+                    GLES30.GL_FLOAT, false, 0, 0);
+            GLES30.glEnableVertexAttribArray(mPositionHandle);
+        }
+        if (mTextureHandle >= 0) {
+            GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, mBufferIds[1]);
+            GLES30.glVertexAttribPointer(mTextureHandle, 2,
+                    GLES30.GL_FLOAT, false, 0, 0);
+            GLES30.glEnableVertexAttribArray(mTextureHandle);
+        }
+        GLES30.glBindVertexArray(0);
+        GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * 数据发生变化时上传到VBO，长度不变时使用glBufferSubData
+     */
+    private static void upload(int bufferId, VertexData vertexData, FloatBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        int length = buffer.limit();
+        if (vertexData.count == length && sameFloats(vertexData.data, buffer, length)) {
+            return;
+        }
+        if (vertexData.data == null || vertexData.data.length < length) {
+            vertexData.data = new float[length];
+        }
+        for (int i = 0; i < length; i++) {
+            vertexData.data[i] = buffer.get(i);
+        }
+        buffer.position(0);
+        GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, bufferId);
+        if (vertexData.count == length) {
+            vertexData.dynamic = true;
+            GLES30.glBufferSubData(GLES30.GL_ARRAY_BUFFER, 0, length * SIZEOF_FLOAT, buffer);
+        } else {
+            vertexData.dynamic |= vertexData.count >= 0;
+            GLES30.glBufferData(GLES30.GL_ARRAY_BUFFER, length * SIZEOF_FLOAT, buffer,
+                    vertexData.dynamic ? GLES30.GL_DYNAMIC_DRAW : GLES30.GL_STATIC_DRAW);
+        }
+        vertexData.count = length;
+        GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, 0);
+    }
+
+    private static boolean sameFloats(float[] data, FloatBuffer buffer, int length) {
+        for (int i = 0; i < length; i++) {
+            if (Float.floatToRawIntBits(data[i]) != Float.floatToRawIntBits(buffer.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean sameIndices(ShortBuffer indices, int length) {
+        for (int i = 0; i < length; i++) {
+            if (mIndices[i] != indices.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 记录一次使用客户端顶点数组的绘制
+     */
+    public static void recordClientArrayDraw() {
+        sClientArrayDrawCount.incrementAndGet();
+    }
+
+    /**
+     * 累计使用VAO绘制的次数
+     */
+    public static long getVertexArrayDrawCount() {
+        return sVertexArrayDrawCount.get();
+    }
+
+    /**
+     * 累计使用客户端顶点数组绘制的次数
+     */
+    public static long getClientArrayDrawCount() {
+        return sClientArrayDrawCount.get();
+    }
+}
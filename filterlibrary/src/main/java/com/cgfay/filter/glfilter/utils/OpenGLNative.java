@@ -0,0 +1,43 @@
+package com.cgfay.filter.glfilter.utils;
+
+import android.util.Log;
+
+/**
+ * Java层GLES绑定缺少的接口，通过JNI调用
+ */
+public final class OpenGLNative {
+
+    private static final String TAG = "OpenGLNative";
+
+    private static final boolean sLoaded;
+
+    static {
+        boolean loaded;
+        try {
+            System.loadLibrary("nativefilter");
+            loaded = true;
+        } catch (UnsatisfiedLinkError e) {
+            Log.w(TAG, "failed to load nativefilter: " + e.getMessage());
+            loaded = false;
+        }
+        sLoaded = loaded;
+    }
+
+    private OpenGLNative() {
+
+    }
+
+    /**
+     * 本地库是否加载成功
+     */
+    public static boolean isAvailable() {
+        return sLoaded;
+    }
+
+    /**
+     * 从当前绑定的GL_PIXEL_UNPACK_BUFFER上传纹理数据，需要OpenGL ES 3.0
+     * @param offset 像素数据在PBO中的偏移
+     */
+    public static native void glTexSubImage2D(int target, int level, int xoffset, int yoffset,
+                                              int width, int height, int format, int type, int offset);
+}
@@ -119,7 +119,18 @@ public class OpenGLUtils {
      * @param fragmentSource
      * @return
      */
-    public static synchronized int createProgram(String vertexSource, String fragmentSource) {
+    public static int createProgram(String vertexSource, String fragmentSource) {
+        return createProgram(vertexSource, fragmentSource, false);
+    }
+
+    /**
+     * 创建program
+     * @param vertexSource
+     * @param fragmentSource
+     * @param retrievable   链接之后是否需要通过glGetProgramBinary读取二进制数据，只支持GLES3.0
+     * @return
+     */
+    public static int createProgram(String vertexSource, String fragmentSource, boolean retrievable) {
         int vertexShader = loadShader(GLES30.GL_VERTEX_SHADER, vertexSource);
         if (vertexShader == 0) {
             return 0;
@@ -138,6 +149,9 @@ public class OpenGLUtils {
         checkGlError("glAttachShader");
         GLES30.glAttachShader(program, fragmentShader);
         checkGlError("glAttachShader");
+        if (retrievable) {
+            GLES30.glProgramParameteri(program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES30.GL_TRUE);
+        }
         GLES30.glLinkProgram(program);
         int[] linkStatus = new int[1];
         GLES30.glGetProgramiv(program, GLES30.GL_LINK_STATUS, linkStatus, 0);
@@ -256,12 +270,32 @@ public class OpenGLUtils {
      */
     public static void createFrameBuffer(int[] frameBuffer, int[] frameBufferTexture,
                                          int width, int height) {
+        createFrameBuffer(frameBuffer, frameBufferTexture, width, height, GLES30.GL_RGBA);
+    }
+
+    /**
+     * 创建指定纹理格式的Framebuffer 和 Texture
+     * @param frameBuffer
+     * @param frameBufferTexture
+     * @param width
+     * @param height
+     * @param internalFormat GL_RGBA / GL_R8 / GL_RGBA16F
+     */
+    public static void createFrameBuffer(int[] frameBuffer, int[] frameBufferTexture,
+                                         int width, int height, int internalFormat) {
+        int format = GLES30.GL_RGBA;
+        int type = GLES30.GL_UNSIGNED_BYTE;
+        if (internalFormat == GLES30.GL_R8) {
+            format = GLES30.GL_RED;
+        } else if (internalFormat == GLES30.GL_RGBA16F) {
+            type = GLES30.GL_HALF_FLOAT;
+        }
         GLES30.glGenFramebuffers(frameBuffer.length, frameBuffer, 0);
         GLES30.glGenTextures(frameBufferTexture.length, frameBufferTexture, 0);
         for (int i = 0; i < frameBufferTexture.length; i++) {
             GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, frameBufferTexture[i]);
-            GLES30.glTexImage2D(GLES30.GL_TEXTURE_2D, 0, GLES30.GL_RGBA, width, height, 0,
-                    GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, null);
+            GLES30.glTexImage2D(GLES30.GL_TEXTURE_2D, 0, internalFormat, width, height, 0,
+                    format, type, null);
             GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D,
                     GLES30.GL_TEXTURE_MAG_FILTER, GLES30.GL_LINEAR);
             GLES30.glTexParameterf(GLES30.GL_TEXTURE_2D,
@@ -518,6 +552,49 @@ public class OpenGLUtils {
         return createTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES);
     }
 
+    /**
+     * 创建三维纹理，用于三维查找表
+     * @param byteBuffer    RGB数据，每个像素3个字节
+     * @param size          边长
+     * @return
+     */
+    public static int createTexture3D(ByteBuffer byteBuffer, int size) {
+        if (byteBuffer.remaining() != size * size * size * 3) {
+            throw new RuntimeException("Illegal byte buffer");
+        }
+        int[] texture = new int[1];
+        GLES30.glGenTextures(1, texture, 0);
+        if (texture[0] == 0) {
+            Log.d(TAG,"Failed at glGenTextures");
+            return GL_NOT_TEXTURE;
+        }
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_3D, texture[0]);
+        GLES30.glTexParameterf(GLES30.GL_TEXTURE_3D, GLES30.GL_TEXTURE_MAG_FILTER, GLES30.GL_LINEAR);
+        GLES30.glTexParameterf(GLES30.GL_TEXTURE_3D, GLES30.GL_TEXTURE_MIN_FILTER, GLES30.GL_LINEAR);
+        GLES30.glTexParameterf(GLES30.GL_TEXTURE_3D, GLES30.GL_TEXTURE_WRAP_S, GLES30.GL_CLAMP_TO_EDGE);
+        GLES30.glTexParameterf(GLES30.GL_TEXTURE_3D, GLES30.GL_TEXTURE_WRAP_T, GLES30.GL_CLAMP_TO_EDGE);
+        GLES30.glTexParameterf(GLES30.GL_TEXTURE_3D, GLES30.GL_TEXTURE_WRAP_R, GLES30.GL_CLAMP_TO_EDGE);
+        // RGB每行不一定是4字节对齐
+        GLES30.glPixelStorei(GLES30.GL_UNPACK_ALIGNMENT, 1);
+        GLES30.glTexImage3D(GLES30.GL_TEXTURE_3D, 0, GLES30.GL_RGB8, size, size, size, 0,
+                GLES30.GL_RGB, GLES30.GL_UNSIGNED_BYTE, byteBuffer);
+        GLES30.glPixelStorei(GLES30.GL_UNPACK_ALIGNMENT, 4);
+        checkGlError("glTexImage3D");
+        GLES30.glBindTexture(GLES30.GL_TEXTURE_3D, 0);
+        return texture[0];
+    }
+
+    /**
+     * 当前上下文是否支持GLES3.0，需要在GL线程调用
+     * EGL上下文按GLES2创建，实际拿到的版本由驱动决定
+     * @return
+     */
+    public static boolean isGLES3Supported() {
+        String version = GLES30.glGetString(GLES30.GL_VERSION);
+        return version != null && version.startsWith("OpenGL ES ")
+                && version.length() > 10 && version.charAt(10) >= '3';
+    }
+
     /**
      * 删除纹理
      * @param texture
@@ -0,0 +1,221 @@
+package com.cgfay.filter.glfilter.utils;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * program二进制文件缓存
+ * 每个驱动一个子目录，目录名为驱动信息的哈希，驱动升级后旧目录整体删除；
+ * 文件名为(顶点shader, 片元shader)源码的哈希，文件头记录二进制格式、长度和CRC，数据损坏时直接丢弃。
+ * 纯Java实现，可以在JVM上测试。
+ */
+public final class ProgramBinaryStore {
+
+    // 文件头："PGMB"
+    static final int MAGIC = 0x50474D42;
+    static final int VERSION = 1;
+    // magic、version、format、length、crc各4字节
+    static final int HEADER_SIZE = 20;
+
+    private static final String SUFFIX = ".bin";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * program二进制数据
+     */
+    public static final class Binary {
+        // glGetProgramBinary返回的格式
+        public final int format;
+        // 二进制数据，direct buffer
+        public final ByteBuffer data;
+
+        Binary(int format, ByteBuffer data) {
+            this.format = format;
+            this.data = data;
+        }
+    }
+
+    private final File mRootDir;
+    private final File mDir;
+
+    /**
+     * @param rootDir   缓存根目录
+     * @param driver    驱动信息，包括厂商、渲染器和版本
+     */
+    public ProgramBinaryStore(File rootDir, String driver) {
+        mRootDir = rootDir;
+        mDir = new File(rootDir, sha1(driver).substring(0, 16));
+    }
+
+    /**
+     * 计算shader源码的哈希，作为缓存的key
+     */
+    public static String hashKey(String vertexSource, String fragmentSource) {
+        return sha1(vertexSource + '\0' + fragmentSource);
+    }
+
+    /**
+     * 删除其他驱动留下的缓存
+     */
+    public void trimStale() {
+        File[] files = mRootDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.equals(mDir)) {
+                delete(file);
+            }
+        }
+    }
+
+    /**
+     * 读取缓存
+     * @param key hashKey计算得到的key
+     * @return 不存在或者数据不完整时返回null，不完整的文件会被删除
+     */
+    public Binary read(String key) {
+        File file = getFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = input.getChannel();
+                long size = channel.size();
+                if (size > HEADER_SIZE && size <= Integer.MAX_VALUE) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                    readFully(channel, header);
+                    header.flip();
+                    int magic = header.getInt();
+                    int version = header.getInt();
+                    int format = header.getInt();
+                    int length = header.getInt();
+                    int crc = header.getInt();
+                    if (magic == MAGIC && version == VERSION && length == size - HEADER_SIZE) {
+                        ByteBuffer data = ByteBuffer.allocateDirect(length);
+                        readFully(channel, data);
+                        data.flip();
+                        if (crc32(data) == crc) {
+                            return new Binary(format, data);
+                        }
+                    }
+                }
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            // 读取失败按缓存不存在处理
+        }
+        file.delete();
+        return null;
+    }
+
+    /**
+     * 写入缓存，先写临时文件再重命名，同时写入时后完成的覆盖先完成的
+     * @param key       hashKey计算得到的key
+     * @param format    二进制格式
+     * @param data      二进制数据，从position读到limit
+     */
+    public void write(String key, int format, ByteBuffer data) throws IOException {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IOException("failed to create " + mDir);
+        }
+        ByteBuffer source = data.duplicate();
+        int length = source.remaining();
+        byte[] bytes = new byte[length];
+        source.get(bytes);
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, 0, length);
+
+        File file = getFile(key);
+        // 渲染线程和加载线程可能同时写同一个key，每次写入使用单独的临时文件
+        File temp = File.createTempFile(key, ".tmp", mDir);
+        boolean written = false;
+        DataOutputStream output = new DataOutputStream(new FileOutputStream(temp));
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(format);
+            output.writeInt(length);
+            output.writeInt((int) crc32.getValue());
+            output.write(bytes);
+            written = true;
+        } finally {
+            output.close();
+            if (!written) {
+                temp.delete();
+            }
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("failed to rename " + temp);
+        }
+    }
+
+    /**
+     * 删除缓存，驱动拒绝加载时调用
+     */
+    public void remove(String key) {
+        getFile(key).delete();
+    }
+
+    File getFile(String key) {
+        return new File(mDir, key + SUFFIX);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("unexpected end of file");
+            }
+        }
+    }
+
+    private static int crc32(ByteBuffer data) {
+        ByteBuffer source = data.duplicate();
+        byte[] bytes = new byte[Math.min(source.remaining(), 8192)];
+        CRC32 crc32 = new CRC32();
+        while (source.hasRemaining()) {
+            int count = Math.min(bytes.length, source.remaining());
+            source.get(bytes, 0, count);
+            crc32.update(bytes, 0, count);
+        }
+        return (int) crc32.getValue();
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static String sha1(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(value.getBytes(UTF_8));
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16))
+                        .append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
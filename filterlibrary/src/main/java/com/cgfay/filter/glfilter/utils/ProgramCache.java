@@ -0,0 +1,383 @@
+package com.cgfay.filter.glfilter.utils;
+
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * program缓存
+ * 按(顶点shader, 片元shader)源码缓存链接好的program，相同shader的滤镜通过引用计数共享同一个program，
+ * 引用计数为0之后保留少量空闲program，切换回来的滤镜不需要重新编译。
+ * 设置了缓存目录并且支持GLES3.0 时，编译结果通过glGetProgramBinary保存到磁盘，下次启动直接用glProgramBinary加载，
+ * 驱动变化或者驱动拒绝加载时自动丢弃旧的缓存。
+ * program属于共享对象，但无法判断上下文之间是否共享，因此每个EGLContext单独维护一份缓存，
+ * 通过onContextShared声明共享关系的上下文使用同一份缓存。
+ */
+public final class ProgramCache {
+
+    private static final String TAG = "ProgramCache";
+
+    // 每个上下文最多保留的空闲program数量，超出时删除最久未使用的
+    private static final int MAX_IDLE_PER_CONTEXT = 8;
+
+    private static final ProgramCache sInstance = new ProgramCache();
+
+    public static ProgramCache getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * 共享的program
+     */
+    public static final class Program {
+        final String mKey;
+        final int mProgramId;
+        int mRefCount;
+        // 最近一次使用该program的对象，只在渲染线程访问
+        private Object mUser;
+
+        Program(String key, int programId) {
+            mKey = key;
+            mProgramId = programId;
+        }
+
+        public int getProgramId() {
+            return mProgramId;
+        }
+
+        /**
+         * 在glUseProgram之后调用，记录当前使用者
+         * @param user 使用者
+         * @return 上一次由其他对象使用时返回true，统一变量可能已被修改，需要全部重新提交
+         */
+        public boolean use(Object user) {
+            if (mUser == user) {
+                return false;
+            }
+            mUser = user;
+            return true;
+        }
+    }
+
+    /**
+     * 单个EGLContext的缓存
+     */
+    private static final class ContextCache {
+        // 正在使用的program
+        final Map<String, Program> usedPrograms = new HashMap<>();
+        // 空闲的program，按访问顺序排列
+        final LinkedHashMap<String, Program> idlePrograms = new LinkedHashMap<>(16, 0.75f, true);
+        // 磁盘缓存，不支持时为null
+        ProgramBinaryStore binaryStore;
+        boolean binaryStoreResolved;
+    }
+
+    private final Map<EGLContext, ContextCache> mCaches = new HashMap<>();
+    // 共享上下文到其主上下文的映射
+    private final Map<EGLContext, EGLContext> mSharedContexts = new HashMap<>();
+    // 磁盘缓存目录
+    private File mCacheDir;
+
+    // 统计数据
+    private int mHitCount;
+    private int mBinaryHitCount;
+    private int mMissCount;
+    private long mCompileTime;
+    private long mBinaryLoadTime;
+
+    private ProgramCache() {
+
+    }
+
+    /**
+     * 设置磁盘缓存目录，为null时只使用内存缓存
+     * @param cacheDir
+     */
+    public synchronized void setCacheDir(File cacheDir) {
+        mCacheDir = cacheDir;
+        for (ContextCache cache : mCaches.values()) {
+            cache.binaryStore = null;
+            cache.binaryStoreResolved = false;
+        }
+    }
+
+    /**
+     * 获取program，优先复用已链接的program，其次从磁盘缓存加载，最后从源码编译
+     * 编译过程不持有锁，不同线程的上下文可以同时编译
+     * @param vertexSource      顶点shader
+     * @param fragmentSource    片元shader
+     * @return 编译失败时返回null
+     */
+    public Program acquire(String vertexSource, String fragmentSource) {
+        String key = vertexSource + '\0' + fragmentSource;
+        ProgramBinaryStore binaryStore;
+        synchronized (this) {
+            ContextCache cache = getContextCache(true);
+            Program program = obtainCached(cache, key);
+            if (program != null) {
+                mHitCount++;
+                return program;
+            }
+            binaryStore = getBinaryStore(cache);
+        }
+
+        int programId = loadProgram(binaryStore, vertexSource, fragmentSource);
+        if (programId == 0) {
+            return null;
+        }
+
+        synchronized (this) {
+            ContextCache cache = getContextCache(true);
+            Program program = obtainCached(cache, key);
+            if (program != null) {
+                // 编译期间被其他滤镜抢先放入缓存
+                GLES30.glDeleteProgram(programId);
+                return program;
+            }
+            program = new Program(key, programId);
+            program.mRefCount = 1;
+            cache.usedPrograms.put(key, program);
+            return program;
+        }
+    }
+
+    /**
+     * 增加引用
+     * @param program
+     */
+    public synchronized void retain(Program program) {
+        if (program != null) {
+            program.mRefCount++;
+        }
+    }
+
+    /**
+     * 释放program，引用计数为0时放入空闲列表
+     * @param program
+     */
+    public synchronized void release(Program program) {
+        if (program == null || program.mRefCount <= 0) {
+            return;
+        }
+        if (--program.mRefCount > 0) {
+            return;
+        }
+        ContextCache cache = getContextCache(false);
+        if (cache == null || cache.usedPrograms.get(program.mKey) != program) {
+            // 上下文已经销毁，或者不是当前上下文的program
+            return;
+        }
+        cache.usedPrograms.remove(program.mKey);
+        cache.idlePrograms.put(program.mKey, program);
+        if (cache.idlePrograms.size() > MAX_IDLE_PER_CONTEXT) {
+            Iterator<Program> iterator = cache.idlePrograms.values().iterator();
+            Program eldest = iterator.next();
+            iterator.remove();
+            GLES30.glDeleteProgram(eldest.mProgramId);
+        }
+    }
+
+    /**
+     * 删除当前上下文中所有空闲的program
+     */
+    public synchronized void trim() {
+        ContextCache cache = getContextCache(false);
+        if (cache == null) {
+            return;
+        }
+        for (Program program : cache.idlePrograms.values()) {
+            GLES30.glDeleteProgram(program.mProgramId);
+        }
+        cache.idlePrograms.clear();
+    }
+
+    /**
+     * 声明context与sharedContext共享对象，context中创建的program放入sharedContext的缓存，
+     * 用于在加载线程的共享上下文中预先编译program
+     * @param context       共享上下文
+     * @param sharedContext 主上下文
+     */
+    public synchronized void onContextShared(EGLContext context, EGLContext sharedContext) {
+        EGLContext root = mSharedContexts.get(sharedContext);
+        mSharedContexts.put(context, root != null ? root : sharedContext);
+    }
+
+    /**
+     * 上下文销毁时调用，丢弃该上下文的缓存记录，GL对象随上下文一起释放
+     * 共享上下文销毁时只移除共享关系，program仍然属于主上下文
+     * @param context
+     */
+    public synchronized void onContextDestroyed(EGLContext context) {
+        if (mSharedContexts.remove(context) != null) {
+            return;
+        }
+        Iterator<EGLContext> iterator = mSharedContexts.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().equals(context)) {
+                iterator.remove();
+            }
+        }
+        ContextCache cache = mCaches.remove(context);
+        if (cache != null && !cache.usedPrograms.isEmpty()) {
+            Log.w(TAG, "context destroyed with " + cache.usedPrograms.size() + " program(s) still in use");
+        }
+    }
+
+    /**
+     * 内存缓存命中次数
+     */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * 磁盘缓存命中次数
+     */
+    public synchronized int getBinaryHitCount() {
+        return mBinaryHitCount;
+    }
+
+    /**
+     * 从源码编译的次数
+     */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * 累计编译耗时(纳秒)
+     */
+    public synchronized long getCompileTime() {
+        return mCompileTime;
+    }
+
+    /**
+     * 累计从磁盘缓存加载的耗时(纳秒)
+     */
+    public synchronized long getBinaryLoadTime() {
+        return mBinaryLoadTime;
+    }
+
+    private static Program obtainCached(ContextCache cache, String key) {
+        Program program = cache.usedPrograms.get(key);
+        if (program == null) {
+            program = cache.idlePrograms.remove(key);
+            if (program != null) {
+                cache.usedPrograms.put(key, program);
+            }
+        }
+        if (program != null) {
+            program.mRefCount++;
+        }
+        return program;
+    }
+
+    /**
+     * 加载program，需要在GL线程调用
+     */
+    private int loadProgram(ProgramBinaryStore binaryStore, String vertexSource, String fragmentSource) {
+        String hash = null;
+        if (binaryStore != null) {
+            hash = ProgramBinaryStore.hashKey(vertexSource, fragmentSource);
+            long start = System.nanoTime();
+            ProgramBinaryStore.Binary binary = binaryStore.read(hash);
+            if (binary != null) {
+                int programId = GLES30.glCreateProgram();
+                GLES30.glProgramBinary(programId, binary.format, binary.data, binary.data.remaining());
+                int[] linkStatus = new int[1];
+                GLES30.glGetProgramiv(programId, GLES30.GL_LINK_STATUS, linkStatus, 0);
+                if (linkStatus[0] == GLES30.GL_TRUE) {
+                    synchronized (this) {
+                        mBinaryHitCount++;
+                        mBinaryLoadTime += System.nanoTime() - start;
+                    }
+                    return programId;
+                }
+                // 驱动拒绝加载，丢弃缓存重新编译
+                Log.w(TAG, "loadProgram: stale program binary " + hash);
+                GLES30.glDeleteProgram(programId);
+                binaryStore.remove(hash);
+            }
+        }
+
+        long start = System.nanoTime();
+        int programId = OpenGLUtils.createProgram(vertexSource, fragmentSource, binaryStore != null);
+        synchronized (this) {
+            mMissCount++;
+            mCompileTime += System.nanoTime() - start;
+        }
+        if (programId != 0 && binaryStore != null) {
+            saveProgramBinary(binaryStore, hash, programId);
+        }
+        return programId;
+    }
+
+    /**
+     * 保存program二进制数据，失败不影响program的使用
+     */
+    private static void saveProgramBinary(ProgramBinaryStore binaryStore, String hash, int programId) {
+        int[] values = new int[2];
+        GLES30.glGetProgramiv(programId, GLES30.GL_PROGRAM_BINARY_LENGTH, values, 0);
+        if (values[0] <= 0) {
+            return;
+        }
+        ByteBuffer data = ByteBuffer.allocateDirect(values[0]);
+        GLES30.glGetProgramBinary(programId, values[0], values, 0, values, 1, data);
+        if (values[0] <= 0) {
+            return;
+        }
+        data.limit(values[0]);
+        try {
+            binaryStore.write(hash, values[1], data);
+        } catch (IOException e) {
+            Log.w(TAG, "saveProgramBinary: ", e);
+        }
+    }
+
+    private ContextCache getContextCache(boolean create) {
+        EGLContext context = EGL14.eglGetCurrentContext();
+        EGLContext sharedContext = mSharedContexts.get(context);
+        if (sharedContext != null) {
+            context = sharedContext;
+        }
+        ContextCache cache = mCaches.get(context);
+        if (cache == null && create) {
+            cache = new ContextCache();
+            mCaches.put(context, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * 获取磁盘缓存，需要GLES3.0 并且驱动至少支持一种二进制格式
+     */
+    private ProgramBinaryStore getBinaryStore(ContextCache cache) {
+        if (cache.binaryStoreResolved) {
+            return cache.binaryStore;
+        }
+        cache.binaryStoreResolved = true;
+        if (mCacheDir == null || !OpenGLUtils.isGLES3Supported()) {
+            return null;
+        }
+        int[] formatCount = new int[1];
+        GLES30.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formatCount, 0);
+        if (formatCount[0] <= 0) {
+            return null;
+        }
+        String driver = GLES30.glGetString(GLES30.GL_VENDOR)
+                + "/" + GLES30.glGetString(GLES30.GL_RENDERER)
+                + "/" + GLES30.glGetString(GLES30.GL_VERSION);
+        cache.binaryStore = new ProgramBinaryStore(mCacheDir, driver);
+        cache.binaryStore.trimStale();
+        return cache.binaryStore;
+    }
+}
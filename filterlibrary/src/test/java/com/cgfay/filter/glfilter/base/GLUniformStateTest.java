@@ -0,0 +1,188 @@
+package com.cgfay.filter.glfilter.base;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.*;
+
+/**
+ * 统一变量状态测试
+ */
+public class GLUniformStateTest {
+
+    /**
+     * 记录提交次数和最后一次提交的值
+     */
+    private static class RecordUploader implements GLUniformState.Uploader {
+        int uploadCount;
+        int lastLocation = -1;
+        float lastFloat;
+        int lastInt;
+        float[] lastArray = new float[16];
+
+        @Override
+        public void uniform1i(int location, int value) {
+            uploadCount++;
+            lastLocation = location;
+            lastInt = value;
+        }
+
+        @Override
+        public void uniform1f(int location, float value) {
+            uploadCount++;
+            lastLocation = location;
+            lastFloat = value;
+        }
+
+        @Override
+        public void uniform2fv(int location, float[] value) {
+            record(location, value, 2);
+        }
+
+        @Override
+        public void uniform3fv(int location, float[] value) {
+            record(location, value, 3);
+        }
+
+        @Override
+        public void uniform4fv(int location, float[] value) {
+            record(location, value, 4);
+        }
+
+        @Override
+        public void uniform1fv(int location, int count, float[] value) {
+            record(location, value, count);
+        }
+
+        @Override
+        public void uniformMatrix3fv(int location, float[] value) {
+            record(location, value, 9);
+        }
+
+        @Override
+        public void uniformMatrix4fv(int location, float[] value) {
+            record(location, value, 16);
+        }
+
+        private void record(int location, float[] value, int count) {
+            uploadCount++;
+            lastLocation = location;
+            System.arraycopy(value, 0, lastArray, 0, count);
+        }
+    }
+
+    @Test
+    public void flushUploadsLatestValueOnce() {
+        RecordUploader uploader = new RecordUploader();
+        GLUniformState state = new GLUniformState(uploader);
+        state.setFloat(3, 0.25f);
+        state.setFloat(3, 0.75f);
+        assertTrue(state.isDirty());
+        state.flush();
+        assertEquals(1, uploader.uploadCount);
+        assertEquals(3, uploader.lastLocation);
+        assertEquals(0.75f, uploader.lastFloat, 0.0f);
+        assertFalse(state.isDirty());
+
+        // 没有变化时不再提交
+        state.flush();
+        assertEquals(1, uploader.uploadCount);
+    }
+
+    @Test
+    public void arrayValuesAreCopied() {
+        RecordUploader uploader = new RecordUploader();
+        GLUniformState state = new GLUniformState(uploader);
+        float[] value = new float[] {1.0f, 2.0f, 3.0f};
+        state.setFloats(5, GLUniformState.TYPE_VEC3, value, 3);
+        value[0] = 9.0f;
+        state.flush();
+        assertEquals(1.0f, uploader.lastArray[0], 0.0f);
+        assertEquals(3.0f, uploader.lastArray[2], 0.0f);
+    }
+
+    @Test
+    public void invalidLocationIsIgnored() {
+        RecordUploader uploader = new RecordUploader();
+        GLUniformState state = new GLUniformState(uploader);
+        state.setInt(-1, 1);
+        assertFalse(state.isDirty());
+        state.flush();
+        assertEquals(0, uploader.uploadCount);
+    }
+
+    @Test
+    public void manyLocationsGrowStorage() {
+        RecordUploader uploader = new RecordUploader();
+        GLUniformState state = new GLUniformState(uploader);
+        for (int i = 0; i < 40; i++) {
+            state.setInt(i, i);
+        }
+        state.flush();
+        assertEquals(40, uploader.uploadCount);
+        assertEquals(39, uploader.lastInt);
+    }
+
+    @Test
+    public void markAllDirtyUploadsEverythingAgain() {
+        RecordUploader uploader = new RecordUploader();
+        GLUniformState state = new GLUniformState(uploader);
+        state.setInt(1, 7);
+        state.setFloat(2, 0.5f);
+        state.flush();
+        assertEquals(2, uploader.uploadCount);
+
+        // program被其他滤镜使用之后，所有值都要重新提交
+        state.markAllDirty();
+        assertTrue(state.isDirty());
+        state.flush();
+        assertEquals(4, uploader.uploadCount);
+        assertFalse(state.isDirty());
+    }
+
+    @Test
+    public void steadyStateDoesNotAllocate() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        RecordUploader uploader = new RecordUploader();
+        GLUniformState state = new GLUniformState(uploader);
+        float[] vec2 = new float[2];
+        float[] matrix = new float[16];
+        float[] intensity = new float[12];
+        // 预热，首次设置每个句柄时会分配存储空间
+        for (int i = 0; i < 20000; i++) {
+            runFrame(state, vec2, matrix, intensity, i);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100000; i++) {
+            runFrame(state, vec2, matrix, intensity, i);
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+        // 允许测量本身带来的少量误差
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static void runFrame(GLUniformState state, float[] vec2, float[] matrix,
+                                 float[] intensity, int frame) {
+        vec2[0] = frame;
+        vec2[1] = -frame;
+        matrix[0] = frame;
+        intensity[frame % intensity.length] = frame;
+        state.setFloat(1, frame * 0.5f);
+        state.setInt(2, frame);
+        state.setFloat2(3, frame, frame);
+        state.setFloats(4, GLUniformState.TYPE_VEC2, vec2, 2);
+        state.setFloats(5, GLUniformState.TYPE_MAT4, matrix, 16);
+        state.setFloats(6, GLUniformState.TYPE_FLOAT_ARRAY, intensity, intensity.length);
+        state.flush();
+    }
+}
@@ -0,0 +1,124 @@
+package com.cgfay.filter.glfilter.base;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 线性采样高斯核测试
+ */
+public class GaussianKernelTest {
+
+    private static float sample(float[] signal, int index) {
+        return signal[Math.max(0, Math.min(index, signal.length - 1))];
+    }
+
+    /**
+     * 模拟GL_LINEAR + GL_CLAMP_TO_EDGE的一维纹理读取，position以纹素中心为整数
+     */
+    private static float linearSample(float[] signal, float position) {
+        int floor = (int) Math.floor(position);
+        float fraction = position - floor;
+        return sample(signal, floor) * (1 - fraction) + sample(signal, floor + 1) * fraction;
+    }
+
+    /**
+     * 使用离散权重的参考卷积
+     */
+    private static float referenceConvolve(float[] signal, int x, float[] weights) {
+        float sum = weights[0] * sample(signal, x);
+        for (int k = 1; k < weights.length; k++) {
+            sum += weights[k] * (sample(signal, x - k) + sample(signal, x + k));
+        }
+        return sum;
+    }
+
+    /**
+     * 使用线性采样偏移和权重的卷积
+     */
+    private static float linearConvolve(float[] signal, int x, GaussianKernel kernel) {
+        float[] offsets = kernel.getOffsets();
+        float[] weights = kernel.getWeights();
+        float sum = weights[0] * sample(signal, x);
+        for (int i = 1; i < offsets.length; i++) {
+            sum += weights[i] * (linearSample(signal, x - offsets[i]) + linearSample(signal, x + offsets[i]));
+        }
+        return sum;
+    }
+
+    @Test
+    public void discreteWeightsAreNormalized() {
+        for (int radius = 1; radius <= GaussianKernel.MAX_RADIUS; radius++) {
+            float[] weights = GaussianKernel.discreteWeights(radius, radius / 3.0f + 0.5f);
+            float sum = weights[0];
+            for (int i = 1; i < weights.length; i++) {
+                sum += weights[i] * 2;
+                assertTrue(weights[i] <= weights[i - 1]);
+            }
+            assertEquals(1.0f, sum, 1e-5f);
+        }
+    }
+
+    @Test
+    public void linearSamplingMatchesReferenceConvolution() {
+        Random random = new Random(42);
+        float[] signal = new float[97];
+        for (int i = 0; i < signal.length; i++) {
+            signal[i] = random.nextFloat();
+        }
+        for (int radius = 1; radius <= GaussianKernel.MAX_RADIUS; radius++) {
+            GaussianKernel kernel = GaussianKernel.obtain(radius);
+            float[] weights = kernel.getDiscreteWeights();
+            for (int x = 0; x < signal.length; x++) {
+                assertEquals("radius " + radius + ", x " + x,
+                        referenceConvolve(signal, x, weights), linearConvolve(signal, x, kernel), 1e-5f);
+            }
+        }
+    }
+
+    @Test
+    public void linearSamplingHalvesTextureReads() {
+        for (int radius = 1; radius <= GaussianKernel.MAX_RADIUS; radius++) {
+            GaussianKernel kernel = GaussianKernel.obtain(radius);
+            assertEquals((radius + 1) / 2, kernel.getSampleCount());
+            // 偏移位于合并的两个纹素之间
+            float[] offsets = kernel.getOffsets();
+            for (int i = 1; i < offsets.length; i++) {
+                assertTrue(offsets[i] >= 2 * i - 1 && offsets[i] <= 2 * i);
+            }
+        }
+    }
+
+    @Test
+    public void customSigmaIsUsed() {
+        GaussianKernel kernel = GaussianKernel.create(6, 4.0f);
+        assertEquals(4.0f, kernel.getSigma(), 0);
+        assertNotSame(kernel, GaussianKernel.obtain(6));
+        float[] reference = GaussianKernel.discreteWeights(6, 4.0f);
+        assertArrayEquals(reference, kernel.getDiscreteWeights(), 0);
+    }
+
+    @Test
+    public void radiusIsClamped() {
+        assertEquals(1, GaussianKernel.obtain(0).getRadius());
+        assertEquals(GaussianKernel.MAX_RADIUS, GaussianKernel.obtain(100).getRadius());
+        assertSame(GaussianKernel.obtain(5), GaussianKernel.obtain(5));
+    }
+
+    @Test
+    public void shadersAreCachedPerRadiusAndDirection() {
+        String[] horizontal = GaussianKernel.obtainShaders(4, GaussianKernel.DIRECTION_HORIZONTAL);
+        String[] vertical = GaussianKernel.obtainShaders(4, GaussianKernel.DIRECTION_VERTICAL);
+        assertSame(horizontal, GaussianKernel.obtainShaders(4, GaussianKernel.DIRECTION_HORIZONTAL));
+        assertNotSame(horizontal, vertical);
+        assertTrue(horizontal[0].contains("vec2(texelWidthOffset, 0.0)"));
+        assertTrue(vertical[0].contains("vec2(0.0, texelHeightOffset)"));
+        // 半径4需要2对采样坐标
+        assertTrue(horizontal[0].contains("varying vec4 blurCoordinates[2];"));
+        assertTrue(horizontal[1].contains("blurCoordinates[1].zw"));
+        assertFalse(horizontal[1].contains("blurCoordinates[2]."));
+        assertNotSame(horizontal, GaussianKernel.obtainShaders(6, GaussianKernel.DIRECTION_HORIZONTAL));
+    }
+}
@@ -0,0 +1,132 @@
+package com.cgfay.filter.glfilter.base;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * 三维查找表转换和缓存测试
+ */
+public class LutCubeTest {
+
+    /**
+     * 生成按方格平铺的查找表像素，每个格子的颜色由(r, g, b)唯一确定
+     */
+    private static int[] createPixels(int width, int size) {
+        int tiles = width / size;
+        int[] pixels = new int[width * width];
+        for (int y = 0; y < width; y++) {
+            for (int x = 0; x < width; x++) {
+                int b = (y / size) * tiles + x / size;
+                int g = y % size;
+                int r = x % size;
+                pixels[y * width + x] = 0xFF000000 | encode(r, g, b, size);
+            }
+        }
+        return pixels;
+    }
+
+    private static int encode(int r, int g, int b, int size) {
+        return (r * 255 / (size - 1)) << 16 | (g * 255 / (size - 1)) << 8 | (b * 255 / (size - 1));
+    }
+
+    private static void assertCube(LutCube cube, int size) {
+        assertEquals(size, cube.getSize());
+        assertEquals(size * size * size * 3, cube.getData().remaining());
+        for (int b = 0; b < size; b++) {
+            for (int g = 0; g < size; g++) {
+                for (int r = 0; r < size; r++) {
+                    assertEquals(encode(r, g, b, size), cube.getColor(r, g, b));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void detectSize() {
+        assertEquals(64, LutCube.detectSize(512, 512));
+        assertEquals(16, LutCube.detectSize(64, 64));
+        assertEquals(0, LutCube.detectSize(512, 256));
+        assertEquals(0, LutCube.detectSize(100, 100));
+        assertEquals(0, LutCube.detectSize(1, 1));
+    }
+
+    @Test
+    public void convert512() {
+        assertCube(LutCube.fromPixels(createPixels(512, 64), 512, 512), 64);
+    }
+
+    @Test
+    public void convert64() {
+        assertCube(LutCube.fromPixels(createPixels(64, 16), 64, 64), 16);
+    }
+
+    @Test
+    public void rejectUnsupportedSize() {
+        try {
+            LutCube.fromPixels(new int[100 * 100], 100, 100);
+            fail("100x100 is not a lookup table");
+        } catch (IllegalArgumentException e) {
+            // 预期
+        }
+    }
+
+    @Test
+    public void writeAndLoad() throws IOException {
+        File file = File.createTempFile("lookup", LutCube.CACHE_SUFFIX);
+        try {
+            LutCube cube = LutCube.fromPixels(createPixels(512, 64), 512, 512);
+            cube.write(file, 1234, 5678);
+            assertEquals(LutCube.HEADER_SIZE + 64 * 64 * 64 * 3, file.length());
+
+            LutCube loaded = LutCube.load(file, 1234, 5678);
+            assertNotNull(loaded);
+            assertTrue(loaded.getData().isDirect());
+            assertCube(loaded, 64);
+            assertEquals(cube.getData(), loaded.getData());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void rejectStaleOrBrokenCache() throws IOException {
+        File file = File.createTempFile("lookup", LutCube.CACHE_SUFFIX);
+        try {
+            LutCube.fromPixels(createPixels(64, 16), 64, 64).write(file, 1234, 5678);
+            // 源文件发生变化
+            assertNull(LutCube.load(file, 1235, 5678));
+            assertNull(LutCube.load(file, 1234, 5679));
+            assertNotNull(LutCube.load(file, 1234, 5678));
+
+            // 数据不完整
+            RandomAccessFile output = new RandomAccessFile(file, "rw");
+            output.setLength(file.length() - 1);
+            output.close();
+            assertNull(LutCube.load(file, 1234, 5678));
+
+            // 文件头不对
+            output = new RandomAccessFile(file, "rw");
+            output.writeInt(0);
+            output.close();
+            assertNull(LutCube.load(file, 1234, 5678));
+
+            assertNull(LutCube.load(new File(file.getPath() + ".missing"), 1234, 5678));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void dataIsIndependentPerCall() {
+        LutCube cube = LutCube.fromPixels(createPixels(64, 16), 64, 64);
+        ByteBuffer first = cube.getData();
+        first.position(first.limit());
+        assertEquals(0, cube.getData().position());
+    }
+}
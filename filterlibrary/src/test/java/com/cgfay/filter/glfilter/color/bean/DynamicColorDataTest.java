@@ -0,0 +1,43 @@
+package com.cgfay.filter.glfilter.color.bean;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 颜色滤镜数据测试
+ */
+public class DynamicColorDataTest {
+
+    private static DynamicColorData createLookupTable() {
+        DynamicColorData data = new DynamicColorData();
+        data.uniformList.add(DynamicColorData.LOOKUP_TEXTURE);
+        data.uniformDataList.add(new DynamicColorBaseData.UniformData(DynamicColorData.LOOKUP_TEXTURE, "lut.png"));
+        return data;
+    }
+
+    @Test
+    public void singleLookupTextureIsLookupTable() {
+        assertTrue(createLookupTable().isLookupTable());
+    }
+
+    @Test
+    public void otherTexturesAreNotLookupTable() {
+        DynamicColorData data = createLookupTable();
+        data.uniformList.add("maskTexture");
+        data.uniformDataList.add(new DynamicColorBaseData.UniformData("maskTexture", "mask.png"));
+        assertFalse(data.isLookupTable());
+
+        DynamicColorData curve = new DynamicColorData();
+        curve.uniformList.add("curveTexture");
+        curve.uniformDataList.add(new DynamicColorBaseData.UniformData("curveTexture", "curve.png"));
+        assertFalse(curve.isLookupTable());
+    }
+
+    @Test
+    public void texelOffsetIsNotLookupTable() {
+        DynamicColorData data = createLookupTable();
+        data.texelOffset = true;
+        assertFalse(data.isLookupTable());
+    }
+}
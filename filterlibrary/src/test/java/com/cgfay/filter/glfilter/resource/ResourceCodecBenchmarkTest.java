@@ -0,0 +1,173 @@
+package com.cgfay.filter.glfilter.resource;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 资源数据文件加载测试
+ * 默认生成几MB的数据文件，校验内存映射和整体读入两种方式读取的内容。
+ * 通过 -Dresource.benchmark.mb 指定数据大小时才测试大文件，并对比两种方式的打开耗时和内存增长。
+ * 在Android上allocateDirect的缓冲位于Java堆中，因此这里把堆内存和direct内存合计作为内存增长。
+ */
+public class ResourceCodecBenchmarkTest {
+
+    private static final int MB = 1024 * 1024;
+    // 数据大小(MB)
+    private static final String PROPERTY_SIZE = "resource.benchmark.mb";
+    private static final int DEFAULT_SIZE_MB = 4;
+    // 单个资源大小
+    private static final int ENTRY_SIZE = 64 * 1024;
+
+    private File mDataFile;
+    private int mDataSize;
+
+    @Before
+    public void setUp() throws IOException {
+        int sizeMb = Integer.getInteger(PROPERTY_SIZE, DEFAULT_SIZE_MB);
+        mDataSize = sizeMb * MB;
+        mDataFile = File.createTempFile("resource", ".res");
+        Assume.assumeTrue("not enough disk space",
+                mDataFile.getParentFile().getUsableSpace() > 2L * mDataSize);
+        generatePack(mDataFile, mDataSize);
+    }
+
+    @After
+    public void tearDown() {
+        if (mDataFile != null) {
+            mDataFile.delete();
+        }
+    }
+
+    @Test
+    public void mappedSlicesMatchFileContent() throws IOException {
+        ByteBuffer mapped = ResourceCodec.loadDataBuffer(mDataFile, true);
+        assertEquals(mDataSize, mapped.capacity());
+        int[] entries = { 0, 1, mDataSize / ENTRY_SIZE / 2, mDataSize / ENTRY_SIZE - 1 };
+        byte[] bytes = new byte[ENTRY_SIZE];
+        for (int entry : entries) {
+            ByteBufferInputStream stream = new ByteBufferInputStream(mapped, entry * ENTRY_SIZE, ENTRY_SIZE);
+            int total = 0;
+            int length;
+            while ((length = stream.read(bytes, total, bytes.length - total)) > 0) {
+                total += length;
+            }
+            assertEquals(ENTRY_SIZE, total);
+            assertEquals(-1, stream.read());
+            for (int i = 0; i < ENTRY_SIZE; i += 4099) {
+                assertEquals(expectedByte(entry, i), bytes[i]);
+            }
+        }
+        // 切片读取不影响原缓冲
+        assertEquals(0, mapped.position());
+    }
+
+    @Test
+    public void mappedAndHeapBuffersMatch() throws IOException {
+        ByteBuffer mapped = ResourceCodec.loadDataBuffer(mDataFile, true);
+        ByteBuffer heap = ResourceCodec.loadDataBuffer(mDataFile, false);
+        assertEquals(heap.capacity(), mapped.capacity());
+        // 读入缓存后position位于末尾，按绝对位置比较全部内容
+        ByteBuffer heapContent = heap.duplicate();
+        heapContent.position(0);
+        ByteBuffer mappedContent = mapped.duplicate();
+        mappedContent.position(0);
+        assertEquals(heapContent, mappedContent);
+    }
+
+    @Test
+    public void largePackBenchmark() throws IOException {
+        // 大文件只在指定 -Dresource.benchmark.mb 时测试
+        Assume.assumeTrue(System.getProperty(PROPERTY_SIZE) != null);
+        // 预热
+        ResourceCodec.loadDataBuffer(mDataFile, true);
+
+        long mappedMemory = residentMemory();
+        long start = System.nanoTime();
+        ByteBuffer mapped = ResourceCodec.loadDataBuffer(mDataFile, true);
+        long mappedTime = System.nanoTime() - start;
+        mappedMemory = residentMemory() - mappedMemory;
+
+        assertEquals(mDataSize, mapped.capacity());
+        int lastEntry = mDataSize / ENTRY_SIZE - 1;
+        assertEquals(expectedByte(lastEntry, ENTRY_SIZE - 1),
+                mapped.get(lastEntry * ENTRY_SIZE + ENTRY_SIZE - 1));
+
+        long heapMemory = residentMemory();
+        ByteBuffer heap;
+        start = System.nanoTime();
+        try {
+            heap = ResourceCodec.loadDataBuffer(mDataFile, false);
+        } catch (OutOfMemoryError e) {
+            Assume.assumeNoException("not enough memory for the heap codec", e);
+            return;
+        }
+        long heapTime = System.nanoTime() - start;
+        heapMemory = residentMemory() - heapMemory;
+
+        // 耗时受机器负载影响，只输出不做断言
+        System.out.println(String.format("pack %d MB: heap open %.2f ms, %d MB growth; "
+                        + "mapped open %.2f ms, %d MB growth",
+                mDataSize / MB, heapTime / 1e6, heapMemory / MB, mappedTime / 1e6, mappedMemory / MB));
+
+        assertEquals(heap.capacity(), mapped.capacity());
+        // 内存映射不随数据大小增长，整体读入至少占用整个数据文件
+        assertTrue("mapped growth " + mappedMemory + ", heap growth " + heapMemory,
+                mappedMemory < heapMemory);
+        assertTrue("heap growth " + heapMemory, heapMemory > mDataSize - MB);
+    }
+
+    /**
+     * 生成数据文件，每个资源填充可校验的内容
+     */
+    private static void generatePack(File file, int size) throws IOException {
+        RandomAccessFile accessFile = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = accessFile.getChannel();
+            ByteBuffer chunk = ByteBuffer.allocate(ENTRY_SIZE);
+            for (int entry = 0; entry < size / ENTRY_SIZE; entry++) {
+                chunk.clear();
+                for (int i = 0; i < ENTRY_SIZE; i++) {
+                    chunk.put(expectedByte(entry, i));
+                }
+                chunk.flip();
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+            }
+        } finally {
+            accessFile.close();
+        }
+    }
+
+    private static byte expectedByte(int entry, int index) {
+        return (byte) (entry * 31 + index);
+    }
+
+    /**
+     * 堆内存和direct内存之和
+     */
+    private static long residentMemory() {
+        System.gc();
+        long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        List<BufferPoolMXBean> pools = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class);
+        for (BufferPoolMXBean pool : pools) {
+            if ("direct".equals(pool.getName())) {
+                used += pool.getMemoryUsed();
+            }
+        }
+        return used;
+    }
+}
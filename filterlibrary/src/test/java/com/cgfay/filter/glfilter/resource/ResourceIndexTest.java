@@ -0,0 +1,173 @@
+package com.cgfay.filter.glfilter.resource;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * 资源索引测试
+ */
+public class ResourceIndexTest {
+
+    private File mFolder;
+
+    @Before
+    public void setUp() throws IOException {
+        mFolder = File.createTempFile("resource", "");
+        assertTrue(mFolder.delete());
+        assertTrue(mFolder.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursive(mFolder);
+    }
+
+    @Test
+    public void binaryIndexRoundTrip() throws IOException {
+        String[] names = new String[100];
+        int[] offsets = new int[names.length];
+        int[] lengths = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = String.format("sticker_%03d.png", i);
+            offsets[i] = 16 + i * 1000;
+            lengths[i] = 1000 - i;
+        }
+        File file = new File(mFolder, "index.idx");
+        assertTrue(ResourceIndex.write(file, names, offsets, lengths));
+
+        ResourceIndex index = ResourceIndex.open(file);
+        assertEquals(names.length, index.size());
+        for (int i = 0; i < names.length; i++) {
+            int entry = index.find(names[i]);
+            assertTrue(entry >= 0);
+            assertEquals(offsets[i], index.getOffset(entry));
+            assertEquals(lengths[i], index.getLength(entry));
+            assertEquals(i, index.getNumber(entry));
+        }
+        assertEquals(-1, index.find("missing.png"));
+    }
+
+    @Test
+    public void legacyTextIndexIsStillReadable() throws IOException {
+        File file = new File(mFolder, "index.idx");
+        FileOutputStream outputStream = new FileOutputStream(file);
+        outputStream.write("lut.png:16:200;mask_002.png:216:50;".getBytes("UTF-8"));
+        outputStream.close();
+
+        ResourceIndex index = ResourceIndex.open(file);
+        assertEquals(2, index.size());
+        int entry = index.find("lut.png");
+        assertEquals(16, index.getOffset(entry));
+        assertEquals(200, index.getLength(entry));
+        assertEquals(-1, index.getNumber(entry));
+        entry = index.find("mask_002.png");
+        assertEquals(216, index.getOffset(entry));
+        assertEquals(50, index.getLength(entry));
+        assertEquals(2, index.getNumber(entry));
+    }
+
+    @Test
+    public void unzipWritesBinaryIndex() throws IOException {
+        byte[][] contents = new byte[3][];
+        ByteArrayOutputStream zipBytes = new ByteArrayOutputStream();
+        ZipOutputStream zipStream = new ZipOutputStream(zipBytes);
+        for (int i = 0; i < contents.length; i++) {
+            contents[i] = new byte[100 + i * 37];
+            for (int j = 0; j < contents[i].length; j++) {
+                contents[i][j] = (byte) (i * 7 + j);
+            }
+            zipStream.putNextEntry(new ZipEntry(String.format("pack/frame_%03d.png", i)));
+            zipStream.write(contents[i]);
+            zipStream.closeEntry();
+        }
+        zipStream.putNextEntry(new ZipEntry("pack/json"));
+        zipStream.write("{}".getBytes("UTF-8"));
+        zipStream.closeEntry();
+        zipStream.close();
+
+        // 单次读取zip包解压
+        ResourceCodec.unzipToFolder(new ByteArrayInputStream(zipBytes.toByteArray()), mFolder);
+        assertEquals(2, new File(mFolder, "pack/json").length());
+
+        File indexFile = new File(mFolder, "pack/index.idx");
+        RandomAccessFile accessFile = new RandomAccessFile(indexFile, "r");
+        assertEquals(ResourceIndex.MAGIC, accessFile.readInt());
+        accessFile.close();
+
+        ResourceIndex index = ResourceIndex.open(indexFile);
+        RandomAccessFile dataFile = new RandomAccessFile(new File(mFolder, "pack/resource.res"), "r");
+        try {
+            for (int i = 0; i < contents.length; i++) {
+                int entry = index.find(String.format("frame_%03d.png", i));
+                assertEquals(contents[i].length, index.getLength(entry));
+                byte[] data = new byte[index.getLength(entry)];
+                dataFile.seek(index.getOffset(entry));
+                dataFile.readFully(data);
+                assertArrayEquals(contents[i], data);
+            }
+        } finally {
+            dataFile.close();
+        }
+    }
+
+    @Test
+    public void lookupDoesNotAllocate() throws IOException {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        String[] names = new String[300];
+        int[] offsets = new int[names.length];
+        int[] lengths = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = String.format("frame_%03d.png", i);
+            offsets[i] = i;
+            lengths[i] = 1;
+        }
+        File file = new File(mFolder, "index.idx");
+        ResourceIndex.write(file, names, offsets, lengths);
+        ResourceIndex index = ResourceIndex.open(file);
+
+        long sum = 0;
+        // 预热
+        for (int i = 0; i < 100000; i++) {
+            sum += index.getOffset(index.find(names[i % names.length]));
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100000; i++) {
+            sum += index.getOffset(index.find(names[i % names.length]));
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+        assertTrue(sum > 0);
+        // 允许测量本身带来的少量误差
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static void deleteRecursive(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,165 @@
+package com.cgfay.filter.glfilter.utils;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * program二进制文件缓存测试
+ */
+public class ProgramBinaryStoreTest {
+
+    private static File createRootDir() throws IOException {
+        File dir = File.createTempFile("program", "cache");
+        dir.delete();
+        dir.mkdirs();
+        return dir;
+    }
+
+    private static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static ByteBuffer createData(int length) {
+        ByteBuffer data = ByteBuffer.allocateDirect(length);
+        for (int i = 0; i < length; i++) {
+            data.put((byte) (i * 31));
+        }
+        data.flip();
+        return data;
+    }
+
+    @Test
+    public void hashKeyDependsOnBothSources() {
+        String key = ProgramBinaryStore.hashKey("vertex", "fragment");
+        assertEquals(40, key.length());
+        assertEquals(key, ProgramBinaryStore.hashKey("vertex", "fragment"));
+        assertNotEquals(key, ProgramBinaryStore.hashKey("vertex", "fragment2"));
+        // 分隔符保证拼接位置不同的源码不会冲突
+        assertNotEquals(ProgramBinaryStore.hashKey("ab", "c"), ProgramBinaryStore.hashKey("a", "bc"));
+    }
+
+    @Test
+    public void writeAndRead() throws IOException {
+        File root = createRootDir();
+        try {
+            ProgramBinaryStore store = new ProgramBinaryStore(root, "vendor/renderer/1.0");
+            String key = ProgramBinaryStore.hashKey("vertex", "fragment");
+            assertNull(store.read(key));
+
+            ByteBuffer data = createData(5000);
+            store.write(key, 0x8741, data);
+            assertEquals(0, data.position());
+
+            ProgramBinaryStore.Binary binary = store.read(key);
+            assertNotNull(binary);
+            assertEquals(0x8741, binary.format);
+            assertTrue(binary.data.isDirect());
+            assertEquals(data, binary.data);
+
+            store.remove(key);
+            assertNull(store.read(key));
+        } finally {
+            deleteAll(root);
+        }
+    }
+
+    @Test
+    public void concurrentWritesLeaveValidBinary() throws Exception {
+        File root = createRootDir();
+        try {
+            final ProgramBinaryStore store = new ProgramBinaryStore(root, "vendor/renderer/1.0");
+            final String key = ProgramBinaryStore.hashKey("vertex", "fragment");
+            final IOException[] errors = new IOException[2];
+            Thread[] threads = new Thread[2];
+            for (int i = 0; i < threads.length; i++) {
+                final int index = i;
+                threads[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int j = 0; j < 50; j++) {
+                                store.write(key, 1, createData(20000));
+                            }
+                        } catch (IOException e) {
+                            errors[index] = e;
+                        }
+                    }
+                });
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertNull(errors[0]);
+            assertNull(errors[1]);
+            ProgramBinaryStore.Binary binary = store.read(key);
+            assertNotNull(binary);
+            assertEquals(createData(20000), binary.data);
+            // 临时文件都已经重命名
+            assertEquals(1, store.getFile(key).getParentFile().list().length);
+        } finally {
+            deleteAll(root);
+        }
+    }
+
+    @Test
+    public void corruptedBinaryIsDeleted() throws IOException {
+        File root = createRootDir();
+        try {
+            ProgramBinaryStore store = new ProgramBinaryStore(root, "vendor/renderer/1.0");
+            String key = ProgramBinaryStore.hashKey("vertex", "fragment");
+            store.write(key, 1, createData(100));
+            File file = store.getFile(key);
+
+            // 修改一个字节
+            RandomAccessFile output = new RandomAccessFile(file, "rw");
+            output.seek(ProgramBinaryStore.HEADER_SIZE + 10);
+            output.write(0x7F);
+            output.close();
+            assertNull(store.read(key));
+            assertFalse(file.exists());
+
+            // 截断
+            store.write(key, 1, createData(100));
+            output = new RandomAccessFile(file, "rw");
+            output.setLength(file.length() - 1);
+            output.close();
+            assertNull(store.read(key));
+            assertFalse(file.exists());
+        } finally {
+            deleteAll(root);
+        }
+    }
+
+    @Test
+    public void driverChangeTrimsOldBinaries() throws IOException {
+        File root = createRootDir();
+        try {
+            String key = ProgramBinaryStore.hashKey("vertex", "fragment");
+            ProgramBinaryStore oldStore = new ProgramBinaryStore(root, "vendor/renderer/1.0");
+            oldStore.write(key, 1, createData(100));
+            oldStore.trimStale();
+            assertNotNull(oldStore.read(key));
+
+            ProgramBinaryStore newStore = new ProgramBinaryStore(root, "vendor/renderer/2.0");
+            assertNull(newStore.read(key));
+            newStore.trimStale();
+            assertFalse(oldStore.getFile(key).exists());
+            assertNull(oldStore.read(key));
+        } finally {
+            deleteAll(root);
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package com.cgfay.landmark;
 
-import android.util.SparseArray;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 人脸关键点引擎
+ * 检测线程通过beginFrame/publishFrame整帧发布关键点，渲染线程每帧通过acquireFrame取得最新的一帧，
+ * 之后的读取方法都只访问这一帧，两边不加锁也不会读到写了一半的数据。
  */
 public final class LandmarkEngine {
 
@@ -12,87 +15,143 @@ public final class LandmarkEngine {
     }
 
     private LandmarkEngine() {
-        mFaceArrays = new SparseArray<OneFace>();
+        for (int i = 0; i < mFrames.length; i++) {
+            mFrames[i] = new LandmarkFrame();
+        }
+        mLatestFrame = mFrames[mFrontIndex];
+        mCurrentFrame = mLatestFrame;
     }
 
     public static LandmarkEngine getInstance() {
         return EngineHolder.instance;
     }
 
-    private final Object mSyncFence = new Object();
-
-    // 人脸对象列表
-    // 由于人脸数据个数有限，图像中的人脸个数小于千级，而且人脸索引是连续的，用SparseArray比Hashmap性能要更好
-    private final SparseArray<OneFace> mFaceArrays;
+    // 三重缓冲，检测线程写后台帧，渲染线程读前台帧，中间帧保存最新发布的一帧，两边都不会阻塞对方
+    private static final int INDEX_MASK = 0x3;
+    // 中间帧是否有新数据
+    private static final int FLAG_DIRTY = 0x4;
+
+    private final LandmarkFrame[] mFrames = new LandmarkFrame[3];
+    // 中间帧索引以及是否有新数据
+    private final AtomicInteger mMiddleState = new AtomicInteger(1);
+    // 后台帧索引，只在检测线程访问
+    private int mBackIndex = 2;
+    // 前台帧索引，只在渲染线程访问
+    private int mFrontIndex = 0;
+    // 渲染线程拿到的最新检测结果
+    private LandmarkFrame mLatestFrame;
+    // 渲染线程当前使用的一帧，开启预测时为外推结果
+    private LandmarkFrame mCurrentFrame;
+
+    // 关键点预测
+    private final LandmarkPredictor mPredictor = new LandmarkPredictor();
+    // 外推得到的一帧，只在渲染线程访问
+    private final LandmarkFrame mPredictedFrame = new LandmarkFrame();
+    // 预测器最近一次输入的发布序号
+    private long mPredictedSequence;
+
+    // 写入锁，只用于多个写入方之间的互斥，渲染线程不会拿这个锁
+    private final ReentrantLock mWriteLock = new ReentrantLock();
+    private long mSequence;
 
-    // 手机当前的方向，0表示正屏幕，3表示倒过来，1表示左屏幕，2表示右屏幕
-    private float mOrientation;
-    private boolean mNeedFlip;
+    /**
+     * 开始写入一帧，返回复位后的后台帧，写完之后必须调用publishFrame
+     * @param timestamp 图像采集时间(纳秒，System.nanoTime)
+     * @return 后台帧
+     */
+    public LandmarkFrame beginFrame(long timestamp) {
+        mWriteLock.lock();
+        LandmarkFrame frame = mFrames[mBackIndex];
+        frame.reset(timestamp);
+        return frame;
+    }
 
     /**
-     * 设置旋转角度
-     * @param orientation
+     * 发布beginFrame写入的一帧，与中间帧交换，渲染线程下一次acquireFrame时拿到
      */
-    public void setOrientation(int orientation) {
-        mOrientation = orientation;
+    public void publishFrame() {
+        if (!mWriteLock.isHeldByCurrentThread()) {
+            throw new IllegalStateException("publishFrame without beginFrame");
+        }
+        try {
+            mFrames[mBackIndex].setSequence(++mSequence);
+            int previous = mMiddleState.getAndSet(mBackIndex | FLAG_DIRTY);
+            mBackIndex = previous & INDEX_MASK;
+        } finally {
+            mWriteLock.unlock();
+        }
     }
 
     /**
-     * 设置是否需要翻转
-     * @param flip
+     * 取得最新发布的一帧，作为之后所有读取方法的数据来源，渲染线程每一帧开始时调用一次
+     * @return 当前帧，没有新的发布时仍然返回上一帧
      */
-    public void setNeedFlip(boolean flip) {
-        mNeedFlip = flip;
+    public LandmarkFrame acquireFrame() {
+        return acquireFrame(System.nanoTime());
     }
 
     /**
-     * 设置人脸数
-     * @param size
+     * 取得最新发布的一帧，开启预测时外推到指定时间
+     * @param timestamp 渲染时间(纳秒，System.nanoTime)
+     * @return 当前帧
      */
-    public void setFaceSize(int size) {
-        synchronized (mSyncFence) {
-            // 剔除脏数据，有可能在前一次检测的人脸多余当前人脸
-            if (mFaceArrays.size() > size) {
-                mFaceArrays.removeAtRange(size, mFaceArrays.size() - size);
+    public LandmarkFrame acquireFrame(long timestamp) {
+        if ((mMiddleState.get() & FLAG_DIRTY) != 0) {
+            int previous = mMiddleState.getAndSet(mFrontIndex);
+            mFrontIndex = previous & INDEX_MASK;
+            mLatestFrame = mFrames[mFrontIndex];
+        }
+        if (!mPredictor.isEnabled()) {
+            // 关闭预测时丢弃运动状态，重新开启时从下一次检测结果开始
+            if (mPredictedSequence != 0) {
+                mPredictedSequence = 0;
+                mPredictor.reset();
             }
+            mCurrentFrame = mLatestFrame;
+            return mCurrentFrame;
         }
+        // 预测器还没有输入过这一帧
+        if (mLatestFrame.getSequence() != mPredictedSequence) {
+            mPredictedSequence = mLatestFrame.getSequence();
+            mPredictor.update(mLatestFrame);
+        }
+        if (mLatestFrame.getFaceCount() > 0) {
+            mPredictor.predict(mLatestFrame, timestamp, mPredictedFrame);
+            mCurrentFrame = mPredictedFrame;
+        } else {
+            mCurrentFrame = mLatestFrame;
+        }
+        return mCurrentFrame;
     }
 
     /**
-     * 是否存在人脸
-     * @return
+     * 关键点预测，通过setParams开启
      */
-    public boolean hasFace() {
-        boolean result;
-        synchronized (mSyncFence) {
-            result = mFaceArrays.size() > 0;
-        }
-        return result;
+    public LandmarkPredictor getPredictor() {
+        return mPredictor;
     }
 
     /**
-     * 获取一个人脸关键点数据对象
+     * 渲染线程当前使用的一帧
+     */
+    public LandmarkFrame getCurrentFrame() {
+        return mCurrentFrame;
+    }
+
+    /**
+     * 是否存在人脸
      * @return
      */
-    public OneFace getOneFace(int index) {
-        OneFace oneFace = null;
-        synchronized (mSyncFence) {
-            oneFace = mFaceArrays.get(index);
-            if (oneFace == null) {
-                oneFace = new OneFace();
-            }
-        }
-        return oneFace;
+    public boolean hasFace() {
+        return mCurrentFrame.getFaceCount() > 0;
     }
 
     /**
-     * 插入一个人脸关键点数据对象
-     * @param index
+     * 获取一个人脸关键点数据对象
+     * @return 索引超出人脸个数时返回null
      */
-    public void putOneFace(int index, OneFace oneFace) {
-        synchronized (mSyncFence) {
-            mFaceArrays.put(index, oneFace);
-        }
+    public OneFace getOneFace(int index) {
+        return mCurrentFrame.getFace(index);
     }
 
     /**
@@ -100,39 +159,40 @@ public final class LandmarkEngine {
      * @return
      */
     public int getFaceSize() {
-        return mFaceArrays.size();
+        return mCurrentFrame.getFaceCount();
     }
 
     /**
-     * 获取人脸列表
-     * @return
+     * 清空所有人脸对象，发布一个没有人脸的帧
      */
-    public SparseArray<OneFace> getFaceArrays() {
-        return mFaceArrays;
+    public void clearAll() {
+        beginFrame(0);
+        publishFrame();
     }
 
     /**
-     * 清空所有人脸对象
+     * 获取当前帧中一个人的关键点
      */
-    public void clearAll() {
-        synchronized (mSyncFence) {
-            mFaceArrays.clear();
-        }
+    private float[] getFacePoints(int faceIndex) {
+        OneFace oneFace = mCurrentFrame.getFace(faceIndex);
+        return oneFace != null ? oneFace.vertexPoints : null;
     }
 
+    // 计算中心点的临时数组，只在渲染线程使用
+    private final float[] mCenterPoint = new float[2];
+
     /**
      * 计算额外人脸顶点，新增8个额外顶点坐标
      */
     public void calculateExtraFacePoints(float[] vertexPoints, int index) {
-        if (vertexPoints == null || index >= mFaceArrays.size() || mFaceArrays.get(index) == null
-                || mFaceArrays.get(index).vertexPoints.length + 8 * 2 > vertexPoints.length) {
+        float[] points = getFacePoints(index);
+        if (vertexPoints == null || points == null || points.length + 8 * 2 > vertexPoints.length) {
             return;
         }
-        OneFace oneFace = mFaceArrays.get(index);
         // 复制关键点的数据
-        System.arraycopy(oneFace.vertexPoints, 0, vertexPoints, 0, oneFace.vertexPoints.length);
+        System.arraycopy(points, 0, vertexPoints, 0, points.length);
         // 新增的人脸关键点
-        float[] point = new float[2];
+        float[] point = mCenterPoint;
         // 嘴唇中心
         FacePointsUtils.getCenter(point,
                 vertexPoints[FaceLandmark.mouthUpperLipBottom * 2],
@@ -215,8 +275,9 @@ public final class LandmarkEngine {
         if (vertexPoints == null || vertexPoints.length < 122 * 2) {
             return;
         }
+        int orientation = mCurrentFrame.getOrientation();
 
-        if (mOrientation == 0) {
+        if (orientation == 0) {
             vertexPoints[114 * 2] = 0;
             vertexPoints[114 * 2 + 1] = 1;
             vertexPoints[115 * 2] = 1;
@@ -225,7 +286,7 @@ public final class LandmarkEngine {
             vertexPoints[116 * 2 + 1] = 0;
             vertexPoints[117 * 2] = 1;
             vertexPoints[117 * 2 + 1] = -1;
-        } else if (mOrientation == 1) {
+        } else if (orientation == 1) {
             vertexPoints[114 * 2] = 1;
             vertexPoints[114 * 2 + 1] = 0;
             vertexPoints[115 * 2] = 1;
@@ -234,7 +295,7 @@ public final class LandmarkEngine {
             vertexPoints[116 * 2 + 1] = -1;
             vertexPoints[117 * 2] = -1;
             vertexPoints[117 * 2 + 1] = -1;
-        } else if (mOrientation == 2) {
+        } else if (orientation == 2) {
             vertexPoints[114 * 2] = -1;
             vertexPoints[114 * 2 + 1] = 0;
             vertexPoints[115 * 2] = -1;
@@ -243,7 +304,7 @@ public final class LandmarkEngine {
             vertexPoints[116 * 2 + 1] = 1;
             vertexPoints[117 * 2] = 1;
             vertexPoints[117 * 2 + 1] = 1;
-        } else if (mOrientation == 3) {
+        } else if (orientation == 3) {
             vertexPoints[114 * 2] = 0;
             vertexPoints[114 * 2 + 1] = -1;
             vertexPoints[115 * 2] = -1;
@@ -264,7 +325,7 @@ public final class LandmarkEngine {
         vertexPoints[121 * 2 + 1] = -vertexPoints[117 * 2 + 1];
 
         // 是否需要做翻转处理，前置摄像头预览时，关键点是做了翻转处理的，因此图像边沿的关键点也要做翻转能处理
-        if (mNeedFlip) {
+        if (mCurrentFrame.isNeedFlip()) {
             for (int i = 0; i < 8; i++) {
                 vertexPoints[(114 + i) * 2] = -vertexPoints[(114 + i) * 2];
                 vertexPoints[(114 + i) * 2 + 1] = -vertexPoints[(114 + i) * 2 + 1];
@@ -318,59 +379,59 @@ public final class LandmarkEngine {
     /**
      * 取得眼睛(眼影、眼线等)顶点坐标，可参考assets目录下的 眼睛遮罩标注.jpg
      */
-    public synchronized void getEyeVertices(float[] vertexPoints, int faceIndex) {
-        if (vertexPoints == null || vertexPoints.length < 80
-                || faceIndex >= mFaceArrays.size() || mFaceArrays.get(faceIndex) == null) {
+    public void getEyeVertices(float[] vertexPoints, int faceIndex) {
+        float[] points = getFacePoints(faceIndex);
+        if (vertexPoints == null || vertexPoints.length < 80 || points == null) {
             return;
         }
 
         // 关键点0 ~ 3，index = 0 ~ 3 4个
         for (int i = 0; i < 4; i++) {
-            vertexPoints[i * 2] = mFaceArrays.get(faceIndex).vertexPoints[i * 2];
-            vertexPoints[i * 2 + 1] = mFaceArrays.get(faceIndex).vertexPoints[i * 2 + 1];
+            vertexPoints[i * 2] = points[i * 2];
+            vertexPoints[i * 2 + 1] = points[i * 2 + 1];
         }
 
         // 关键点29 ~ 33，index = 4 ~ 8 5个
         for (int i = 29; i < 34; i++) {
-            vertexPoints[(i - 29 + 4) * 2] = mFaceArrays.get(faceIndex).vertexPoints[i * 2];
-            vertexPoints[(i - 29 + 4) * 2 + 1] = mFaceArrays.get(faceIndex).vertexPoints[i * 2 + 1];
+            vertexPoints[(i - 29 + 4) * 2] = points[i * 2];
+            vertexPoints[(i - 29 + 4) * 2 + 1] = points[i * 2 + 1];
         }
 
         // 关键点42 ~ 44，index = 9 ~ 11 3个
         for (int i = 42; i < 45; i++) {
-            vertexPoints[(i - 42 + 9) * 2] = mFaceArrays.get(faceIndex).vertexPoints[i * 2];
-            vertexPoints[(i - 42 + 9) * 2 + 1] = mFaceArrays.get(faceIndex).vertexPoints[i * 2 +  1];
+            vertexPoints[(i - 42 + 9) * 2] = points[i * 2];
+            vertexPoints[(i - 42 + 9) * 2 + 1] = points[i * 2 +  1];
         }
 
         // 关键点52 ~ 73，index = 12 ~ 33 22个
         for (int i = 52; i < 74; i++) {
-            vertexPoints[(i - 52 + 12) * 2] = mFaceArrays.get(faceIndex).vertexPoints[i * 2];
-            vertexPoints[(i - 52 + 12) * 2 + 1] = mFaceArrays.get(faceIndex).vertexPoints[i * 2 + 1];
+            vertexPoints[(i - 52 + 12) * 2] = points[i * 2];
+            vertexPoints[(i - 52 + 12) * 2 + 1] = points[i * 2 + 1];
         }
 
         // 右眼上中心
-        vertexPoints[34 * 2] = mFaceArrays.get(faceIndex).vertexPoints[75 * 2];
-        vertexPoints[34 * 2 + 1] = mFaceArrays.get(faceIndex).vertexPoints[75 * 2 + 1];
+        vertexPoints[34 * 2] = points[75 * 2];
+        vertexPoints[34 * 2 + 1] = points[75 * 2 + 1];
 
         // 右眼下中心
-        vertexPoints[35 * 2] = mFaceArrays.get(faceIndex).vertexPoints[76 * 2];
-        vertexPoints[35 * 2 + 1] = mFaceArrays.get(faceIndex).vertexPoints[76 * 2 + 1];
+        vertexPoints[35 * 2] = points[76 * 2];
+        vertexPoints[35 * 2 + 1] = points[76 * 2 + 1];
 
         // 关键点78
-        vertexPoints[36 * 2] = mFaceArrays.get(faceIndex).vertexPoints[78 * 2];
-        vertexPoints[36 * 2 + 1] = mFaceArrays.get(faceIndex).vertexPoints[78 * 2 + 1];
+        vertexPoints[36 * 2] = points[78 * 2];
+        vertexPoints[36 * 2 + 1] = points[78 * 2 + 1];
 
         // 关键点79
-        vertexPoints[37 * 2] = mFaceArrays.get(faceIndex).vertexPoints[79 * 2];
-        vertexPoints[37 * 2 + 1] = mFaceArrays.get(faceIndex).vertexPoints[79 * 2 + 1];
+        vertexPoints[37 * 2] = points[79 * 2];
+        vertexPoints[37 * 2 + 1] = points[79 * 2 + 1];
 
         // 左眉毛下方中心点
-        vertexPoints[38 * 2] = (mFaceArrays.get(faceIndex).vertexPoints[3 * 2] + mFaceArrays.get(faceIndex).vertexPoints[44 * 2]) * 0.5f;
-        vertexPoints[38 * 2 + 1] = (mFaceArrays.get(faceIndex).vertexPoints[3 * 2 + 1] + mFaceArrays.get(faceIndex).vertexPoints[44 * 2 + 1]) * 0.5f;
+        vertexPoints[38 * 2] = (points[3 * 2] + points[44 * 2]) * 0.5f;
+        vertexPoints[38 * 2 + 1] = (points[3 * 2 + 1] + points[44 * 2 + 1]) * 0.5f;
 
         // 右眉毛下方中心点
-        vertexPoints[39 * 2] = (mFaceArrays.get(faceIndex).vertexPoints[29 * 2] + mFaceArrays.get(faceIndex).vertexPoints[44 * 2]) * 0.5f;
-        vertexPoints[39 * 2 + 1] = (mFaceArrays.get(faceIndex).vertexPoints[29 * 2 + 1] + mFaceArrays.get(faceIndex).vertexPoints[44 * 2 + 1]) * 0.5f;
+        vertexPoints[39 * 2] = (points[29 * 2] + points[44 * 2]) * 0.5f;
+        vertexPoints[39 * 2 + 1] = (points[29 * 2 + 1] + points[44 * 2 + 1]) * 0.5f;
     }
 
     /**
@@ -378,17 +439,17 @@ public final class LandmarkEngine {
      * @param vertexPoints  存放嘴唇顶点坐标
      * @param faceIndex     人脸索引
      */
-    public synchronized void getLipsVertices(float[] vertexPoints, int faceIndex) {
+    public void getLipsVertices(float[] vertexPoints, int faceIndex) {
         // 嘴唇一共20个顶点，大小必须为40
-        if (vertexPoints == null || vertexPoints.length < 40
-                || faceIndex >= mFaceArrays.size() || mFaceArrays.get(faceIndex) == null) {
+        float[] points = getFacePoints(faceIndex);
+        if (vertexPoints == null || vertexPoints.length < 40 || points == null) {
             return;
         }
         // 复制84 ~ 103共20个顶点坐标
         for (int i = 0; i < 20; i++) {
             // 顶点坐标
-            vertexPoints[i * 2] = mFaceArrays.get(faceIndex).vertexPoints[(84 + i) * 2];
-            vertexPoints[i * 2 + 1] = mFaceArrays.get(faceIndex).vertexPoints[(84 + i) * 2 + 1];
+            vertexPoints[i * 2] = points[(84 + i) * 2];
+            vertexPoints[i * 2 + 1] = points[(84 + i) * 2 + 1];
         }
     }
 
@@ -397,28 +458,28 @@ public final class LandmarkEngine {
      * @param vertexPoints
      * @param faceIndex
      */
-    public synchronized void getBrightEyeVertices(float[] vertexPoints, int faceIndex) {
-        if (vertexPoints == null || vertexPoints.length < 32
-                || faceIndex >= mFaceArrays.size() || mFaceArrays.get(faceIndex) == null) {
+    public void getBrightEyeVertices(float[] vertexPoints, int faceIndex) {
+        float[] points = getFacePoints(faceIndex);
+        if (vertexPoints == null || vertexPoints.length < 32 || points == null) {
             return;
         }
         // 眼睛边沿部分 index = 0 ~ 11
         for (int i = 52; i < 64; i++) {
-            vertexPoints[(i - 52) * 2] = mFaceArrays.get(faceIndex).vertexPoints[i * 2];
-            vertexPoints[(i - 52) * 2 + 1] = mFaceArrays.get(faceIndex).vertexPoints[i * 2 + 1];
+            vertexPoints[(i - 52) * 2] = points[i * 2];
+            vertexPoints[(i - 52) * 2 + 1] = points[i * 2 + 1];
         }
 
-        vertexPoints[12 * 2] = mFaceArrays.get(faceIndex).vertexPoints[72 * 2];
-        vertexPoints[12 * 2 + 1] = mFaceArrays.get(faceIndex).vertexPoints[72 * 2 + 1];
+        vertexPoints[12 * 2] = points[72 * 2];
+        vertexPoints[12 * 2 + 1] = points[72 * 2 + 1];
 
-        vertexPoints[13 * 2] = mFaceArrays.get(faceIndex).vertexPoints[73 * 2];
-        vertexPoints[13 * 2 + 1] = mFaceArrays.get(faceIndex).vertexPoints[73 * 2 + 1];
+        vertexPoints[13 * 2] = points[73 * 2];
+        vertexPoints[13 * 2 + 1] = points[73 * 2 + 1];
 
-        vertexPoints[14 * 2] = mFaceArrays.get(faceIndex).vertexPoints[75 * 2];
-        vertexPoints[14 * 2 + 1] = mFaceArrays.get(faceIndex).vertexPoints[75 * 2 + 1];
+        vertexPoints[14 * 2] = points[75 * 2];
+        vertexPoints[14 * 2 + 1] = points[75 * 2 + 1];
 
-        vertexPoints[15 * 2] = mFaceArrays.get(faceIndex).vertexPoints[76 * 2];
-        vertexPoints[15 * 2 + 1] = mFaceArrays.get(faceIndex).vertexPoints[76 * 2 + 1];
+        vertexPoints[15 * 2] = points[76 * 2];
+        vertexPoints[15 * 2 + 1] = points[76 * 2 + 1];
 
     }
 
@@ -427,14 +488,14 @@ public final class LandmarkEngine {
      * @param vertexPoints
      * @param faceIndex
      */
-    public synchronized void getBeautyTeethVertices(float[] vertexPoints, int faceIndex) {
-        if (vertexPoints == null || vertexPoints.length < 24
-                || faceIndex >= mFaceArrays.size() || mFaceArrays.get(faceIndex) == null) {
+    public void getBeautyTeethVertices(float[] vertexPoints, int faceIndex) {
+        float[] points = getFacePoints(faceIndex);
+        if (vertexPoints == null || vertexPoints.length < 24 || points == null) {
             return;
         }
         for (int i = 84; i < 96; i++) {
-            vertexPoints[(i - 84) * 2] = mFaceArrays.get(faceIndex).vertexPoints[i * 2];
-            vertexPoints[(i - 84) * 2 + 1] = mFaceArrays.get(faceIndex).vertexPoints[i * 2 + 1];
+            vertexPoints[(i - 84) * 2] = points[i * 2];
+            vertexPoints[(i - 84) * 2 + 1] = points[i * 2 + 1];
         }
     }
 }
@@ -0,0 +1,104 @@
+package com.cgfay.landmark;
+
+/**
+ * 一帧人脸关键点数据
+ * 由LandmarkEngine的三重缓冲管理，检测线程写入后台帧，发布之后只读，渲染线程拿到的始终是完整的一帧。
+ * 帧内的人脸对象和关键点数组在帧之间复用，不要在渲染线程之外保存引用。
+ */
+public final class LandmarkFrame {
+
+    // 人脸对象，容量不够时扩充
+    private OneFace[] mFaces = new OneFace[0];
+    private int mFaceCount;
+    // 图像采集时间(纳秒，System.nanoTime)
+    private long mTimestamp;
+    // 发布序号，从1开始递增，0表示还没有发布过
+    private long mSequence;
+    // 手机当前的方向，0表示正屏幕，3表示倒过来，1表示左屏幕，2表示右屏幕
+    private int mOrientation;
+    private boolean mNeedFlip;
+
+    LandmarkFrame() {
+    }
+
+    /**
+     * 复位，准备写入新的一帧
+     * @param timestamp 图像采集时间
+     */
+    void reset(long timestamp) {
+        mFaceCount = 0;
+        mTimestamp = timestamp;
+        mOrientation = 0;
+        mNeedFlip = false;
+    }
+
+    void setSequence(long sequence) {
+        mSequence = sequence;
+    }
+
+    /**
+     * 取得用于写入的人脸对象，人脸个数随之增加到index + 1
+     * @param index 人脸索引
+     * @return 复用的人脸对象，关键点数组保留上一次的内容
+     */
+    public OneFace obtainFace(int index) {
+        if (index >= mFaces.length) {
+            OneFace[] faces = new OneFace[Math.max(index + 1, mFaces.length * 2)];
+            System.arraycopy(mFaces, 0, faces, 0, mFaces.length);
+            mFaces = faces;
+        }
+        if (mFaces[index] == null) {
+            mFaces[index] = new OneFace();
+        }
+        mFaceCount = Math.max(mFaceCount, index + 1);
+        return mFaces[index];
+    }
+
+    /**
+     * 设置人脸个数，只能减少，多余的人脸对象保留下来复用
+     * @param count 人脸个数
+     */
+    public void setFaceCount(int count) {
+        mFaceCount = Math.max(0, Math.min(count, mFaceCount));
+    }
+
+    public void setOrientation(int orientation) {
+        mOrientation = orientation;
+    }
+
+    public void setNeedFlip(boolean flip) {
+        mNeedFlip = flip;
+    }
+
+    public int getFaceCount() {
+        return mFaceCount;
+    }
+
+    /**
+     * 获取人脸对象
+     * @param index 人脸索引
+     * @return 索引超出人脸个数时返回null
+     */
+    public OneFace getFace(int index) {
+        if (index < 0 || index >= mFaceCount) {
+            return null;
+        }
+        return mFaces[index];
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public long getSequence() {
+        return mSequence;
+    }
+
+    public int getOrientation() {
+        return mOrientation;
+    }
+
+    public boolean isNeedFlip() {
+        return mNeedFlip;
+    }
+}
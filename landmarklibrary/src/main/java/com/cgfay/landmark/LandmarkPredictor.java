@@ -0,0 +1,182 @@
+package com.cgfay.landmark;
+
+/**
+ * 关键点运动预测
+ * 按人脸跟踪ID保存One-Euro滤波后的关键点和速度，检测结果到来时更新，渲染每一帧时外推到当前时间。
+ * 检测可以隔几帧才跑一次，渲染仍然每帧都拿到连续的关键点。
+ * 参数可以在任意线程设置，update和predict只在渲染线程调用。
+ */
+public final class LandmarkPredictor {
+
+    // 默认最小截止频率(Hz)
+    public static final float DEFAULT_MIN_CUTOFF = 1.5f;
+    // 默认速度系数，坐标为归一化的[-1, 1]
+    public static final float DEFAULT_BETA = 2.0f;
+    // 默认最大外推时间(毫秒)
+    public static final float DEFAULT_MAX_PREDICTION_TIME = 100f;
+    // 速度的截止频率(Hz)
+    private static final float DERIVATE_CUTOFF = 1.0f;
+
+    /**
+     * 一个人脸的运动状态
+     */
+    private static final class Track {
+        int id;
+        final OneEuroFilter filter = new OneEuroFilter();
+    }
+
+    private volatile boolean mEnable;
+    private volatile float mMinCutoff = DEFAULT_MIN_CUTOFF;
+    private volatile float mBeta = DEFAULT_BETA;
+    private volatile long mMaxPredictionTime = (long) (DEFAULT_MAX_PREDICTION_TIME * 1000000L);
+
+    // 当前跟踪的人脸，与最近一次检测结果的人脸索引一一对应
+    private Track[] mTracks = new Track[0];
+    private int mTrackCount;
+    // 上一次检测的人脸，用于按ID匹配
+    private Track[] mPreviousTracks = new Track[0];
+    private int mPreviousCount;
+    // 回收的运动状态
+    private Track[] mFreeTracks = new Track[0];
+    private int mFreeCount;
+
+    LandmarkPredictor() {
+    }
+
+    /**
+     * 设置预测参数
+     * @param enable            是否预测，关闭时直接使用检测结果
+     * @param minCutoff         最小截止频率(Hz)，越小抖动越少、延迟越大
+     * @param beta              速度系数，越大快速运动时延迟越小
+     * @param maxPredictionTime 最大外推时间(毫秒)，超过之后关键点停在最后的位置
+     */
+    public void setParams(boolean enable, float minCutoff, float beta, float maxPredictionTime) {
+        mMinCutoff = Math.max(minCutoff, 0.01f);
+        mBeta = Math.max(beta, 0);
+        mMaxPredictionTime = (long) (Math.max(maxPredictionTime, 0) * 1000000L);
+        mEnable = enable;
+    }
+
+    public boolean isEnabled() {
+        return mEnable;
+    }
+
+    /**
+     * 清空所有人脸的运动状态
+     */
+    public void reset() {
+        while (mTrackCount > 0) {
+            recycle(mTracks[--mTrackCount]);
+        }
+    }
+
+    /**
+     * 输入新的检测结果，按跟踪ID延续已有人脸的运动状态，消失的人脸被回收
+     * @param frame 检测结果
+     */
+    public void update(LandmarkFrame frame) {
+        // 当前的人脸变为上一次的人脸
+        Track[] tracks = mPreviousTracks;
+        mPreviousTracks = mTracks;
+        mPreviousCount = mTrackCount;
+        int faceCount = frame.getFaceCount();
+        if (tracks.length < faceCount) {
+            tracks = new Track[faceCount];
+        }
+        mTracks = tracks;
+        mTrackCount = 0;
+
+        float minCutoff = mMinCutoff;
+        float beta = mBeta;
+        for (int i = 0; i < faceCount; i++) {
+            OneFace oneFace = frame.getFace(i);
+            int id = oneFace.trackId >= 0 ? oneFace.trackId : i;
+            Track track = takePrevious(id);
+            if (track == null) {
+                track = obtain();
+                track.id = id;
+                track.filter.reset();
+            }
+            if (oneFace.vertexPoints != null) {
+                track.filter.filter(oneFace.vertexPoints, oneFace.vertexPoints.length,
+                        frame.getTimestamp(), minCutoff, beta, DERIVATE_CUTOFF);
+            }
+            mTracks[mTrackCount++] = track;
+        }
+        // 消失的人脸
+        for (int i = 0; i < mPreviousCount; i++) {
+            if (mPreviousTracks[i] != null) {
+                recycle(mPreviousTracks[i]);
+                mPreviousTracks[i] = null;
+            }
+        }
+        mPreviousCount = 0;
+    }
+
+    /**
+     * 将最近一次检测结果外推到指定时间
+     * @param source    最近一次的检测结果，必须是最近一次update的帧
+     * @param timestamp 目标时间(纳秒)
+     * @param output    输出帧，人脸属性从检测结果复制，关键点为外推结果
+     */
+    public void predict(LandmarkFrame source, long timestamp, LandmarkFrame output) {
+        output.reset(timestamp);
+        output.setSequence(source.getSequence());
+        output.setOrientation(source.getOrientation());
+        output.setNeedFlip(source.isNeedFlip());
+        long maxPredictionTime = mMaxPredictionTime;
+        int faceCount = Math.min(source.getFaceCount(), mTrackCount);
+        for (int i = 0; i < faceCount; i++) {
+            OneFace sourceFace = source.getFace(i);
+            OneFace face = output.obtainFace(i);
+            face.confidence = sourceFace.confidence;
+            face.pitch = sourceFace.pitch;
+            face.yaw = sourceFace.yaw;
+            face.roll = sourceFace.roll;
+            face.age = sourceFace.age;
+            face.gender = sourceFace.gender;
+            face.trackId = sourceFace.trackId;
+            if (sourceFace.vertexPoints == null) {
+                face.vertexPoints = null;
+                continue;
+            }
+            int count = sourceFace.vertexPoints.length;
+            if (face.vertexPoints == null || face.vertexPoints.length != count) {
+                face.vertexPoints = new float[count];
+            }
+            OneEuroFilter filter = mTracks[i].filter;
+            long elapsed = Math.max(0, Math.min(timestamp - filter.getTimestamp(), maxPredictionTime));
+            filter.extrapolate(face.vertexPoints, count, elapsed / 1000000000f);
+        }
+        output.setFaceCount(faceCount);
+    }
+
+    private Track takePrevious(int id) {
+        for (int i = 0; i < mPreviousCount; i++) {
+            Track track = mPreviousTracks[i];
+            if (track != null && track.id == id) {
+                mPreviousTracks[i] = null;
+                return track;
+            }
+        }
+        return null;
+    }
+
+    private Track obtain() {
+        if (mFreeCount > 0) {
+            Track track = mFreeTracks[--mFreeCount];
+            mFreeTracks[mFreeCount] = null;
+            return track;
+        }
+        return new Track();
+    }
+
+    private void recycle(Track track) {
+        if (mFreeCount == mFreeTracks.length) {
+            Track[] tracks = new Track[Math.max(4, mFreeTracks.length * 2)];
+            System.arraycopy(mFreeTracks, 0, tracks, 0, mFreeCount);
+            mFreeTracks = tracks;
+        }
+        mFreeTracks[mFreeCount++] = track;
+    }
+}
@@ -0,0 +1,88 @@
+package com.cgfay.landmark;
+
+/**
+ * One-Euro滤波器，一次处理一组坐标
+ * 截止频率随速度自适应：静止时用较低的截止频率压制抖动，快速运动时提高截止频率减少延迟。
+ * 滤波的同时得到每个坐标平滑后的速度，用于关键点外推。
+ */
+final class OneEuroFilter {
+
+    private float[] mValues = new float[0];
+    // 平滑后的速度(单位/秒)
+    private float[] mVelocities = new float[0];
+    private long mTimestamp;
+    private boolean mInitialized;
+
+    /**
+     * 复位，下一次输入直接作为初始值
+     */
+    void reset() {
+        mInitialized = false;
+    }
+
+    boolean isInitialized() {
+        return mInitialized;
+    }
+
+    /**
+     * 输入一组测量值
+     * @param input         测量值
+     * @param count         坐标个数
+     * @param timestamp     测量时间(纳秒)
+     * @param minCutoff     最小截止频率(Hz)，越小抖动越少、延迟越大
+     * @param beta          速度系数，越大快速运动时延迟越小
+     * @param derivateCutoff 速度的截止频率(Hz)
+     */
+    void filter(float[] input, int count, long timestamp, float minCutoff, float beta, float derivateCutoff) {
+        if (mValues.length < count) {
+            mValues = new float[count];
+            mVelocities = new float[count];
+            mInitialized = false;
+        }
+        float dt = (timestamp - mTimestamp) / 1000000000f;
+        if (!mInitialized || dt <= 0) {
+            if (!mInitialized) {
+                System.arraycopy(input, 0, mValues, 0, count);
+                for (int i = 0; i < count; i++) {
+                    mVelocities[i] = 0;
+                }
+                mTimestamp = timestamp;
+                mInitialized = true;
+            }
+            return;
+        }
+        float derivateAlpha = alpha(derivateCutoff, dt);
+        for (int i = 0; i < count; i++) {
+            float velocity = (input[i] - mValues[i]) / dt;
+            velocity = mVelocities[i] + derivateAlpha * (velocity - mVelocities[i]);
+            mVelocities[i] = velocity;
+            float cutoff = minCutoff + beta * Math.abs(velocity);
+            mValues[i] = mValues[i] + alpha(cutoff, dt) * (input[i] - mValues[i]);
+        }
+        mTimestamp = timestamp;
+    }
+
+    /**
+     * 按速度外推
+     * @param output    输出
+     * @param count     坐标个数
+     * @param time      外推时间(秒)
+     */
+    void extrapolate(float[] output, int count, float time) {
+        for (int i = 0; i < count; i++) {
+            output[i] = mValues[i] + mVelocities[i] * time;
+        }
+    }
+
+    /**
+     * 最近一次测量的时间
+     */
+    long getTimestamp() {
+        return mTimestamp;
+    }
+
+    private static float alpha(float cutoff, float dt) {
+        float tau = 1.0f / (2 * (float) Math.PI * cutoff);
+        return 1.0f / (1.0f + tau / dt);
+    }
+}
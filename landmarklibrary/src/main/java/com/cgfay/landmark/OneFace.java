@@ -21,6 +21,8 @@ public class OneFace {
     public float age;
     // 性别
     public int gender;
+    // 跟踪ID，同一个人脸在连续的帧之间保持不变，-1表示未知
+    public int trackId = -1;
     // 顶点坐标
     public float[] vertexPoints;
 
@@ -33,6 +35,7 @@ public class OneFace {
         copy.roll = this.roll;
         copy.age = this.age;
         copy.gender = this.gender;
+        copy.trackId = this.trackId;
         copy.vertexPoints = this.vertexPoints.clone();
         return copy;
     }
@@ -0,0 +1,167 @@
+package com.cgfay.landmark;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * 人脸关键点三重缓冲测试
+ */
+public class LandmarkEngineTest {
+
+    private static final int POINT_COUNT = 106 * 2;
+
+    /**
+     * 写入一帧，所有数据都等于value
+     */
+    private static void writeFrame(LandmarkEngine engine, long value) {
+        LandmarkFrame frame = engine.beginFrame(value);
+        try {
+            frame.setOrientation((int) (value % 4));
+            int faceCount = (int) (value % 3) + 1;
+            for (int i = 0; i < faceCount; i++) {
+                OneFace oneFace = frame.obtainFace(i);
+                if (oneFace.vertexPoints == null) {
+                    oneFace.vertexPoints = new float[POINT_COUNT];
+                }
+                oneFace.pitch = value;
+                for (int j = 0; j < POINT_COUNT; j++) {
+                    oneFace.vertexPoints[j] = value;
+                }
+            }
+            frame.setFaceCount(faceCount);
+        } finally {
+            engine.publishFrame();
+        }
+    }
+
+    /**
+     * 检查一帧是否完整
+     * @return 错误信息，完整时返回null
+     */
+    private static String checkFrame(LandmarkFrame frame) {
+        long value = frame.getTimestamp();
+        if (frame.getOrientation() != (int) (value % 4)) {
+            return "orientation " + frame.getOrientation() + " in frame " + value;
+        }
+        if (frame.getFaceCount() != (int) (value % 3) + 1) {
+            return "face count " + frame.getFaceCount() + " in frame " + value;
+        }
+        for (int i = 0; i < frame.getFaceCount(); i++) {
+            OneFace oneFace = frame.getFace(i);
+            if (oneFace.pitch != value) {
+                return "pitch " + oneFace.pitch + " in frame " + value;
+            }
+            for (int j = 0; j < POINT_COUNT; j++) {
+                if (oneFace.vertexPoints[j] != value) {
+                    return "point " + oneFace.vertexPoints[j] + " in frame " + value;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void acquireReturnsLatestPublishedFrame() {
+        LandmarkEngine engine = LandmarkEngine.getInstance();
+        writeFrame(engine, 10);
+        writeFrame(engine, 11);
+        LandmarkFrame frame = engine.acquireFrame();
+        assertEquals(11, frame.getTimestamp());
+        assertNull(checkFrame(frame));
+        assertEquals(frame.getFaceCount(), engine.getFaceSize());
+        assertTrue(engine.hasFace());
+
+        // 没有新的发布时仍然是同一帧
+        assertSame(frame, engine.acquireFrame());
+        assertSame(frame, engine.getCurrentFrame());
+
+        // 发布之后渲染线程当前的帧保持不变，直到下一次acquireFrame
+        writeFrame(engine, 12);
+        assertEquals(11, engine.getCurrentFrame().getTimestamp());
+        LandmarkFrame next = engine.acquireFrame();
+        assertEquals(12, next.getTimestamp());
+        assertTrue(next.getSequence() > frame.getSequence());
+    }
+
+    @Test
+    public void clearAllPublishesEmptyFrame() {
+        LandmarkEngine engine = LandmarkEngine.getInstance();
+        writeFrame(engine, 20);
+        engine.acquireFrame();
+        assertTrue(engine.hasFace());
+        engine.clearAll();
+        engine.acquireFrame();
+        assertFalse(engine.hasFace());
+        assertNull(engine.getOneFace(0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void publishWithoutBeginFails() {
+        LandmarkEngine.getInstance().publishFrame();
+    }
+
+    @Test
+    public void concurrentReadsAreNeverTorn() throws Exception {
+        final LandmarkEngine engine = LandmarkEngine.getInstance();
+        final long frameCount = 200000;
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicReference<String> error = new AtomicReference<>();
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (long value = 1000; value < 1000 + frameCount; value++) {
+                    writeFrame(engine, value);
+                }
+                done.set(true);
+            }
+        }, "producer");
+
+        final long[] readCount = new long[1];
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long lastTimestamp = 0;
+                long lastSequence = 0;
+                while (error.get() == null) {
+                    boolean finished = done.get();
+                    LandmarkFrame frame = engine.acquireFrame();
+                    if (frame.getTimestamp() >= 1000) {
+                        String result = checkFrame(frame);
+                        if (result == null && frame.getTimestamp() < lastTimestamp) {
+                            result = "frame " + frame.getTimestamp() + " after " + lastTimestamp;
+                        }
+                        if (result == null && frame.getSequence() < lastSequence) {
+                            result = "sequence " + frame.getSequence() + " after " + lastSequence;
+                        }
+                        if (result != null) {
+                            error.set(result);
+                            break;
+                        }
+                        lastTimestamp = frame.getTimestamp();
+                        lastSequence = frame.getSequence();
+                        readCount[0]++;
+                    }
+                    if (finished) {
+                        // 最后一次读取必须拿到最后发布的一帧
+                        if (lastTimestamp != 1000 + frameCount - 1) {
+                            error.set("last frame " + lastTimestamp);
+                        }
+                        break;
+                    }
+                }
+            }
+        }, "consumer");
+
+        consumer.start();
+        producer.start();
+        producer.join();
+        consumer.join();
+        assertNull(error.get(), error.get());
+        assertTrue(readCount[0] > 0);
+    }
+}
@@ -0,0 +1,126 @@
+package com.cgfay.landmark;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 关键点预测测试
+ */
+public class LandmarkPredictorTest {
+
+    private static final long FRAME_TIME = 100000000L;  // 100ms
+    private static final int POINT_COUNT = 4;
+
+    private final LandmarkFrame mSource = new LandmarkFrame();
+    private final LandmarkFrame mOutput = new LandmarkFrame();
+
+    private void setFace(long timestamp, int trackId, float value) {
+        mSource.reset(timestamp);
+        OneFace oneFace = mSource.obtainFace(0);
+        oneFace.trackId = trackId;
+        if (oneFace.vertexPoints == null) {
+            oneFace.vertexPoints = new float[POINT_COUNT];
+        }
+        for (int i = 0; i < POINT_COUNT; i++) {
+            oneFace.vertexPoints[i] = value;
+        }
+    }
+
+    @Test
+    public void constantVelocityIsExtrapolated() {
+        LandmarkPredictor predictor = new LandmarkPredictor();
+        predictor.setParams(true, 1.0f, 5.0f, 200);
+        // 以每秒0.5的速度移动
+        for (int i = 0; i <= 30; i++) {
+            setFace(i * FRAME_TIME, 1, i * 0.05f);
+            predictor.update(mSource);
+        }
+        long timestamp = 30 * FRAME_TIME + FRAME_TIME / 2;
+        predictor.predict(mSource, timestamp, mOutput);
+        assertEquals(1, mOutput.getFaceCount());
+        assertEquals(timestamp, mOutput.getTimestamp());
+        float expected = 30 * 0.05f + 0.025f;
+        assertEquals(expected, mOutput.getFace(0).vertexPoints[0], 0.02f);
+        // 外推结果比最后一次测量更接近真实位置
+        assertTrue(mOutput.getFace(0).vertexPoints[0] > 30 * 0.05f);
+    }
+
+    @Test
+    public void predictionTimeIsClamped() {
+        LandmarkPredictor predictor = new LandmarkPredictor();
+        predictor.setParams(true, 1.0f, 5.0f, 50);
+        for (int i = 0; i <= 30; i++) {
+            setFace(i * FRAME_TIME, 1, i * 0.05f);
+            predictor.update(mSource);
+        }
+        predictor.predict(mSource, 30 * FRAME_TIME + 50000000L, mOutput);
+        float limit = mOutput.getFace(0).vertexPoints[0];
+        predictor.predict(mSource, 30 * FRAME_TIME + 1000000000L, mOutput);
+        assertEquals(limit, mOutput.getFace(0).vertexPoints[0], 1e-6f);
+    }
+
+    @Test
+    public void jitterIsSmoothed() {
+        LandmarkPredictor predictor = new LandmarkPredictor();
+        predictor.setParams(true, 1.0f, 0.5f, 0);
+        Random random = new Random(7);
+        double inputError = 0;
+        double outputError = 0;
+        for (int i = 0; i < 200; i++) {
+            float noise = (random.nextFloat() - 0.5f) * 0.02f;
+            setFace(i * FRAME_TIME / 3, 1, noise);
+            predictor.update(mSource);
+            predictor.predict(mSource, i * FRAME_TIME / 3, mOutput);
+            if (i > 20) {
+                inputError += noise * noise;
+                float value = mOutput.getFace(0).vertexPoints[0];
+                outputError += value * value;
+            }
+        }
+        assertTrue(outputError < inputError * 0.5);
+    }
+
+    @Test
+    public void newTrackIdStartsFresh() {
+        LandmarkPredictor predictor = new LandmarkPredictor();
+        predictor.setParams(true, 1.0f, 5.0f, 200);
+        for (int i = 0; i <= 10; i++) {
+            setFace(i * FRAME_TIME, 1, i * 0.1f);
+            predictor.update(mSource);
+        }
+        // 另一个人脸出现在同一个索引上，不能继承之前的速度
+        setFace(11 * FRAME_TIME, 2, -0.5f);
+        predictor.update(mSource);
+        predictor.predict(mSource, 11 * FRAME_TIME + FRAME_TIME / 2, mOutput);
+        assertEquals(2, mOutput.getFace(0).trackId);
+        assertEquals(-0.5f, mOutput.getFace(0).vertexPoints[0], 1e-6f);
+    }
+
+    @Test
+    public void engineUsesPredictedFrame() {
+        LandmarkEngine engine = LandmarkEngine.getInstance();
+        engine.getPredictor().setParams(true, 1.0f, 5.0f, 200);
+        try {
+            for (int i = 0; i <= 10; i++) {
+                LandmarkFrame frame = engine.beginFrame(i * FRAME_TIME);
+                OneFace oneFace = frame.obtainFace(0);
+                oneFace.trackId = 3;
+                oneFace.vertexPoints = new float[POINT_COUNT];
+                oneFace.vertexPoints[0] = i * 0.05f;
+                engine.publishFrame();
+                engine.acquireFrame(i * FRAME_TIME);
+            }
+            LandmarkFrame current = engine.acquireFrame(10 * FRAME_TIME + FRAME_TIME / 2);
+            assertEquals(10 * FRAME_TIME + FRAME_TIME / 2, current.getTimestamp());
+            assertTrue(engine.getOneFace(0).vertexPoints[0] > 0.5f);
+        } finally {
+            engine.getPredictor().setParams(false, LandmarkPredictor.DEFAULT_MIN_CUTOFF,
+                    LandmarkPredictor.DEFAULT_BETA, LandmarkPredictor.DEFAULT_MAX_PREDICTION_TIME);
+            engine.clearAll();
+            engine.acquireFrame();
+        }
+    }
+}
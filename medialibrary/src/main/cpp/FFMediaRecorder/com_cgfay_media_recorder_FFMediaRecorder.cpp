@@ -318,9 +318,8 @@ Java_com_cgfay_media_recorder_FFMediaRecorder_recordVideoFrame(JNIEnv *env, jobj
             LOGE("Could not allocate memory");
             return -1;
         }
-        jbyte *data = env->GetByteArrayElements(data_, nullptr);
-        memcpy(yuvData, data, (size_t) length);
-        env->ReleaseByteArrayElements(data_, data, 0);
+        // 直接复制到帧数据中，预览缓冲会被相机复用，不需要锁定或写回Java数组
+        env->GetByteArrayRegion(data_, 0, length, (jbyte *) yuvData);
 
         auto mediaData = new AVMediaData();
         mediaData->setVideo(yuvData, length, width, height, pixelFormat);
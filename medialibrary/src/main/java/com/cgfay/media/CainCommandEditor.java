@@ -9,9 +9,11 @@ import android.os.HandlerThread;
 import androidx.annotation.NonNull;
 import android.util.Log;
 
+import com.cgfay.media.mp4.Mp4Concatenator;
 import com.cgfay.uitls.utils.FileUtils;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.List;
@@ -68,46 +70,37 @@ public class CainCommandEditor {
     }
 
     /**
-     * 命令行执行回调
+     * 拼接视频片段，优先在Java层直接拼接MP4，片段格式不支持时回退到FFmpeg拼接
+     * @param context
+     * @param videos    片段路径
+     * @param output    输出路径
+     * @param callback  结果回调，0表示成功
      */
-    public interface CommandProcessCallback {
-
-        void onProcessResult(int result);
+    public void concatVideo(@NonNull Context context, @NonNull List<String> videos, @NonNull String output,
+                            CommandProcessCallback callback) {
+        mHandler.post(() -> {
+            int ret = 0;
+            long start = System.currentTimeMillis();
+            try {
+                Mp4Concatenator.concat(videos, output);
+                Log.d(TAG, "concatVideo: " + videos.size() + " segments in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            } catch (IOException e) {
+                Log.w(TAG, "concatVideo: fallback to ffmpeg, " + e.getMessage());
+                ret = FFmpegUtils.execute(concatVideo(context, videos, output));
+            }
+            if (callback != null) {
+                callback.onProcessResult(ret);
+            }
+        });
     }
 
     /**
-     * 合并音视频命令
-     * @param videoPath
-     * @param audioPath
-     * @param output
-     * @return
+     * 命令行执行回调
      */
-    public static String[] mergeAudioVideo(@NonNull String videoPath, @NonNull String audioPath, @NonNull String output) {
-        List<String> cmdList = new ArrayList<String>();
-
-        float duration = getDuration(audioPath) / 1000000f;
-        cmdList.add("ffmpeg");
-        cmdList.add("-i");
-        cmdList.add(audioPath);
-        cmdList.add("-i");
-        cmdList.add(videoPath);
-
-        cmdList.add("-ss");
-        cmdList.add("0");
-        cmdList.add("-t");
-        cmdList.add("" + duration);
-
-        cmdList.add("-acodec");
-        cmdList.add("copy");
-        cmdList.add("-vcodec");
-        cmdList.add("copy");
-
-        cmdList.add("-y");
-        cmdList.add(output);
+    public interface CommandProcessCallback {
 
-        String[] cmds = new String[cmdList.size()];
-        cmdList.toArray(cmds);
-        return cmds;
+        void onProcessResult(int result);
     }
 
     /**
@@ -0,0 +1,209 @@
+package com.cgfay.media.mp4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * MP4(ISO-BMFF) box
+ * 容器box解析为子box列表，其余box只保存负载数据，只用于moov这类较小的box，mdat不会读入内存
+ */
+final class Mp4Box {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    // 需要展开子box的容器类型
+    private static final List<String> CONTAINERS = Arrays.asList(
+            "moov", "trak", "mdia", "minf", "stbl", "edts", "dinf");
+
+    final String type;
+    // 非容器box的负载数据
+    byte[] data;
+    // 容器box的子box
+    List<Mp4Box> children;
+
+    Mp4Box(String type, byte[] data) {
+        this.type = type;
+        this.data = data;
+    }
+
+    Mp4Box(String type, List<Mp4Box> children) {
+        this.type = type;
+        this.children = children;
+    }
+
+    boolean isContainer() {
+        return children != null;
+    }
+
+    /**
+     * 查找第一个指定类型的子box
+     */
+    Mp4Box child(String type) {
+        if (children != null) {
+            for (Mp4Box box : children) {
+                if (box.type.equals(type)) {
+                    return box;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 按路径查找子box，例如"mdia/minf/stbl"
+     */
+    Mp4Box find(String path) {
+        Mp4Box box = this;
+        for (String type : path.split("/")) {
+            box = box.child(type);
+            if (box == null) {
+                return null;
+            }
+        }
+        return box;
+    }
+
+    /**
+     * 查找所有指定类型的子box
+     */
+    List<Mp4Box> childrenOf(String type) {
+        List<Mp4Box> result = new ArrayList<>();
+        if (children != null) {
+            for (Mp4Box box : children) {
+                if (box.type.equals(type)) {
+                    result.add(box);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 替换或者添加子box，不存在时添加到after之后，after为null时添加到末尾
+     */
+    void setChild(Mp4Box box, String after) {
+        for (int i = 0; i < children.size(); i++) {
+            if (children.get(i).type.equals(box.type)) {
+                children.set(i, box);
+                return;
+            }
+        }
+        int index = children.size();
+        if (after != null) {
+            for (int i = 0; i < children.size(); i++) {
+                if (children.get(i).type.equals(after)) {
+                    index = i + 1;
+                    break;
+                }
+            }
+        }
+        children.add(index, box);
+    }
+
+    void removeChild(String type) {
+        for (int i = children.size() - 1; i >= 0; i--) {
+            if (children.get(i).type.equals(type)) {
+                children.remove(i);
+            }
+        }
+    }
+
+    /**
+     * 深拷贝
+     */
+    Mp4Box copy() {
+        if (children == null) {
+            return new Mp4Box(type, data.clone());
+        }
+        List<Mp4Box> list = new ArrayList<>(children.size());
+        for (Mp4Box box : children) {
+            list.add(box.copy());
+        }
+        return new Mp4Box(type, list);
+    }
+
+    /**
+     * 包括头部在内的大小
+     */
+    long size() {
+        long size = 8;
+        if (children != null) {
+            for (Mp4Box box : children) {
+                size += box.size();
+            }
+        } else {
+            size += data.length;
+        }
+        return size;
+    }
+
+    void write(ByteBuffer buffer) {
+        buffer.putInt((int) size());
+        buffer.put(type.getBytes(ASCII), 0, 4);
+        if (children != null) {
+            for (Mp4Box box : children) {
+                box.write(buffer);
+            }
+        } else {
+            buffer.put(data);
+        }
+    }
+
+    byte[] toByteArray() {
+        long size = size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("box too large: " + type);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        write(buffer);
+        return buffer.array();
+    }
+
+    /**
+     * 解析一段数据中的所有box
+     * @param buffer position到limit之间为box数据
+     * @throws IOException box大小不合法
+     */
+    static List<Mp4Box> parse(ByteBuffer buffer) throws IOException {
+        List<Mp4Box> boxes = new ArrayList<>();
+        while (buffer.remaining() >= 8) {
+            int start = buffer.position();
+            long size = buffer.getInt() & 0xFFFFFFFFL;
+            byte[] typeBytes = new byte[4];
+            buffer.get(typeBytes);
+            String type = new String(typeBytes, ASCII);
+            int headerSize = 8;
+            if (size == 1) {
+                size = buffer.getLong();
+                headerSize = 16;
+            } else if (size == 0) {
+                size = buffer.limit() - start;
+            }
+            if (size < headerSize || start + size > buffer.limit()) {
+                throw new IOException("invalid box size: " + type + ", " + size);
+            }
+            int end = (int) (start + size);
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(start + headerSize);
+            payload.limit(end);
+            if (CONTAINERS.contains(type)) {
+                boxes.add(new Mp4Box(type, parse(payload)));
+            } else {
+                byte[] data = new byte[payload.remaining()];
+                payload.get(data);
+                boxes.add(new Mp4Box(type, data));
+            }
+            buffer.position(end);
+        }
+        return boxes;
+    }
+
+    @Override
+    public String toString() {
+        return type + "(" + size() + ")";
+    }
+}
@@ -0,0 +1,667 @@
+package com.cgfay.media.mp4;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * MP4片段拼接器
+ * 用于拼接同一编码参数录制的多个片段，只改写moov中的采样表(stts/ctts/stss/stsc/stsz/stco/co64)，
+ * mdat数据通过FileChannel.transferTo直接复制，不解码也不重新封装每一帧。
+ * 输出文件的moov位于mdat之前，可以直接边下边播。
+ * 各片段的轨道数量、轨道类型、时间刻度以及采样描述必须一致，否则抛出IOException，调用方可以回退到FFmpeg拼接。
+ */
+public final class Mp4Concatenator {
+
+    // moov最大读取大小
+    private static final int MAX_MOOV_SIZE = 64 * 1024 * 1024;
+
+    private Mp4Concatenator() {
+
+    }
+
+    /**
+     * 拼接MP4片段
+     * @param inputs    按顺序排列的片段路径
+     * @param output    输出路径
+     * @throws IOException 片段格式不支持或者读写失败，失败时会删除输出文件
+     */
+    public static void concat(List<String> inputs, String output) throws IOException {
+        if (inputs == null || inputs.isEmpty()) {
+            throw new IOException("no input");
+        }
+        List<Source> sources = new ArrayList<>(inputs.size());
+        File outputFile = new File(output);
+        boolean success = false;
+        try {
+            for (String path : inputs) {
+                sources.add(Source.open(path));
+            }
+            write(sources, outputFile);
+            success = true;
+        } finally {
+            for (Source source : sources) {
+                source.close();
+            }
+            if (!success) {
+                outputFile.delete();
+            }
+        }
+    }
+
+    private static void write(List<Source> sources, File output) throws IOException {
+        Source first = sources.get(0);
+        int trackCount = first.tracks.size();
+        if (trackCount == 0) {
+            throw new IOException("no track in " + first.path);
+        }
+        for (Source source : sources) {
+            if (source.tracks.size() != trackCount) {
+                throw new IOException("track count mismatch: " + source.path);
+            }
+            for (int t = 0; t < trackCount; t++) {
+                if (!first.tracks.get(t).isCompatible(source.tracks.get(t))) {
+                    throw new IOException("incompatible track " + t + ": " + source.path);
+                }
+            }
+        }
+
+        // 输出mdat中各片段数据的位置，相对于mdat负载起始位置
+        long payloadSize = 0;
+        for (Source source : sources) {
+            source.outputStarts = new long[source.mdatStarts.length];
+            for (int i = 0; i < source.mdatStarts.length; i++) {
+                source.outputStarts[i] = payloadSize;
+                payloadSize += source.mdatEnds[i] - source.mdatStarts[i];
+            }
+        }
+
+        // 各片段的起始时间(微秒)，片段时长取各轨道结束时间的最大值
+        long[] segmentStarts = new long[sources.size()];
+        long segmentStart = 0;
+        for (int i = 0; i < sources.size(); i++) {
+            segmentStarts[i] = segmentStart;
+            Source source = sources.get(i);
+            long duration = 0;
+            for (Mp4Track track : source.tracks) {
+                long end = toUs(track.emptyEditDuration, source.timescale)
+                        + toUs(track.getMediaDuration(), track.timescale);
+                duration = Math.max(duration, end);
+            }
+            segmentStart += duration;
+        }
+
+        // 拼接采样表
+        TrackBuilder[] builders = new TrackBuilder[trackCount];
+        for (int t = 0; t < trackCount; t++) {
+            boolean composition = false;
+            boolean sync = false;
+            for (Source source : sources) {
+                Mp4Track track = source.tracks.get(t);
+                composition |= track.compositionCounts != null;
+                sync |= track.syncSamples != null;
+            }
+            TrackBuilder builder = new TrackBuilder(composition, sync);
+            long firstEmpty = toUs(first.tracks.get(t).emptyEditDuration, first.timescale);
+            for (int i = 0; i < sources.size(); i++) {
+                Source source = sources.get(i);
+                Mp4Track track = source.tracks.get(t);
+                // 保持各片段内音视频的相对位置，不让误差在片段之间累积
+                long start = segmentStarts[i] + toUs(track.emptyEditDuration, source.timescale) - firstEmpty;
+                builder.append(track, source, toTimescale(start, track.timescale));
+            }
+            builders[t] = builder;
+        }
+
+        // 先按32位偏移计算moov大小，偏移超出范围时改用co64
+        long ftypSize = first.ftyp != null ? first.ftyp.size() : 0;
+        int mdatHeaderSize = payloadSize + 8 > 0xFFFFFFFFL ? 16 : 8;
+        boolean largeOffset = false;
+        long moovSize = buildMoov(first, builders, false, 0).size();
+        long dataOffset = ftypSize + moovSize + mdatHeaderSize;
+        if (dataOffset + payloadSize > 0xFFFFFFFFL) {
+            largeOffset = true;
+            moovSize = buildMoov(first, builders, true, 0).size();
+            dataOffset = ftypSize + moovSize + mdatHeaderSize;
+        }
+        Mp4Box moov = buildMoov(first, builders, largeOffset, dataOffset);
+
+        FileOutputStream outputStream = new FileOutputStream(output);
+        try {
+            FileChannel channel = outputStream.getChannel();
+            if (first.ftyp != null) {
+                writeFully(channel, ByteBuffer.wrap(first.ftyp.toByteArray()));
+            }
+            writeFully(channel, ByteBuffer.wrap(moov.toByteArray()));
+            ByteBuffer header = ByteBuffer.allocate(mdatHeaderSize);
+            if (mdatHeaderSize == 16) {
+                header.putInt(1);
+                header.put(new byte[] {'m', 'd', 'a', 't'});
+                header.putLong(payloadSize + 16);
+            } else {
+                header.putInt((int) (payloadSize + 8));
+                header.put(new byte[] {'m', 'd', 'a', 't'});
+            }
+            header.flip();
+            writeFully(channel, header);
+            // 直接复制mdat数据
+            for (Source source : sources) {
+                for (int i = 0; i < source.mdatStarts.length; i++) {
+                    long position = source.mdatStarts[i];
+                    long end = source.mdatEnds[i];
+                    while (position < end) {
+                        long count = source.channel.transferTo(position, end - position, channel);
+                        if (count <= 0) {
+                            throw new IOException("transfer failed: " + source.path);
+                        }
+                        position += count;
+                    }
+                }
+            }
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * 以第一个片段的moov为模板，替换时长和采样表
+     */
+    private static Mp4Box buildMoov(Source first, TrackBuilder[] builders,
+                                    boolean largeOffset, long dataOffset) throws IOException {
+        Mp4Box moov = first.moov.copy();
+        List<Mp4Box> traks = moov.childrenOf("trak");
+        long movieDuration = 0;
+        for (int t = 0; t < builders.length; t++) {
+            Mp4Track track = first.tracks.get(t);
+            TrackBuilder builder = builders[t];
+            Mp4Box trak = traks.get(t);
+
+            long mediaDuration = builder.mediaDuration;
+            long trackDuration = track.emptyEditDuration
+                    + toTimescale(toUs(mediaDuration, track.timescale), first.timescale);
+            movieDuration = Math.max(movieDuration, trackDuration);
+            patchDuration(trak.child("tkhd"), 20, 28, trackDuration);
+            patchDuration(trak.find("mdia/mdhd"), 16, 24, mediaDuration);
+
+            // 编辑列表只保留第一个片段开头的空白
+            trak.removeChild("edts");
+            if (track.emptyEditDuration > 0 || track.editMediaTime != 0) {
+                trak.setChild(buildEdts(track, trackDuration - track.emptyEditDuration), "tkhd");
+            }
+
+            Mp4Box stbl = trak.find("mdia/minf/stbl");
+            List<Mp4Box> children = new ArrayList<>();
+            children.add(stbl.child("stsd"));
+            children.addAll(builder.buildTables(largeOffset, dataOffset));
+            stbl.children = children;
+        }
+        patchDuration(moov.child("mvhd"), 16, 24, movieDuration);
+        return moov;
+    }
+
+    private static Mp4Box buildEdts(Mp4Track track, long mediaDuration) {
+        int count = track.emptyEditDuration > 0 ? 2 : 1;
+        ByteBuffer buffer = ByteBuffer.allocate(8 + count * 20);
+        buffer.putInt(0x01000000);
+        buffer.putInt(count);
+        if (track.emptyEditDuration > 0) {
+            buffer.putLong(track.emptyEditDuration);
+            buffer.putLong(-1);
+            buffer.putInt(0x00010000);
+        }
+        buffer.putLong(mediaDuration);
+        buffer.putLong(track.editMediaTime);
+        buffer.putInt(0x00010000);
+        List<Mp4Box> children = new ArrayList<>();
+        children.add(new Mp4Box("elst", Arrays.copyOf(buffer.array(), buffer.position())));
+        return new Mp4Box("edts", children);
+    }
+
+    /**
+     * 修改mvhd/tkhd/mdhd中的时长
+     */
+    private static void patchDuration(Mp4Box box, int offset, int offset64, long duration)
+            throws IOException {
+        if (box == null) {
+            throw new IOException("missing header box");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(box.data);
+        if (box.data[0] == 1) {
+            buffer.putLong(offset64, duration);
+        } else {
+            buffer.putInt(offset, (int) Math.min(duration, 0xFFFFFFFFL));
+        }
+    }
+
+    private static long toUs(long value, long timescale) {
+        return timescale > 0 ? value * 1000000L / timescale : 0;
+    }
+
+    private static long toTimescale(long timeUs, long timescale) {
+        return (timeUs * timescale + 500000L) / 1000000L;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * 输入片段，只读取ftyp和moov，记录mdat的位置
+     */
+    private static final class Source implements Closeable {
+
+        final String path;
+        final RandomAccessFile file;
+        final FileChannel channel;
+        Mp4Box ftyp;
+        Mp4Box moov;
+        // 电影时间刻度
+        long timescale;
+        final List<Mp4Track> tracks = new ArrayList<>();
+        // mdat负载在输入文件中的范围
+        long[] mdatStarts;
+        long[] mdatEnds;
+        // mdat负载在输出mdat中的位置
+        long[] outputStarts;
+
+        private Source(String path) throws IOException {
+            this.path = path;
+            file = new RandomAccessFile(path, "r");
+            channel = file.getChannel();
+        }
+
+        static Source open(String path) throws IOException {
+            Source source = new Source(path);
+            try {
+                source.parse();
+            } catch (IOException | RuntimeException e) {
+                source.close();
+                throw e instanceof IOException ? (IOException) e
+                        : new IOException("invalid mp4: " + path, e);
+            }
+            return source;
+        }
+
+        private void parse() throws IOException {
+            long size = channel.size();
+            long position = 0;
+            List<long[]> mdats = new ArrayList<>();
+            ByteBuffer header = ByteBuffer.allocate(16);
+            while (position + 8 <= size) {
+                header.clear();
+                header.limit(8);
+                readFully(header, position);
+                header.flip();
+                long boxSize = header.getInt() & 0xFFFFFFFFL;
+                String type = new String(header.array(), 4, 4, "US-ASCII");
+                int headerSize = 8;
+                if (boxSize == 1) {
+                    header.clear();
+                    header.limit(8);
+                    readFully(header, position + 8);
+                    header.flip();
+                    boxSize = header.getLong();
+                    headerSize = 16;
+                } else if (boxSize == 0) {
+                    boxSize = size - position;
+                }
+                if (boxSize < headerSize || position + boxSize > size) {
+                    throw new IOException("invalid box size: " + type + " in " + path);
+                }
+                if (type.equals("ftyp") || type.equals("moov")) {
+                    if (boxSize > MAX_MOOV_SIZE) {
+                        throw new IOException(type + " too large: " + path);
+                    }
+                    ByteBuffer buffer = ByteBuffer.allocate((int) boxSize);
+                    readFully(buffer, position);
+                    buffer.flip();
+                    Mp4Box box = Mp4Box.parse(buffer).get(0);
+                    if (type.equals("ftyp")) {
+                        ftyp = box;
+                    } else {
+                        moov = box;
+                    }
+                } else if (type.equals("mdat")) {
+                    mdats.add(new long[] {position + headerSize, position + boxSize});
+                }
+                position += boxSize;
+            }
+            if (moov == null) {
+                throw new IOException("missing moov: " + path);
+            }
+            Mp4Box mvhd = moov.child("mvhd");
+            if (mvhd == null) {
+                throw new IOException("missing mvhd: " + path);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(mvhd.data);
+            timescale = buffer.getInt(mvhd.data[0] == 1 ? 20 : 12) & 0xFFFFFFFFL;
+            for (Mp4Box trak : moov.childrenOf("trak")) {
+                tracks.add(new Mp4Track(trak));
+            }
+            mdatStarts = new long[mdats.size()];
+            mdatEnds = new long[mdats.size()];
+            for (int i = 0; i < mdats.size(); i++) {
+                mdatStarts[i] = mdats.get(i)[0];
+                mdatEnds[i] = mdats.get(i)[1];
+            }
+        }
+
+        /**
+         * 输入文件中的偏移转换为输出mdat负载中的偏移
+         */
+        long mapOffset(long offset) throws IOException {
+            for (int i = 0; i < mdatStarts.length; i++) {
+                if (offset >= mdatStarts[i] && offset < mdatEnds[i]) {
+                    return outputStarts[i] + offset - mdatStarts[i];
+                }
+            }
+            throw new IOException("chunk offset " + offset + " outside mdat: " + path);
+        }
+
+        private void readFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                int count = channel.read(buffer, position);
+                if (count < 0) {
+                    throw new IOException("unexpected end of file: " + path);
+                }
+                position += count;
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * 拼接一个轨道的采样表
+     */
+    private static final class TrackBuilder {
+
+        final IntArray timeCounts = new IntArray();
+        final IntArray timeDeltas = new IntArray();
+        final IntArray compositionCounts;
+        final IntArray compositionOffsets;
+        int compositionVersion;
+        final IntArray sampleSizes = new IntArray();
+        // 所有片段采样大小都相同时使用固定大小
+        int constantSize = -1;
+        final IntArray chunkFirsts = new IntArray();
+        final IntArray chunkSamples = new IntArray();
+        final IntArray chunkDescriptions = new IntArray();
+        final LongArray chunkOffsets = new LongArray();
+        final IntArray syncSamples;
+        int sampleCount;
+        long mediaDuration;
+
+        TrackBuilder(boolean composition, boolean sync) {
+            compositionCounts = composition ? new IntArray() : null;
+            compositionOffsets = composition ? new IntArray() : null;
+            syncSamples = sync ? new IntArray() : null;
+        }
+
+        /**
+         * 追加一个片段的轨道
+         * @param track     片段的轨道
+         * @param source    片段
+         * @param start     轨道在输出中的起始时间(媒体时间刻度)
+         */
+        void append(Mp4Track track, Source source, long start) throws IOException {
+            if (sampleCount > 0) {
+                alignTo(start);
+            }
+            // stts
+            for (int i = 0; i < track.timeCounts.length; i++) {
+                addTime(track.timeCounts[i], track.timeDeltas[i]);
+                mediaDuration += (long) track.timeCounts[i] * track.timeDeltas[i];
+            }
+            // ctts，没有ctts的片段偏移为0
+            if (compositionCounts != null) {
+                if (track.compositionCounts != null) {
+                    compositionVersion = Math.max(compositionVersion, track.compositionVersion);
+                    for (int i = 0; i < track.compositionCounts.length; i++) {
+                        addComposition(track.compositionCounts[i], track.compositionOffsets[i]);
+                    }
+                } else if (track.sampleCount > 0) {
+                    addComposition(track.sampleCount, 0);
+                }
+            }
+            // stsz
+            if (track.sampleSizes == null && (constantSize < 0 || constantSize == track.constantSize)
+                    && sampleSizes.size() == 0) {
+                constantSize = track.constantSize;
+            } else {
+                expandConstantSize();
+                for (int i = 0; i < track.sampleCount; i++) {
+                    sampleSizes.add(track.getSampleSize(i));
+                }
+            }
+            // stss，没有stss的片段全部都是关键帧
+            if (syncSamples != null) {
+                if (track.syncSamples != null) {
+                    for (int number : track.syncSamples) {
+                        syncSamples.add(number + sampleCount);
+                    }
+                } else {
+                    for (int i = 1; i <= track.sampleCount; i++) {
+                        syncSamples.add(i + sampleCount);
+                    }
+                }
+            }
+            // stsc
+            int chunkBase = chunkOffsets.size();
+            for (int i = 0; i < track.chunkFirsts.length; i++) {
+                int last = chunkSamples.size() - 1;
+                if (last >= 0 && chunkSamples.get(last) == track.chunkSamples[i]
+                        && chunkDescriptions.get(last) == track.chunkDescriptions[i]) {
+                    continue;
+                }
+                chunkFirsts.add(track.chunkFirsts[i] + chunkBase);
+                chunkSamples.add(track.chunkSamples[i]);
+                chunkDescriptions.add(track.chunkDescriptions[i]);
+            }
+            // stco
+            for (long offset : track.chunkOffsets) {
+                chunkOffsets.add(source.mapOffset(offset));
+            }
+            sampleCount += track.sampleCount;
+        }
+
+        /**
+         * 调整上一个片段最后一帧的时长，让下一个片段从指定时间开始
+         */
+        private void alignTo(long start) {
+            int last = timeCounts.size() - 1;
+            long gap = start - mediaDuration;
+            if (last < 0 || gap == 0) {
+                return;
+            }
+            int delta = timeDeltas.get(last);
+            int newDelta = (int) Math.max(1, Math.min(Integer.MAX_VALUE, delta + gap));
+            if (timeCounts.get(last) > 1) {
+                timeCounts.set(last, timeCounts.get(last) - 1);
+                timeCounts.add(1);
+                timeDeltas.add(newDelta);
+            } else {
+                timeDeltas.set(last, newDelta);
+            }
+            mediaDuration += newDelta - delta;
+        }
+
+        private void addTime(int count, int delta) {
+            int last = timeCounts.size() - 1;
+            if (last >= 0 && timeDeltas.get(last) == delta) {
+                timeCounts.set(last, timeCounts.get(last) + count);
+            } else if (count > 0) {
+                timeCounts.add(count);
+                timeDeltas.add(delta);
+            }
+        }
+
+        private void addComposition(int count, int offset) {
+            int last = compositionCounts.size() - 1;
+            if (last >= 0 && compositionOffsets.get(last) == offset) {
+                compositionCounts.set(last, compositionCounts.get(last) + count);
+            } else if (count > 0) {
+                compositionCounts.add(count);
+                compositionOffsets.add(offset);
+            }
+        }
+
+        private void expandConstantSize() {
+            if (constantSize >= 0) {
+                for (int i = 0; i < sampleCount; i++) {
+                    sampleSizes.add(constantSize);
+                }
+                constantSize = -1;
+            }
+        }
+
+        /**
+         * 生成采样表
+         * @param largeOffset   是否使用co64
+         * @param dataOffset    输出文件中mdat负载的起始位置
+         */
+        List<Mp4Box> buildTables(boolean largeOffset, long dataOffset) {
+            List<Mp4Box> boxes = new ArrayList<>();
+
+            ByteBuffer buffer = fullBox(4 + timeCounts.size() * 8, 0);
+            buffer.putInt(timeCounts.size());
+            for (int i = 0; i < timeCounts.size(); i++) {
+                buffer.putInt(timeCounts.get(i));
+                buffer.putInt(timeDeltas.get(i));
+            }
+            boxes.add(new Mp4Box("stts", buffer.array()));
+
+            if (compositionCounts != null) {
+                buffer = fullBox(4 + compositionCounts.size() * 8, compositionVersion);
+                buffer.putInt(compositionCounts.size());
+                for (int i = 0; i < compositionCounts.size(); i++) {
+                    buffer.putInt(compositionCounts.get(i));
+                    buffer.putInt(compositionOffsets.get(i));
+                }
+                boxes.add(new Mp4Box("ctts", buffer.array()));
+            }
+
+            if (syncSamples != null) {
+                buffer = fullBox(4 + syncSamples.size() * 4, 0);
+                buffer.putInt(syncSamples.size());
+                for (int i = 0; i < syncSamples.size(); i++) {
+                    buffer.putInt(syncSamples.get(i));
+                }
+                boxes.add(new Mp4Box("stss", buffer.array()));
+            }
+
+            buffer = fullBox(4 + chunkFirsts.size() * 12, 0);
+            buffer.putInt(chunkFirsts.size());
+            for (int i = 0; i < chunkFirsts.size(); i++) {
+                buffer.putInt(chunkFirsts.get(i));
+                buffer.putInt(chunkSamples.get(i));
+                buffer.putInt(chunkDescriptions.get(i));
+            }
+            boxes.add(new Mp4Box("stsc", buffer.array()));
+
+            if (constantSize >= 0) {
+                buffer = fullBox(8, 0);
+                buffer.putInt(constantSize);
+                buffer.putInt(sampleCount);
+            } else {
+                buffer = fullBox(8 + sampleSizes.size() * 4, 0);
+                buffer.putInt(0);
+                buffer.putInt(sampleSizes.size());
+                for (int i = 0; i < sampleSizes.size(); i++) {
+                    buffer.putInt(sampleSizes.get(i));
+                }
+            }
+            boxes.add(new Mp4Box("stsz", buffer.array()));
+
+            if (largeOffset) {
+                buffer = fullBox(4 + chunkOffsets.size() * 8, 0);
+                buffer.putInt(chunkOffsets.size());
+                for (int i = 0; i < chunkOffsets.size(); i++) {
+                    buffer.putLong(chunkOffsets.get(i) + dataOffset);
+                }
+                boxes.add(new Mp4Box("co64", buffer.array()));
+            } else {
+                buffer = fullBox(4 + chunkOffsets.size() * 4, 0);
+                buffer.putInt(chunkOffsets.size());
+                for (int i = 0; i < chunkOffsets.size(); i++) {
+                    buffer.putInt((int) (chunkOffsets.get(i) + dataOffset));
+                }
+                boxes.add(new Mp4Box("stco", buffer.array()));
+            }
+            return boxes;
+        }
+
+        private static ByteBuffer fullBox(int size, int version) {
+            ByteBuffer buffer = ByteBuffer.allocate(4 + size);
+            buffer.putInt(version << 24);
+            return buffer;
+        }
+    }
+
+    /**
+     * 可增长的int数组
+     */
+    private static final class IntArray {
+        private int[] mValues = new int[64];
+        private int mSize;
+
+        void add(int value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = value;
+        }
+
+        int get(int index) {
+            return mValues[index];
+        }
+
+        void set(int index, int value) {
+            mValues[index] = value;
+        }
+
+        int size() {
+            return mSize;
+        }
+    }
+
+    /**
+     * 可增长的long数组
+     */
+    private static final class LongArray {
+        private long[] mValues = new long[64];
+        private int mSize;
+
+        void add(long value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = value;
+        }
+
+        long get(int index) {
+            return mValues[index];
+        }
+
+        int size() {
+            return mSize;
+        }
+    }
+}
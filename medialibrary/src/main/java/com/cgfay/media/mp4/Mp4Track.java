@@ -0,0 +1,225 @@
+package com.cgfay.media.mp4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * MP4轨道的采样表
+ * 从trak box中解析出时间戳、采样大小、分块以及关键帧等信息
+ */
+final class Mp4Track {
+
+    final Mp4Box trak;
+    // 轨道类型，vide、soun等
+    final String handler;
+    // 媒体时间刻度
+    final long timescale;
+    // 采样描述，拼接的片段必须一致
+    final byte[] sampleDescription;
+
+    // stts
+    final int[] timeCounts;
+    final int[] timeDeltas;
+    // ctts，没有时为null
+    final int[] compositionCounts;
+    final int[] compositionOffsets;
+    final int compositionVersion;
+    // stsz，采样大小相同时sampleSizes为null
+    final int sampleCount;
+    final int constantSize;
+    final int[] sampleSizes;
+    // stsc
+    final int[] chunkFirsts;
+    final int[] chunkSamples;
+    final int[] chunkDescriptions;
+    // stco/co64
+    final long[] chunkOffsets;
+    // stss，全部都是关键帧时为null
+    final int[] syncSamples;
+
+    // 编辑列表开头的空白时长(电影时间刻度)
+    final long emptyEditDuration;
+    // 编辑列表中第一段媒体的起始时间(媒体时间刻度)
+    final long editMediaTime;
+
+    Mp4Track(Mp4Box trak) throws IOException {
+        this.trak = trak;
+        Mp4Box mdhd = require(trak, "mdia/mdhd");
+        Mp4Box hdlr = require(trak, "mdia/hdlr");
+        Mp4Box stbl = require(trak, "mdia/minf/stbl");
+
+        handler = new String(hdlr.data, 8, 4, "US-ASCII");
+        ByteBuffer buffer = ByteBuffer.wrap(mdhd.data);
+        int version = buffer.get() & 0xFF;
+        buffer.position(version == 1 ? 20 : 12);
+        timescale = buffer.getInt() & 0xFFFFFFFFL;
+
+        sampleDescription = require(stbl, "stsd").data;
+
+        // stts
+        buffer = fullBox(require(stbl, "stts"));
+        int count = buffer.getInt();
+        timeCounts = new int[count];
+        timeDeltas = new int[count];
+        for (int i = 0; i < count; i++) {
+            timeCounts[i] = buffer.getInt();
+            timeDeltas[i] = buffer.getInt();
+        }
+
+        // ctts
+        Mp4Box ctts = stbl.child("ctts");
+        if (ctts != null) {
+            compositionVersion = ctts.data[0] & 0xFF;
+            buffer = fullBox(ctts);
+            count = buffer.getInt();
+            compositionCounts = new int[count];
+            compositionOffsets = new int[count];
+            for (int i = 0; i < count; i++) {
+                compositionCounts[i] = buffer.getInt();
+                compositionOffsets[i] = buffer.getInt();
+            }
+        } else {
+            compositionVersion = 0;
+            compositionCounts = null;
+            compositionOffsets = null;
+        }
+
+        // stsz
+        buffer = fullBox(require(stbl, "stsz"));
+        constantSize = buffer.getInt();
+        sampleCount = buffer.getInt();
+        if (constantSize == 0) {
+            sampleSizes = new int[sampleCount];
+            for (int i = 0; i < sampleCount; i++) {
+                sampleSizes[i] = buffer.getInt();
+            }
+        } else {
+            sampleSizes = null;
+        }
+
+        // stsc
+        buffer = fullBox(require(stbl, "stsc"));
+        count = buffer.getInt();
+        chunkFirsts = new int[count];
+        chunkSamples = new int[count];
+        chunkDescriptions = new int[count];
+        for (int i = 0; i < count; i++) {
+            chunkFirsts[i] = buffer.getInt();
+            chunkSamples[i] = buffer.getInt();
+            chunkDescriptions[i] = buffer.getInt();
+        }
+
+        // stco/co64
+        Mp4Box stco = stbl.child("stco");
+        Mp4Box co64 = stbl.child("co64");
+        if (stco != null) {
+            buffer = fullBox(stco);
+            count = buffer.getInt();
+            chunkOffsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                chunkOffsets[i] = buffer.getInt() & 0xFFFFFFFFL;
+            }
+        } else if (co64 != null) {
+            buffer = fullBox(co64);
+            count = buffer.getInt();
+            chunkOffsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                chunkOffsets[i] = buffer.getLong();
+            }
+        } else {
+            throw new IOException("missing stco/co64");
+        }
+
+        // stss
+        Mp4Box stss = stbl.child("stss");
+        if (stss != null) {
+            buffer = fullBox(stss);
+            count = buffer.getInt();
+            syncSamples = new int[count];
+            for (int i = 0; i < count; i++) {
+                syncSamples[i] = buffer.getInt();
+            }
+        } else {
+            syncSamples = null;
+        }
+
+        // elst
+        long emptyDuration = 0;
+        long mediaTime = 0;
+        Mp4Box elst = trak.find("edts/elst");
+        if (elst != null) {
+            int elstVersion = elst.data[0] & 0xFF;
+            buffer = fullBox(elst);
+            count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                long duration = elstVersion == 1 ? buffer.getLong() : buffer.getInt() & 0xFFFFFFFFL;
+                long time = elstVersion == 1 ? buffer.getLong() : buffer.getInt();
+                buffer.getInt();
+                if (time == -1) {
+                    emptyDuration += duration;
+                } else {
+                    mediaTime = time;
+                    break;
+                }
+            }
+        }
+        emptyEditDuration = emptyDuration;
+        editMediaTime = mediaTime;
+
+        validate();
+    }
+
+    /**
+     * 媒体时长(媒体时间刻度)
+     */
+    long getMediaDuration() {
+        long duration = 0;
+        for (int i = 0; i < timeCounts.length; i++) {
+            duration += (long) timeCounts[i] * timeDeltas[i];
+        }
+        return duration;
+    }
+
+    int getSampleSize(int index) {
+        return sampleSizes != null ? sampleSizes[index] : constantSize;
+    }
+
+    /**
+     * 判断两个轨道的采样描述是否一致
+     */
+    boolean isCompatible(Mp4Track other) {
+        return handler.equals(other.handler) && timescale == other.timescale
+                && Arrays.equals(sampleDescription, other.sampleDescription);
+    }
+
+    private void validate() throws IOException {
+        long timeSamples = 0;
+        for (int count : timeCounts) {
+            timeSamples += count;
+        }
+        if (timeSamples != sampleCount) {
+            throw new IOException("stts sample count mismatch: " + timeSamples + " != " + sampleCount);
+        }
+        if (chunkFirsts.length > 0 && chunkFirsts[0] != 1) {
+            throw new IOException("invalid stsc first chunk: " + chunkFirsts[0]);
+        }
+    }
+
+    private static Mp4Box require(Mp4Box parent, String path) throws IOException {
+        Mp4Box box = parent.find(path);
+        if (box == null) {
+            throw new IOException("missing box: " + path);
+        }
+        return box;
+    }
+
+    /**
+     * 跳过version和flags
+     */
+    private static ByteBuffer fullBox(Mp4Box box) {
+        ByteBuffer buffer = ByteBuffer.wrap(box.data);
+        buffer.position(4);
+        return buffer;
+    }
+}
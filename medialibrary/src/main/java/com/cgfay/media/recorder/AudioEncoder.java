@@ -3,13 +3,20 @@ package com.cgfay.media.recorder;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
-import android.media.MediaMuxer;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.util.Log;
 
+import androidx.annotation.NonNull;
+
 import java.nio.ByteBuffer;
 
 /**
  * 音频编码器
+ * API 23及以上默认使用MediaCodec.Callback异步模式，编码器的输入输出回调在单独的线程中处理，
+ * 编码线程只在没有空闲输入缓冲时等待，编码后的数据在回调线程中直接写入复用器。
+ * 低版本或者关闭异步模式时使用同步模式。
  */
 public class AudioEncoder {
 
@@ -21,13 +28,18 @@ public class AudioEncoder {
 
     private static final int ENCODE_TIMEOUT = -1;
 
+    // 异步模式下等待输入缓冲和结束标志的超时时间
+    private static final long ASYNC_TIMEOUT_MS = 1000;
+
     private final int mBitrate;
     private final int mSampleRate;
     private final int mChannelCount;
 
     private MediaFormat mMediaFormat;
     private MediaCodec mMediaCodec;
-    private MediaMuxer mMediaMuxer;
+    private SharedMediaMuxer mMuxer;
+    // 复用器是否为外部传入的共用复用器
+    private boolean mSharedMuxer;
     private ByteBuffer[] mInputBuffers;
     private ByteBuffer[] mOutputBuffers;
     private MediaCodec.BufferInfo mBufferInfo;
@@ -36,8 +48,24 @@ public class AudioEncoder {
     private int mAudioTrackId;
     private int mTotalBytesRead;
     private long mPresentationTimeUs;   // 编码的时长
+    // 起始时间戳(微秒)，与视频轨道使用同一时钟
+    private long mStartTimeUs;
     private int mBufferSize = BUFFER_SIZE;
 
+    // 是否允许使用异步模式
+    private boolean mAsyncEnable = true;
+    // 异步模式的回调线程
+    private HandlerThread mCallbackThread;
+    private final Object mAsyncLock = new Object();
+    // 空闲输入缓冲索引
+    private int[] mInputIndices = new int[16];
+    private int mInputHead;
+    private int mInputCount;
+    // 编码器是否已经输出结束标志或者出错
+    private boolean mOutputDone;
+    // 等待输入缓冲超时而丢弃的数据块数量
+    private volatile long mDroppedCount;
+
     public AudioEncoder(int bitrate, int sampleRate, int channelCount) {
         mBitrate = bitrate;
         mSampleRate = sampleRate;
@@ -52,6 +80,23 @@ public class AudioEncoder {
         mOutputPath = path;
     }
 
+    /**
+     * 设置共用的复用器，设置后不再使用输出路径单独创建复用器
+     * @param muxer
+     */
+    void setMuxer(SharedMediaMuxer muxer) {
+        mMuxer = muxer;
+        mSharedMuxer = muxer != null;
+    }
+
+    /**
+     * 设置起始时间戳，编码数据的时间戳为起始时间戳加上已编码的时长
+     * @param startTimeUs System.nanoTime时钟下的微秒
+     */
+    public void setStartTime(long startTimeUs) {
+        mStartTimeUs = startTimeUs;
+    }
+
     /**
      * 设置缓冲区大小
      * @param size
@@ -60,12 +105,27 @@ public class AudioEncoder {
         mBufferSize = size;
     }
 
+    /**
+     * 设置是否允许异步编码模式，需要在prepare之前调用，API 23以下始终使用同步模式
+     * @param enable
+     */
+    public void setAsyncEnable(boolean enable) {
+        mAsyncEnable = enable;
+    }
+
+    /**
+     * 是否处于异步编码模式
+     */
+    public boolean isAsync() {
+        return mCallbackThread != null;
+    }
+
     /**
      * 准备编码器
      * @throws Exception
      */
     public void prepare() throws Exception {
-        if (mOutputPath == null) {
+        if (!mSharedMuxer && mOutputPath == null) {
             throw new IllegalStateException("No Output Path found.");
         }
         mMediaFormat = MediaFormat.createAudioFormat(AUDIO_MIME_TYPE, mSampleRate, mChannelCount);
@@ -73,18 +133,30 @@ public class AudioEncoder {
         mMediaFormat.setInteger(MediaFormat.KEY_BIT_RATE, mBitrate);
         mMediaFormat.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, mBufferSize);
 
+        if (!mSharedMuxer) {
+            mMuxer = new SharedMediaMuxer(mOutputPath, 1);
+        }
+        mAudioTrackId = -1;
+        mTotalBytesRead = 0;
+        mPresentationTimeUs = 0;
+        mOutputDone = false;
+        mInputHead = 0;
+        mInputCount = 0;
+
         mMediaCodec = MediaCodec.createEncoderByType(AUDIO_MIME_TYPE);
+        if (mAsyncEnable && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            mCallbackThread = new HandlerThread("AudioEncoderCallback");
+            mCallbackThread.start();
+            mMediaCodec.setCallback(mCodecCallback, new Handler(mCallbackThread.getLooper()));
+        }
         mMediaCodec.configure(mMediaFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
         mMediaCodec.start();
 
-        mInputBuffers = mMediaCodec.getInputBuffers();
-        mOutputBuffers = mMediaCodec.getOutputBuffers();
-
-        mBufferInfo = new MediaCodec.BufferInfo();
-
-        mMediaMuxer = new MediaMuxer(mOutputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
-        mTotalBytesRead = 0;
-        mPresentationTimeUs = 0;
+        if (mCallbackThread == null) {
+            mInputBuffers = mMediaCodec.getInputBuffers();
+            mOutputBuffers = mMediaCodec.getOutputBuffers();
+            mBufferInfo = new MediaCodec.BufferInfo();
+        }
     }
 
     /**
@@ -92,19 +164,27 @@ public class AudioEncoder {
      */
     public void release() {
         try {
+            // 异步模式下等待回调线程写完剩余的数据
+            if (mCallbackThread != null) {
+                awaitOutputDone();
+            }
             if (mMediaCodec != null) {
                 mMediaCodec.stop();
                 mMediaCodec.release();
                 mMediaCodec = null;
             }
-            if (mMediaMuxer != null) {
-                mMediaMuxer.stop();
-                mMediaMuxer.release();
-                mMediaMuxer = null;
-            }
-
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            // 所有轨道都释放后复用器才会停止
+            if (mMuxer != null) {
+                mMuxer.releaseTrack();
+                mMuxer = null;
+            }
+            if (mCallbackThread != null) {
+                mCallbackThread.quitSafely();
+                mCallbackThread = null;
+            }
         }
     }
 
@@ -114,6 +194,10 @@ public class AudioEncoder {
      * @param len
      */
     public void encodePCM(byte[] data, int len) {
+        if (mCallbackThread != null) {
+            encodePCMAsync(data, len);
+            return;
+        }
         int inputIndex;
         inputIndex = mMediaCodec.dequeueInputBuffer(ENCODE_TIMEOUT);
         if (inputIndex >= 0) {
@@ -121,16 +205,51 @@ public class AudioEncoder {
             buffer.clear();
 
             if (len < 0) {
-                mMediaCodec.queueInputBuffer(inputIndex, 0, 0, (long) mPresentationTimeUs, 0);
+                mMediaCodec.queueInputBuffer(inputIndex, 0, 0, mStartTimeUs + mPresentationTimeUs, 0);
             } else {
                 mTotalBytesRead += len;
                 buffer.put(data, 0, len);
-                mMediaCodec.queueInputBuffer(inputIndex, 0, len, (long) mPresentationTimeUs, 0);
+                mMediaCodec.queueInputBuffer(inputIndex, 0, len, mStartTimeUs + mPresentationTimeUs, 0);
                 mPresentationTimeUs = 1000000L * (mTotalBytesRead / mChannelCount / 2) / mSampleRate;
                 Log.d(TAG, "encodePCM: presentationUs：" + mPresentationTimeUs + ", s: " + (mPresentationTimeUs / 1000000f));
             }
         }
+        drainOutput();
+    }
+
+    /**
+     * 编码PCM数据，直接从direct缓冲复制到编码器的输入缓冲中，不需要中转的byte[]
+     * 数据超过编码器输入缓冲大小时分多次送入
+     * @param data position到limit之间为PCM数据，处理完成后position移动到limit
+     */
+    public void encodePCM(ByteBuffer data) {
+        if (mCallbackThread != null) {
+            encodePCMAsync(data);
+            return;
+        }
+        while (data.hasRemaining()) {
+            int inputIndex = mMediaCodec.dequeueInputBuffer(ENCODE_TIMEOUT);
+            if (inputIndex < 0) {
+                break;
+            }
+            ByteBuffer buffer = mInputBuffers[inputIndex];
+            buffer.clear();
+            int len = Math.min(data.remaining(), buffer.remaining());
+            int limit = data.limit();
+            data.limit(data.position() + len);
+            buffer.put(data);
+            data.limit(limit);
+            mTotalBytesRead += len;
+            mMediaCodec.queueInputBuffer(inputIndex, 0, len, mStartTimeUs + mPresentationTimeUs, 0);
+            mPresentationTimeUs = 1000000L * (mTotalBytesRead / mChannelCount / 2) / mSampleRate;
+            drainOutput();
+        }
+    }
 
+    /**
+     * 取出编码后的数据写入文件
+     */
+    private void drainOutput() {
         int outputIndex = 0;
         while (outputIndex != MediaCodec.INFO_TRY_AGAIN_LATER) {
             outputIndex = mMediaCodec.dequeueOutputBuffer(mBufferInfo, 0);
@@ -141,17 +260,187 @@ public class AudioEncoder {
                 if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0 && mBufferInfo.size != 0) {
                     mMediaCodec.releaseOutputBuffer(outputIndex, false);
                 } else {
-                    mMediaMuxer.writeSampleData(mAudioTrackId, mOutputBuffers[outputIndex], mBufferInfo);
+                    mMuxer.writeSampleData(mAudioTrackId, mOutputBuffers[outputIndex], mBufferInfo);
                     mMediaCodec.releaseOutputBuffer(outputIndex, false);
                 }
             } else if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
                 mMediaFormat = mMediaCodec.getOutputFormat();
-                mAudioTrackId = mMediaMuxer.addTrack(mMediaFormat);
-                mMediaMuxer.start();
+                mAudioTrackId = mMuxer.addTrack(mMediaFormat);
             }
         }
     }
 
+    /**
+     * 异步模式编码PCM数据，len小于0时送入结束标志
+     */
+    private void encodePCMAsync(byte[] data, int len) {
+        int inputIndex = takeInputIndex();
+        if (inputIndex < 0) {
+            if (len > 0) {
+                onBlockDropped(len);
+            }
+            return;
+        }
+        ByteBuffer buffer = mMediaCodec.getInputBuffer(inputIndex);
+        buffer.clear();
+        if (len < 0) {
+            mMediaCodec.queueInputBuffer(inputIndex, 0, 0, mStartTimeUs + mPresentationTimeUs,
+                    MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+        } else {
+            len = Math.min(len, buffer.remaining());
+            buffer.put(data, 0, len);
+            queueInput(inputIndex, len);
+        }
+    }
+
+    /**
+     * 异步模式编码PCM数据，数据超过编码器输入缓冲大小时分多次送入
+     */
+    private void encodePCMAsync(ByteBuffer data) {
+        while (data.hasRemaining()) {
+            int inputIndex = takeInputIndex();
+            if (inputIndex < 0) {
+                // 剩余的数据无法送入编码器，丢弃
+                onBlockDropped(data.remaining());
+                data.position(data.limit());
+                break;
+            }
+            ByteBuffer buffer = mMediaCodec.getInputBuffer(inputIndex);
+            buffer.clear();
+            int len = Math.min(data.remaining(), buffer.remaining());
+            int limit = data.limit();
+            data.limit(data.position() + len);
+            buffer.put(data);
+            data.limit(limit);
+            queueInput(inputIndex, len);
+        }
+    }
+
+    private void onBlockDropped(int size) {
+        mDroppedCount++;
+        Log.w(TAG, "encodePCM: drop " + size + " bytes, dropped blocks - " + mDroppedCount);
+    }
+
+    /**
+     * 等待输入缓冲超时而丢弃的数据块数量
+     */
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    private void queueInput(int inputIndex, int len) {
+        mTotalBytesRead += len;
+        mMediaCodec.queueInputBuffer(inputIndex, 0, len, mStartTimeUs + mPresentationTimeUs, 0);
+        mPresentationTimeUs = 1000000L * (mTotalBytesRead / mChannelCount / 2) / mSampleRate;
+    }
+
+    /**
+     * 取出一个空闲输入缓冲，没有时等待编码器回调
+     * @return 输入缓冲索引，编码器出错或者超时返回-1
+     */
+    private int takeInputIndex() {
+        synchronized (mAsyncLock) {
+            long deadline = System.currentTimeMillis() + ASYNC_TIMEOUT_MS;
+            while (mInputCount == 0 && !mOutputDone) {
+                long remain = deadline - System.currentTimeMillis();
+                if (remain <= 0) {
+                    Log.w(TAG, "takeInputIndex: wait for input buffer timeout");
+                    return -1;
+                }
+                try {
+                    mAsyncLock.wait(remain);
+                } catch (InterruptedException e) {
+                    return -1;
+                }
+            }
+            if (mInputCount == 0) {
+                return -1;
+            }
+            int index = mInputIndices[mInputHead];
+            mInputHead = (mInputHead + 1) % mInputIndices.length;
+            mInputCount--;
+            return index;
+        }
+    }
+
+    /**
+     * 等待编码器输出结束标志
+     */
+    private void awaitOutputDone() {
+        synchronized (mAsyncLock) {
+            long deadline = System.currentTimeMillis() + ASYNC_TIMEOUT_MS;
+            while (!mOutputDone) {
+                long remain = deadline - System.currentTimeMillis();
+                if (remain <= 0) {
+                    Log.w(TAG, "awaitOutputDone: wait for end of stream timeout");
+                    break;
+                }
+                try {
+                    mAsyncLock.wait(remain);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * 异步模式回调，在回调线程中执行
+     */
+    private final MediaCodec.Callback mCodecCallback = new MediaCodec.Callback() {
+
+        @Override
+        public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+            synchronized (mAsyncLock) {
+                if (mInputCount == mInputIndices.length) {
+                    int[] indices = new int[mInputIndices.length * 2];
+                    for (int i = 0; i < mInputCount; i++) {
+                        indices[i] = mInputIndices[(mInputHead + i) % mInputIndices.length];
+                    }
+                    mInputIndices = indices;
+                    mInputHead = 0;
+                }
+                mInputIndices[(mInputHead + mInputCount) % mInputIndices.length] = index;
+                mInputCount++;
+                mAsyncLock.notifyAll();
+            }
+        }
+
+        @Override
+        public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index,
+                                            @NonNull MediaCodec.BufferInfo info) {
+            ByteBuffer encodedData = codec.getOutputBuffer(index);
+            if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && info.size != 0
+                    && encodedData != null) {
+                encodedData.position(info.offset);
+                encodedData.limit(info.offset + info.size);
+                mMuxer.writeSampleData(mAudioTrackId, encodedData, info);
+            }
+            codec.releaseOutputBuffer(index, false);
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                synchronized (mAsyncLock) {
+                    mOutputDone = true;
+                    mAsyncLock.notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+            Log.e(TAG, "onError: " + e.getMessage());
+            synchronized (mAsyncLock) {
+                mOutputDone = true;
+                mAsyncLock.notifyAll();
+            }
+        }
+
+        @Override
+        public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+            mMediaFormat = format;
+            mAudioTrackId = mMuxer.addTrack(format);
+        }
+    };
+
     /**
      * 获取编码时长
      * @return
@@ -0,0 +1,261 @@
+package com.cgfay.media.recorder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * 音频采集管线
+ * 采集线程把PCM数据直接读入预先分配的direct缓冲块，编码线程按顺序取出处理后归还，
+ * 两个线程通过wait/notify唤醒，缓冲块在两个线程之间只传递索引，运行过程中不分配任何对象。
+ * 编码线程跟不上时采集线程会等待空闲缓冲块，并记为一次溢出。
+ */
+final class AudioPipeline {
+
+    /**
+     * PCM数据源
+     */
+    interface PcmSource {
+
+        /**
+         * 读取PCM数据到缓冲的起始位置
+         * @param buffer    direct缓冲
+         * @param size      最大读取字节数
+         * @return 读取的字节数，小于0表示出错
+         */
+        int read(ByteBuffer buffer, int size);
+    }
+
+    /**
+     * PCM数据消费者，在编码线程中回调
+     */
+    interface PcmConsumer {
+
+        /**
+         * 处理一块PCM数据，回调返回后缓冲块会被复用
+         * @param data      position到limit之间为PCM数据
+         * @param samples   同一块数据的16位采样视图
+         */
+        void onPcm(ByteBuffer data, ShortBuffer samples);
+
+        /**
+         * 采集结束
+         */
+        void onEndOfStream();
+    }
+
+    private final Object mLock = new Object();
+
+    private final ByteBuffer[] mBlocks;
+    private final ShortBuffer[] mSamples;
+    private final int mBlockSize;
+    // 缓冲块读入完成的时间
+    private final long[] mBlockTimes;
+
+    // 空闲缓冲块索引
+    private final int[] mFreeQueue;
+    private int mFreeHead;
+    private int mFreeCount;
+    // 已填充数据的缓冲块索引
+    private final int[] mFilledQueue;
+    private int mFilledHead;
+    private int mFilledCount;
+
+    private boolean mStopped;
+    private boolean mCaptureEnded;
+
+    // 统计数据
+    private volatile long mBlockCount;
+    private volatile long mOverrunCount;
+    private volatile long mUnderrunCount;
+    private volatile long mTotalLatency;
+    private volatile long mMaxLatency;
+
+    /**
+     * @param blockSize     单块缓冲大小(字节)
+     * @param blockCount    缓冲块数量
+     */
+    AudioPipeline(int blockSize, int blockCount) {
+        // 16位采样，保证缓冲块大小为偶数
+        mBlockSize = blockSize & ~1;
+        mBlocks = new ByteBuffer[blockCount];
+        mSamples = new ShortBuffer[blockCount];
+        mBlockTimes = new long[blockCount];
+        mFreeQueue = new int[blockCount];
+        mFilledQueue = new int[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            mBlocks[i] = ByteBuffer.allocateDirect(mBlockSize).order(ByteOrder.nativeOrder());
+            mSamples[i] = mBlocks[i].asShortBuffer();
+            mFreeQueue[i] = i;
+        }
+        mFreeCount = blockCount;
+    }
+
+    /**
+     * 采集循环，在采集线程中调用，直到stop或者数据源出错
+     * @param source PCM数据源
+     */
+    void capture(PcmSource source) {
+        try {
+            while (true) {
+                int index = obtainFreeBlock();
+                if (index < 0) {
+                    break;
+                }
+                ByteBuffer block = mBlocks[index];
+                block.clear();
+                int size = source.read(block, mBlockSize);
+                if (size <= 0) {
+                    recycleBlock(index);
+                    if (size < 0) {
+                        break;
+                    }
+                    // 数据源暂时没有数据
+                    mUnderrunCount++;
+                    continue;
+                }
+                block.position(0);
+                block.limit(size);
+                mBlockTimes[index] = System.nanoTime();
+                queueFilledBlock(index);
+            }
+        } finally {
+            synchronized (mLock) {
+                mCaptureEnded = true;
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 编码循环，在编码线程中调用，采集结束并且数据全部处理完后返回
+     * @param consumer PCM数据消费者
+     */
+    void drain(PcmConsumer consumer) {
+        while (true) {
+            int index = takeFilledBlock();
+            if (index < 0) {
+                break;
+            }
+            ByteBuffer block = mBlocks[index];
+            ShortBuffer samples = mSamples[index];
+            samples.clear();
+            samples.limit(block.limit() / 2);
+            try {
+                consumer.onPcm(block, samples);
+            } finally {
+                long latency = System.nanoTime() - mBlockTimes[index];
+                mTotalLatency += latency;
+                if (latency > mMaxLatency) {
+                    mMaxLatency = latency;
+                }
+                mBlockCount++;
+                recycleBlock(index);
+            }
+        }
+        consumer.onEndOfStream();
+    }
+
+    /**
+     * 停止采集，已经读入的数据仍然会交给编码线程处理
+     */
+    void stop() {
+        synchronized (mLock) {
+            mStopped = true;
+            mLock.notifyAll();
+        }
+    }
+
+    private int obtainFreeBlock() {
+        synchronized (mLock) {
+            if (!mStopped && mFreeCount == 0) {
+                mOverrunCount++;
+            }
+            while (!mStopped && mFreeCount == 0) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    return -1;
+                }
+            }
+            if (mStopped) {
+                return -1;
+            }
+            int index = mFreeQueue[mFreeHead];
+            mFreeHead = (mFreeHead + 1) % mFreeQueue.length;
+            mFreeCount--;
+            return index;
+        }
+    }
+
+    private void recycleBlock(int index) {
+        synchronized (mLock) {
+            mFreeQueue[(mFreeHead + mFreeCount) % mFreeQueue.length] = index;
+            mFreeCount++;
+            mLock.notifyAll();
+        }
+    }
+
+    private void queueFilledBlock(int index) {
+        synchronized (mLock) {
+            mFilledQueue[(mFilledHead + mFilledCount) % mFilledQueue.length] = index;
+            mFilledCount++;
+            mLock.notifyAll();
+        }
+    }
+
+    private int takeFilledBlock() {
+        synchronized (mLock) {
+            while (mFilledCount == 0 && !mCaptureEnded) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    return -1;
+                }
+            }
+            if (mFilledCount == 0) {
+                return -1;
+            }
+            int index = mFilledQueue[mFilledHead];
+            mFilledHead = (mFilledHead + 1) % mFilledQueue.length;
+            mFilledCount--;
+            return index;
+        }
+    }
+
+    /**
+     * 已处理的缓冲块数量
+     */
+    long getBlockCount() {
+        return mBlockCount;
+    }
+
+    /**
+     * 采集线程等待空闲缓冲块的次数，说明编码线程跟不上
+     */
+    long getOverrunCount() {
+        return mOverrunCount;
+    }
+
+    /**
+     * 数据源没有读到数据的次数
+     */
+    long getUnderrunCount() {
+        return mUnderrunCount;
+    }
+
+    /**
+     * 从读入完成到处理完成的平均延时(毫秒)
+     */
+    float getAverageLatency() {
+        long count = mBlockCount;
+        return count > 0 ? mTotalLatency / (float) count / 1000000f : 0;
+    }
+
+    /**
+     * 最大延时(毫秒)
+     */
+    float getMaxLatency() {
+        return mMaxLatency / 1000000f;
+    }
+}
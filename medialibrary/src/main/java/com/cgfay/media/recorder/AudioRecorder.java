@@ -3,12 +3,12 @@ package com.cgfay.media.recorder;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.media.MediaRecorder;
-import android.os.SystemClock;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
 
 /**
  * 音频录制器
@@ -17,6 +17,11 @@ import java.nio.ByteOrder;
  */
 public final class AudioRecorder implements Runnable {
 
+    private static final String TAG = "AudioRecorder";
+
+    // 采集管线的缓冲块数量，每块约20ms
+    private static final int PIPELINE_BLOCK_COUNT = 8;
+
     private int mBufferSize = AudioEncoder.BUFFER_SIZE;
 
     // 录音器
@@ -33,6 +38,10 @@ public final class AudioRecorder implements Runnable {
     private int minBufferSize;
     // 录制状态监听器
     private OnRecordListener mRecordListener;
+    // 采集管线
+    private volatile AudioPipeline mPipeline;
+    // 是否允许异步编码
+    private boolean mAsyncEncode = true;
 
     public MediaType getMediaType() {
         return MediaType.AUDIO;
@@ -42,6 +51,14 @@ public final class AudioRecorder implements Runnable {
         mRecordListener = listener;
     }
 
+    /**
+     * 设置是否允许编码器使用异步模式，需要在prepare之前调用
+     * @param enable
+     */
+    public void setAsyncEncode(boolean enable) {
+        mAsyncEncode = enable;
+    }
+
     /**
      * 开始录制
      */
@@ -55,6 +72,10 @@ public final class AudioRecorder implements Runnable {
      */
     public void stopRecord() {
         mRecording = false;
+        AudioPipeline pipeline = mPipeline;
+        if (pipeline != null) {
+            pipeline.stop();
+        }
     }
 
     /**
@@ -62,6 +83,16 @@ public final class AudioRecorder implements Runnable {
      * @throws IOException
      */
     public void prepare(@NonNull AudioParams params) throws Exception {
+        prepare(params, null);
+    }
+
+    /**
+     * 准备编码器
+     * @param params 音频参数
+     * @param muxer  共用的复用器，为null时单独输出音频文件
+     * @throws Exception
+     */
+    void prepare(@NonNull AudioParams params, SharedMediaMuxer muxer) throws Exception {
         mAudioParams = params;
         if (mAudioRecord != null) {
             release();
@@ -91,6 +122,8 @@ public final class AudioRecorder implements Runnable {
         mAudioEncoder = new AudioEncoder(params.getBitRate(), params.getSampleRate(), channelCount);
         mAudioEncoder.setBufferSize(mBufferSize);
         mAudioEncoder.setOutputPath(params.getAudioPath());
+        mAudioEncoder.setMuxer(muxer);
+        mAudioEncoder.setAsyncEnable(mAsyncEncode);
         mAudioEncoder.prepare();
 
         // 音频转码器
@@ -124,79 +157,16 @@ public final class AudioRecorder implements Runnable {
     public void run() {
         long duration = 0;
         try {
-
             // 初始化录音器
-            boolean needToStart = true;
-            while (mRecording && needToStart) {
-                synchronized (this) {
-                    if (mAudioRecord.getState() == AudioRecord.STATE_INITIALIZED) {
-                        mAudioRecord.startRecording();
-                        // 录制开始回调
-                        if (mRecordListener != null) {
-                            mRecordListener.onRecordStart(MediaType.AUDIO);
-                        }
-                        needToStart = false;
-                    }
-                }
-                SystemClock.sleep(10);
-            }
-
-            byte[] pcmData = new byte[minBufferSize];
-            // 录制编码
-            while (mRecording) {
-                int size;
-                // 取出录音PCM数据
-                synchronized (this) {
-                    if (mAudioRecord == null) {
-                        break;
-                    }
-                    size = mAudioRecord.read(pcmData, 0, pcmData.length);
-                }
-                // 将音频送去转码处理
-                if (size > 0) {
-                    ByteBuffer inBuffer = ByteBuffer.wrap(pcmData,0,size).order(ByteOrder.LITTLE_ENDIAN);
-                    mAudioTranscoder.queueInput(inBuffer);
-                } else {
-                    Thread.sleep(100);
-                }
-
-                // 音频倍速转码输出
-                ByteBuffer outPut = mAudioTranscoder.getOutput();
-                if (outPut != null && outPut.hasRemaining()) {
-                    byte[] outData = new byte[outPut.remaining()];
-                    outPut.get(outData);
-                    synchronized (this) {
-                        if (mAudioEncoder == null) {
-                            break;
-                        }
-                        mAudioEncoder.encodePCM(outData, outData.length);
-                    }
-                } else {
-                    Thread.sleep(5);
+            if (mRecording && mAudioRecord.getState() == AudioRecord.STATE_INITIALIZED) {
+                mAudioRecord.startRecording();
+                // 以开始录音的时间作为音频轨道的起始时间戳
+                mAudioEncoder.setStartTime(System.nanoTime() / 1000);
+                // 录制开始回调
+                if (mRecordListener != null) {
+                    mRecordListener.onRecordStart(MediaType.AUDIO);
                 }
-            }
-
-            // 刷新缓冲区
-            synchronized (this) {
-                if (mAudioTranscoder != null) {
-                    mAudioTranscoder.endOfStream();
-                    ByteBuffer outBuffer = mAudioTranscoder.getOutput();
-                    if (outBuffer != null && outBuffer.hasRemaining()) {
-                        byte[] output = new byte[outBuffer.remaining()];
-                        outBuffer.get(output);
-                        synchronized (this) {
-                            if (mAudioEncoder != null) {
-                                mAudioEncoder.encodePCM(output, output.length);
-                            }
-                        }
-                    }
-                }
-                if (mAudioEncoder != null) {
-                    mAudioEncoder.encodePCM(null, -1);
-                }
-            }
-            if (mAudioEncoder != null) {
-                duration = mAudioEncoder.getDuration();
+                duration = record();
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -214,4 +184,94 @@ public final class AudioRecorder implements Runnable {
         }
     }
 
+    /**
+     * 录制编码，采集在当前线程，转码和编码在编码线程，两者通过缓冲块交接
+     * @return 编码时长
+     * @throws InterruptedException
+     */
+    private long record() throws InterruptedException {
+        final AudioPipeline pipeline = new AudioPipeline(minBufferSize, PIPELINE_BLOCK_COUNT);
+        mPipeline = pipeline;
+        // 管线创建之前已经停止录制
+        if (!mRecording) {
+            pipeline.stop();
+        }
+        Thread encodeThread = new Thread(() -> pipeline.drain(mPcmConsumer), "AudioEncodeThread");
+        encodeThread.start();
+        final AudioRecord audioRecord = mAudioRecord;
+        pipeline.capture((buffer, size) -> audioRecord.read(buffer, size));
+        encodeThread.join();
+
+        Log.d(TAG, "record: audio blocks - " + pipeline.getBlockCount()
+                + ", overrun - " + pipeline.getOverrunCount()
+                + ", underrun - " + pipeline.getUnderrunCount()
+                + ", dropped - " + mAudioEncoder.getDroppedCount()
+                + ", average latency - " + pipeline.getAverageLatency() + " ms"
+                + ", max latency - " + pipeline.getMaxLatency() + " ms");
+        return mAudioEncoder.getDuration();
+    }
+
+    /**
+     * 编码线程中处理PCM数据，倍速时先经过转码器，否则直接送入编码器
+     */
+    private final AudioPipeline.PcmConsumer mPcmConsumer = new AudioPipeline.PcmConsumer() {
+        @Override
+        public void onPcm(ByteBuffer data, ShortBuffer samples) {
+            if (mAudioTranscoder.isActive()) {
+                mAudioTranscoder.queueInput(samples);
+                ByteBuffer output = mAudioTranscoder.getOutput();
+                if (output.hasRemaining()) {
+                    mAudioEncoder.encodePCM(output);
+                }
+            } else {
+                mAudioEncoder.encodePCM(data);
+            }
+        }
+
+        @Override
+        public void onEndOfStream() {
+            // 刷新缓冲区
+            if (mAudioTranscoder.isActive()) {
+                mAudioTranscoder.endOfStream();
+                ByteBuffer output = mAudioTranscoder.getOutput();
+                if (output.hasRemaining()) {
+                    mAudioEncoder.encodePCM(output);
+                }
+            }
+            mAudioEncoder.encodePCM(null, -1);
+        }
+    };
+
+    /**
+     * 录音溢出次数，编码跟不上采集时增加
+     */
+    public long getOverrunCount() {
+        AudioPipeline pipeline = mPipeline;
+        return pipeline != null ? pipeline.getOverrunCount() : 0;
+    }
+
+    /**
+     * 录音欠载次数，录音器没有读到数据时增加
+     */
+    public long getUnderrunCount() {
+        AudioPipeline pipeline = mPipeline;
+        return pipeline != null ? pipeline.getUnderrunCount() : 0;
+    }
+
+    /**
+     * 编码器丢弃的数据块数量，等待编码器输入缓冲超时时增加
+     */
+    public long getDroppedCount() {
+        AudioEncoder encoder = mAudioEncoder;
+        return encoder != null ? encoder.getDroppedCount() : 0;
+    }
+
+    /**
+     * 从读入PCM到编码完成的平均延时(毫秒)
+     */
+    public float getAverageLatency() {
+        AudioPipeline pipeline = mPipeline;
+        return pipeline != null ? pipeline.getAverageLatency() : 0;
+    }
+
 }
@@ -216,12 +216,34 @@ public final class AudioTranscoder {
      */
     public void queueInput(ByteBuffer inputBuffer) {
         if (inputBuffer.hasRemaining()) {
-            ShortBuffer shortBuffer = inputBuffer.asShortBuffer();
             int inputSize = inputBuffer.remaining();
-            inputBytes += inputSize;
-            sonic.queueInput(shortBuffer);
+            queueInput(inputBuffer.asShortBuffer());
             inputBuffer.position(inputBuffer.position() + inputSize);
+        } else {
+            drainSonicOutput();
         }
+    }
+
+    /**
+     * Queues 16-bit samples between the position and limit of {@code samples}. Unlike
+     * {@link #queueInput(ByteBuffer)} this does not create a view of the input, so callers that
+     * keep a cached {@link ShortBuffer} per input block can queue audio without allocating. The
+     * position of {@code samples} will be advanced to its limit.
+     *
+     * @param samples The samples to process.
+     */
+    public void queueInput(ShortBuffer samples) {
+        if (samples.hasRemaining()) {
+            inputBytes += samples.remaining() * 2;
+            sonic.queueInput(samples);
+        }
+        drainSonicOutput();
+    }
+
+    /**
+     * Moves the samples available from sonic into the output buffer.
+     */
+    private void drainSonicOutput() {
         int outputSize = sonic.getSamplesAvailable() * channelCount * 2;
         if (outputSize > 0) {
             if (buffer.capacity() < outputSize) {
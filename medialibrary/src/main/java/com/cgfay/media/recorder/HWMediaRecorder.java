@@ -2,8 +2,11 @@ package com.cgfay.media.recorder;
 
 import android.util.Log;
 
+import java.io.IOException;
+
 /**
  * 媒体录制器，支持倍速录制
+ * 音频和视频编码器写入同一个复用器，录制停止时直接得到包含音视频的完整文件，不需要再合并
  * @author CainHuang
  * @date 2019/6/30
  */
@@ -22,6 +25,12 @@ public class HWMediaRecorder implements OnRecordListener {
     private boolean mAudioEnable = true;
     // 打开的录制器个数
     private int mRecorderCount;
+    // 本次录制启动的录制器个数
+    private int mActiveCount;
+    // 已经完成的录制器个数
+    private int mFinishCount;
+    // 视频录制信息
+    private RecordInfo mVideoInfo;
 
     // 处理时长
     private long mProcessTime = 0;
@@ -63,6 +72,15 @@ public class HWMediaRecorder implements OnRecordListener {
         return mAudioEnable;
     }
 
+    /**
+     * 设置编码器是否允许使用MediaCodec异步模式，默认允许，API 23以下始终使用同步模式
+     * @param enable
+     */
+    public void setEnableAsyncEncode(boolean enable) {
+        mVideoRecorder.setAsyncEncode(enable);
+        mAudioRecorder.setAsyncEncode(enable);
+    }
+
     /**
      * 开始录制
      *
@@ -72,14 +90,45 @@ public class HWMediaRecorder implements OnRecordListener {
             Log.d(TAG, " start record");
         }
 
-        mVideoRecorder.startRecord(videoParams);
+        // 音视频共用的复用器，输出到视频路径
+        SharedMediaMuxer muxer;
+        try {
+            muxer = new SharedMediaMuxer(videoParams.getVideoPath(), mAudioEnable ? 2 : 1);
+        } catch (IOException e) {
+            Log.e(TAG, "startRecord: failed to create muxer - " + e.getMessage());
+            if (mRecordStateListener != null) {
+                mRecordStateListener.onRecordError("failed to create muxer: " + e.getMessage());
+            }
+            return;
+        }
+        synchronized (this) {
+            mRecorderCount = 0;
+            mActiveCount = mAudioEnable ? 2 : 1;
+            mFinishCount = 0;
+            mVideoInfo = null;
+        }
+
+        mVideoRecorder.startRecord(videoParams, muxer);
 
         if (mAudioEnable) {
             try {
-                mAudioRecorder.prepare(audioParams);
+                mAudioRecorder.prepare(audioParams, muxer);
                 mAudioRecorder.startRecord();
             } catch (Exception e) {
                 Log.e(TAG, "startRecord: " + e.getMessage());
+                // 录音失败时只录制视频
+                muxer.cancelTrack();
+                boolean started;
+                synchronized (this) {
+                    mActiveCount--;
+                    started = mRecorderCount > 0 && mRecorderCount >= mActiveCount;
+                    if (started) {
+                        mRecorderCount = 0;
+                    }
+                }
+                if (started && mRecordStateListener != null) {
+                    mRecordStateListener.onRecordStart();
+                }
             }
         }
     }
@@ -133,13 +182,16 @@ public class HWMediaRecorder implements OnRecordListener {
      */
     @Override
     public void onRecordStart(MediaType type) {
-        mRecorderCount++;
-        // 允许音频录制，则判断录制器打开的个数大于等于两个，则表示全部都打开了
-        if (!mAudioEnable || (mRecorderCount >= 2)) {
-            if (mRecordStateListener != null) {
-                mRecordStateListener.onRecordStart();
-                mRecorderCount = 0;
+        synchronized (this) {
+            mRecorderCount++;
+            // 启动的录制器全部打开了
+            if (mRecorderCount < mActiveCount) {
+                return;
             }
+            mRecorderCount = 0;
+        }
+        if (mRecordStateListener != null) {
+            mRecordStateListener.onRecordStart();
         }
     }
 
@@ -163,8 +215,21 @@ public class HWMediaRecorder implements OnRecordListener {
      */
     @Override
     public void onRecordFinish(RecordInfo info) {
+        RecordInfo videoInfo;
+        synchronized (this) {
+            if (info.getType() == MediaType.VIDEO) {
+                mVideoInfo = info;
+            }
+            mFinishCount++;
+            // 所有录制器都释放了复用器轨道，文件已经写入完成
+            if (mFinishCount < mActiveCount || mVideoInfo == null) {
+                return;
+            }
+            videoInfo = mVideoInfo;
+            mVideoInfo = null;
+        }
         if (mRecordStateListener != null) {
-            mRecordStateListener.onRecordFinish(info);
+            mRecordStateListener.onRecordFinish(videoInfo);
         }
     }
 }
@@ -15,4 +15,7 @@ public interface OnRecordStateListener {
 
     // 录制结束
     void onRecordFinish(RecordInfo info);
+
+    // 录制出错，没有开始录制
+    void onRecordError(String msg);
 }
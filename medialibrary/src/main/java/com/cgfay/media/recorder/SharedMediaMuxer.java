@@ -0,0 +1,255 @@
+package com.cgfay.media.recorder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * 音视频共用的复用器
+ * 音频编码器和视频编码器写入同一个MP4文件，所有轨道都添加并且都输出了第一帧数据之后才开始写入，
+ * 在此之前的编码数据先缓存起来。各轨道的时间戳使用同一个时钟(System.nanoTime，微秒)，
+ * 以最早的一帧作为起点对齐，所有轨道释放后结束复用，录制停止时即得到完整的文件。
+ */
+final class SharedMediaMuxer {
+
+    private static final String TAG = "SharedMediaMuxer";
+
+    // 等待所有轨道就绪期间最多缓存的数据量，超过后不再等待
+    private static final int MAX_PENDING_BYTES = 2 * 1024 * 1024;
+
+    private final MediaMuxer mMediaMuxer;
+    private final String mPath;
+    // 预期的轨道数量
+    private int mTrackCount;
+    // 已添加的轨道数量
+    private int mAddedCount;
+    // 已释放的轨道数量
+    private int mReleasedCount;
+    private boolean mStarted;
+    private boolean mFinished;
+
+    // 各轨道的第一帧时间戳
+    private final long[] mFirstTimeUs;
+    // 各轨道上一帧写入的时间戳
+    private final long[] mLastTimeUs;
+    // 对齐的起始时间戳，小于0表示还没有确定
+    private long mBaseTimeUs = -1;
+
+    // 所有轨道就绪之前缓存的数据
+    private final ArrayList<PendingSample> mPendingSamples = new ArrayList<>();
+    private int mPendingBytes;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+
+    /**
+     * @param path          输出路径
+     * @param trackCount    轨道数量
+     * @throws IOException
+     */
+    SharedMediaMuxer(String path, int trackCount) throws IOException {
+        mPath = path;
+        mTrackCount = trackCount;
+        mFirstTimeUs = new long[trackCount];
+        mLastTimeUs = new long[trackCount];
+        for (int i = 0; i < trackCount; i++) {
+            mFirstTimeUs[i] = -1;
+            mLastTimeUs[i] = -1;
+        }
+        mMediaMuxer = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    }
+
+    /**
+     * 输出路径
+     */
+    String getPath() {
+        return mPath;
+    }
+
+    /**
+     * 添加轨道，所有轨道添加完成后启动复用器
+     * @param format 编码器输出格式
+     * @return 轨道索引，复用器已经启动或者结束时返回-1
+     */
+    synchronized int addTrack(MediaFormat format) {
+        if (mStarted || mFinished || mAddedCount >= mTrackCount) {
+            Log.w(TAG, "addTrack: muxer already started");
+            return -1;
+        }
+        int track = mMediaMuxer.addTrack(format);
+        mAddedCount++;
+        if (mAddedCount == mTrackCount) {
+            start();
+        }
+        return track;
+    }
+
+    /**
+     * 取消一个还没有添加的轨道，例如录音器启动失败，复用器不再等待该轨道
+     */
+    synchronized void cancelTrack() {
+        if (mStarted || mFinished || mTrackCount <= mAddedCount) {
+            return;
+        }
+        mTrackCount--;
+        if (mTrackCount > 0 && mAddedCount == mTrackCount) {
+            start();
+        }
+        finishIfReleased();
+    }
+
+    /**
+     * 写入编码数据
+     * @param track     轨道索引
+     * @param data      编码数据
+     * @param info      数据信息，时间戳为System.nanoTime时钟下的微秒
+     */
+    synchronized void writeSampleData(int track, ByteBuffer data, MediaCodec.BufferInfo info) {
+        if (mFinished || track < 0 || track >= mFirstTimeUs.length || info.size <= 0) {
+            return;
+        }
+        if (mFirstTimeUs[track] < 0) {
+            mFirstTimeUs[track] = info.presentationTimeUs;
+        }
+        if (mBaseTimeUs < 0) {
+            if (!isReady() && mPendingBytes < MAX_PENDING_BYTES) {
+                queuePendingSample(track, data, info);
+                return;
+            }
+            if (!mStarted) {
+                start();
+            }
+            flushPendingSamples();
+        }
+        writeAligned(track, data, info);
+    }
+
+    /**
+     * 轨道使用结束，所有轨道都结束后停止复用器
+     */
+    synchronized void releaseTrack() {
+        mReleasedCount++;
+        finishIfReleased();
+    }
+
+    /**
+     * 所有轨道都已添加并且都输出了第一帧
+     */
+    private boolean isReady() {
+        if (!mStarted) {
+            return false;
+        }
+        for (int i = 0; i < mTrackCount; i++) {
+            if (mFirstTimeUs[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void start() {
+        if (mStarted || mAddedCount == 0) {
+            return;
+        }
+        mMediaMuxer.start();
+        mStarted = true;
+    }
+
+    /**
+     * 以各轨道最早的一帧作为起点，写入缓存的数据
+     */
+    private void flushPendingSamples() {
+        long base = Long.MAX_VALUE;
+        for (int i = 0; i < mTrackCount; i++) {
+            if (mFirstTimeUs[i] >= 0 && mFirstTimeUs[i] < base) {
+                base = mFirstTimeUs[i];
+            }
+        }
+        mBaseTimeUs = base == Long.MAX_VALUE ? 0 : base;
+        for (int i = 0; i < mPendingSamples.size(); i++) {
+            PendingSample sample = mPendingSamples.get(i);
+            mBufferInfo.set(0, sample.data.remaining(), sample.presentationTimeUs, sample.flags);
+            writeAligned(sample.track, sample.data, mBufferInfo);
+        }
+        mPendingSamples.clear();
+        mPendingBytes = 0;
+    }
+
+    /**
+     * 对齐时间戳后写入，同一轨道的时间戳保持递增
+     */
+    private void writeAligned(int track, ByteBuffer data, MediaCodec.BufferInfo info) {
+        long timeUs = Math.max(info.presentationTimeUs - mBaseTimeUs, 0);
+        if (timeUs <= mLastTimeUs[track]) {
+            timeUs = mLastTimeUs[track] + 1;
+        }
+        mLastTimeUs[track] = timeUs;
+        long originTimeUs = info.presentationTimeUs;
+        info.presentationTimeUs = timeUs;
+        try {
+            mMediaMuxer.writeSampleData(track, data, info);
+        } catch (Exception e) {
+            Log.e(TAG, "writeSampleData: " + e.getMessage());
+        } finally {
+            info.presentationTimeUs = originTimeUs;
+        }
+    }
+
+    private void queuePendingSample(int track, ByteBuffer data, MediaCodec.BufferInfo info) {
+        ByteBuffer copy = ByteBuffer.allocateDirect(info.size);
+        int position = data.position();
+        int limit = data.limit();
+        data.position(info.offset);
+        data.limit(info.offset + info.size);
+        copy.put(data);
+        copy.flip();
+        data.limit(limit);
+        data.position(position);
+        mPendingSamples.add(new PendingSample(track, copy, info.presentationTimeUs, info.flags));
+        mPendingBytes += info.size;
+    }
+
+    private void finishIfReleased() {
+        if (mFinished || mReleasedCount < mTrackCount) {
+            return;
+        }
+        mFinished = true;
+        try {
+            // 有轨道没有输出数据时，仍然写入已有的数据
+            if (!mStarted) {
+                start();
+            }
+            if (mStarted && mBaseTimeUs < 0) {
+                flushPendingSamples();
+            }
+            if (mStarted) {
+                mMediaMuxer.stop();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "finish: " + e.getMessage());
+        } finally {
+            mPendingSamples.clear();
+            mMediaMuxer.release();
+        }
+    }
+
+    /**
+     * 缓存的编码数据
+     */
+    private static class PendingSample {
+        final int track;
+        final ByteBuffer data;
+        final long presentationTimeUs;
+        final int flags;
+
+        PendingSample(int track, ByteBuffer data, long presentationTimeUs, int flags) {
+            this.track = track;
+            this.data = data;
+            this.presentationTimeUs = presentationTimeUs;
+            this.flags = flags;
+        }
+    }
+}
@@ -3,8 +3,9 @@ package com.cgfay.media.recorder;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
-import android.media.MediaMuxer;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.util.Log;
 import android.view.Surface;
 
@@ -15,6 +16,8 @@ import java.nio.ByteBuffer;
 
 /**
  * 视频编码器
+ * API 23及以上可以使用MediaCodec.Callback异步模式，编码数据在单独的回调线程中写入复用器，
+ * 录制线程绘制完一帧后不再轮询编码器输出，否则使用同步模式的drainEncoder
  * @author CainHuang
  * @date 2019/6/30
  */
@@ -23,12 +26,16 @@ final class VideoEncoder {
     private static final String TAG = "VideoEncoder";
     private static final boolean VERBOSE = true;
 
+    // 异步模式下等待结束标志的超时时间
+    private static final long EOS_TIMEOUT_MS = 2000;
+
     private Surface mInputSurface;
-    private MediaMuxer mMediaMuxer;
+    private SharedMediaMuxer mMuxer;
     private MediaCodec mMediaCodec;
     private MediaCodec.BufferInfo mBufferInfo;
     private int mTrackIndex;
-    private boolean mMuxerStarted;
+    // 视频轨道是否已经添加到复用器
+    private volatile boolean mTrackAdded;
     private VideoParams mVideoParams;
     private OnEncodingListener mRecordingListener;
     // 录制起始时间戳
@@ -36,12 +43,28 @@ final class VideoEncoder {
     // 记录上一个时间戳
     private long mLastTimeStamp;
     // 录制时长
-    private long mDuration;
+    private volatile long mDuration;
+
+    // 异步模式的回调线程
+    private HandlerThread mCallbackThread;
+    private final Object mEosLock = new Object();
+    // 编码器是否已经输出结束标志或者出错
+    private boolean mOutputDone;
 
     /**
-     * 配置编码器和复用器等参数
+     * 配置编码器和复用器等参数，使用同步模式
      */
     public VideoEncoder(@NonNull VideoParams params, OnEncodingListener listener) throws IOException {
+        this(params, listener, null, false);
+    }
+
+    /**
+     * 配置编码器和复用器等参数
+     * @param muxer         共用的复用器，为null时使用视频路径单独创建复用器
+     * @param asyncEnable   是否允许异步模式，API 23以下始终使用同步模式
+     */
+    public VideoEncoder(@NonNull VideoParams params, OnEncodingListener listener,
+                        SharedMediaMuxer muxer, boolean asyncEnable) throws IOException {
         mVideoParams = params;
         mRecordingListener = listener;
 
@@ -84,16 +107,28 @@ final class VideoEncoder {
         if (VERBOSE) {
             Log.d(TAG, "format: " + format);
         }
+        // 创建复用器
+        mMuxer = muxer != null ? muxer : new SharedMediaMuxer(params.getVideoPath(), 1);
+        mTrackIndex = -1;
+        mTrackAdded = false;
+
         // 创建编码器
         mMediaCodec = MediaCodec.createEncoderByType(VideoParams.MIME_TYPE);
+        if (asyncEnable && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            mCallbackThread = new HandlerThread("VideoEncoderCallback");
+            mCallbackThread.start();
+            mMediaCodec.setCallback(mCodecCallback, new Handler(mCallbackThread.getLooper()));
+        }
         mMediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
         mInputSurface = mMediaCodec.createInputSurface();
         mMediaCodec.start();
+    }
 
-        // 创建复用器
-        mMediaMuxer = new MediaMuxer(params.getVideoPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
-        mTrackIndex = -1;
-        mMuxerStarted = false;
+    /**
+     * 是否处于异步编码模式
+     */
+    public boolean isAsync() {
+        return mCallbackThread != null;
     }
 
     /**
@@ -115,12 +150,14 @@ final class VideoEncoder {
             mMediaCodec.release();
             mMediaCodec = null;
         }
-        if (mMediaMuxer != null) {
-            if (mMuxerStarted) {
-                mMediaMuxer.stop();
-            }
-            mMediaMuxer.release();
-            mMediaMuxer = null;
+        // 所有轨道都释放后复用器才会停止
+        if (mMuxer != null) {
+            mMuxer.releaseTrack();
+            mMuxer = null;
+        }
+        if (mCallbackThread != null) {
+            mCallbackThread.quitSafely();
+            mCallbackThread = null;
         }
     }
 
@@ -134,6 +171,16 @@ final class VideoEncoder {
             Log.d(TAG, "drainEncoder(" + endOfStream + ")");
         }
 
+        // 异步模式下编码数据由回调线程写入，结束时只需要等待结束标志
+        if (mCallbackThread != null) {
+            if (endOfStream) {
+                if (VERBOSE) Log.d(TAG, "sending EOS to encoder");
+                mMediaCodec.signalEndOfInputStream();
+                awaitOutputDone();
+            }
+            return;
+        }
+
         if (endOfStream) {
             if (VERBOSE) Log.d(TAG, "sending EOS to encoder");
             mMediaCodec.signalEndOfInputStream();
@@ -151,7 +198,7 @@ final class VideoEncoder {
             } else if (encoderStatus == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
                 encoderOutputBuffers = mMediaCodec.getOutputBuffers();
             } else if (encoderStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                if (mMuxerStarted) {
+                if (mTrackAdded) {
                     throw new RuntimeException("format changed twice");
                 }
                 MediaFormat newFormat = mMediaCodec.getOutputFormat();
@@ -159,9 +206,8 @@ final class VideoEncoder {
                     Log.d(TAG, "encoder output format changed: " + newFormat.getString(MediaFormat.KEY_MIME));
                 }
                 // 提取视频轨道并打开复用器
-                mTrackIndex = mMediaMuxer.addTrack(newFormat);
-                mMediaMuxer.start();
-                mMuxerStarted = true;
+                mTrackIndex = mMuxer.addTrack(newFormat);
+                mTrackAdded = true;
             } else if (encoderStatus < 0) {
                 Log.w(TAG, "unexpected result from encoder.dequeueOutputBuffer: " +
                         encoderStatus);
@@ -180,30 +226,10 @@ final class VideoEncoder {
                 }
 
                 if (mBufferInfo.size != 0) {
-                    if (!mMuxerStarted) {
+                    if (!mTrackAdded) {
                         throw new RuntimeException("muxer hasn't started");
                     }
-
-                    // 计算录制时钟
-                    if (mLastTimeStamp > 0 && mBufferInfo.presentationTimeUs < mLastTimeStamp) {
-                        mBufferInfo.presentationTimeUs = mLastTimeStamp + 10 * 1000;
-                    }
-                    calculateTimeUs(mBufferInfo);
-                    // adjust the ByteBuffer values to match BufferInfo (not needed?)
-                    encodedData.position(mBufferInfo.offset);
-                    encodedData.limit(mBufferInfo.offset + mBufferInfo.size);
-                    // 将编码数据写入复用器中
-                    mMediaMuxer.writeSampleData(mTrackIndex, encodedData, mBufferInfo);
-                    if (VERBOSE) {
-                        Log.d(TAG, "sent " + mBufferInfo.size + " bytes to muxer, ts=" +
-                                mBufferInfo.presentationTimeUs);
-                    }
-
-                    // 录制时长回调
-                    if (mRecordingListener != null) {
-                        mRecordingListener.onEncoding(mDuration);
-                    }
-
+                    writeSampleData(encodedData, mBufferInfo);
                 }
 
                 mMediaCodec.releaseOutputBuffer(encoderStatus, false);
@@ -222,6 +248,111 @@ final class VideoEncoder {
         }
     }
 
+    /**
+     * 将编码数据写入复用器中
+     * @param encodedData   编码数据
+     * @param info          数据信息
+     */
+    private void writeSampleData(ByteBuffer encodedData, MediaCodec.BufferInfo info) {
+        // 计算录制时钟
+        if (mLastTimeStamp > 0 && info.presentationTimeUs < mLastTimeStamp) {
+            info.presentationTimeUs = mLastTimeStamp + 10 * 1000;
+        }
+        calculateTimeUs(info);
+        // adjust the ByteBuffer values to match BufferInfo (not needed?)
+        encodedData.position(info.offset);
+        encodedData.limit(info.offset + info.size);
+        mMuxer.writeSampleData(mTrackIndex, encodedData, info);
+        if (VERBOSE) {
+            Log.d(TAG, "sent " + info.size + " bytes to muxer, ts=" +
+                    info.presentationTimeUs);
+        }
+
+        // 录制时长回调
+        if (mRecordingListener != null) {
+            mRecordingListener.onEncoding(mDuration);
+        }
+    }
+
+    /**
+     * 等待编码器输出结束标志
+     */
+    private void awaitOutputDone() {
+        synchronized (mEosLock) {
+            long deadline = System.currentTimeMillis() + EOS_TIMEOUT_MS;
+            while (!mOutputDone) {
+                long remain = deadline - System.currentTimeMillis();
+                if (remain <= 0) {
+                    Log.w(TAG, "awaitOutputDone: wait for end of stream timeout");
+                    break;
+                }
+                try {
+                    mEosLock.wait(remain);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void notifyOutputDone() {
+        synchronized (mEosLock) {
+            mOutputDone = true;
+            mEosLock.notifyAll();
+        }
+    }
+
+    /**
+     * 异步模式回调，在回调线程中执行，输入来自Surface，不需要处理输入缓冲
+     */
+    private final MediaCodec.Callback mCodecCallback = new MediaCodec.Callback() {
+
+        @Override
+        public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+            // Surface输入，不会回调
+        }
+
+        @Override
+        public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index,
+                                            @NonNull MediaCodec.BufferInfo info) {
+            ByteBuffer encodedData = codec.getOutputBuffer(index);
+            if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && info.size != 0
+                    && encodedData != null) {
+                if (mTrackAdded) {
+                    writeSampleData(encodedData, info);
+                } else {
+                    Log.w(TAG, "muxer hasn't started, drop frame");
+                }
+            }
+            codec.releaseOutputBuffer(index, false);
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                if (VERBOSE) {
+                    Log.d(TAG, "end of stream reached");
+                }
+                notifyOutputDone();
+            }
+        }
+
+        @Override
+        public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+            Log.e(TAG, "onError: " + e.getMessage());
+            notifyOutputDone();
+        }
+
+        @Override
+        public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+            if (mTrackAdded) {
+                Log.w(TAG, "format changed twice");
+                return;
+            }
+            if (VERBOSE) {
+                Log.d(TAG, "encoder output format changed: " + format.getString(MediaFormat.KEY_MIME));
+            }
+            mTrackIndex = mMuxer.addTrack(format);
+            mTrackAdded = true;
+        }
+    };
+
     /**
      * 计算pts
      * @param info
@@ -56,6 +56,13 @@ public final class VideoRecorder implements Runnable, VideoEncoder.OnEncodingLis
     // 录制监听器
     private OnRecordListener mRecordListener;
 
+    // 是否允许异步编码
+    private boolean mAsyncEncode = true;
+    // 共用的复用器
+    private volatile SharedMediaMuxer mMuxer;
+    // SurfaceTexture时间戳与System.nanoTime的差值，用于和音频轨道对齐
+    private long mClockOffset;
+
     // 倍速录制索引你
     private int mDrawFrameIndex;  // 绘制帧索引，用于表示预览的渲染次数，用于大于1.0倍速录制的丢帧操作
     private long mFirstTime; // 录制开始的时间，方便开始录制
@@ -68,11 +75,28 @@ public final class VideoRecorder implements Runnable, VideoEncoder.OnEncodingLis
         mRecordListener = listener;
     }
 
+    /**
+     * 设置是否允许编码器使用异步模式，下一次开始录制时生效
+     * @param enable
+     */
+    public void setAsyncEncode(boolean enable) {
+        mAsyncEncode = enable;
+    }
+
     /**
      * 开始录制
      * @param params 录制参数
      */
     public void startRecord(VideoParams params) {
+        startRecord(params, null);
+    }
+
+    /**
+     * 开始录制
+     * @param params 录制参数
+     * @param muxer  共用的复用器，为null时单独输出视频文件
+     */
+    void startRecord(VideoParams params, SharedMediaMuxer muxer) {
         if (VERBOSE) {
             Log.d(TAG, "VideoRecorder: startRecord()");
         }
@@ -94,6 +118,8 @@ public final class VideoRecorder implements Runnable, VideoEncoder.OnEncodingLis
 
         mDrawFrameIndex = 0;
         mFirstTime = -1;
+        mClockOffset = Long.MIN_VALUE;
+        mMuxer = muxer;
         mHandler.sendMessage(mHandler.obtainMessage(MSG_START_RECORDING, params));
     }
 
@@ -236,7 +262,7 @@ public final class VideoRecorder implements Runnable, VideoEncoder.OnEncodingLis
         mVertexBuffer = OpenGLUtils.createFloatBuffer(TextureRotationUtils.CubeVertices);
         mTextureBuffer = OpenGLUtils.createFloatBuffer(TextureRotationUtils.TextureVertices);
         try {
-            mVideoEncoder = new VideoEncoder(params, this);
+            mVideoEncoder = new VideoEncoder(params, this, mMuxer, mAsyncEncode);
         } catch (IOException ioe) {
             throw new RuntimeException(ioe);
         }
@@ -336,7 +362,12 @@ public final class VideoRecorder implements Runnable, VideoEncoder.OnEncodingLis
     private long getPTS(long timestampNanos) {
         SpeedMode mode = mVideoEncoder.getVideoParams().getSpeedMode();
         if (mode == SpeedMode.MODE_NORMAL) { // 正常录制的时候，使用SurfaceTexture传递过来的时间戳
-            return timestampNanos;
+            // 部分设备的SurfaceTexture时间戳不是System.nanoTime的时钟，换算到同一时钟，差值很小时认为是同一时钟
+            if (mClockOffset == Long.MIN_VALUE) {
+                long offset = System.nanoTime() - timestampNanos;
+                mClockOffset = Math.abs(offset) < 1000000000L ? 0 : offset;
+            }
+            return timestampNanos + mClockOffset;
         } else { // 倍速状态下，需要根据帧间间隔来算实际的时间戳
             long time = System.nanoTime();
             if (mFirstTime <= 0) {
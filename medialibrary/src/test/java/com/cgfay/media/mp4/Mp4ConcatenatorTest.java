@@ -0,0 +1,524 @@
+package com.cgfay.media.mp4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * MP4片段拼接测试
+ * 生成与MediaMuxer输出结构相同的MP4片段(mdat在前，moov在后)，拼接后按采样表读出每一帧数据和原始数据比较
+ */
+public class Mp4ConcatenatorTest {
+
+    private static final int VIDEO_TIMESCALE = 90000;
+    private static final int AUDIO_TIMESCALE = 44100;
+    private static final int MOVIE_TIMESCALE = 1000;
+
+    private File mFolder;
+
+    @Before
+    public void setUp() throws IOException {
+        mFolder = File.createTempFile("mp4", "");
+        assertTrue(mFolder.delete());
+        assertTrue(mFolder.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mFolder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mFolder.delete();
+    }
+
+    @Test
+    public void concatKeepsEverySampleAndTable() throws IOException {
+        List<Fixture> fixtures = new ArrayList<>();
+        fixtures.add(new Fixture(0, 50, 86, false, false, 0));
+        // 音频采样大小固定、使用co64的片段
+        fixtures.add(new Fixture(1, 40, 70, true, true, 0));
+        // 视频开头带空白编辑的片段
+        fixtures.add(new Fixture(2, 30, 52, false, false, 20));
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < fixtures.size(); i++) {
+            File file = new File(mFolder, "segment_" + i + ".mp4");
+            fixtures.get(i).write(file);
+            paths.add(file.getPath());
+        }
+        File output = new File(mFolder, "output.mp4");
+        Mp4Concatenator.concat(paths, output.getPath());
+
+        List<Mp4Box> boxes = readTopLevel(output);
+        assertEquals("ftyp", boxes.get(0).type);
+        // moov在mdat之前
+        assertEquals("moov", boxes.get(1).type);
+        assertEquals("mdat", boxes.get(2).type);
+
+        Mp4Box moov = boxes.get(1);
+        List<Mp4Box> traks = moov.childrenOf("trak");
+        assertEquals(2, traks.size());
+        RandomAccessFile file = new RandomAccessFile(output, "r");
+        try {
+            for (int t = 0; t < 2; t++) {
+                Mp4Track track = new Mp4Track(traks.get(t));
+                List<byte[]> expected = new ArrayList<>();
+                for (Fixture fixture : fixtures) {
+                    expected.addAll(fixture.samples[t]);
+                }
+                assertEquals(expected.size(), track.sampleCount);
+                long[] offsets = sampleOffsets(track);
+                for (int i = 0; i < expected.size(); i++) {
+                    byte[] data = new byte[track.getSampleSize(i)];
+                    file.seek(offsets[i]);
+                    file.readFully(data);
+                    assertArrayEquals("track " + t + " sample " + i, expected.get(i), data);
+                }
+            }
+        } finally {
+            file.close();
+        }
+
+        // 视频关键帧编号按片段偏移
+        Mp4Track video = new Mp4Track(traks.get(0));
+        List<Integer> expectedSync = new ArrayList<>();
+        int base = 0;
+        for (Fixture fixture : fixtures) {
+            for (int i = 0; i < fixture.videoCount; i += Fixture.GOP) {
+                expectedSync.add(base + i + 1);
+            }
+            base += fixture.videoCount;
+        }
+        assertEquals(expectedSync.size(), video.syncSamples.length);
+        for (int i = 0; i < expectedSync.size(); i++) {
+            assertEquals((int) expectedSync.get(i), video.syncSamples[i]);
+        }
+        // ctts条目数量与采样数一致
+        long compositionSamples = 0;
+        for (int count : video.compositionCounts) {
+            compositionSamples += count;
+        }
+        assertEquals(video.sampleCount, compositionSamples);
+        // 第一个片段没有空白编辑，输出不需要编辑列表
+        assertNull(traks.get(0).child("edts"));
+
+        // 音频片段之间按视频时长对齐，总时长与各片段最长轨道之和一致
+        Mp4Track audio = new Mp4Track(traks.get(1));
+        long expectedUs = 0;
+        for (Fixture fixture : fixtures) {
+            expectedUs += fixture.getDurationUs();
+        }
+        long audioEndUs = audio.getMediaDuration() * 1000000L / AUDIO_TIMESCALE;
+        long videoEndUs = video.getMediaDuration() * 1000000L / VIDEO_TIMESCALE;
+        long lastFixture = fixtures.get(fixtures.size() - 1).getDurationUs();
+        assertTrue("video " + videoEndUs + " expected " + expectedUs,
+                Math.abs(videoEndUs - expectedUs) <= lastFixture);
+        assertTrue("audio " + audioEndUs + " video " + videoEndUs, Math.abs(audioEndUs - videoEndUs) < 50000);
+
+        // 第三个片段的音频从视频空白编辑之前开始，对齐后不应该累积误差
+        long segmentStartUs = fixtures.get(0).getDurationUs() + fixtures.get(1).getDurationUs();
+        int audioBefore = fixtures.get(0).audioCount + fixtures.get(1).audioCount;
+        long audioStartUs = sampleTimeUs(audio, audioBefore, AUDIO_TIMESCALE);
+        assertTrue("audio segment start " + audioStartUs + " expected " + segmentStartUs,
+                Math.abs(audioStartUs - segmentStartUs) < 1000);
+        int videoBefore = fixtures.get(0).videoCount + fixtures.get(1).videoCount;
+        long videoStartUs = sampleTimeUs(video, videoBefore, VIDEO_TIMESCALE);
+        assertTrue("video segment start " + videoStartUs,
+                Math.abs(videoStartUs - segmentStartUs - 20000) < 1000);
+
+        Mp4Box mvhd = moov.child("mvhd");
+        long movieDuration = ByteBuffer.wrap(mvhd.data).getInt(16) & 0xFFFFFFFFL;
+        assertEquals(Math.max(videoEndUs, audioEndUs) / 1000, movieDuration, 2);
+    }
+
+    @Test
+    public void incompatibleSegmentsAreRejected() throws IOException {
+        File first = new File(mFolder, "first.mp4");
+        File second = new File(mFolder, "second.mp4");
+        new Fixture(0, 20, 30, false, false, 0).write(first);
+        Fixture fixture = new Fixture(1, 20, 30, false, false, 0);
+        // 不同的编码参数
+        fixture.videoDescription[fixture.videoDescription.length - 1] ^= 0x5A;
+        fixture.write(second);
+        File output = new File(mFolder, "output.mp4");
+        try {
+            Mp4Concatenator.concat(Arrays.asList(first.getPath(), second.getPath()), output.getPath());
+            fail("incompatible segments should be rejected");
+        } catch (IOException e) {
+            // 调用方回退到FFmpeg拼接
+        }
+        assertFalse(output.exists());
+    }
+
+    @Test
+    public void concatTenSegments() throws IOException {
+        // 10段，每段6秒，码率约6Mbps
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            File file = new File(mFolder, "segment_" + i + ".mp4");
+            new Fixture(i, 150, 259, false, false, 0, 30000).write(file);
+            paths.add(file.getPath());
+        }
+        File output = new File(mFolder, "output.mp4");
+        Mp4Concatenator.concat(paths, output.getPath());
+        long inputSize = 0;
+        for (String path : paths) {
+            inputSize += new File(path).length();
+        }
+        assertTrue(output.length() > inputSize - 10 * 4096);
+    }
+
+    /**
+     * 根据stsc/stco/stsz计算每个采样在文件中的偏移
+     */
+    private static long[] sampleOffsets(Mp4Track track) {
+        long[] offsets = new long[track.sampleCount];
+        int sample = 0;
+        for (int chunk = 0; chunk < track.chunkOffsets.length; chunk++) {
+            int entry = 0;
+            while (entry + 1 < track.chunkFirsts.length && track.chunkFirsts[entry + 1] <= chunk + 1) {
+                entry++;
+            }
+            long offset = track.chunkOffsets[chunk];
+            for (int i = 0; i < track.chunkSamples[entry] && sample < offsets.length; i++) {
+                offsets[sample] = offset;
+                offset += track.getSampleSize(sample);
+                sample++;
+            }
+        }
+        assertEquals(track.sampleCount, sample);
+        return offsets;
+    }
+
+    /**
+     * 采样的解码时间(微秒)
+     */
+    private static long sampleTimeUs(Mp4Track track, int index, int timescale) {
+        long time = 0;
+        int sample = 0;
+        for (int i = 0; i < track.timeCounts.length && sample < index; i++) {
+            int count = Math.min(track.timeCounts[i], index - sample);
+            time += (long) count * track.timeDeltas[i];
+            sample += count;
+        }
+        return time * 1000000L / timescale;
+    }
+
+    private static List<Mp4Box> readTopLevel(File file) throws IOException {
+        RandomAccessFile accessFile = new RandomAccessFile(file, "r");
+        try {
+            List<Mp4Box> boxes = new ArrayList<>();
+            long position = 0;
+            while (position < accessFile.length()) {
+                accessFile.seek(position);
+                long size = accessFile.readInt() & 0xFFFFFFFFL;
+                byte[] type = new byte[4];
+                accessFile.readFully(type);
+                String name = new String(type, "US-ASCII");
+                if (name.equals("mdat")) {
+                    boxes.add(new Mp4Box(name, new byte[0]));
+                } else {
+                    byte[] data = new byte[(int) size];
+                    accessFile.seek(position);
+                    accessFile.readFully(data);
+                    boxes.add(Mp4Box.parse(ByteBuffer.wrap(data)).get(0));
+                }
+                position += size;
+            }
+            return boxes;
+        } finally {
+            accessFile.close();
+        }
+    }
+
+    /**
+     * 生成的MP4片段，视频轨道和音频轨道交错写入mdat
+     */
+    private static class Fixture {
+
+        static final int GOP = 10;
+        static final int VIDEO_DELTA = VIDEO_TIMESCALE / 25;
+        static final int AUDIO_DELTA = 1024;
+        static final int VIDEO_PER_CHUNK = 3;
+        static final int AUDIO_PER_CHUNK = 5;
+        static final int AUDIO_CONSTANT_SIZE = 371;
+
+        final int videoCount;
+        final int audioCount;
+        final boolean constantAudio;
+        final boolean largeOffset;
+        // 视频开头的空白(毫秒)
+        final int emptyEditMs;
+        final byte[] videoDescription = avcDescription();
+        final byte[] audioDescription = mp4aDescription();
+        @SuppressWarnings("unchecked")
+        final List<byte[]>[] samples = new List[] {new ArrayList<byte[]>(), new ArrayList<byte[]>()};
+
+        Fixture(int seed, int videoCount, int audioCount, boolean constantAudio, boolean largeOffset,
+                int emptyEditMs) {
+            this(seed, videoCount, audioCount, constantAudio, largeOffset, emptyEditMs, 1200);
+        }
+
+        Fixture(int seed, int videoCount, int audioCount, boolean constantAudio, boolean largeOffset,
+                int emptyEditMs, int averageVideoSize) {
+            this.videoCount = videoCount;
+            this.audioCount = audioCount;
+            this.constantAudio = constantAudio;
+            this.largeOffset = largeOffset;
+            this.emptyEditMs = emptyEditMs;
+            Random random = new Random(seed);
+            for (int i = 0; i < videoCount; i++) {
+                int size = (i % GOP == 0 ? averageVideoSize * 4 : averageVideoSize / 2)
+                        + random.nextInt(averageVideoSize / 2);
+                samples[0].add(sample(random, size));
+            }
+            for (int i = 0; i < audioCount; i++) {
+                int size = constantAudio ? AUDIO_CONSTANT_SIZE : 300 + random.nextInt(100);
+                samples[1].add(sample(random, size));
+            }
+        }
+
+        long getDurationUs() {
+            long video = emptyEditMs * 1000L + getVideoTicks() * 1000000L / VIDEO_TIMESCALE;
+            long audio = (long) audioCount * AUDIO_DELTA * 1000000L / AUDIO_TIMESCALE;
+            return Math.max(video, audio);
+        }
+
+        /**
+         * 帧间隔有少量抖动
+         */
+        static int videoDelta(int index) {
+            return VIDEO_DELTA + (index % 3 == 0 ? 0 : (index % 3 == 1 ? 90 : -90));
+        }
+
+        long getVideoTicks() {
+            long ticks = 0;
+            for (int i = 0; i < videoCount; i++) {
+                ticks += videoDelta(i);
+            }
+            return ticks;
+        }
+
+        void write(File file) throws IOException {
+            // mdat，按分块交错写入
+            List<long[]> videoChunks = new ArrayList<>();
+            List<long[]> audioChunks = new ArrayList<>();
+            ByteBuffer ftyp = ByteBuffer.allocate(16);
+            ftyp.put("mp42".getBytes("US-ASCII")).putInt(0).put("isommp42".getBytes("US-ASCII"));
+            Mp4Box ftypBox = new Mp4Box("ftyp", ftyp.array());
+            long position = ftypBox.size() + 8;
+            ByteArrayOutputStream mdat = new ByteArrayOutputStream();
+            int video = 0;
+            int audio = 0;
+            while (video < videoCount || audio < audioCount) {
+                if (video < videoCount) {
+                    videoChunks.add(new long[] {position});
+                    for (int i = 0; i < VIDEO_PER_CHUNK && video < videoCount; i++, video++) {
+                        byte[] data = samples[0].get(video);
+                        mdat.write(data);
+                        position += data.length;
+                    }
+                }
+                if (audio < audioCount) {
+                    audioChunks.add(new long[] {position});
+                    for (int i = 0; i < AUDIO_PER_CHUNK && audio < audioCount; i++, audio++) {
+                        byte[] data = samples[1].get(audio);
+                        mdat.write(data);
+                        position += data.length;
+                    }
+                }
+            }
+
+            List<Mp4Box> moovChildren = new ArrayList<>();
+            long videoDurationMs = emptyEditMs + getVideoTicks() * 1000 / VIDEO_TIMESCALE;
+            long audioDurationMs = (long) audioCount * AUDIO_DELTA * 1000 / AUDIO_TIMESCALE;
+            moovChildren.add(new Mp4Box("mvhd", header(100, MOVIE_TIMESCALE, Math.max(videoDurationMs, audioDurationMs))));
+            moovChildren.add(trak(1, "vide", videoDescription, VIDEO_TIMESCALE, videoDurationMs,
+                    getVideoTicks(), videoTables(videoChunks)));
+            moovChildren.add(trak(2, "soun", audioDescription, AUDIO_TIMESCALE, audioDurationMs,
+                    (long) audioCount * AUDIO_DELTA, audioTables(audioChunks)));
+            Mp4Box moov = new Mp4Box("moov", moovChildren);
+
+            FileOutputStream outputStream = new FileOutputStream(file);
+            try {
+                outputStream.write(ftypBox.toByteArray());
+                ByteBuffer header = ByteBuffer.allocate(8);
+                header.putInt(mdat.size() + 8).put("mdat".getBytes("US-ASCII"));
+                outputStream.write(header.array());
+                mdat.writeTo(outputStream);
+                outputStream.write(moov.toByteArray());
+            } finally {
+                outputStream.close();
+            }
+        }
+
+        private Mp4Box trak(int id, String handler, byte[] description, int timescale, long durationMs,
+                            long mediaDuration, List<Mp4Box> tables) {
+            ByteBuffer tkhd = ByteBuffer.allocate(84);
+            tkhd.putInt(7).putInt(0).putInt(0).putInt(id).putInt(0).putInt((int) durationMs);
+            ByteBuffer hdlr = ByteBuffer.allocate(25);
+            hdlr.putInt(0).putInt(0).put(ascii(handler)).putInt(0).putInt(0).putInt(0).put((byte) 0);
+
+            List<Mp4Box> stbl = new ArrayList<>();
+            stbl.add(new Mp4Box("stsd", description));
+            stbl.addAll(tables);
+            List<Mp4Box> minf = new ArrayList<>();
+            minf.add(new Mp4Box(handler.equals("vide") ? "vmhd" : "smhd", new byte[handler.equals("vide") ? 12 : 8]));
+            minf.add(new Mp4Box("dinf", new ArrayList<>(Arrays.asList(
+                    new Mp4Box("dref", new byte[] {0, 0, 0, 0, 0, 0, 0, 1, 0, 0, 0, 12, 'u', 'r', 'l', ' ', 0, 0, 0, 1})))));
+            minf.add(new Mp4Box("stbl", stbl));
+            List<Mp4Box> mdia = new ArrayList<>();
+            mdia.add(new Mp4Box("mdhd", header(100, timescale, mediaDuration)));
+            mdia.add(new Mp4Box("hdlr", hdlr.array()));
+            mdia.add(new Mp4Box("minf", minf));
+
+            List<Mp4Box> trak = new ArrayList<>();
+            trak.add(new Mp4Box("tkhd", tkhd.array()));
+            if (handler.equals("vide") && emptyEditMs > 0) {
+                ByteBuffer elst = ByteBuffer.allocate(32);
+                elst.putInt(0).putInt(2);
+                elst.putInt(emptyEditMs).putInt(-1).putInt(0x00010000);
+                elst.putInt((int) (durationMs - emptyEditMs)).putInt(0).putInt(0x00010000);
+                trak.add(new Mp4Box("edts", new ArrayList<>(Arrays.asList(new Mp4Box("elst", elst.array())))));
+            }
+            trak.add(new Mp4Box("mdia", mdia));
+            return new Mp4Box("trak", trak);
+        }
+
+        private List<Mp4Box> videoTables(List<long[]> chunks) {
+            List<Mp4Box> boxes = new ArrayList<>();
+            ByteBuffer stts = fullBox(4 + videoCount * 8);
+            stts.putInt(videoCount);
+            for (int i = 0; i < videoCount; i++) {
+                stts.putInt(1).putInt(videoDelta(i));
+            }
+            boxes.add(new Mp4Box("stts", stts.array()));
+            // ctts
+            ByteBuffer ctts = fullBox(4 + videoCount * 8);
+            ctts.putInt(videoCount);
+            for (int i = 0; i < videoCount; i++) {
+                ctts.putInt(1).putInt(i % 2 == 0 ? VIDEO_DELTA : 0);
+            }
+            boxes.add(new Mp4Box("ctts", ctts.array()));
+            // stss
+            int syncCount = (videoCount + GOP - 1) / GOP;
+            ByteBuffer stss = fullBox(4 + syncCount * 4);
+            stss.putInt(syncCount);
+            for (int i = 0; i < videoCount; i += GOP) {
+                stss.putInt(i + 1);
+            }
+            boxes.add(new Mp4Box("stss", stss.array()));
+            boxes.add(stsc(VIDEO_PER_CHUNK, videoCount));
+            boxes.add(stsz(samples[0], false));
+            boxes.add(chunkOffsets(chunks));
+            return boxes;
+        }
+
+        private List<Mp4Box> audioTables(List<long[]> chunks) {
+            List<Mp4Box> boxes = new ArrayList<>();
+            ByteBuffer stts = fullBox(12);
+            stts.putInt(1).putInt(audioCount).putInt(AUDIO_DELTA);
+            boxes.add(new Mp4Box("stts", stts.array()));
+            boxes.add(stsc(AUDIO_PER_CHUNK, audioCount));
+            boxes.add(stsz(samples[1], constantAudio));
+            boxes.add(chunkOffsets(chunks));
+            return boxes;
+        }
+
+        private Mp4Box stsc(int perChunk, int count) {
+            int last = count % perChunk;
+            int chunks = (count + perChunk - 1) / perChunk;
+            int entries = last == 0 ? 1 : 2;
+            ByteBuffer stsc = fullBox(4 + entries * 12);
+            stsc.putInt(entries);
+            stsc.putInt(1).putInt(perChunk).putInt(1);
+            if (last != 0) {
+                stsc.putInt(chunks).putInt(last).putInt(1);
+            }
+            return new Mp4Box("stsc", stsc.array());
+        }
+
+        private Mp4Box stsz(List<byte[]> list, boolean constant) {
+            if (constant) {
+                ByteBuffer stsz = fullBox(8);
+                stsz.putInt(AUDIO_CONSTANT_SIZE).putInt(list.size());
+                return new Mp4Box("stsz", stsz.array());
+            }
+            ByteBuffer stsz = fullBox(8 + list.size() * 4);
+            stsz.putInt(0).putInt(list.size());
+            for (byte[] data : list) {
+                stsz.putInt(data.length);
+            }
+            return new Mp4Box("stsz", stsz.array());
+        }
+
+        private Mp4Box chunkOffsets(List<long[]> chunks) {
+            ByteBuffer buffer = fullBox(4 + chunks.size() * (largeOffset ? 8 : 4));
+            buffer.putInt(chunks.size());
+            for (long[] chunk : chunks) {
+                if (largeOffset) {
+                    buffer.putLong(chunk[0]);
+                } else {
+                    buffer.putInt((int) chunk[0]);
+                }
+            }
+            return new Mp4Box(largeOffset ? "co64" : "stco", buffer.array());
+        }
+
+        private static byte[] header(int time, int timescale, long duration) {
+            ByteBuffer buffer = ByteBuffer.allocate(100);
+            buffer.putInt(0).putInt(time).putInt(time).putInt(timescale).putInt((int) duration);
+            return buffer.array();
+        }
+
+        private static ByteBuffer fullBox(int size) {
+            ByteBuffer buffer = ByteBuffer.allocate(4 + size);
+            buffer.putInt(0);
+            return buffer;
+        }
+
+        private static byte[] sample(Random random, int size) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            return data;
+        }
+
+        private static byte[] avcDescription() {
+            ByteBuffer buffer = ByteBuffer.allocate(40);
+            buffer.putInt(0).putInt(1).putInt(32).put(ascii("avc1"));
+            for (int i = 0; i < 24; i++) {
+                buffer.put((byte) i);
+            }
+            return buffer.array();
+        }
+
+        private static byte[] mp4aDescription() {
+            ByteBuffer buffer = ByteBuffer.allocate(36);
+            buffer.putInt(0).putInt(1).putInt(28).put(ascii("mp4a"));
+            for (int i = 0; i < 20; i++) {
+                buffer.put((byte) (i * 3));
+            }
+            return buffer.array();
+        }
+
+        private static byte[] ascii(String value) {
+            return value.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.cgfay.media.recorder;
+
+import android.media.AudioFormat;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * 音频采集管线测试
+ * 使用模拟的PCM数据源代替AudioRecord，验证数据按顺序完整送达，并且稳定运行后每块数据不分配内存
+ */
+public class AudioPipelineTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    // 20ms单声道16位
+    private static final int BLOCK_SIZE = SAMPLE_RATE * 2 / 50;
+
+    @Test
+    public void blocksArriveInOrderWhenConsumerIsSlow() throws Exception {
+        final int blockCount = 200;
+        AudioPipeline pipeline = new AudioPipeline(BLOCK_SIZE, 4);
+        final CountingSource source = new CountingSource(blockCount);
+        final long[] received = new long[1];
+        final boolean[] ordered = { true };
+        final boolean[] ended = new boolean[1];
+        Thread drainThread = new Thread(() -> pipeline.drain(new AudioPipeline.PcmConsumer() {
+            @Override
+            public void onPcm(ByteBuffer data, ShortBuffer samples) {
+                while (samples.hasRemaining()) {
+                    if (samples.get() != (short) received[0]) {
+                        ordered[0] = false;
+                    }
+                    received[0]++;
+                }
+                // 模拟编码偶尔变慢
+                if (received[0] % 20 == 0) {
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                }
+            }
+
+            @Override
+            public void onEndOfStream() {
+                ended[0] = true;
+            }
+        }));
+        drainThread.start();
+        pipeline.capture(source);
+        drainThread.join(10000);
+
+        assertTrue(ended[0]);
+        assertTrue(ordered[0]);
+        assertEquals((long) blockCount * BLOCK_SIZE / 2, received[0]);
+        assertEquals(blockCount, pipeline.getBlockCount());
+        assertTrue("overrun " + pipeline.getOverrunCount(), pipeline.getOverrunCount() > 0);
+        assertTrue(pipeline.getMaxLatency() > 0);
+    }
+
+    @Test
+    public void steadyStateDoesNotAllocatePerBlock() throws Exception {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        final int warmUpBlocks = 500;
+        final int measuredBlocks = 5000;
+        final AudioPipeline pipeline = new AudioPipeline(BLOCK_SIZE, 8);
+        // 倍速转码，和录制时的处理路径一致
+        final AudioTranscoder transcoder = new AudioTranscoder();
+        transcoder.setSpeed(2.0f);
+        transcoder.configure(SAMPLE_RATE, 1, AudioFormat.ENCODING_PCM_16BIT);
+        transcoder.setOutputSampleRateHz(SAMPLE_RATE);
+        transcoder.flush();
+
+        final long[] captureAllocated = new long[2];
+        final long[] drainAllocated = new long[2];
+        final long[] output = new long[1];
+        final CountingSource source = new CountingSource(warmUpBlocks + measuredBlocks) {
+            @Override
+            public int read(ByteBuffer buffer, int size) {
+                if (mReadCount == warmUpBlocks) {
+                    captureAllocated[0] = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                } else if (mReadCount == warmUpBlocks + measuredBlocks) {
+                    captureAllocated[1] = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                }
+                return super.read(buffer, size);
+            }
+        };
+        Thread drainThread = new Thread(() -> pipeline.drain(new AudioPipeline.PcmConsumer() {
+            private int mBlocks;
+
+            @Override
+            public void onPcm(ByteBuffer data, ShortBuffer samples) {
+                if (mBlocks == warmUpBlocks) {
+                    drainAllocated[0] = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                }
+                mBlocks++;
+                transcoder.queueInput(samples);
+                ByteBuffer buffer = transcoder.getOutput();
+                output[0] += buffer.remaining();
+                buffer.position(buffer.limit());
+            }
+
+            @Override
+            public void onEndOfStream() {
+                drainAllocated[1] = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }));
+        drainThread.start();
+        pipeline.capture(source);
+        drainThread.join(10000);
+
+        assertEquals(warmUpBlocks + measuredBlocks, pipeline.getBlockCount());
+        // 2倍速输出大约为输入的一半
+        long input = (long) (warmUpBlocks + measuredBlocks) * BLOCK_SIZE;
+        assertTrue("output " + output[0], Math.abs(output[0] - input / 2) < input / 20);
+
+        long capture = captureAllocated[1] - captureAllocated[0];
+        long drain = drainAllocated[1] - drainAllocated[0];
+        // 允许测量本身带来的少量误差，远小于每块一个对象
+        assertTrue("capture allocated " + capture + " bytes", capture < 4096);
+        assertTrue("drain allocated " + drain + " bytes", drain < 4096);
+    }
+
+    /**
+     * 模拟的PCM数据源，采样值为递增的序号
+     */
+    private static class CountingSource implements AudioPipeline.PcmSource {
+
+        private final int mBlockCount;
+        protected int mReadCount;
+        private short mSample;
+
+        CountingSource(int blockCount) {
+            mBlockCount = blockCount;
+        }
+
+        @Override
+        public int read(ByteBuffer buffer, int size) {
+            if (mReadCount >= mBlockCount) {
+                return -1;
+            }
+            mReadCount++;
+            for (int i = 0; i + 1 < size; i += 2) {
+                buffer.putShort(i, mSample++);
+            }
+            return size;
+        }
+    }
+}